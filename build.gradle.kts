@@ -3,6 +3,7 @@ plugins {
     java
     pmd
     alias(libs.plugins.gatling)
+    alias(libs.plugins.jmh)
     alias(libs.plugins.openapi.doc)
     alias(libs.plugins.openapi.generator)
     alias(libs.plugins.owasp)
@@ -14,8 +15,8 @@ group = "awt"
 version = "0.0.1-SNAPSHOT"
 
 java {
-    sourceCompatibility = JavaVersion.VERSION_17
-    targetCompatibility = JavaVersion.VERSION_17
+    sourceCompatibility = JavaVersion.VERSION_21
+    targetCompatibility = JavaVersion.VERSION_21
 }
 
 configurations.configureEach {
@@ -36,15 +37,22 @@ dependencies {
     implementation(platform(libs.opentelemetry.bom))
     implementation(platform(libs.spring.cloud.bom))
 
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-cbor")
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile")
+    implementation("com.github.ben-manes.caffeine:caffeine")
+    implementation("io.micrometer:micrometer-core")
     implementation("io.micrometer:micrometer-tracing")
 
     implementation("org.springdoc:springdoc-openapi-starter-webmvc-ui:${libs.versions.spring.doc.get()}")
+    implementation("org.springframework.boot:spring-boot-starter-actuator")
     implementation("org.springframework.boot:spring-boot-starter-data-mongodb")
+    implementation("org.springframework.boot:spring-boot-starter-data-mongodb-reactive")
     implementation("org.springframework.boot:spring-boot-starter-oauth2-client")
     implementation("org.springframework.boot:spring-boot-starter-oauth2-resource-server")
     implementation("org.springframework.boot:spring-boot-starter-security")
     implementation("org.springframework.boot:spring-boot-starter-validation")
     implementation("org.springframework.boot:spring-boot-starter-web")
+    implementation("org.springframework.boot:spring-boot-starter-webflux")
     implementation("org.springframework.cloud:spring-cloud-starter-config")
     implementation("org.springframework.cloud:spring-cloud-starter-vault-config")
     implementation("org.springframework.cloud:spring-cloud-vault-config-databases")
@@ -53,7 +61,6 @@ dependencies {
 
     runtimeOnly("io.micrometer:micrometer-tracing-bridge-otel")
     runtimeOnly("io.opentelemetry:opentelemetry-exporter-otlp")
-    runtimeOnly("org.springframework.boot:spring-boot-starter-actuator")
 
     testImplementation(platform(libs.testcontainers.bom))
 
@@ -70,6 +77,14 @@ dependencyCheck {
     nvd.delay = 150000
 }
 
+gatling {
+    // forwards the parameters of the simulations, e.g. -Dusers=2000
+    systemProperties = listOf("baseUrl", "users", "duration", "documentSize", "readers", "writers",
+        "p95")
+        .filter { System.getProperty(it) != null }
+        .associateWith { System.getProperty(it) }
+}
+
 testing {
     suites {
         configureEach {
@@ -97,6 +112,18 @@ testing {
     }
 }
 
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    // JSON results, kept per release to spot regressions, e.g. with jmh.morethan.io
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    // runs a subset with e.g. -PjmhIncludes=UploadCopy
+    findProperty("jmhIncludes")?.let { includes.set(listOf(it.toString())) }
+}
+
 jacoco {
     toolVersion = libs.versions.jacoco.get()
 }
@@ -0,0 +1,45 @@
+#!/usr/bin/env bash
+# Runs awt.dms.SlowClientSimulation against the service with platform and with virtual request
+# threads, see spring.threads.virtual.enabled. The Gatling statistics of each run are copied to
+# build/loadtest/threads-<platform|virtual>.json, and build/loadtest/summary.tsv lines them up.
+# Expects Mongo, RabbitMQ and the toxiproxy of the loadtest profile with its bandwidth toxics, as
+# described in SlowClientSimulation. USERS and DURATION (seconds) are passed to the simulation.
+set -euo pipefail
+
+users=${USERS:-2000}
+duration=${DURATION:-300}
+out=build/loadtest
+mkdir -p "$out"
+
+./gradlew --quiet bootJar
+jar=$(ls build/libs/*.jar | grep -v -- '-plain' | head -n 1)
+
+for mode in platform virtual; do
+  virtual=$([ "$mode" = virtual ] && echo true || echo false)
+  java -jar "$jar" --spring.profiles.active=local \
+    --spring.threads.virtual.enabled="$virtual" > "$out/service-$mode.log" 2>&1 &
+  pid=$!
+  until curl -s -o /dev/null http://localhost:9081/actuator/health; do
+    kill -0 "$pid" || { echo "Service did not start, see $out/service-$mode.log" >&2; exit 1; }
+    sleep 2
+  done
+
+  # failed assertions must not stop the comparison
+  ./gradlew --quiet gatlingRun --simulation awt.dms.SlowClientSimulation \
+    -Dusers="$users" -Dduration="$duration" || true
+  report=$(ls -td build/reports/gatling/slowclientsimulation-*/ | head -n 1)
+  cp "$report/js/stats.json" "$out/threads-$mode.json"
+
+  kill "$pid"
+  wait "$pid" || true
+done
+
+{
+  printf 'threads\trequests\tfailed\tmean_ms\tp95_ms\trequests_per_second\n'
+  for mode in platform virtual; do
+    jq -r --arg mode "$mode" '.stats | [$mode, .numberOfRequests.total, .numberOfRequests.ko,
+        .meanResponseTime.total, .percentiles3.total, .meanNumberOfRequestsPerSecond.total]
+        | @tsv' "$out/threads-$mode.json"
+  done
+} > "$out/summary.tsv"
+column -t "$out/summary.tsv"
@@ -0,0 +1,95 @@
+package awt.dms;
+
+import static io.gatling.javaapi.core.CoreDsl.ByteArrayBody;
+import static io.gatling.javaapi.core.CoreDsl.constantUsersPerSec;
+import static io.gatling.javaapi.core.CoreDsl.exec;
+import static io.gatling.javaapi.core.CoreDsl.global;
+import static io.gatling.javaapi.core.CoreDsl.percent;
+import static io.gatling.javaapi.core.CoreDsl.randomSwitch;
+import static io.gatling.javaapi.core.CoreDsl.repeat;
+import static io.gatling.javaapi.core.CoreDsl.scenario;
+import static io.gatling.javaapi.http.HttpDsl.header;
+import static io.gatling.javaapi.http.HttpDsl.http;
+import static io.gatling.javaapi.http.HttpDsl.status;
+
+import io.gatling.javaapi.core.ChainBuilder;
+import io.gatling.javaapi.core.ScenarioBuilder;
+import io.gatling.javaapi.core.Simulation;
+import io.gatling.javaapi.http.HttpProtocolBuilder;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs a mix of uploads, downloads, listings and deletes. Readers upload a document, then
+ * download it or list their documents ten times and delete it; writers upload and delete right
+ * away. Start the service with throwaway Mongo and Rabbit containers and run the simulation:
+ *
+ * <pre>
+ * ./gradlew bootTestRun --args='--server.port=8666'
+ * ./gradlew gatlingRun --simulation awt.dms.DocumentMixSimulation -Dreaders=20 -Dwriters=5
+ * </pre>
+ *
+ * <p>Besides the HTML report, Gatling writes the statistics of every request as JSON to
+ * {@code js/stats.json} in the report directory under {@code build/reports/gatling}. Keep it per
+ * release to compare response times. The run fails when more than 1% of the requests fail or the
+ * 95th percentile response time exceeds {@code -Dp95} milliseconds.
+ */
+public class DocumentMixSimulation extends Simulation {
+
+  private static final String BASE_URL = System.getProperty("baseUrl", "http://localhost:8666");
+  private static final double READERS = Double.parseDouble(System.getProperty("readers", "20"));
+  private static final double WRITERS = Double.parseDouble(System.getProperty("writers", "5"));
+  private static final Duration DURATION = Duration.ofSeconds(Long.getLong("duration", 120));
+  private static final int DOCUMENT_SIZE = Integer.getInteger("documentSize", 64 * 1024);
+  private static final int P95 = Integer.getInteger("p95", 1000);
+
+  private static final String USER = "load-test";
+
+  private final HttpProtocolBuilder httpProtocol = http.baseUrl(BASE_URL);
+
+  private final ChainBuilder upload = exec(http("upload").put("/v1/documents")
+      .header("Content-Type", "application/octet-stream")
+      .header("Content-Disposition", "attachment; filename=\"load-test.bin\"")
+      .header("X-Dms-Meta-user", USER)
+      // random content, so uploads are not deduplicated
+      .body(ByteArrayBody(session -> randomContent()))
+      .check(status().is(201), header("Location").saveAs("location")));
+
+  private final ChainBuilder download = exec(http("download").get("#{location}")
+      .check(status().is(200)));
+
+  private final ChainBuilder list = exec(http("list").get("/v1/documents")
+      .queryParam("user", USER)
+      .queryParam("limit", "100")
+      .check(status().is(200)));
+
+  private final ChainBuilder delete = exec(http("delete").delete("#{location}")
+      .check(status().is(204)));
+
+  private final ScenarioBuilder readers = scenario("Readers")
+      .exec(this.upload)
+      .exec(repeat(10).on(randomSwitch().on(
+          percent(80.0).then(this.download),
+          percent(20.0).then(this.list))))
+      .exec(this.delete);
+
+  private final ScenarioBuilder writers = scenario("Writers")
+      .exec(this.upload)
+      .exec(this.delete);
+
+  {
+    this.setUp(
+            this.readers.injectOpen(constantUsersPerSec(READERS).during(DURATION)),
+            this.writers.injectOpen(constantUsersPerSec(WRITERS).during(DURATION)))
+        .protocols(this.httpProtocol)
+        .assertions(
+            global().failedRequests().percent().lt(1.0),
+            global().responseTime().percentile(95.0).lt(P95));
+  }
+
+  private static byte[] randomContent() {
+    final byte[] content = new byte[DOCUMENT_SIZE];
+    ThreadLocalRandom.current().nextBytes(content);
+    return content;
+  }
+}
@@ -0,0 +1,65 @@
+package awt.dms;
+
+import static io.gatling.javaapi.core.CoreDsl.ByteArrayBody;
+import static io.gatling.javaapi.core.CoreDsl.constantConcurrentUsers;
+import static io.gatling.javaapi.core.CoreDsl.global;
+import static io.gatling.javaapi.core.CoreDsl.scenario;
+import static io.gatling.javaapi.http.HttpDsl.header;
+import static io.gatling.javaapi.http.HttpDsl.http;
+import static io.gatling.javaapi.http.HttpDsl.status;
+
+import io.gatling.javaapi.core.ScenarioBuilder;
+import io.gatling.javaapi.core.Simulation;
+import io.gatling.javaapi.http.HttpProtocolBuilder;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Uploads and downloads documents with many concurrent clients on slow connections, to compare
+ * platform with virtual request threads. Clients are slowed down by toxiproxy:
+ *
+ * <pre>
+ * docker compose --profile loadtest up -d
+ * docker compose exec toxiproxy /toxiproxy-cli toxic add -t bandwidth -a rate=256 dms
+ * docker compose exec toxiproxy /toxiproxy-cli toxic add -t bandwidth -u -a rate=256 dms
+ * </pre>
+ *
+ * <p>Then {@code compare-thread-modes.sh} runs the service once with
+ * {@code spring.threads.virtual.enabled=false} and once with {@code true}, runs this simulation
+ * against each and writes their statistics and a summary of response times and throughput to
+ * {@code build/loadtest}. With platform threads Tomcat serves at most
+ * {@code server.tomcat.threads.max} slow clients at a time.
+ */
+public class SlowClientSimulation extends Simulation {
+
+  private static final String BASE_URL = System.getProperty("baseUrl", "http://localhost:8666");
+  private static final int USERS = Integer.getInteger("users", 2000);
+  private static final Duration DURATION = Duration.ofSeconds(Long.getLong("duration", 300));
+  private static final int DOCUMENT_SIZE = Integer.getInteger("documentSize", 256 * 1024);
+
+  private final HttpProtocolBuilder httpProtocol = http.baseUrl(BASE_URL);
+
+  private final ScenarioBuilder uploadAndDownload = scenario("Upload and download")
+      .exec(http("upload").put("/v1/documents")
+          .header("Content-Type", "application/octet-stream")
+          .header("Content-Disposition", "attachment; filename=\"load-test.bin\"")
+          .header("X-Dms-Meta-user", "load-test")
+          // random content, so uploads are not deduplicated
+          .body(ByteArrayBody(session -> randomContent()))
+          .check(status().is(201), header("Location").saveAs("location")))
+      .exec(http("download").get("#{location}")
+          .check(status().is(200)));
+
+  {
+    this.setUp(this.uploadAndDownload.injectClosed(
+            constantConcurrentUsers(USERS).during(DURATION)))
+        .protocols(this.httpProtocol)
+        .assertions(global().failedRequests().percent().lt(1.0));
+  }
+
+  private static byte[] randomContent() {
+    final byte[] content = new byte[DOCUMENT_SIZE];
+    ThreadLocalRandom.current().nextBytes(content);
+    return content;
+  }
+}
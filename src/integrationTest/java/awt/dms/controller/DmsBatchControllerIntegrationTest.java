@@ -0,0 +1,305 @@
+package awt.dms.controller;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.endsWith;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oauth2Login;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import awt.dms.config.BatchProperties;
+import awt.dms.service.DmsArchiveService;
+import awt.dms.service.DmsBatchService;
+import awt.dms.service.DmsBatchService.UploadResult;
+import awt.dms.service.UploadAdmission;
+import awt.dms.service.UploadTooLargeException;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.OutputStream;
+import java.sql.Date;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+@WebMvcTest(controllers = DmsBatchController.class)
+@EnableConfigurationProperties(BatchProperties.class)
+@TestPropertySource(properties = "dms.batch.max-items=2")
+class DmsBatchControllerIntegrationTest {
+
+  private static final String ROOT_PATH = "/v1/documents/batch";
+  private static final ObjectId OBJECT_ID = new ObjectId(Date.from(Instant.now()));
+  private static final ObjectId OTHER_ID = new ObjectId();
+
+  private static final GridFSFile FILE = new GridFSFile(new BsonObjectId(OBJECT_ID), "file.txt",
+      12, 255 * 1024, Date.from(Instant.now()),
+      new Document("_contentType", "text/plain").append("_sha256", "abc")
+          .append("user", "someone"));
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private DmsBatchService dmsBatchService;
+
+  @MockBean
+  private DmsArchiveService dmsArchiveService;
+
+  @MockBean
+  private UploadAdmission uploadAdmission;
+
+  @Nested
+  @DisplayName("Uploading documents")
+  class Uploading {
+
+    private final MockMultipartFile first = new MockMultipartFile("file", "first.txt",
+        "text/plain", "Some content".getBytes(UTF_8));
+    private final MockMultipartFile second = new MockMultipartFile("file", "second.txt",
+        "text/plain", "More content".getBytes(UTF_8));
+
+    @Test
+    void when_uploading_return_207_with_status_per_file() throws Exception {
+      when(dmsBatchService.upload(anyList(), any())).thenReturn(List.of(
+          new UploadResult("first.txt", OBJECT_ID, null),
+          new UploadResult("second.txt", null, new UploadTooLargeException(16))));
+
+      mockMvc.perform(multipart(ROOT_PATH)
+              .file(first)
+              .file(second)
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isMultiStatus())
+          .andExpect(jsonPath("$[0].status").value(201))
+          .andExpect(jsonPath("$[0].fileId").value(OBJECT_ID.toString()))
+          .andExpect(jsonPath("$[0].location").value(endsWith("/v1/documents/" + OBJECT_ID)))
+          .andExpect(jsonPath("$[1].fileName").value("second.txt"))
+          .andExpect(jsonPath("$[1].status").value(413));
+    }
+
+    @Test
+    void when_too_many_files_sent_return_400() throws Exception {
+      mockMvc.perform(multipart(ROOT_PATH)
+              .file(first)
+              .file(second)
+              .file(first)
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+      verify(dmsBatchService, never()).upload(anyList(), any());
+    }
+
+    @Test
+    void when_not_logged_in_return_401() throws Exception {
+      mockMvc.perform(multipart(ROOT_PATH)
+              .file(first)
+              .with(csrf()))
+          .andExpect(status().isUnauthorized());
+    }
+  }
+
+  @Nested
+  @DisplayName("Deleting documents")
+  class Deleting {
+
+    private static final String DELETE_PATH = ROOT_PATH + "/delete";
+
+    @Test
+    void when_deleting_ids_return_207_with_status_per_id() throws Exception {
+      when(dmsBatchService.delete(Set.of(OBJECT_ID, OTHER_ID))).thenReturn(List.of(OBJECT_ID));
+
+      mockMvc.perform(post(DELETE_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"ids\":[\"" + OBJECT_ID + "\",\"" + OTHER_ID + "\"]}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isMultiStatus())
+          .andExpect(jsonPath("$[0].status").value(204))
+          .andExpect(jsonPath("$[1].fileId").value(OTHER_ID.toString()))
+          .andExpect(jsonPath("$[1].status").value(404));
+    }
+
+    @Test
+    void when_deleting_by_metadata_return_207_with_deleted_ids() throws Exception {
+      when(dmsBatchService.deleteByMetadata(Map.of("user", "someone")))
+          .thenReturn(List.of(OBJECT_ID));
+
+      mockMvc.perform(post(DELETE_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"metadata\":{\"user\":\"someone\"}}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isMultiStatus())
+          .andExpect(jsonPath("$[0].fileId").value(OBJECT_ID.toString()))
+          .andExpect(jsonPath("$[0].status").value(204));
+    }
+
+    @Test
+    void when_metadata_filter_empty_return_400() throws Exception {
+      mockMvc.perform(post(DELETE_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"metadata\":{}}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+      verify(dmsBatchService, never()).deleteByMetadata(any());
+    }
+
+    @Test
+    void when_metadata_key_is_an_operator_return_400() throws Exception {
+      mockMvc.perform(post(DELETE_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"metadata\":{\"$where\":\"1\"}}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void when_ids_and_metadata_sent_return_400() throws Exception {
+      mockMvc.perform(post(DELETE_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"ids\":[\"" + OBJECT_ID + "\"],\"metadata\":{\"user\":\"someone\"}}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+    }
+  }
+
+  @Nested
+  @DisplayName("Fetching metadata")
+  class FetchingMetadata {
+
+    private static final String METADATA_PATH = ROOT_PATH + "/metadata";
+
+    @Test
+    void when_fetching_return_207_with_metadata_per_id() throws Exception {
+      when(dmsBatchService.findAll(Set.of(OBJECT_ID, OTHER_ID)))
+          .thenReturn(Map.of(OBJECT_ID, FILE));
+
+      mockMvc.perform(post(METADATA_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"ids\":[\"" + OBJECT_ID + "\",\"" + OTHER_ID + "\"]}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isMultiStatus())
+          .andExpect(jsonPath("$[0].status").value(200))
+          .andExpect(jsonPath("$[0].fileName").value("file.txt"))
+          .andExpect(jsonPath("$[0].contentType").value("text/plain"))
+          .andExpect(jsonPath("$[0].length").value(12))
+          .andExpect(jsonPath("$[0].metadata.user").value("someone"))
+          .andExpect(jsonPath("$[0].metadata._sha256").doesNotExist())
+          .andExpect(jsonPath("$[1].status").value(404));
+    }
+
+    @Test
+    void when_too_many_ids_sent_return_400() throws Exception {
+      mockMvc.perform(post(METADATA_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"ids\":[\"" + OBJECT_ID + "\",\"" + OTHER_ID + "\",\"x\"]}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+      verify(dmsBatchService, never()).findAll(any());
+    }
+
+    @Test
+    void when_no_ids_sent_return_400() throws Exception {
+      mockMvc.perform(post(METADATA_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+    }
+  }
+
+  @Nested
+  @DisplayName("Archiving documents")
+  class Archiving {
+
+    private static final String ARCHIVE_PATH = ROOT_PATH + "/archive";
+
+    @Test
+    void when_archiving_ids_return_200_with_streamed_zip() throws Exception {
+      doAnswer(invocation -> {
+        invocation.<OutputStream>getArgument(1).write("zip".getBytes(UTF_8));
+        return null;
+      }).when(dmsArchiveService).write(eq(Set.of(OBJECT_ID)), any(OutputStream.class));
+
+      final MvcResult result = mockMvc.perform(post(ARCHIVE_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"ids\":[\"" + OBJECT_ID + "\"]}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+      mockMvc.perform(asyncDispatch(result))
+          .andExpect(status().isOk())
+          .andExpect(header().string("Content-Type", "application/zip"))
+          .andExpect(header().string("Content-Disposition",
+              "attachment; filename=\"documents.zip\""))
+          .andExpect(content().string("zip"));
+    }
+
+    @Test
+    void when_archiving_user_files_return_200() throws Exception {
+      final MvcResult result = mockMvc.perform(post(ARCHIVE_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"user\":\"someone\"}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+      mockMvc.perform(asyncDispatch(result))
+          .andExpect(status().isOk());
+      verify(dmsArchiveService).write(eq("someone"), eq(Map.of()), any(OutputStream.class));
+    }
+
+    @Test
+    void when_no_ids_or_filter_sent_return_400() throws Exception {
+      mockMvc.perform(post(ARCHIVE_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void when_ids_and_user_sent_return_400() throws Exception {
+      mockMvc.perform(post(ARCHIVE_PATH)
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"ids\":[\"" + OBJECT_ID + "\"],\"user\":\"someone\"}")
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+    }
+  }
+}
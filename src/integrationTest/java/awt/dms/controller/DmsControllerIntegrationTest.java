@@ -2,33 +2,86 @@ package awt.dms.controller;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.Matchers.endsWith;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oauth2Login;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import awt.dms.config.DownloadProperties;
+import awt.dms.config.UploadProperties;
 import awt.dms.service.DmsService;
+import awt.dms.service.DocumentSearchService;
+import awt.dms.service.DocumentSummary;
+import awt.dms.service.LengthRequiredException;
+import awt.dms.service.PageCursor;
+import awt.dms.service.QuotaExceededException;
+import awt.dms.service.RenditionKind;
+import awt.dms.service.RenditionService;
+import awt.dms.service.RenditionService.Rendition;
+import awt.dms.service.SearchFilter;
+import awt.dms.service.SearchSort;
+import awt.dms.service.StorageUsage;
+import awt.dms.service.TransferMetrics;
+import awt.dms.service.UnindexedQueryException;
+import awt.dms.service.UploadAdmission;
+import awt.dms.service.UploadRejectedException;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Date;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.bson.BsonObjectId;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 @WebMvcTest(controllers = DmsController.class)
+@EnableConfigurationProperties({UploadProperties.class, DownloadProperties.class})
+@Import(DmsControllerIntegrationTest.MetricsConfig.class)
+@TestPropertySource(properties = "dms.upload.max-size=16B")
 class DmsControllerIntegrationTest {
 
   private static final String ROOT_PATH = "/v1/documents";
@@ -38,12 +91,29 @@ class DmsControllerIntegrationTest {
   private static final MockMultipartFile MOCK_MULTIPART_FILE = new MockMultipartFile("file",
       "Some content".getBytes(UTF_8));
 
+  private static final GridFSFile FILE = new GridFSFile(new BsonObjectId(OBJECT_ID), "file.txt",
+      12, 255 * 1024, Date.from(Instant.now()),
+      new Document("_contentType", "text/plain").append("_sha256", "abc"));
+  private static final GridFsResource RESOURCE = new GridFsResource(FILE);
+
   @Autowired
   private MockMvc mockMvc;
 
   @MockBean
   private DmsService dmsService;
 
+  @MockBean
+  private RenditionService renditionService;
+
+  @MockBean
+  private DocumentSearchService documentSearchService;
+
+  @MockBean
+  private StorageUsage storageUsage;
+
+  @MockBean
+  private UploadAdmission uploadAdmission;
+
   @Nested
   @DisplayName("Finding a document")
   class Finding {
@@ -58,12 +128,301 @@ class DmsControllerIntegrationTest {
 
     @Test
     void when_object_id_not_found_return_404() throws Exception {
-      when(dmsService.findOne(OBJECT_ID)).thenReturn(Optional.empty());
+      when(dmsService.findFile(OBJECT_ID)).thenReturn(Optional.empty());
 
       mockMvc.perform(get(FIND_DOCUMENT_PATH, OBJECT_ID)
               .with(oauth2Login()))
           .andExpect(status().isNotFound());
     }
+
+    @Test
+    void when_range_requested_return_206_with_only_that_range() throws Exception {
+      when(dmsService.findFile(OBJECT_ID)).thenReturn(Optional.of(FILE));
+      when(dmsService.getResource(FILE)).thenReturn(RESOURCE);
+      when(dmsService.openRange(FILE, 5, 11)).thenReturn(
+          new ByteArrayInputStream("content".getBytes(UTF_8)));
+
+      mockMvc.perform(get(FIND_DOCUMENT_PATH, OBJECT_ID)
+              .header("Range", "bytes=5-")
+              .with(oauth2Login()))
+          .andExpect(status().isPartialContent())
+          .andExpect(header().string("Accept-Ranges", "bytes"))
+          .andExpect(header().string("Content-Range", "bytes 5-11/12"))
+          .andExpect(content().string("content"));
+    }
+
+    @Test
+    void when_range_not_satisfiable_return_416() throws Exception {
+      when(dmsService.findFile(OBJECT_ID)).thenReturn(Optional.of(FILE));
+
+      mockMvc.perform(get(FIND_DOCUMENT_PATH, OBJECT_ID)
+              .header("Range", "bytes=100-")
+              .with(oauth2Login()))
+          .andExpect(status().isRequestedRangeNotSatisfiable())
+          .andExpect(header().string("Content-Range", "bytes */12"));
+    }
+
+    @Test
+    void when_etag_matches_return_304_without_reading_content() throws Exception {
+      when(dmsService.findFile(OBJECT_ID)).thenReturn(Optional.of(FILE));
+
+      mockMvc.perform(get(FIND_DOCUMENT_PATH, OBJECT_ID)
+              .header("If-None-Match", "\"abc\"")
+              .with(oauth2Login()))
+          .andExpect(status().isNotModified())
+          .andExpect(header().string("ETag", "\"abc\""));
+      verify(dmsService, never()).getResource(FILE);
+    }
+
+    @Test
+    void when_file_in_filesystem_tier_return_it_without_opening_resource(
+        @TempDir final Path directory) throws Exception {
+      final Path localFile = Files.writeString(directory.resolve("content"), "Some content");
+      when(dmsService.findFile(OBJECT_ID)).thenReturn(Optional.of(FILE));
+      when(dmsService.localFile(FILE)).thenReturn(Optional.of(localFile));
+
+      mockMvc.perform(get(FIND_DOCUMENT_PATH, OBJECT_ID)
+              .header("Range", "bytes=5-")
+              .with(oauth2Login()))
+          .andExpect(status().isPartialContent())
+          .andExpect(header().string("Content-Range", "bytes 5-11/12"))
+          .andExpect(content().string("content"));
+      verify(dmsService).recordView(FILE);
+      verify(dmsService, never()).getResource(FILE);
+    }
+
+    @Test
+    void when_gzip_accepted_return_stored_bytes_with_content_encoding() throws Exception {
+      final byte[] gzipped = gzip("Some content");
+      final GridFSFile file = compressedFile(gzipped.length);
+      when(dmsService.findFile(OBJECT_ID)).thenReturn(Optional.of(file));
+      when(dmsService.getResource(file)).thenReturn(
+          new GridFsResource(file, new ByteArrayInputStream(gzipped)));
+
+      mockMvc.perform(get(FIND_DOCUMENT_PATH, OBJECT_ID)
+              .header("Accept-Encoding", "gzip, deflate")
+              .with(oauth2Login()))
+          .andExpect(status().isOk())
+          .andExpect(header().string("Content-Encoding", "gzip"))
+          .andExpect(header().string("Vary", "Accept-Encoding"))
+          .andExpect(header().string("ETag", "\"abc-gzip\""))
+          .andExpect(content().bytes(gzipped));
+    }
+
+    @Test
+    void when_gzip_not_accepted_return_decompressed_content_ignoring_range() throws Exception {
+      final byte[] gzipped = gzip("Some content");
+      final GridFSFile file = compressedFile(gzipped.length);
+      when(dmsService.findFile(OBJECT_ID)).thenReturn(Optional.of(file));
+      when(dmsService.getResource(file)).thenReturn(
+          new GridFsResource(file, new ByteArrayInputStream(gzipped)));
+
+      mockMvc.perform(get(FIND_DOCUMENT_PATH, OBJECT_ID)
+              .header("Accept-Encoding", "gzip;q=0, identity")
+              .header("Range", "bytes=5-")
+              .with(oauth2Login()))
+          .andExpect(status().isOk())
+          .andExpect(header().doesNotExist("Content-Encoding"))
+          .andExpect(header().string("Accept-Ranges", "none"))
+          .andExpect(header().string("ETag", "\"abc\""))
+          .andExpect(content().string("Some content"));
+    }
+
+    private static GridFSFile compressedFile(final long length) {
+      return new GridFSFile(new BsonObjectId(OBJECT_ID), "file.txt", length, 255 * 1024,
+          Date.from(Instant.now()), new Document("_contentType", "text/plain")
+          .append("_sha256", "abc")
+          .append("_contentEncoding", "gzip")
+          .append("_originalLength", 12L));
+    }
+
+    private static byte[] gzip(final String content) throws IOException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+        gzip.write(content.getBytes(UTF_8));
+      }
+      return out.toByteArray();
+    }
+  }
+
+  @Nested
+  @DisplayName("Retrieving a rendition")
+  class Rendering {
+
+    private static final String RENDITION_PATH = ROOT_PATH + "/{objectId}/renditions/{kind}";
+
+    @Test
+    void when_rendition_available_return_200_with_etag() throws Exception {
+      when(renditionService.get(OBJECT_ID, RenditionKind.EXCERPT)).thenReturn(Optional.of(
+          new Rendition("text/plain;charset=UTF-8", "def", "Some".getBytes(UTF_8))));
+
+      mockMvc.perform(get(RENDITION_PATH, OBJECT_ID, "excerpt")
+              .with(oauth2Login()))
+          .andExpect(status().isOk())
+          .andExpect(header().string("ETag", "\"def\""))
+          .andExpect(content().string("Some"));
+    }
+
+    @Test
+    void when_document_has_no_such_rendition_return_404() throws Exception {
+      when(renditionService.get(OBJECT_ID, RenditionKind.THUMBNAIL)).thenReturn(Optional.empty());
+
+      mockMvc.perform(get(RENDITION_PATH, OBJECT_ID, "thumbnail")
+              .with(oauth2Login()))
+          .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void when_kind_unknown_return_404() throws Exception {
+      mockMvc.perform(get(RENDITION_PATH, OBJECT_ID, "poster")
+              .with(oauth2Login()))
+          .andExpect(status().isNotFound());
+    }
+  }
+
+  @Nested
+  @DisplayName("Listing documents")
+  class Listing {
+
+    @Test
+    void when_listing_return_page_as_json_array() throws Exception {
+      final DocumentSummary summary = summary(SearchFilter.UPLOAD_DATE_FIELD);
+      when(dmsService.findPage("someone", null, 2)).thenReturn(Stream.of(summary));
+
+      final MvcResult result = mockMvc.perform(get(ROOT_PATH)
+              .param("user", "someone")
+              .param("limit", "2")
+              .with(oauth2Login()))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+      mockMvc.perform(asyncDispatch(result))
+          .andExpect(status().isOk())
+          .andExpect(content().json("[{\"fileId\":\"" + OBJECT_ID
+              + "\",\"contentType\":\"text/plain\",\"fileName\":\"file.txt\",\"cursor\":\""
+              + summary.cursor().encode() + "\"}]"));
+    }
+
+    @Test
+    void when_no_limit_list_all_files() throws Exception {
+      when(dmsService.findPage("someone", null, Integer.MAX_VALUE))
+          .thenReturn(Stream.of(summary(SearchFilter.UPLOAD_DATE_FIELD)));
+
+      final MvcResult result = mockMvc.perform(get(ROOT_PATH)
+              .param("user", "someone")
+              .with(oauth2Login()))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+      mockMvc.perform(asyncDispatch(result))
+          .andExpect(status().isOk())
+          .andExpect(content().json("[{\"fileId\":\"" + OBJECT_ID + "\"}]"));
+    }
+
+    @Test
+    void when_after_is_cursor_continue_without_looking_up_file() throws Exception {
+      final PageCursor cursor = summary(SearchFilter.UPLOAD_DATE_FIELD).cursor();
+      when(dmsService.findPage("someone", cursor, 2)).thenReturn(Stream.empty());
+
+      final MvcResult result = mockMvc.perform(get(ROOT_PATH)
+              .param("user", "someone")
+              .param("limit", "2")
+              .param("after", cursor.encode())
+              .with(oauth2Login()))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+      mockMvc.perform(asyncDispatch(result))
+          .andExpect(status().isOk())
+          .andExpect(content().json("[]"));
+      verify(dmsService, never()).findFile(any());
+    }
+
+    @Test
+    void when_after_is_cursor_on_other_field_return_400() throws Exception {
+      mockMvc.perform(get(ROOT_PATH)
+              .param("user", "someone")
+              .param("after", summary(SearchFilter.LENGTH_FIELD).cursor().encode())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void when_after_unknown_return_400() throws Exception {
+      when(dmsService.findFile(OBJECT_ID)).thenReturn(Optional.empty());
+
+      mockMvc.perform(get(ROOT_PATH)
+              .param("user", "someone")
+              .param("after", OBJECT_ID.toString())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void when_limit_too_large_return_400() throws Exception {
+      mockMvc.perform(get(ROOT_PATH)
+              .param("user", "someone")
+              .param("limit", "100000")
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+    }
+  }
+
+  @Nested
+  @DisplayName("Reading storage usage")
+  class Accounting {
+
+    @Test
+    void when_reading_usage_return_counters() throws Exception {
+      when(storageUsage.get("someone")).thenReturn(new StorageUsage.Usage("someone", 12, 1));
+
+      mockMvc.perform(get("/v1/usage")
+              .param("user", "someone")
+              .with(oauth2Login()))
+          .andExpect(status().isOk())
+          .andExpect(content().json("{\"user\":\"someone\",\"bytes\":12,\"files\":1}"));
+    }
+  }
+
+  @Nested
+  @DisplayName("Searching documents")
+  class Searching {
+
+    private static final String SEARCH_PATH = ROOT_PATH + "/search";
+
+    @Test
+    void when_searching_return_matches_as_json_array() throws Exception {
+      when(documentSearchService.search(
+          List.of(SearchFilter.parse("metadata.caseNumber:eq:42")),
+          SearchSort.parse("-uploadDate"), null, 100)).thenReturn(Stream.of(
+          summary(SearchFilter.UPLOAD_DATE_FIELD)));
+
+      final MvcResult result = mockMvc.perform(get(SEARCH_PATH)
+              .param("filter", "metadata.caseNumber:eq:42")
+              .with(oauth2Login()))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+      mockMvc.perform(asyncDispatch(result))
+          .andExpect(status().isOk())
+          .andExpect(content().json("[{\"fileId\":\"" + OBJECT_ID
+              + "\",\"contentType\":\"text/plain\",\"fileName\":\"file.txt\"}]"));
+    }
+
+    @Test
+    void when_filter_invalid_return_400() throws Exception {
+      mockMvc.perform(get(SEARCH_PATH)
+              .param("filter", "length:gt:many")
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void when_no_index_serves_search_return_400() throws Exception {
+      when(documentSearchService.search(any(), any(), any(), eq(100)))
+          .thenThrow(new UnindexedQueryException(List.of("contentType")));
+
+      mockMvc.perform(get(SEARCH_PATH)
+              .param("filter", "contentType:prefix:text/")
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+    }
   }
 
   @Nested
@@ -87,6 +446,24 @@ class DmsControllerIntegrationTest {
               .with(csrf()))
           .andExpect(status().isUnauthorized());
     }
+
+    @Test
+    void when_restoring_deleted_document_return_204() throws Exception {
+      when(dmsService.restore(OBJECT_ID)).thenReturn(true);
+      mockMvc.perform(post(DELETE_DOCUMENT_PATH + "/restore", OBJECT_ID)
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isNoContent());
+    }
+
+    @Test
+    void when_restoring_purged_document_return_404() throws Exception {
+      when(dmsService.restore(OBJECT_ID)).thenReturn(false);
+      mockMvc.perform(post(DELETE_DOCUMENT_PATH + "/restore", OBJECT_ID)
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isNotFound());
+    }
   }
 
   @Nested
@@ -122,6 +499,44 @@ class DmsControllerIntegrationTest {
           .andExpect(status().isUnauthorized());
     }
 
+    @Test
+    void when_upload_shed_return_503_with_retry_after() throws Exception {
+      when(uploadAdmission.admit(any(), anyLong())).thenThrow(
+          new UploadRejectedException("concurrency", Duration.ofSeconds(2)));
+
+      mockMvc.perform(put(UPLODA_PATH)
+              .contentType(MediaType.APPLICATION_OCTET_STREAM)
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isServiceUnavailable())
+          .andExpect(header().string("Retry-After", "2"));
+      verify(dmsService, never()).upload(any(InputStream.class), anyLong(), any(), any(), any());
+    }
+
+    @Test
+    void when_length_required_return_411() throws Exception {
+      when(uploadAdmission.admit(any(), anyLong())).thenThrow(new LengthRequiredException());
+
+      mockMvc.perform(put(UPLODA_PATH)
+              .contentType(MediaType.APPLICATION_OCTET_STREAM)
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isLengthRequired());
+      verify(dmsService, never()).upload(any(InputStream.class), anyLong(), any(), any(), any());
+    }
+
+    @Test
+    void when_quota_exceeded_return_507() throws Exception {
+      when(dmsService.upload(MOCK_MULTIPART_FILE, Collections.emptyMap())).thenThrow(
+          new QuotaExceededException("someone"));
+
+      mockMvc.perform(multipart(UPLODA_PATH)
+              .file(MOCK_MULTIPART_FILE)
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isInsufficientStorage());
+    }
+
     @Test
     void when_io_exception_occurs_return_500() throws Exception {
       when(dmsService.upload(MOCK_MULTIPART_FILE, Collections.emptyMap())).thenThrow(
@@ -134,4 +549,63 @@ class DmsControllerIntegrationTest {
           .andExpect(status().isInternalServerError());
     }
   }
+
+  @Nested
+  @DisplayName("Streaming a document")
+  class Streaming {
+
+    @Test
+    void when_upload_successful_occurs_return_201() throws Exception {
+      when(dmsService.upload(any(InputStream.class), eq(12L), eq("file.txt"), eq("text/plain"),
+          eq(Map.of("user", "someone"))))
+          .thenReturn(OBJECT_ID);
+
+      mockMvc.perform(put(ROOT_PATH)
+              .contentType(MediaType.APPLICATION_OCTET_STREAM)
+              .header("Content-Disposition", "attachment; filename=\"file.txt\"")
+              .header("X-Dms-Content-Type", "text/plain")
+              .header("X-Dms-Meta-User", "someone")
+              .content("Some content".getBytes(UTF_8))
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(header().string("Location", endsWith(OBJECT_ID.toString())))
+          .andExpect(status().isCreated());
+    }
+
+    @Test
+    void when_content_length_above_limit_return_413() throws Exception {
+      mockMvc.perform(put(ROOT_PATH)
+              .contentType(MediaType.APPLICATION_OCTET_STREAM)
+              .content(new byte[17])
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isPayloadTooLarge());
+    }
+
+    @Test
+    void when_no_content_disposition_return_400_without_uploading() throws Exception {
+      mockMvc.perform(put(ROOT_PATH)
+              .contentType(MediaType.APPLICATION_OCTET_STREAM)
+              .content("Some content".getBytes(UTF_8))
+              .with(csrf())
+              .with(oauth2Login()))
+          .andExpect(status().isBadRequest());
+      verify(dmsService, never()).upload(any(InputStream.class), anyLong(), any(), any(), any());
+    }
+  }
+
+  private static DocumentSummary summary(final String sortField) {
+    final Date uploadDate = Date.from(Instant.now());
+    return new DocumentSummary(OBJECT_ID, "file.txt", "text/plain", uploadDate,
+        new PageCursor(sortField, uploadDate.getTime(), OBJECT_ID));
+  }
+
+  @TestConfiguration(proxyBeanMethods = false)
+  static class MetricsConfig {
+
+    @Bean
+    TransferMetrics transferMetrics() {
+      return new TransferMetrics(new SimpleMeterRegistry());
+    }
+  }
 }
@@ -0,0 +1,76 @@
+package awt.dms.service;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Sorts.descending;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import awt.dms.config.MongoDbContainerConfig;
+import awt.dms.config.RabbitContainerConfig;
+import java.util.Date;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+@SpringBootTest(properties = "dms.indexes.metadata-keys=caseNumber")
+@Import({MongoDbContainerConfig.class, RabbitContainerConfig.class})
+class DocumentIndexesIntegrationTest {
+
+  @Autowired
+  private DocumentIndexes documentIndexes;
+
+  @Test
+  void when_listing_by_user_then_winning_plan_is_index_scan() {
+    final Document explain = this.documentIndexes.explain(eq("metadata.user", "someone"),
+        descending("uploadDate", "_id"));
+
+    assertThat(QueryPlans.winningStages(explain))
+        .contains("IXSCAN")
+        .doesNotContain(QueryPlans.COLLECTION_SCAN);
+  }
+
+  @Test
+  void when_listing_next_page_by_user_then_winning_plan_is_index_scan() {
+    final Date uploadDate = new Date();
+    final Document explain = this.documentIndexes.explain(and(eq("metadata.user", "someone"),
+            or(lt("uploadDate", uploadDate),
+                and(eq("uploadDate", uploadDate), lt("_id", new ObjectId())))),
+        descending("uploadDate", "_id"));
+
+    assertThat(QueryPlans.winningStages(explain))
+        .contains("IXSCAN")
+        .doesNotContain(QueryPlans.COLLECTION_SCAN);
+  }
+
+  @Test
+  void when_filtering_on_configured_metadata_key_then_winning_plan_is_index_scan() {
+    final Document explain = this.documentIndexes.explain(eq("metadata.caseNumber", "42"),
+        descending("uploadDate", "_id"));
+
+    assertThat(QueryPlans.winningStages(explain))
+        .contains("IXSCAN")
+        .doesNotContain(QueryPlans.COLLECTION_SCAN);
+  }
+
+  @Test
+  void when_filtering_on_other_metadata_key_then_wildcard_index_serves_it() {
+    final Document explain = this.documentIndexes.explain(eq("metadata.unindexed", "42"),
+        ascending("metadata.unindexed"));
+
+    assertThat(QueryPlans.scannedIndexFields(explain)).contains("metadata.unindexed");
+  }
+
+  @Test
+  void when_filtering_on_unindexed_field_then_winning_plan_is_collection_scan() {
+    final Document explain = this.documentIndexes.explain(eq("filename", "42"),
+        ascending("filename"));
+
+    assertThat(QueryPlans.isCollectionScan(explain)).isTrue();
+  }
+}
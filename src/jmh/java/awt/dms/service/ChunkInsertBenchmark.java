@@ -0,0 +1,100 @@
+package awt.dms.service;
+
+import awt.dms.config.ChunkProperties;
+import com.mongodb.client.MongoCollection;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.util.MimeType;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Writes content into GridFS chunks against a simulated collection whose inserts cost a round
+ * trip plus a transfer time per byte. {@code sequential} inserts one default sized chunk at a
+ * time, as before chunk sizes and batches; {@code batched} sizes chunks for the content and
+ * inserts them in batches with several in flight. Throughput is reported per upload; divide by
+ * the size for bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ChunkInsertBenchmark {
+
+  private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(300);
+  // about 1GB/s between the service and Mongo
+  private static final double NANOS_PER_BYTE = 1;
+
+  @Param({"16384", "1048576", "67108864"})
+  private int size;
+
+  @Param({"sequential", "batched"})
+  private String strategy;
+
+  private final ChunkProperties chunkProperties = new ChunkProperties(DataSize.ofKilobytes(255),
+      DataSize.ofMegabytes(4), 128, List.of(MimeType.valueOf("video/*")),
+      DataSize.ofMegabytes(8), 4, DataSize.ofMegabytes(4));
+  private final SimpleAsyncTaskExecutor taskExecutor = new SimpleAsyncTaskExecutor("insert-");
+  private final Timer insertTimer = Timer.builder(GridFsWriter.INSERT_TIMER)
+      .register(new SimpleMeterRegistry());
+
+  private byte[] content;
+  private MongoCollection<Document> chunksCollection;
+
+  @Setup
+  public void setUp() {
+    this.content = new byte[this.size];
+    ThreadLocalRandom.current().nextBytes(this.content);
+    this.taskExecutor.setVirtualThreads(true);
+    this.chunksCollection = simulatedCollection();
+  }
+
+  @Benchmark
+  public long write() {
+    final boolean batched = "batched".equals(this.strategy);
+    final GridFsWriter.BatchInserter inserter = new GridFsWriter.BatchInserter(
+        this.chunksCollection, this.taskExecutor,
+        batched ? this.chunkProperties.insertBatchSize().toBytes() : 1,
+        batched ? this.chunkProperties.insertsInFlight() : 0, this.insertTimer);
+    final int chunkSize = batched
+        ? this.chunkProperties.chunkSize(this.size, "application/octet-stream")
+        : GridFsWriter.DEFAULT_CHUNK_SIZE;
+    final GridFsWriter.ChunkOutputStream chunks = new GridFsWriter.ChunkOutputStream(
+        new ObjectId(), chunkSize, inserter);
+    try (chunks) {
+      chunks.write(this.content, 0, this.content.length);
+    }
+    inserter.finish();
+    return chunks.length();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static MongoCollection<Document> simulatedCollection() {
+    return (MongoCollection<Document>) Proxy.newProxyInstance(
+        ChunkInsertBenchmark.class.getClassLoader(), new Class<?>[] {MongoCollection.class},
+        (proxy, method, args) -> {
+          if ("insertMany".equals(method.getName())) {
+            final long bytes = ((List<Document>) args[0]).stream()
+                .mapToLong(chunk -> chunk.get("data", Binary.class).length())
+                .sum();
+            LockSupport.parkNanos(ROUND_TRIP_NANOS + (long) (bytes * NANOS_PER_BYTE));
+          }
+          return null;
+        });
+  }
+}
@@ -0,0 +1,60 @@
+package awt.dms.service;
+
+import awt.dms.controller.DmsController.FileItem;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Maps a page of projected {@code fs.files} entries to {@link FileItem}s and writes them as JSON,
+ * as {@code GET /v1/documents} does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FileItemMappingBenchmark {
+
+  @Param({"10", "100", "1000"})
+  private int files;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private List<Document> page;
+
+  @Setup
+  public void setUp() {
+    this.page = IntStream.range(0, this.files)
+        .mapToObj(i -> new Document("_id", new ObjectId())
+            .append("filename", "document-" + i + ".pdf")
+            .append("uploadDate", new Date())
+            .append("metadata", new Document("_contentType", "application/pdf")))
+        .toList();
+  }
+
+  @Benchmark
+  public void mapAndWrite() throws IOException {
+    try (JsonGenerator generator = this.objectMapper.createGenerator(
+        OutputStream.nullOutputStream())) {
+      generator.writeStartArray();
+      for (final Document file : this.page) {
+        generator.writeObject(FileItem.of(DmsService.toSummary(file)));
+      }
+      generator.writeEndArray();
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package awt.dms.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Creates and serializes the event messages written for every upload, view and delete, one view
+ * at a time and as an envelope of the views of a {@code findAll}, per codec.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class RabbitMessageBenchmark {
+
+  private static final int VIEWS_PER_FIND = 100;
+
+  @Param({"json", "smile", "cbor"})
+  private String codec;
+
+  private final ObjectId objectId = new ObjectId();
+
+  private ObjectMapper objectMapper;
+  private EventBatch<FileViewed> views;
+
+  @Setup
+  public void setUp() {
+    this.objectMapper = switch (this.codec) {
+      case "smile" -> new SmileMapper();
+      case "cbor" -> new CBORMapper();
+      default -> new ObjectMapper();
+    };
+    final List<FileViewed> events = IntStream.range(0, VIEWS_PER_FIND)
+        .mapToObj(i -> FileViewed.of(new ObjectId(), "quarterly report " + i + ".pdf", "userId",
+            "application/pdf"))
+        .toList();
+    this.views = EventBatch.of(events);
+  }
+
+  @Benchmark
+  public byte[] createAndSerialize() throws JsonProcessingException {
+    return this.objectMapper.writeValueAsBytes(FileViewed.of(this.objectId,
+        "quarterly report.pdf", "userId", "application/pdf"));
+  }
+
+  @Benchmark
+  public byte[] serializeEnvelope() throws JsonProcessingException {
+    return this.objectMapper.writeValueAsBytes(this.views);
+  }
+}
@@ -0,0 +1,63 @@
+package awt.dms.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Copies upload content into GridFS chunks the way {@link GridFsWriter} does, hashing it and
+ * optionally compressing it, with the chunk inserts left out. Throughput is reported per upload;
+ * divide by the size for bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class UploadCopyBenchmark {
+
+  @Param({"4096", "262144", "4194304", "67108864"})
+  private int size;
+
+  @Param({"none", "gzip"})
+  private String encoding;
+
+  private byte[] content;
+  private ContentEncoding contentEncoding;
+
+  @Setup
+  public void setUp() {
+    // half random, half repeated, so compression has something to do without being trivial
+    this.content = new byte[this.size];
+    ThreadLocalRandom.current().nextBytes(this.content);
+    for (int i = 1; i < this.size; i += 2) {
+      this.content[i] = 'a';
+    }
+    this.contentEncoding = ContentEncoding.fromCoding(this.encoding).orElse(null);
+  }
+
+  @Benchmark
+  public long copy(final Blackhole blackhole) throws IOException {
+    final DigestInputStream in = new DigestInputStream(new ByteArrayInputStream(this.content),
+        DocumentMetadata.contentDigest());
+    final GridFsWriter.ChunkOutputStream chunks = new GridFsWriter.ChunkOutputStream(
+        new ObjectId(), GridFsWriter.DEFAULT_CHUNK_SIZE, blackhole::consume);
+    try (chunks; OutputStream out = this.contentEncoding != null
+        ? this.contentEncoding.encode(chunks) : chunks) {
+      in.transferTo(out);
+    }
+    blackhole.consume(in.getMessageDigest().digest());
+    return chunks.length();
+  }
+}
@@ -2,10 +2,10 @@ package awt.dms;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
-@EnableWebSecurity
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class DmsApplication {
 
   public static void main(String[] args) {
@@ -0,0 +1,42 @@
+package awt.dms.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Admission of uploads, applied before their content is read. Uploads beyond a limit wait for a
+ * slot up to {@code max-wait}, or are shed at once with {@code 503} and {@code Retry-After}.
+ * While a byte rate is set, uploads without {@code Content-Length} are refused with {@code 411}.
+ *
+ * @param enabled               whether uploads are limited
+ * @param maxConcurrent         uploads stored at the same time
+ * @param maxConcurrentPerUser  uploads of one user stored at the same time
+ * @param maxQueued             uploads waiting for a slot; further ones are shed
+ * @param maxWait               how long an upload waits for a slot
+ * @param bytesPerSecond        declared bytes admitted per second, {@code 0} for no limit
+ * @param bytesPerSecondPerUser declared bytes of one user admitted per second, {@code 0} for no
+ *                              limit
+ * @param burst                 bytes admitted at once beyond the rates
+ * @param adaptive              whether {@code max-concurrent} is lowered while GridFS chunk
+ *                              inserts take longer than {@code target-latency}, and raised again
+ *                              once they are faster
+ * @param targetLatency         mean duration of one chunk {@code insertMany} the adaptive limit
+ *                              aims at
+ * @param minConcurrent         lowest limit the adaptive mode lowers {@code max-concurrent} to
+ */
+@ConfigurationProperties(prefix = "dms.admission")
+public record AdmissionProperties(@DefaultValue("true") boolean enabled,
+                                  @DefaultValue("32") int maxConcurrent,
+                                  @DefaultValue("4") int maxConcurrentPerUser,
+                                  @DefaultValue("64") int maxQueued,
+                                  @DefaultValue("1s") Duration maxWait,
+                                  @DefaultValue("0") DataSize bytesPerSecond,
+                                  @DefaultValue("0") DataSize bytesPerSecondPerUser,
+                                  @DefaultValue("64MB") DataSize burst,
+                                  @DefaultValue("false") boolean adaptive,
+                                  @DefaultValue("200ms") Duration targetLatency,
+                                  @DefaultValue("4") int minConcurrent) {
+
+}
@@ -0,0 +1,40 @@
+package awt.dms.config;
+
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.MimeType;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * ZIP archives of many documents.
+ *
+ * @param prefetch           documents opened ahead of the one being written
+ * @param prefetchSize       bytes read ahead from each of them
+ * @param storedContentTypes content types that are compressed already and therefore added to the
+ *                           archive without compression; wildcards like {@code image/*} are
+ *                           allowed
+ */
+@ConfigurationProperties(prefix = "dms.archive")
+public record ArchiveProperties(@DefaultValue("4") int prefetch,
+                                @DefaultValue("256KB") DataSize prefetchSize,
+                                @DefaultValue({"image/*", "audio/*", "video/*", "application/zip",
+                                    "application/gzip", "application/x-7z-compressed",
+                                    "application/pdf"})
+                                List<MimeType> storedContentTypes) {
+
+  /**
+   * Returns whether content of {@code contentType} is added without compression.
+   */
+  public boolean stores(final String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    try {
+      final MimeType mimeType = MimeType.valueOf(contentType);
+      return this.storedContentTypes.stream().anyMatch(type -> type.includes(mimeType));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+}
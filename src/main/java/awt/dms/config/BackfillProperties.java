@@ -0,0 +1,16 @@
+package awt.dms.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Computing the content hash of files stored before uploads recorded it.
+ *
+ * @param enabled   whether this instance backfills content hashes
+ * @param batchSize files hashed per run and bucket
+ */
+@ConfigurationProperties(prefix = "dms.content-hash.backfill")
+public record BackfillProperties(@DefaultValue("true") boolean enabled,
+                                 @DefaultValue("100") int batchSize) {
+
+}
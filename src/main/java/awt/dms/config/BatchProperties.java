@@ -0,0 +1,17 @@
+package awt.dms.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Batch endpoints under {@code /v1/documents/batch}.
+ *
+ * @param parallelism files of one batch upload stored at the same time
+ * @param maxItems    largest number of files or ids accepted in one request; deletes by metadata
+ *                    run in transactions of this many files
+ */
+@ConfigurationProperties(prefix = "dms.batch")
+public record BatchProperties(@DefaultValue("4") int parallelism,
+                              @DefaultValue("1000") int maxItems) {
+
+}
@@ -0,0 +1,27 @@
+package awt.dms.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Filesystem tier for large documents.
+ *
+ * @param root            directory, local or NFS mounted, holding the content of migrated files
+ * @param migrate         whether this instance moves large files from GridFS to the filesystem
+ * @param threshold       files with more stored bytes are moved
+ * @param batchSize       files moved per migration run
+ * @param chunkRetention  how long the GridFS chunks of a moved file are kept for downloads that
+ *                        were already reading them; should exceed
+ *                        {@code dms.cache.expire-after-write}
+ */
+@ConfigurationProperties(prefix = "dms.tiers")
+public record BlobTierProperties(@DefaultValue("blobs") Path root,
+                                 @DefaultValue("false") boolean migrate,
+                                 @DefaultValue("16MB") DataSize threshold,
+                                 @DefaultValue("10") int batchSize,
+                                 @DefaultValue("2h") Duration chunkRetention) {
+
+}
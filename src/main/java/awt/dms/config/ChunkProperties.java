@@ -0,0 +1,63 @@
+package awt.dms.config;
+
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.MimeType;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * GridFS chunks of new uploads and how chunks are written and read.
+ *
+ * @param minSize           smallest chunk size of content larger than it
+ * @param maxSize           largest chunk size
+ * @param count             chunks a file of known length is cut into, as far as the bounds allow
+ * @param largeContentTypes content types chunked at {@code max-size} when the length is not known
+ *                          in advance; wildcards like {@code video/*} are allowed
+ * @param insertBatchSize   bytes of chunks inserted with one {@code insertMany}
+ * @param insertsInFlight   batches inserted at the same time while the next one fills
+ * @param readAhead         bytes of chunks fetched with one query when reading; the next of them
+ *                          are fetched while the current ones are read
+ */
+@ConfigurationProperties(prefix = "dms.chunks")
+public record ChunkProperties(@DefaultValue("255KB") DataSize minSize,
+                              @DefaultValue("4MB") DataSize maxSize,
+                              @DefaultValue("128") int count,
+                              @DefaultValue({"video/*", "audio/*", "application/zip",
+                                  "application/x-7z-compressed"})
+                              List<MimeType> largeContentTypes,
+                              @DefaultValue("8MB") DataSize insertBatchSize,
+                              @DefaultValue("4") int insertsInFlight,
+                              @DefaultValue("4MB") DataSize readAhead) {
+
+  private static final int DEFAULT_CHUNK_SIZE = 255 * 1024;
+
+  /**
+   * Returns the chunk size of content of {@code contentType} that is {@code length} bytes long,
+   * or of unknown length when negative. Content smaller than {@code min-size} is stored in one
+   * chunk of exactly its length.
+   */
+  public int chunkSize(final long length, final String contentType) {
+    final long min = this.minSize.toBytes();
+    final long max = this.maxSize.toBytes();
+    if (length < 0) {
+      return (int) (this.large(contentType) ? max : Math.clamp(DEFAULT_CHUNK_SIZE, min, max));
+    }
+    if (length <= min) {
+      return (int) Math.max(length, 1);
+    }
+    return (int) Math.clamp((length + this.count - 1) / this.count, min, max);
+  }
+
+  private boolean large(final String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    try {
+      final MimeType mimeType = MimeType.valueOf(contentType);
+      return this.largeContentTypes.stream().anyMatch(type -> type.includes(mimeType));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+}
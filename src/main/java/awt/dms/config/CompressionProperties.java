@@ -0,0 +1,37 @@
+package awt.dms.config;
+
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.MimeType;
+
+/**
+ * Compression of stored content.
+ *
+ * @param enabled       whether new uploads are compressed at all
+ * @param contentTypes  content types stored gzip compressed; wildcards like {@code text/*} and
+ *                      {@code application/*+json} are allowed. Files of other types, including
+ *                      formats that are compressed already, are stored as uploaded.
+ */
+@ConfigurationProperties(prefix = "dms.compression")
+public record CompressionProperties(@DefaultValue("true") boolean enabled,
+                                    @DefaultValue({"text/*", "application/json",
+                                        "application/*+json", "application/xml",
+                                        "application/*+xml", "application/csv"})
+                                    List<MimeType> contentTypes) {
+
+  /**
+   * Returns whether content of {@code contentType} is stored compressed.
+   */
+  public boolean compresses(final String contentType) {
+    if (!this.enabled || contentType == null) {
+      return false;
+    }
+    try {
+      final MimeType mimeType = MimeType.valueOf(contentType);
+      return this.contentTypes.stream().anyMatch(type -> type.includes(mimeType));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package awt.dms.config;
+
+import awt.dms.service.DocumentCache;
+import awt.dms.service.FileDeleted;
+import java.util.function.Consumer;
+import org.bson.types.ObjectId;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class DocumentCacheConfig {
+
+  /**
+   * Invalidates documents deleted by any instance. The binding has no group, so each instance
+   * gets its own queue on the {@code file.deleted} fanout and sees every delete.
+   */
+  @Bean
+  public Consumer<FileDeleted> documentCacheEviction(final DocumentCache documentCache) {
+    return event -> event.ids().stream()
+        .filter(ObjectId::isValid)
+        .map(ObjectId::new)
+        .forEach(documentCache::invalidate);
+  }
+}
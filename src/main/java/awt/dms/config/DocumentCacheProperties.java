@@ -0,0 +1,30 @@
+package awt.dms.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * In-process cache of frequently downloaded documents.
+ *
+ * @param enabled                 whether documents are cached at all
+ * @param maxFiles                {@code fs.files} entries kept
+ * @param maxContentSize          largest stored size of a document whose content is kept
+ * @param maxTotalSize            budget for all kept content together
+ * @param expireAfterWrite        how long an {@code fs.files} entry is kept at most, bounding
+ *                                how long changes made by other instances, other than deletes,
+ *                                go unnoticed
+ * @param contentExpireAfterWrite how long content is kept at most; the stored bytes of a
+ *                                document never change and are only served after its entry was
+ *                                found
+ */
+@ConfigurationProperties(prefix = "dms.cache")
+public record DocumentCacheProperties(@DefaultValue("false") boolean enabled,
+                                      @DefaultValue("10000") long maxFiles,
+                                      @DefaultValue("1MB") DataSize maxContentSize,
+                                      @DefaultValue("64MB") DataSize maxTotalSize,
+                                      @DefaultValue("10s") Duration expireAfterWrite,
+                                      @DefaultValue("1h") Duration contentExpireAfterWrite) {
+
+}
@@ -0,0 +1,16 @@
+package awt.dms.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Caching of document downloads.
+ *
+ * @param cacheControl {@code Cache-Control} sent with every download. The default lets clients
+ *                     and shared caches keep a copy but revalidate it, which is cheap thanks to
+ *                     the content hash entity tags.
+ */
+@ConfigurationProperties(prefix = "dms.download")
+public record DownloadProperties(@DefaultValue("no-cache") String cacheControl) {
+
+}
@@ -0,0 +1,47 @@
+package awt.dms.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.util.MimeType;
+
+/**
+ * Binary codecs for the event bindings, next to the JSON one of Spring Cloud Stream. A binding
+ * uses the codec of its {@code content-type}, e.g. {@code application/x-jackson-smile}; consumers
+ * pick the codec from the {@code contentType} header of each message, so they read every codec
+ * regardless of their own binding.
+ */
+@Configuration
+public class EventCodecConfig {
+
+  public static final MimeType SMILE = MimeType.valueOf("application/x-jackson-smile");
+  public static final MimeType CBOR = MimeType.valueOf("application/cbor");
+
+  /**
+   * Encodes events as Smile, binary JSON keeping the field names once per message.
+   */
+  @Bean
+  MessageConverter smileMessageConverter() {
+    return converter(new SmileMapper(), SMILE);
+  }
+
+  /**
+   * Encodes events as CBOR (RFC 8949), for consumers without a Smile decoder.
+   */
+  @Bean
+  MessageConverter cborMessageConverter() {
+    return converter(new CBORMapper(), CBOR);
+  }
+
+  private static MessageConverter converter(final ObjectMapper objectMapper,
+      final MimeType mimeType) {
+    final MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter(
+        mimeType);
+    converter.setObjectMapper(objectMapper);
+    return converter;
+  }
+}
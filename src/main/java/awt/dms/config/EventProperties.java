@@ -0,0 +1,37 @@
+package awt.dms.config;
+
+import java.time.Duration;
+import java.util.Set;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Asynchronous publishing of document events.
+ *
+ * @param queueCapacity       events buffered in memory before the overflow policy applies
+ * @param batchSize           events taken from the queue and confirmed together
+ * @param overflow            what to do with an event when the queue is full
+ * @param blockTimeout        how long {@link Overflow#BLOCK} waits for room before dropping
+ * @param confirmTimeout      how long to wait for the broker to confirm a batch
+ * @param viewCoalesceWindow  repeated views of the same document within this window are
+ *                            published once
+ * @param viewCoalesceMaxKeys documents whose views are coalesced at most; views of further
+ *                            documents evict the least recent and may be published again
+ * @param envelopeBindings    bindings whose events taken from the queue together are sent as one
+ *                            {@code EventBatch} message instead of one message each
+ */
+@ConfigurationProperties(prefix = "dms.events")
+public record EventProperties(@DefaultValue("10000") int queueCapacity,
+                              @DefaultValue("100") int batchSize,
+                              @DefaultValue("block") Overflow overflow,
+                              @DefaultValue("1s") Duration blockTimeout,
+                              @DefaultValue("5s") Duration confirmTimeout,
+                              @DefaultValue("10s") Duration viewCoalesceWindow,
+                              @DefaultValue("100000") long viewCoalesceMaxKeys,
+                              @DefaultValue Set<String> envelopeBindings) {
+
+  public enum Overflow {
+    BLOCK,
+    DROP
+  }
+}
@@ -0,0 +1,26 @@
+package awt.dms.config;
+
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Indexes declared on {@code fs.files} at startup.
+ *
+ * @param metadataKeys     additional metadata keys documents are filtered on, each indexed together
+ *                         with the listing sort keys
+ * @param metadataWildcard whether a wildcard index on {@code metadata.$**} serves searches on keys
+ *                         not listed in {@code metadata-keys}
+ * @param collectionScan   what to do when a query plan of the service turns out to be a collection
+ *                         scan
+ */
+@ConfigurationProperties(prefix = "dms.indexes")
+public record IndexProperties(@DefaultValue List<String> metadataKeys,
+                              @DefaultValue("true") boolean metadataWildcard,
+                              @DefaultValue("warn") CollectionScanPolicy collectionScan) {
+
+  public enum CollectionScanPolicy {
+    WARN,
+    FAIL
+  }
+}
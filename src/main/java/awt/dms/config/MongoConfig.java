@@ -0,0 +1,45 @@
+package awt.dms.config;
+
+import com.mongodb.MongoException;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@Configuration
+public class MongoConfig {
+
+  private static final int MAX_COMMIT_ATTEMPTS = 3;
+
+  /**
+   * Commits again while the outcome of a commit is unknown, as the transaction itself may have
+   * been applied already.
+   */
+  @Bean
+  MongoTransactionManager transactionManager(final MongoDatabaseFactory mongoDatabaseFactory) {
+    return new MongoTransactionManager(mongoDatabaseFactory) {
+
+      @Override
+      protected void doCommit(final MongoTransactionObject transactionObject) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+          try {
+            transactionObject.commitTransaction();
+            return;
+          } catch (MongoException e) {
+            if (attempt == MAX_COMMIT_ATTEMPTS || !e.hasErrorLabel(
+                MongoException.UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL)) {
+              throw e;
+            }
+          }
+        }
+      }
+    };
+  }
+
+  @Bean
+  TransactionOperations transactionOperations(final MongoTransactionManager transactionManager) {
+    return new RetryingTransactionOperations(new TransactionTemplate(transactionManager));
+  }
+}
@@ -0,0 +1,37 @@
+package awt.dms.config;
+
+import awt.dms.service.TransferMetrics;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.observability.ContextProviderFactory;
+import org.springframework.data.mongodb.observability.MongoObservationCommandListener;
+
+@Configuration
+public class ObservabilityConfig {
+
+  private static final int MAX_CONTENT_TYPES = 100;
+
+  /**
+   * Traces every Mongo command, as a child span of the observation it runs in.
+   */
+  @Bean
+  MongoClientSettingsBuilderCustomizer mongoObservation(
+      final ObservationRegistry observationRegistry) {
+    return builder -> builder
+        .contextProvider(ContextProviderFactory.create(observationRegistry))
+        .addCommandListener(new MongoObservationCommandListener(observationRegistry));
+  }
+
+  /**
+   * Stops recording transfers of new content types once there are too many, as clients choose
+   * them freely.
+   */
+  @Bean
+  MeterFilter transferContentTypes() {
+    return MeterFilter.maximumAllowableTags(TransferMetrics.METER_PREFIX,
+        TransferMetrics.CONTENT_TYPE_TAG, MAX_CONTENT_TYPES, MeterFilter.deny());
+  }
+}
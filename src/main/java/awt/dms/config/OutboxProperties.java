@@ -0,0 +1,25 @@
+package awt.dms.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Relay of the transactional outbox to the message broker.
+ *
+ * @param relayEnabled   whether this instance takes part in relaying; only the instance holding
+ *                       the lease publishes
+ * @param batchSize      outbox entries published and confirmed together
+ * @param maxAwaitTime   how long the change stream waits for new entries before the lease is
+ *                       renewed
+ * @param leaseDuration  how long a relay lease lasts without renewal
+ * @param retryDelay     pause after a failed batch or a lost lease
+ */
+@ConfigurationProperties(prefix = "dms.outbox")
+public record OutboxProperties(@DefaultValue("true") boolean relayEnabled,
+                               @DefaultValue("100") int batchSize,
+                               @DefaultValue("1s") Duration maxAwaitTime,
+                               @DefaultValue("30s") Duration leaseDuration,
+                               @DefaultValue("5s") Duration retryDelay) {
+
+}
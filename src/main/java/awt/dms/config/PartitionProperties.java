@@ -0,0 +1,64 @@
+package awt.dms.config;
+
+import awt.dms.service.GridFsCollections;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Partitioning of documents by user into GridFS buckets of the {@code documents} database. A
+ * user is assigned a bucket on the first upload and keeps it until it is moved.
+ *
+ * @param strategy           how users not listed in {@code assignments} are assigned a bucket
+ * @param buckets            GridFS buckets next to the default {@code fs} one; documents are not
+ *                           partitioned without any
+ * @param assignments        bucket of each explicitly assigned user
+ * @param cacheTtl           how long assignments of users are cached; a move waits as long before
+ *                           it copies documents
+ * @param directoryCacheSize buckets of documents cached for lookups by id
+ * @param moveBatchSize      documents copied per run while a user is moved
+ * @param contentRetention   how long the content of moved documents is kept in the bucket they
+ *                           were moved from, for downloads and caches still reading it
+ */
+@ConfigurationProperties(prefix = "dms.partitions")
+public record PartitionProperties(@DefaultValue("explicit") Strategy strategy,
+                                  @DefaultValue List<String> buckets,
+                                  @DefaultValue Map<String, String> assignments,
+                                  @DefaultValue("10s") Duration cacheTtl,
+                                  @DefaultValue("100000") long directoryCacheSize,
+                                  @DefaultValue("100") int moveBatchSize,
+                                  @DefaultValue("1h") Duration contentRetention) {
+
+  /**
+   * Returns the default bucket followed by the configured ones.
+   */
+  public List<String> allBuckets() {
+    final List<String> all = new ArrayList<>();
+    all.add(GridFsCollections.DEFAULT_BUCKET);
+    this.buckets.stream()
+        .filter(bucket -> !all.contains(bucket))
+        .forEach(all::add);
+    return all;
+  }
+
+  /**
+   * Returns whether there are buckets besides the default one.
+   */
+  public boolean partitioned() {
+    return this.allBuckets().size() > 1;
+  }
+
+  public enum Strategy {
+    /**
+     * Users not listed in {@code assignments} stay in the default bucket.
+     */
+    EXPLICIT,
+    /**
+     * Users not listed in {@code assignments} are spread over all buckets by a hash of their id.
+     */
+    HASH
+  }
+}
@@ -0,0 +1,20 @@
+package awt.dms.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Storage quotas per user, i.e. per {@code user} metadata entry. Usage is counted whether or not
+ * quotas are enforced.
+ *
+ * @param enabled  whether uploads beyond a quota are rejected
+ * @param maxSize  largest total length of the stored documents of a user
+ * @param maxFiles largest number of documents of a user
+ */
+@ConfigurationProperties(prefix = "dms.quotas")
+public record QuotaProperties(@DefaultValue("true") boolean enabled,
+                              @DefaultValue("10GB") DataSize maxSize,
+                              @DefaultValue("100000") long maxFiles) {
+
+}
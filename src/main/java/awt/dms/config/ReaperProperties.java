@@ -0,0 +1,43 @@
+package awt.dms.config;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Purging of deleted documents.
+ *
+ * @param enabled            whether this instance purges deleted documents
+ * @param retention          how long deleted documents are kept and can be restored
+ * @param windowStart        local time purging may start at; purges any time unless both ends of
+ *                           the window are set
+ * @param windowEnd          local time purging stops at, before {@code window-start} for a window
+ *                           spanning midnight
+ * @param batchSize          deleted files purged per transaction
+ * @param chunksPerDelete    GridFS chunks removed with one {@code deleteMany}, {@code 0} for all
+ *                           chunks of a content at once
+ * @param maxChunksPerSecond chunks removed per second at most, leaving write capacity to the
+ *                           live traffic, {@code 0} for no limit
+ */
+@ConfigurationProperties(prefix = "dms.reaper")
+public record ReaperProperties(@DefaultValue("true") boolean enabled,
+                               @DefaultValue("7d") Duration retention,
+                               LocalTime windowStart,
+                               LocalTime windowEnd,
+                               @DefaultValue("100") int batchSize,
+                               @DefaultValue("256") int chunksPerDelete,
+                               @DefaultValue("2000") int maxChunksPerSecond) {
+
+  /**
+   * Returns whether purging may run at {@code time}.
+   */
+  public boolean inWindow(final LocalTime time) {
+    if (this.windowStart == null || this.windowEnd == null) {
+      return true;
+    }
+    return this.windowStart.isBefore(this.windowEnd)
+        ? !time.isBefore(this.windowStart) && time.isBefore(this.windowEnd)
+        : !time.isBefore(this.windowStart) || time.isBefore(this.windowEnd);
+  }
+}
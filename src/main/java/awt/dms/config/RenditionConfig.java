@@ -0,0 +1,34 @@
+package awt.dms.config;
+
+import awt.dms.service.FileUploaded;
+import awt.dms.service.RenditionService;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+import org.bson.types.ObjectId;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RenditionConfig {
+
+  /**
+   * Generates the renditions of uploaded documents. The binding has a group, so the instances
+   * share one queue on the {@code file.uploaded} fanout and each upload is rendered once; the
+   * consumer concurrency sizes the worker pool of an instance.
+   */
+  @Bean
+  public Consumer<FileUploaded> renditionGeneration(final RenditionService renditionService,
+      final RenditionProperties renditionProperties) {
+    return event -> {
+      if (!renditionProperties.generateOnUpload() || !ObjectId.isValid(event.objectId())) {
+        return;
+      }
+      try {
+        renditionService.generateAll(new ObjectId(event.objectId()));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    };
+  }
+}
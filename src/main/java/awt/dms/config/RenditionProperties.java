@@ -0,0 +1,44 @@
+package awt.dms.config;
+
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.MimeType;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Derivatives generated from documents, like thumbnails and text excerpts.
+ *
+ * @param generateOnUpload whether renditions are generated in the background after each upload;
+ *                         otherwise they are generated on their first request only
+ * @param thumbnailSize    longest side of thumbnails in pixels
+ * @param excerptLength    characters of text excerpts
+ * @param maxImageSize     largest image thumbnails are generated from, as it is decoded in memory
+ * @param textContentTypes content types excerpts are taken from; wildcards like {@code text/*}
+ *                         are allowed
+ */
+@ConfigurationProperties(prefix = "dms.renditions")
+public record RenditionProperties(@DefaultValue("true") boolean generateOnUpload,
+                                  @DefaultValue("256") int thumbnailSize,
+                                  @DefaultValue("500") int excerptLength,
+                                  @DefaultValue("32MB") DataSize maxImageSize,
+                                  @DefaultValue({"text/*", "application/json",
+                                      "application/*+json", "application/xml",
+                                      "application/*+xml"})
+                                  List<MimeType> textContentTypes) {
+
+  /**
+   * Returns whether excerpts are taken from content of {@code contentType}.
+   */
+  public boolean isText(final String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    try {
+      final MimeType mimeType = MimeType.valueOf(contentType);
+      return this.textContentTypes.stream().anyMatch(type -> type.includes(mimeType));
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+}
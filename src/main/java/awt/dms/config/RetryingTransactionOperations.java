@@ -0,0 +1,68 @@
+package awt.dms.config;
+
+import com.mongodb.MongoException;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Runs transactions again when they fail with the {@code TransientTransactionError} label, such
+ * as write conflicts between concurrent transactions incrementing the same counter document. Such
+ * a transaction was aborted as a whole, so callbacks must only change the database, or keep
+ * their results local, to be run again.
+ */
+public class RetryingTransactionOperations implements TransactionOperations {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(
+      RetryingTransactionOperations.class);
+
+  private static final int MAX_ATTEMPTS = 5;
+  private static final long MAX_BACKOFF_MILLIS = 20;
+
+  private final TransactionOperations transactionOperations;
+
+  public RetryingTransactionOperations(final TransactionOperations transactionOperations) {
+    this.transactionOperations = transactionOperations;
+  }
+
+  @Override
+  public <T> T execute(final TransactionCallback<T> action) throws TransactionException {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return this.transactionOperations.execute(action);
+      } catch (RuntimeException e) {
+        if (attempt == MAX_ATTEMPTS
+            || !hasErrorLabel(e, MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL)) {
+          throw e;
+        }
+        LOGGER.debug("Retrying transaction after transient error", e);
+        backOff(attempt);
+      }
+    }
+  }
+
+  /**
+   * Returns whether {@code e} was caused by a {@link MongoException} carrying {@code label}.
+   * Spring translates driver exceptions, keeping them as cause.
+   */
+  public static boolean hasErrorLabel(final Throwable e, final String label) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof MongoException mongoException && mongoException.hasErrorLabel(label)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void backOff(final int attempt) {
+    try {
+      Thread.sleep(ThreadLocalRandom.current().nextLong(MAX_BACKOFF_MILLIS * attempt + 1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while retrying transaction", e);
+    }
+  }
+}
@@ -2,13 +2,26 @@ package awt.dms.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityCustomizer;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.web.server.SecurityWebFilterChain;
 
 @Configuration
 public class SecurityConfig {
 
+  @Profile("!reactive")
   @Bean
   WebSecurityCustomizer ignoreResources() {
     return webSecurity -> webSecurity.ignoring().anyRequest();
   }
+
+  @Profile("reactive")
+  @Bean
+  SecurityWebFilterChain permitAllExchanges(final ServerHttpSecurity serverHttpSecurity) {
+    return serverHttpSecurity
+        .authorizeExchange(exchanges -> exchanges.anyExchange().permitAll())
+        .csrf(ServerHttpSecurity.CsrfSpec::disable)
+        .build();
+  }
 }
@@ -0,0 +1,16 @@
+package awt.dms.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Limits for raw-body uploads. Multipart uploads are still bounded by
+ * {@code spring.servlet.multipart.*}.
+ *
+ * @param maxSize largest document accepted by {@code PUT /v1/documents}
+ */
+@ConfigurationProperties(prefix = "dms.upload")
+public record UploadProperties(@DefaultValue("500MB") DataSize maxSize) {
+
+}
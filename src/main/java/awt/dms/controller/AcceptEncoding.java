@@ -0,0 +1,52 @@
+package awt.dms.controller;
+
+import java.util.Locale;
+
+/**
+ * Evaluates the {@code Accept-Encoding} request header.
+ */
+final class AcceptEncoding {
+
+  private static final String ANY = "*";
+
+  private AcceptEncoding() {
+  }
+
+  /**
+   * Returns whether {@code acceptEncoding} allows a response in {@code coding}, either by naming
+   * it or through {@code *}, with a non-zero quality.
+   */
+  static boolean accepts(final String acceptEncoding, final String coding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+
+    Boolean any = null;
+    for (final String element : acceptEncoding.split(",")) {
+      final String[] parameters = element.split(";");
+      final String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+      final boolean acceptable = quality(parameters) > 0;
+      if (name.equals(coding)) {
+        return acceptable;
+      }
+      if (name.equals(ANY)) {
+        any = acceptable;
+      }
+    }
+    return Boolean.TRUE.equals(any);
+  }
+
+  private static double quality(final String[] parameters) {
+    for (int i = 1; i < parameters.length; i++) {
+      final String parameter = parameters[i].trim();
+      if (parameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+}
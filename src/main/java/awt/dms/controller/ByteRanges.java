@@ -0,0 +1,74 @@
+package awt.dms.controller;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.http.HttpRange;
+
+/**
+ * Evaluates {@code Range} and {@code If-Range} request headers against a stored document.
+ */
+final class ByteRanges {
+
+  private ByteRanges() {
+  }
+
+  /**
+   * Returns the ranges to serve, or an empty list when the whole document should be sent.
+   *
+   * @throws IllegalArgumentException when the ranges cannot be satisfied
+   */
+  static List<HttpRange> requested(final String range, final String ifRange, final String etag,
+      final long lastModified, final long length) {
+    if (range == null || length == 0 || !matches(ifRange, etag, lastModified)) {
+      return Collections.emptyList();
+    }
+
+    final List<HttpRange> ranges = HttpRange.parseRanges(range);
+    long total = 0;
+    for (final HttpRange httpRange : ranges) {
+      final long start = httpRange.getRangeStart(length);
+      if (start >= length) {
+        throw new IllegalArgumentException("Range starts beyond the document length");
+      }
+      total += httpRange.getRangeEnd(length) - start + 1;
+    }
+    if (total > length) {
+      throw new IllegalArgumentException("Ranges exceed the document length");
+    }
+    return ranges;
+  }
+
+  static String contentRange(final long start, final long end, final long length) {
+    return "bytes " + start + "-" + end + "/" + length;
+  }
+
+  static String unsatisfiedContentRange(final long length) {
+    return "bytes */" + length;
+  }
+
+  /**
+   * An entity tag validator must match strongly. A date validator only matches when it is exactly
+   * the last modification time, at the one-second precision of HTTP dates.
+   */
+  private static boolean matches(final String ifRange, final String etag,
+      final long lastModified) {
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      return ifRange.equals(etag);
+    }
+
+    try {
+      final long ifRangeDate = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME)
+          .toInstant()
+          .toEpochMilli();
+      return ifRangeDate / 1000 == lastModified / 1000;
+    } catch (DateTimeParseException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,283 @@
+package awt.dms.controller;
+
+import awt.dms.config.BatchProperties;
+import awt.dms.service.DmsArchiveService;
+import awt.dms.service.DmsBatchService;
+import awt.dms.service.DmsBatchService.UploadResult;
+import awt.dms.service.DocumentMetadata;
+import awt.dms.service.UploadTooLargeException;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+@ApiResponses(value = {
+    @ApiResponse(responseCode = "401", description = "Not logged in."),
+    @ApiResponse(responseCode = "403", description = "Do not have permissions.")
+})
+@Profile("!reactive")
+@RestController
+public class DmsBatchController {
+
+  private static final String INTERNAL_SERVER_ERROR = "500";
+
+  static final String APPLICATION_ZIP_VALUE = "application/zip";
+  static final String ARCHIVE_FILENAME = "documents.zip";
+
+  private static final String CONTENT_TYPE_KEY = "_contentType";
+  private static final String INTERNAL_KEY_PREFIX = "_";
+  private static final Pattern METADATA_KEY_PATTERN = Pattern.compile("[\\w-]+");
+
+  private final DmsBatchService dmsBatchService;
+  private final DmsArchiveService dmsArchiveService;
+  private final BatchProperties batchProperties;
+
+  public DmsBatchController(final DmsBatchService dmsBatchService,
+      final DmsArchiveService dmsArchiveService, final BatchProperties batchProperties) {
+    this.dmsBatchService = dmsBatchService;
+    this.dmsArchiveService = dmsArchiveService;
+    this.batchProperties = batchProperties;
+  }
+
+  @Operation(summary = "Uploads many files, each as a part named file, with the same metadata. "
+      + "Reports the outcome per file in the order of the parts.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "207", description = "Files processed, see per file status."),
+      @ApiResponse(responseCode = "400", description = "No or too many files provided."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error uploading files.")
+  })
+  @PostMapping(value = "/v1/documents/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<List<UploadItem>> uploadFiles(
+      @NotNull @RequestPart("file") final List<MultipartFile> files,
+      @RequestPart final Optional<Map<String, String>> metadata) {
+    // XXX check user access
+    // XXX virus scan
+    this.checkSize(files.size());
+    final String location = ServletUriComponentsBuilder.fromCurrentContextPath()
+        .path("/v1/documents/")
+        .toUriString();
+    final List<UploadItem> items = this.dmsBatchService.upload(files,
+            metadata.orElse(Collections.emptyMap())).stream()
+        .map(result -> uploadItem(result, location))
+        .toList();
+    return ResponseEntity.status(HttpStatus.MULTI_STATUS).body(items);
+  }
+
+  @Operation(summary = "Deletes the listed files, or all files whose metadata has every entry "
+      + "of the filter.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "207", description = "Files processed, see per file status."),
+      @ApiResponse(responseCode = "400", description = "Neither or both of ids and metadata, "
+          + "or too many ids."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error deleting files.")
+  })
+  @PostMapping(value = "/v1/documents/batch/delete", consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<List<DeleteItem>> deleteFiles(@RequestBody final DeleteRequest request) {
+    // XXX check user access
+    if ((request.ids() == null) == (request.metadata() == null)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Exactly one of ids and metadata is required");
+    }
+
+    if (request.metadata() != null) {
+      checkFilter(request.metadata());
+      return ResponseEntity.status(HttpStatus.MULTI_STATUS).body(
+          this.dmsBatchService.deleteByMetadata(request.metadata()).stream()
+              .map(id -> new DeleteItem(id.toString(), HttpStatus.NO_CONTENT.value()))
+              .toList());
+    }
+
+    this.checkSize(request.ids().size());
+    final Set<ObjectId> deleted = new HashSet<>(
+        this.dmsBatchService.delete(objectIds(request.ids())));
+    return ResponseEntity.status(HttpStatus.MULTI_STATUS).body(request.ids().stream()
+        .map(id -> new DeleteItem(id, ObjectId.isValid(id) && deleted.contains(new ObjectId(id))
+            ? HttpStatus.NO_CONTENT.value() : HttpStatus.NOT_FOUND.value()))
+        .toList());
+  }
+
+  @Operation(summary = "Retrieves the metadata of the listed files with one query.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "207", description = "Files processed, see per file status."),
+      @ApiResponse(responseCode = "400", description = "No or too many ids."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error retrieving files.")
+  })
+  @PostMapping(value = "/v1/documents/batch/metadata",
+      consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<List<MetadataItem>> getMetadata(
+      @RequestBody final MetadataRequest request) {
+    // XXX check user access
+    if (request.ids() == null) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "ids is required");
+    }
+
+    this.checkSize(request.ids().size());
+    final Map<ObjectId, GridFSFile> files = this.dmsBatchService.findAll(
+        objectIds(request.ids()));
+    return ResponseEntity.status(HttpStatus.MULTI_STATUS).body(request.ids().stream()
+        .map(id -> metadataItem(id,
+            ObjectId.isValid(id) ? files.get(new ObjectId(id)) : null))
+        .toList());
+  }
+
+  @Operation(summary = "Retrieves the listed files, or all files of a user and/or whose metadata "
+      + "has every entry of the filter, as one ZIP archive streamed while it is built.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Archive retrieved successfully."),
+      @ApiResponse(responseCode = "400", description = "Neither or both of ids and a filter, "
+          + "or too many ids."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error retrieving files.")
+  })
+  @PostMapping(value = "/v1/documents/batch/archive", consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = APPLICATION_ZIP_VALUE)
+  public ResponseEntity<StreamingResponseBody> getArchive(
+      @RequestBody final ArchiveRequest request) {
+    // XXX check user access
+    final StreamingResponseBody body;
+    if (request.ids() != null) {
+      checkArchiveRequest(request);
+      this.checkSize(request.ids().size());
+      final Set<ObjectId> objectIds = objectIds(request.ids());
+      body = out -> this.dmsArchiveService.write(objectIds, out);
+    } else {
+      final Map<String, String> filter = checkArchiveRequest(request);
+      body = out -> this.dmsArchiveService.write(request.user(), filter, out);
+    }
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(APPLICATION_ZIP_VALUE))
+        .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+            .filename(ARCHIVE_FILENAME)
+            .build()
+            .toString())
+        .body(body);
+  }
+
+  private void checkSize(final int size) {
+    checkSize(size, this.batchProperties.maxItems());
+  }
+
+  static void checkSize(final int size, final int maxItems) {
+    if (size < 1 || size > maxItems) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Between 1 and " + maxItems + " items are required");
+    }
+  }
+
+  static void checkFilter(final Map<String, String> filter) {
+    if (filter.isEmpty() || !filter.keySet().stream()
+        .allMatch(key -> METADATA_KEY_PATTERN.matcher(key).matches())) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "metadata must have at least one entry, keys may only contain word characters and -");
+    }
+  }
+
+  /**
+   * Checks that {@code request} has either ids or a filter and returns the metadata filter.
+   */
+  static Map<String, String> checkArchiveRequest(final ArchiveRequest request) {
+    final Map<String, String> filter = request.metadata() != null ? request.metadata()
+        : Collections.emptyMap();
+    if (request.ids() != null) {
+      if (request.user() != null || request.metadata() != null) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+            "Exactly one of ids and a user or metadata filter is required");
+      }
+      return filter;
+    }
+    if (request.user() == null || !filter.isEmpty()) {
+      checkFilter(filter);
+    }
+    return filter;
+  }
+
+  static Set<ObjectId> objectIds(final List<String> ids) {
+    final Set<ObjectId> objectIds = new HashSet<>();
+    ids.stream()
+        .filter(ObjectId::isValid)
+        .map(ObjectId::new)
+        .forEach(objectIds::add);
+    return objectIds;
+  }
+
+  static UploadItem uploadItem(final UploadResult result, final String location) {
+    if (result.objectId() != null) {
+      return new UploadItem(result.filename(), HttpStatus.CREATED.value(),
+          result.objectId().toString(), location + result.objectId());
+    }
+    return new UploadItem(result.filename(),
+        result.failure() instanceof UploadTooLargeException
+            ? HttpStatus.PAYLOAD_TOO_LARGE.value() : HttpStatus.INTERNAL_SERVER_ERROR.value(),
+        null, null);
+  }
+
+  static MetadataItem metadataItem(final String id, final GridFSFile file) {
+    if (file == null) {
+      return new MetadataItem(id, HttpStatus.NOT_FOUND.value(), null, null, null, null, null);
+    }
+
+    final Document fileMetadata = file.getMetadata() != null ? file.getMetadata()
+        : new Document();
+    final Map<String, Object> metadata = new LinkedHashMap<>();
+    fileMetadata.forEach((key, value) -> {
+      if (!key.startsWith(INTERNAL_KEY_PREFIX)) {
+        metadata.put(key, value);
+      }
+    });
+    return new MetadataItem(id, HttpStatus.OK.value(), file.getFilename(),
+        fileMetadata.getString(CONTENT_TYPE_KEY), DocumentMetadata.originalLength(file),
+        file.getUploadDate(), metadata);
+  }
+
+  public record DeleteRequest(List<String> ids, Map<String, String> metadata) {
+
+  }
+
+  public record MetadataRequest(List<String> ids) {
+
+  }
+
+  public record ArchiveRequest(List<String> ids, String user, Map<String, String> metadata) {
+
+  }
+
+  public record UploadItem(String fileName, int status, String fileId, String location) {
+
+  }
+
+  public record DeleteItem(String fileId, int status) {
+
+  }
+
+  public record MetadataItem(String fileId, int status, String fileName, String contentType,
+                             Long length, Date uploadDate, Map<String, Object> metadata) {
+
+  }
+}
@@ -1,52 +1,122 @@
 package awt.dms.controller;
 
+import awt.dms.config.DownloadProperties;
+import awt.dms.config.UploadProperties;
+import awt.dms.service.ContentEncoding;
 import awt.dms.service.DmsService;
+import awt.dms.service.DocumentMetadata;
+import awt.dms.service.DocumentSearchService;
+import awt.dms.service.DocumentSummary;
+import awt.dms.service.PageCursor;
+import awt.dms.service.QuotaExceededException;
+import awt.dms.service.RenditionKind;
+import awt.dms.service.RenditionService;
+import awt.dms.service.RenditionService.Rendition;
+import awt.dms.service.SearchFilter;
+import awt.dms.service.SearchSort;
+import awt.dms.service.StorageUsage;
+import awt.dms.service.StorageUsage.Usage;
+import awt.dms.service.TransferMetrics;
+import awt.dms.service.TransferMetrics.Direction;
+import awt.dms.service.TransferMetrics.Transfer;
+import awt.dms.service.UploadTooLargeException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.gridfs.model.GridFSFile;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.headers.Header;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.constraints.NotNull;
 import java.io.IOException;
-import java.util.Collection;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.bson.types.ObjectId;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.mongodb.gridfs.GridFsResource;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 @ApiResponses(value = {
     @ApiResponse(responseCode = "401", description = "Not logged in."),
     @ApiResponse(responseCode = "403", description = "Do not have permissions.")
 })
+@Profile("!reactive")
 @RestController
 public class DmsController {
 
   private static final String INTERNAL_SERVER_ERROR = "500";
 
+  private static final String DEFAULT_PAGE_SIZE = "100";
+  private static final int MAX_PAGE_SIZE = 1000;
+  private static final String DEFAULT_SEARCH_SORT = "-uploadDate";
+
+  private static final String CONTENT_TYPE_HEADER = "X-Dms-Content-Type";
+  private static final String METADATA_HEADER_PREFIX = "x-dms-meta-";
+
+  private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
   private final DmsService dmsService;
+  private final UploadProperties uploadProperties;
+  private final DownloadProperties downloadProperties;
+  private final ObjectMapper objectMapper;
+  private final TransferMetrics transferMetrics;
+  private final RenditionService renditionService;
+  private final DocumentSearchService documentSearchService;
+  private final StorageUsage storageUsage;
 
-  public DmsController(final DmsService dmsService) {
+  public DmsController(final DmsService dmsService, final UploadProperties uploadProperties,
+      final DownloadProperties downloadProperties, final ObjectMapper objectMapper,
+      final TransferMetrics transferMetrics, final RenditionService renditionService,
+      final DocumentSearchService documentSearchService, final StorageUsage storageUsage) {
     this.dmsService = dmsService;
+    this.uploadProperties = uploadProperties;
+    this.downloadProperties = downloadProperties;
+    this.objectMapper = objectMapper;
+    this.transferMetrics = transferMetrics;
+    this.renditionService = renditionService;
+    this.documentSearchService = documentSearchService;
+    this.storageUsage = storageUsage;
   }
 
   @Operation(summary = "Uploads file. Size limit is 5MB")
@@ -55,6 +125,7 @@ public class DmsController {
           @Header(name = "location", description = "URL to uploaded file.", required = true)
       }),
       @ApiResponse(responseCode = "400", description = "No file provided."),
+      @ApiResponse(responseCode = "507", description = "Storage quota of the user exceeded."),
       @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error uploading file.")
   })
   @PostMapping(value = "/v1/documents", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -71,49 +142,239 @@ public class DmsController {
         .build();
   }
 
-  @Operation(summary = "Retrieves file.")
+  @Operation(summary = "Uploads the raw request body as a file, streaming it into storage. "
+      + "Metadata entries are sent as X-Dms-Meta-<key> headers.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "201", description = "File uploaded successfully.", headers = {
+          @Header(name = "location", description = "URL to uploaded file.", required = true)
+      }),
+      @ApiResponse(responseCode = "400", description = "No filename in Content-Disposition."),
+      @ApiResponse(responseCode = "413", description = "File exceeds the upload size limit."),
+      @ApiResponse(responseCode = "507", description = "Storage quota of the user exceeded."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error uploading file.")
+  })
+  @PutMapping(value = "/v1/documents", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public ResponseEntity<Void> uploadStream(
+      @RequestHeader(value = HttpHeaders.CONTENT_DISPOSITION, required = false)
+      final Optional<String> contentDisposition,
+      @RequestHeader(value = CONTENT_TYPE_HEADER, required = false)
+      final Optional<String> contentType,
+      final HttpServletRequest httpServletRequest)
+      throws IOException {
+    // XXX check user access
+    // XXX virus scan
+    final long maxSize = this.uploadProperties.maxSize().toBytes();
+    if (httpServletRequest.getContentLengthLong() > maxSize) {
+      throw new UploadTooLargeException(maxSize);
+    }
+
+    final String filename = uploadFilename(contentDisposition);
+    final ObjectId objectId = this.dmsService.upload(httpServletRequest.getInputStream(),
+        httpServletRequest.getContentLengthLong(), filename,
+        contentType.orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE),
+        metadataHeaders(httpServletRequest));
+    return ResponseEntity.created(ServletUriComponentsBuilder.fromCurrentRequest()
+            .path("/{id}")
+            .buildAndExpand(objectId)
+            .toUri())
+        .build();
+  }
+
+  @Operation(summary = "Retrieves file. Supports conditional requests as well as single and "
+      + "multiple byte ranges. Compressed files are sent as stored when Accept-Encoding allows "
+      + "it, and decompressed otherwise.")
   @ApiResponses(value = {
       @ApiResponse(responseCode = "200", description = "File retrieved successfully."),
+      @ApiResponse(responseCode = "206", description = "Requested ranges retrieved successfully."),
+      @ApiResponse(responseCode = "304", description = "File not modified."),
       @ApiResponse(responseCode = "404", description = "File doesn't exist."),
+      @ApiResponse(responseCode = "416", description = "Requested ranges not satisfiable."),
       @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error retrieving file.")
   })
   @GetMapping(value = "/v1/documents/{objectId}")
   public void getFile(@PathVariable("objectId") final ObjectId objectId,
+      @RequestHeader(value = HttpHeaders.RANGE, required = false) final String range,
+      @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) final String ifRange,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+      final String acceptEncoding,
+      final HttpServletRequest httpServletRequest,
       final HttpServletResponse httpServletResponse)
       throws IOException {
     // XXX check user access
-    final Optional<GridFsResource> optional = this.dmsService.findOne(objectId);
+    final Optional<GridFSFile> optional = this.dmsService.findFile(objectId);
     if (optional.isEmpty()) {
       throw new ResponseStatusException(HttpStatus.NOT_FOUND);
     }
 
-    final GridFsResource resource = optional.get();
-    httpServletResponse.setContentType(resource.getContentType());
-    httpServletResponse.setContentLengthLong(resource.contentLength());
+    final GridFSFile file = optional.get();
+    // stored content is sent as is when the client accepts its encoding; otherwise it is decoded
+    // on the fly, which rules out ranges
+    final Optional<ContentEncoding> encoding = DocumentMetadata.contentEncoding(file);
+    final Optional<String> contentEncoding = encoding.map(ContentEncoding::coding)
+        .filter(coding -> AcceptEncoding.accepts(acceptEncoding, coding));
+    final boolean decode = encoding.isPresent() && contentEncoding.isEmpty();
+    final long length = decode ? DocumentMetadata.originalLength(file) : file.getLength();
+    final long lastModified = file.getUploadDate().getTime();
+    final String contentHash = DocumentMetadata.contentHash(file);
+    final String etag = contentHash != null
+        ? "\"" + contentHash + contentEncoding.map(coding -> "-" + coding).orElse("") + "\""
+        : null;
+    httpServletResponse.setHeader(HttpHeaders.CACHE_CONTROL,
+        this.downloadProperties.cacheControl());
+    httpServletResponse.setHeader(HttpHeaders.ACCEPT_RANGES, decode ? "none" : "bytes");
+    if (encoding.isPresent()) {
+      httpServletResponse.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+    final ServletWebRequest webRequest = new ServletWebRequest(httpServletRequest,
+        httpServletResponse);
+    if (etag != null ? webRequest.checkNotModified(etag, lastModified)
+        : webRequest.checkNotModified(lastModified)) {
+      return;
+    }
+
+    final List<HttpRange> ranges;
+    try {
+      ranges = decode ? Collections.emptyList()
+          : ByteRanges.requested(range, ifRange, etag, lastModified, length);
+    } catch (IllegalArgumentException e) {
+      httpServletResponse.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+      httpServletResponse.setHeader(HttpHeaders.CONTENT_RANGE,
+          ByteRanges.unsatisfiedContentRange(length));
+      return;
+    }
+
+    // content in the filesystem tier is handed to the container, bypassing the heap
+    final Optional<Path> localFile = decode || ranges.size() > 1 ? Optional.empty()
+        : this.dmsService.localFile(file);
+    final GridFsResource resource;
+    if (localFile.isPresent()) {
+      this.dmsService.recordView(file);
+      resource = new GridFsResource(file);
+    } else {
+      resource = this.dmsService.getResource(file);
+    }
     httpServletResponse.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
         .filename(resource.getFilename())
         .build()
         .toString()
     );
+    contentEncoding.ifPresent(coding ->
+        httpServletResponse.setHeader(HttpHeaders.CONTENT_ENCODING, coding));
 
-    resource.getInputStream().transferTo(httpServletResponse.getOutputStream());
+    try (Transfer transfer = this.transferMetrics.start(Direction.DOWNLOAD,
+        resource.getContentType())) {
+      if (ranges.isEmpty()) {
+        httpServletResponse.setContentType(resource.getContentType());
+        httpServletResponse.setContentLengthLong(length);
+        if (localFile.isPresent()) {
+          sendFile(localFile.get(), 0, length - 1, transfer, httpServletRequest,
+              httpServletResponse);
+          return;
+        }
+        try (InputStream content = decode ? encoding.get().decode(resource.getInputStream())
+            : resource.getInputStream()) {
+          content.transferTo(transfer.count(httpServletResponse.getOutputStream()));
+        }
+      } else if (ranges.size() == 1) {
+        final long start = ranges.get(0).getRangeStart(length);
+        final long end = ranges.get(0).getRangeEnd(length);
+        httpServletResponse.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        httpServletResponse.setContentType(resource.getContentType());
+        httpServletResponse.setContentLengthLong(end - start + 1);
+        httpServletResponse.setHeader(HttpHeaders.CONTENT_RANGE,
+            ByteRanges.contentRange(start, end, length));
+        if (localFile.isPresent()) {
+          sendFile(localFile.get(), start, end, transfer, httpServletRequest,
+              httpServletResponse);
+          return;
+        }
+        try (InputStream content = this.dmsService.openRange(file, start, end)) {
+          content.transferTo(transfer.count(httpServletResponse.getOutputStream()));
+        }
+      } else {
+        this.writeRanges(file, resource.getContentType(), ranges,
+            transfer.count(httpServletResponse.getOutputStream()), httpServletResponse);
+      }
+    }
   }
 
-  @Operation(summary = "Retrieves files.")
+  @Operation(summary = "Retrieves files of a user, newest first, all of them unless a limit is "
+      + "given. Pass the cursor of the last file received as after to get the next page.")
   @ApiResponses(value = {
       @ApiResponse(responseCode = "200", description = "Files retrieved successfully."),
+      @ApiResponse(responseCode = "400", description = "Invalid limit or after."),
       @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error retrieving file.")
   })
-  @GetMapping(value = "/v1/documents")
-  public ResponseEntity<Collection<FileItem>> getFiles(@RequestParam("user") final String user) {
+  @GetMapping(value = "/v1/documents", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> getFiles(@RequestParam("user") final String user,
+      @RequestParam(value = "limit", required = false) final Integer limit,
+      @RequestParam(value = "after", required = false) final String after) {
+    // XXX check user access
+    if (limit != null && (limit < 1 || limit > MAX_PAGE_SIZE)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+
+    return this.fileItems(this.dmsService.findPage(user,
+        this.pageCursor(after, SearchFilter.UPLOAD_DATE_FIELD),
+        limit != null ? limit : Integer.MAX_VALUE));
+  }
+
+  @Operation(summary = "Searches files. Each filter is written field:operator:value on "
+      + "contentType, uploadDate, length or metadata.<key> with operators eq, in, gt, gte, lt, "
+      + "lte and prefix. Sort by uploadDate or length, prefixed with - for descending. Pass the "
+      + "cursor of the last file received as after to get the next page.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Files retrieved successfully."),
+      @ApiResponse(responseCode = "400",
+          description = "Invalid filter, sort, limit or after, or no index serves the search."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error searching files.")
+  })
+  @GetMapping(value = "/v1/documents/search", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> searchFiles(
+      @RequestParam(value = "filter", required = false) final List<String> filters,
+      @RequestParam(value = "sort", defaultValue = DEFAULT_SEARCH_SORT) final String sort,
+      @RequestParam(value = "limit", defaultValue = DEFAULT_PAGE_SIZE) final int limit,
+      @RequestParam(value = "after", required = false) final String after) {
     // XXX check user access
-    final Collection<GridFsResource> resources = this.dmsService.findAll(user);
-    final Collection<FileItem> files = resources.stream().map(
-        resource -> new FileItem(Objects.requireNonNull(resource.getFileId()).toString(),
-            resource.getContentType(), resource.getFilename())
-    ).collect(Collectors.toCollection(HashSet::new));
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
 
-    return ResponseEntity.ok(files);
+    try {
+      final SearchSort searchSort = SearchSort.parse(sort);
+      return this.fileItems(this.documentSearchService.search(
+          filters != null ? filters.stream().map(SearchFilter::parse).toList() : List.of(),
+          searchSort, this.pageCursor(after, searchSort.field()), limit));
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+    }
+  }
+
+  @Operation(summary = "Retrieves a rendition of a file: thumbnail of an image or excerpt of a "
+      + "text. Renditions not generated yet are generated on the first request.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Rendition retrieved successfully."),
+      @ApiResponse(responseCode = "304", description = "Rendition not modified."),
+      @ApiResponse(responseCode = "404",
+          description = "File doesn't exist or has no rendition of that kind."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR,
+          description = "Error retrieving rendition.")
+  })
+  @GetMapping(value = "/v1/documents/{objectId}/renditions/{kind}")
+  public ResponseEntity<byte[]> getRendition(@PathVariable("objectId") final ObjectId objectId,
+      @PathVariable("kind") final String kind) throws IOException {
+    // XXX check user access
+    final RenditionKind renditionKind = RenditionKind.fromKey(kind)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    final Rendition rendition = this.renditionService.get(objectId, renditionKind)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(rendition.contentType()))
+        .eTag(rendition.contentHash())
+        .header(HttpHeaders.CACHE_CONTROL, this.downloadProperties.cacheControl())
+        .body(rendition.content());
   }
 
   @Operation(summary = "Deletes file.")
@@ -128,12 +389,190 @@ public class DmsController {
     return ResponseEntity.noContent().build();
   }
 
+  @Operation(summary = "Restores a deleted file that has not been purged yet.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "204", description = "File restored successfully."),
+      @ApiResponse(responseCode = "404", description = "No deleted file to restore."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error restoring file.")
+  })
+  @PostMapping(value = "/v1/documents/{objectId}/restore")
+  public ResponseEntity<Void> restoreFile(@PathVariable("objectId") final ObjectId objectId) {
+    // XXX check user access
+    return this.dmsService.restore(objectId) ? ResponseEntity.noContent().build()
+        : ResponseEntity.notFound().build();
+  }
+
+  @Operation(summary = "Retrieves the bytes and number of files stored by a user.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Usage retrieved successfully."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error retrieving usage.")
+  })
+  @GetMapping(value = "/v1/usage", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Usage getUsage(@RequestParam("user") final String user) {
+    // XXX check user access
+    return this.storageUsage.get(user);
+  }
+
   @ExceptionHandler(IOException.class)
   public ResponseEntity<String> handleIOException() {
     return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
   }
 
-  public record FileItem(String fileId, String contentType, String fileName) {
+  @ExceptionHandler({MaxUploadSizeExceededException.class, UploadTooLargeException.class})
+  public ResponseEntity<String> handleUploadTooLargeException() {
+    return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+  }
+
+  @ExceptionHandler(QuotaExceededException.class)
+  public ResponseEntity<String> handleQuotaExceededException() {
+    return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).build();
+  }
+
+  /**
+   * Streams {@code summaries} as a JSON array of {@link FileItem} and closes them.
+   */
+  private ResponseEntity<StreamingResponseBody> fileItems(
+      final Stream<DocumentSummary> summaries) {
+    return ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(out -> {
+          try (summaries; JsonGenerator generator = this.objectMapper.createGenerator(out)) {
+            generator.writeStartArray();
+            final Iterator<DocumentSummary> it = summaries.iterator();
+            while (it.hasNext()) {
+              generator.writeObject(FileItem.of(it.next()));
+            }
+            generator.writeEndArray();
+          }
+        });
+  }
 
+  private void writeRanges(final GridFSFile file, final String contentType,
+      final List<HttpRange> ranges, final OutputStream out,
+      final HttpServletResponse httpServletResponse) throws IOException {
+    final long length = file.getLength();
+    final String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    httpServletResponse.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+    httpServletResponse.setContentType("multipart/byteranges; boundary=" + boundary);
+    for (final HttpRange httpRange : ranges) {
+      final long start = httpRange.getRangeStart(length);
+      final long end = httpRange.getRangeEnd(length);
+      out.write(("\r\n--" + boundary + "\r\n"
+          + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+          + HttpHeaders.CONTENT_RANGE + ": " + ByteRanges.contentRange(start, end, length)
+          + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+      try (InputStream content = this.dmsService.openRange(file, start, end)) {
+        content.transferTo(out);
+      }
+    }
+    out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Sends bytes {@code start} to {@code end}, both inclusive, of {@code path}, counting them in
+   * {@code transfer}. Uses the container's sendfile when it supports it, which sends the file
+   * without copying it into the heap once the request returns; the bytes are counted when handed
+   * over, as nothing reports when the container is done. Otherwise the file channel transfers to
+   * the response stream, copying through a heap buffer like any stream, and bytes are counted as
+   * they are written.
+   */
+  private static void sendFile(final Path path, final long start, final long end,
+      final Transfer transfer, final HttpServletRequest httpServletRequest,
+      final HttpServletResponse httpServletResponse) throws IOException {
+    if (Boolean.TRUE.equals(httpServletRequest.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+      httpServletRequest.setAttribute(SENDFILE_FILENAME_ATTRIBUTE,
+          path.toAbsolutePath().toString());
+      httpServletRequest.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+      httpServletRequest.setAttribute(SENDFILE_END_ATTRIBUTE, end + 1);
+      transfer.add(end - start + 1);
+      return;
+    }
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final WritableByteChannel out = Channels.newChannel(httpServletResponse.getOutputStream());
+      long position = start;
+      while (position <= end) {
+        final long transferred = channel.transferTo(position, end - position + 1, out);
+        transfer.add(transferred);
+        position += transferred;
+      }
+    }
+  }
+
+  /**
+   * Returns the filename of a raw-body upload from its Content-Disposition header, rejecting the
+   * upload before any content is read when there is none.
+   */
+  static String uploadFilename(final Optional<String> contentDisposition) {
+    final String filename;
+    try {
+      filename = contentDisposition.map(ContentDisposition::parse)
+          .map(ContentDisposition::getFilename)
+          .orElse(null);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid Content-Disposition", e);
+    }
+    if (filename == null || filename.isBlank()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Content-Disposition with a filename is required");
+    }
+    return filename;
+  }
+
+  /**
+   * Returns the position paging continues after on {@code field}. Besides cursors, the id of the
+   * last file is accepted as clients sent before cursors, as long as that file exists.
+   */
+  private PageCursor pageCursor(final String after, final String field) {
+    if (after == null || !ObjectId.isValid(after)) {
+      return decodeCursor(after, field);
+    }
+    return this.dmsService.findFile(new ObjectId(after))
+        .map(file -> PageCursor.of(file, field))
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown after"));
+  }
+
+  /**
+   * Decodes the cursor {@code after}, {@code null} if absent, checking it continues an order on
+   * {@code field}.
+   */
+  static PageCursor decodeCursor(final String after, final String field) {
+    if (after == null) {
+      return null;
+    }
+    final PageCursor cursor;
+    try {
+      cursor = PageCursor.decode(after);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+    }
+    if (!cursor.field().equals(field)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "after is a cursor on " + cursor.field() + ", not " + field);
+    }
+    return cursor;
+  }
+
+  private static Map<String, String> metadataHeaders(final HttpServletRequest request) {
+    final Map<String, String> metadata = new HashMap<>();
+    Collections.list(request.getHeaderNames()).forEach(name -> {
+      final String lowerCaseName = name.toLowerCase(Locale.ROOT);
+      if (lowerCaseName.startsWith(METADATA_HEADER_PREFIX)) {
+        metadata.put(lowerCaseName.substring(METADATA_HEADER_PREFIX.length()),
+            request.getHeader(name));
+      }
+    });
+    return metadata;
+  }
+
+  /**
+   * A listed file and the cursor to continue paging after it.
+   */
+  public record FileItem(String fileId, String contentType, String fileName, String cursor) {
+
+    public static FileItem of(final DocumentSummary summary) {
+      return new FileItem(summary.id().toString(), summary.contentType(), summary.filename(),
+          summary.cursor().encode());
+    }
   }
 }
@@ -0,0 +1,224 @@
+package awt.dms.controller;
+
+import awt.dms.config.BatchProperties;
+import awt.dms.controller.DmsBatchController.ArchiveRequest;
+import awt.dms.controller.DmsBatchController.DeleteItem;
+import awt.dms.controller.DmsBatchController.DeleteRequest;
+import awt.dms.controller.DmsBatchController.MetadataItem;
+import awt.dms.controller.DmsBatchController.MetadataRequest;
+import awt.dms.controller.DmsBatchController.UploadItem;
+import awt.dms.service.DmsArchiveService;
+import awt.dms.service.DmsBatchService;
+import awt.dms.service.DmsBatchService.UploadResult;
+import awt.dms.service.ReactiveDmsService;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bson.types.ObjectId;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The API of {@link DmsBatchController} on WebFlux. Uploads stream through
+ * {@link ReactiveDmsService}; deletes and metadata lookups use {@link DmsBatchService} on bounded
+ * elastic threads.
+ */
+@ApiResponses(value = {
+    @ApiResponse(responseCode = "401", description = "Not logged in."),
+    @ApiResponse(responseCode = "403", description = "Do not have permissions.")
+})
+@Profile("reactive")
+@RestController
+public class ReactiveDmsBatchController {
+
+  private static final String INTERNAL_SERVER_ERROR = "500";
+
+  private final ReactiveDmsService reactiveDmsService;
+  private final DmsBatchService dmsBatchService;
+  private final DmsArchiveService dmsArchiveService;
+  private final BatchProperties batchProperties;
+
+  public ReactiveDmsBatchController(final ReactiveDmsService reactiveDmsService,
+      final DmsBatchService dmsBatchService, final DmsArchiveService dmsArchiveService,
+      final BatchProperties batchProperties) {
+    this.reactiveDmsService = reactiveDmsService;
+    this.dmsBatchService = dmsBatchService;
+    this.dmsArchiveService = dmsArchiveService;
+    this.batchProperties = batchProperties;
+  }
+
+  @Operation(summary = "Uploads many files, each as a part named file, with the same metadata. "
+      + "Reports the outcome per file in the order of the parts.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "207", description = "Files processed, see per file status."),
+      @ApiResponse(responseCode = "400", description = "No or too many files provided."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error uploading files.")
+  })
+  @PostMapping(value = "/v1/documents/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<List<UploadItem>>> uploadFiles(
+      @RequestPart("file") final Flux<FilePart> files,
+      @RequestPart(value = "metadata", required = false) final Map<String, String> metadata,
+      final ServerHttpRequest request) {
+    // XXX check user access
+    // XXX virus scan
+    final String location = UriComponentsBuilder.fromHttpRequest(request)
+        .replacePath("/v1/documents/")
+        .replaceQuery(null)
+        .toUriString();
+    final int maxItems = this.batchProperties.maxItems();
+    // parts arrive one after the other, so reading stops at the first part over the limit
+    return files.index()
+        .doOnNext(file -> DmsBatchController.checkSize(Math.toIntExact(file.getT1() + 1),
+            maxItems))
+        .flatMapSequential(file -> this.upload(file.getT2(),
+                metadata != null ? metadata : Collections.emptyMap()),
+            this.batchProperties.parallelism())
+        .map(result -> DmsBatchController.uploadItem(result, location))
+        .collectList()
+        .doOnNext(items -> DmsBatchController.checkSize(items.size(), maxItems))
+        .map(items -> ResponseEntity.status(HttpStatus.MULTI_STATUS).body(items));
+  }
+
+  @Operation(summary = "Deletes the listed files, or all files whose metadata has every entry "
+      + "of the filter.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "207", description = "Files processed, see per file status."),
+      @ApiResponse(responseCode = "400", description = "Neither or both of ids and metadata, "
+          + "or too many ids."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error deleting files.")
+  })
+  @PostMapping(value = "/v1/documents/batch/delete", consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<List<DeleteItem>>> deleteFiles(
+      @RequestBody final DeleteRequest request) {
+    // XXX check user access
+    if ((request.ids() == null) == (request.metadata() == null)) {
+      return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Exactly one of ids and metadata is required"));
+    }
+
+    return Mono.fromCallable(() -> {
+          if (request.metadata() != null) {
+            DmsBatchController.checkFilter(request.metadata());
+            return this.dmsBatchService.deleteByMetadata(request.metadata()).stream()
+                .map(id -> new DeleteItem(id.toString(), HttpStatus.NO_CONTENT.value()))
+                .toList();
+          }
+
+          DmsBatchController.checkSize(request.ids().size(), this.batchProperties.maxItems());
+          final Set<ObjectId> deleted = new HashSet<>(
+              this.dmsBatchService.delete(DmsBatchController.objectIds(request.ids())));
+          return request.ids().stream()
+              .map(id -> new DeleteItem(id,
+                  ObjectId.isValid(id) && deleted.contains(new ObjectId(id))
+                      ? HttpStatus.NO_CONTENT.value() : HttpStatus.NOT_FOUND.value()))
+              .toList();
+        })
+        .subscribeOn(Schedulers.boundedElastic())
+        .map(items -> ResponseEntity.status(HttpStatus.MULTI_STATUS).body(items));
+  }
+
+  @Operation(summary = "Retrieves the metadata of the listed files with one query.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "207", description = "Files processed, see per file status."),
+      @ApiResponse(responseCode = "400", description = "No or too many ids."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error retrieving files.")
+  })
+  @PostMapping(value = "/v1/documents/batch/metadata",
+      consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<List<MetadataItem>>> getMetadata(
+      @RequestBody final MetadataRequest request) {
+    // XXX check user access
+    if (request.ids() == null) {
+      return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "ids is required"));
+    }
+
+    return Mono.fromCallable(() -> {
+          DmsBatchController.checkSize(request.ids().size(), this.batchProperties.maxItems());
+          final Map<ObjectId, GridFSFile> files = this.dmsBatchService.findAll(
+              DmsBatchController.objectIds(request.ids()));
+          return request.ids().stream()
+              .map(id -> DmsBatchController.metadataItem(id,
+                  ObjectId.isValid(id) ? files.get(new ObjectId(id)) : null))
+              .toList();
+        })
+        .subscribeOn(Schedulers.boundedElastic())
+        .map(items -> ResponseEntity.status(HttpStatus.MULTI_STATUS).body(items));
+  }
+
+  @Operation(summary = "Retrieves the listed files, or all files of a user and/or whose metadata "
+      + "has every entry of the filter, as one ZIP archive streamed while it is built.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Archive retrieved successfully."),
+      @ApiResponse(responseCode = "400", description = "Neither or both of ids and a filter, "
+          + "or too many ids."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error retrieving files.")
+  })
+  @PostMapping(value = "/v1/documents/batch/archive", consumes = MediaType.APPLICATION_JSON_VALUE,
+      produces = DmsBatchController.APPLICATION_ZIP_VALUE)
+  public ResponseEntity<Flux<DataBuffer>> getArchive(@RequestBody final ArchiveRequest request) {
+    // XXX check user access
+    final Map<String, String> filter = DmsBatchController.checkArchiveRequest(request);
+    if (request.ids() != null) {
+      DmsBatchController.checkSize(request.ids().size(), this.batchProperties.maxItems());
+    }
+    // the archive is written to a blocking stream on a bounded elastic thread, which only
+    // continues as the client takes the buffers
+    final Flux<DataBuffer> body = DataBufferUtils.outputStreamPublisher(out -> {
+          try {
+            if (request.ids() != null) {
+              this.dmsArchiveService.write(DmsBatchController.objectIds(request.ids()), out);
+            } else {
+              this.dmsArchiveService.write(request.user(), filter, out);
+            }
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }, DefaultDataBufferFactory.sharedInstance,
+        task -> Schedulers.boundedElastic().schedule(task));
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(DmsBatchController.APPLICATION_ZIP_VALUE))
+        .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+            .filename(DmsBatchController.ARCHIVE_FILENAME)
+            .build()
+            .toString())
+        .body(Flux.from(body));
+  }
+
+  private Mono<UploadResult> upload(final FilePart file, final Map<String, String> metadata) {
+    final MediaType contentType = file.headers().getContentType();
+    return this.reactiveDmsService.upload(file.content(), file.headers().getContentLength(),
+            file.filename(),
+            contentType != null ? contentType.toString() : null, metadata)
+        .map(objectId -> new UploadResult(file.filename(), objectId, null))
+        .onErrorResume(Exception.class,
+            e -> Mono.just(new UploadResult(file.filename(), null, e)));
+  }
+}
@@ -0,0 +1,498 @@
+package awt.dms.controller;
+
+import awt.dms.config.DownloadProperties;
+import awt.dms.config.UploadProperties;
+import awt.dms.controller.DmsController.FileItem;
+import awt.dms.service.ContentEncoding;
+import awt.dms.service.DocumentMetadata;
+import awt.dms.service.DocumentSearchService;
+import awt.dms.service.PageCursor;
+import awt.dms.service.QuotaExceededException;
+import awt.dms.service.ReactiveDmsService;
+import awt.dms.service.RenditionKind;
+import awt.dms.service.RenditionService;
+import awt.dms.service.SearchFilter;
+import awt.dms.service.SearchSort;
+import awt.dms.service.StorageUsage;
+import awt.dms.service.StorageUsage.Usage;
+import awt.dms.service.TransferMetrics;
+import awt.dms.service.TransferMetrics.Direction;
+import awt.dms.service.TransferMetrics.Transfer;
+import awt.dms.service.UploadTooLargeException;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.headers.Header;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.validation.constraints.NotNull;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The API of {@link DmsController} on WebFlux, active with the {@code reactive} profile. Bodies
+ * stream as {@link DataBuffer}s with backpressure, so slow clients hold no thread while they
+ * upload or download.
+ */
+@ApiResponses(value = {
+    @ApiResponse(responseCode = "401", description = "Not logged in."),
+    @ApiResponse(responseCode = "403", description = "Do not have permissions.")
+})
+@Profile("reactive")
+@RestController
+public class ReactiveDmsController {
+
+  private static final String INTERNAL_SERVER_ERROR = "500";
+
+  private static final String DEFAULT_PAGE_SIZE = "100";
+  private static final int MAX_PAGE_SIZE = 1000;
+  private static final String DEFAULT_SEARCH_SORT = "-uploadDate";
+
+  private static final String CONTENT_TYPE_HEADER = "X-Dms-Content-Type";
+  private static final String METADATA_HEADER_PREFIX = "x-dms-meta-";
+
+  private static final String CONTENT_TYPE_KEY = "_contentType";
+
+  private final ReactiveDmsService reactiveDmsService;
+  private final UploadProperties uploadProperties;
+  private final DownloadProperties downloadProperties;
+  private final RenditionService renditionService;
+  private final DocumentSearchService documentSearchService;
+  private final StorageUsage storageUsage;
+  private final TransferMetrics transferMetrics;
+
+  public ReactiveDmsController(final ReactiveDmsService reactiveDmsService,
+      final UploadProperties uploadProperties, final DownloadProperties downloadProperties,
+      final RenditionService renditionService,
+      final DocumentSearchService documentSearchService, final StorageUsage storageUsage,
+      final TransferMetrics transferMetrics) {
+    this.reactiveDmsService = reactiveDmsService;
+    this.uploadProperties = uploadProperties;
+    this.downloadProperties = downloadProperties;
+    this.renditionService = renditionService;
+    this.documentSearchService = documentSearchService;
+    this.storageUsage = storageUsage;
+    this.transferMetrics = transferMetrics;
+  }
+
+  @Operation(summary = "Uploads file. Size limit is 5MB")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "201", description = "File uploaded successfully.", headers = {
+          @Header(name = "location", description = "URL to uploaded file.", required = true)
+      }),
+      @ApiResponse(responseCode = "400", description = "No file provided."),
+      @ApiResponse(responseCode = "507", description = "Storage quota of the user exceeded."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error uploading file.")
+  })
+  @PostMapping(value = "/v1/documents", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public Mono<ResponseEntity<Void>> uploadFile(@NotNull @RequestPart("file") final FilePart file,
+      @RequestPart(value = "metadata", required = false) final Map<String, String> metadata,
+      final ServerHttpRequest request) {
+    // XXX check user access
+    // XXX virus scan
+    final MediaType contentType = file.headers().getContentType();
+    return this.reactiveDmsService.upload(file.content(), file.headers().getContentLength(),
+            file.filename(),
+            contentType != null ? contentType.toString() : null,
+            metadata != null ? metadata : Collections.emptyMap())
+        .map(objectId -> created(request, objectId));
+  }
+
+  @Operation(summary = "Uploads the raw request body as a file, streaming it into storage. "
+      + "Metadata entries are sent as X-Dms-Meta-<key> headers.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "201", description = "File uploaded successfully.", headers = {
+          @Header(name = "location", description = "URL to uploaded file.", required = true)
+      }),
+      @ApiResponse(responseCode = "400", description = "No filename in Content-Disposition."),
+      @ApiResponse(responseCode = "413", description = "File exceeds the upload size limit."),
+      @ApiResponse(responseCode = "507", description = "Storage quota of the user exceeded."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error uploading file.")
+  })
+  @PutMapping(value = "/v1/documents", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public Mono<ResponseEntity<Void>> uploadStream(
+      @RequestHeader(value = HttpHeaders.CONTENT_DISPOSITION, required = false)
+      final Optional<String> contentDisposition,
+      @RequestHeader(value = CONTENT_TYPE_HEADER, required = false)
+      final Optional<String> contentType,
+      final ServerHttpRequest request) {
+    // XXX check user access
+    // XXX virus scan
+    final long maxSize = this.uploadProperties.maxSize().toBytes();
+    if (request.getHeaders().getContentLength() > maxSize) {
+      return Mono.error(new UploadTooLargeException(maxSize));
+    }
+
+    final String filename = DmsController.uploadFilename(contentDisposition);
+    return this.reactiveDmsService.upload(request.getBody(),
+            request.getHeaders().getContentLength(), filename,
+            contentType.orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE),
+            metadataHeaders(request.getHeaders()))
+        .map(objectId -> created(request, objectId));
+  }
+
+  @Operation(summary = "Retrieves file. Supports conditional requests as well as single and "
+      + "multiple byte ranges. Compressed files are sent as stored when Accept-Encoding allows "
+      + "it, and decompressed otherwise.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "File retrieved successfully."),
+      @ApiResponse(responseCode = "206", description = "Requested ranges retrieved successfully."),
+      @ApiResponse(responseCode = "304", description = "File not modified."),
+      @ApiResponse(responseCode = "404", description = "File doesn't exist."),
+      @ApiResponse(responseCode = "416", description = "Requested ranges not satisfiable."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error retrieving file.")
+  })
+  @GetMapping(value = "/v1/documents/{objectId}")
+  public Mono<Void> getFile(@PathVariable("objectId") final ObjectId objectId,
+      @RequestHeader(value = HttpHeaders.RANGE, required = false) final String range,
+      @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) final String ifRange,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+      final String acceptEncoding,
+      final ServerWebExchange exchange) {
+    // XXX check user access
+    return this.reactiveDmsService.findFile(objectId)
+        .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)))
+        .flatMap(file -> this.writeFile(file, range, ifRange, acceptEncoding, exchange));
+  }
+
+  @Operation(summary = "Retrieves files of a user, newest first, all of them unless a limit is "
+      + "given. Pass the cursor of the last file received as after to get the next page.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Files retrieved successfully."),
+      @ApiResponse(responseCode = "400", description = "Invalid limit or after."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error retrieving file.")
+  })
+  @GetMapping(value = "/v1/documents", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Flux<FileItem> getFiles(@RequestParam("user") final String user,
+      @RequestParam(value = "limit", required = false) final Integer limit,
+      @RequestParam(value = "after", required = false) final String after) {
+    // XXX check user access
+    if (limit != null && (limit < 1 || limit > MAX_PAGE_SIZE)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+
+    return this.pageCursor(after, SearchFilter.UPLOAD_DATE_FIELD)
+        .flatMapMany(cursor -> this.reactiveDmsService.findPage(user, cursor.orElse(null),
+            limit != null ? limit : Integer.MAX_VALUE))
+        .map(FileItem::of);
+  }
+
+  @Operation(summary = "Searches files. Each filter is written field:operator:value on "
+      + "contentType, uploadDate, length or metadata.<key> with operators eq, in, gt, gte, lt, "
+      + "lte and prefix. Sort by uploadDate or length, prefixed with - for descending. Pass the "
+      + "cursor of the last file received as after to get the next page.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Files retrieved successfully."),
+      @ApiResponse(responseCode = "400",
+          description = "Invalid filter, sort, limit or after, or no index serves the search."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error searching files.")
+  })
+  @GetMapping(value = "/v1/documents/search", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Flux<FileItem> searchFiles(
+      @RequestParam(value = "filter", required = false) final List<String> filters,
+      @RequestParam(value = "sort", defaultValue = DEFAULT_SEARCH_SORT) final String sort,
+      @RequestParam(value = "limit", defaultValue = DEFAULT_PAGE_SIZE) final int limit,
+      @RequestParam(value = "after", required = false) final String after) {
+    // XXX check user access
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+
+    final List<SearchFilter> searchFilters;
+    final SearchSort searchSort;
+    try {
+      searchFilters = filters != null ? filters.stream().map(SearchFilter::parse).toList()
+          : List.of();
+      searchSort = SearchSort.parse(sort);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+    }
+    // the search explains new query shapes and reads with blocking calls
+    return this.pageCursor(after, searchSort.field())
+        .flatMapMany(cursor -> Flux.fromStream(() -> this.documentSearchService.search(
+                searchFilters, searchSort, cursor.orElse(null), limit))
+            .subscribeOn(Schedulers.boundedElastic()))
+        .onErrorMap(IllegalArgumentException.class,
+            e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e))
+        .map(FileItem::of);
+  }
+
+  @Operation(summary = "Retrieves a rendition of a file: thumbnail of an image or excerpt of a "
+      + "text. Renditions not generated yet are generated on the first request.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Rendition retrieved successfully."),
+      @ApiResponse(responseCode = "304", description = "Rendition not modified."),
+      @ApiResponse(responseCode = "404",
+          description = "File doesn't exist or has no rendition of that kind."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR,
+          description = "Error retrieving rendition.")
+  })
+  @GetMapping(value = "/v1/documents/{objectId}/renditions/{kind}")
+  public Mono<ResponseEntity<byte[]>> getRendition(
+      @PathVariable("objectId") final ObjectId objectId,
+      @PathVariable("kind") final String kind) {
+    // XXX check user access
+    final RenditionKind renditionKind = RenditionKind.fromKey(kind)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    // renditions are read, and generated when missing, with blocking calls
+    return Mono.fromCallable(() -> this.renditionService.get(objectId, renditionKind))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(Mono::justOrEmpty)
+        .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)))
+        .map(rendition -> ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(rendition.contentType()))
+            .eTag(rendition.contentHash())
+            .header(HttpHeaders.CACHE_CONTROL, this.downloadProperties.cacheControl())
+            .body(rendition.content()));
+  }
+
+  @Operation(summary = "Deletes file.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "204", description = "File deleted successfully."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error deleting file.")
+  })
+  @DeleteMapping(value = "/v1/documents/{objectId}")
+  public Mono<ResponseEntity<Void>> deleteFile(@PathVariable("objectId") final ObjectId objectId) {
+    // XXX check user access
+    return this.reactiveDmsService.delete(objectId)
+        .thenReturn(ResponseEntity.noContent().<Void>build());
+  }
+
+  @Operation(summary = "Restores a deleted file that has not been purged yet.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "204", description = "File restored successfully."),
+      @ApiResponse(responseCode = "404", description = "No deleted file to restore."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error restoring file.")
+  })
+  @PostMapping(value = "/v1/documents/{objectId}/restore")
+  public Mono<ResponseEntity<Void>> restoreFile(
+      @PathVariable("objectId") final ObjectId objectId) {
+    // XXX check user access
+    return this.reactiveDmsService.restore(objectId)
+        .map(restored -> restored ? ResponseEntity.noContent().<Void>build()
+            : ResponseEntity.notFound().<Void>build());
+  }
+
+  @Operation(summary = "Retrieves the bytes and number of files stored by a user.")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "Usage retrieved successfully."),
+      @ApiResponse(responseCode = INTERNAL_SERVER_ERROR, description = "Error retrieving usage.")
+  })
+  @GetMapping(value = "/v1/usage", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<Usage> getUsage(@RequestParam("user") final String user) {
+    // XXX check user access
+    return Mono.fromCallable(() -> this.storageUsage.get(user))
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  @ExceptionHandler(IOException.class)
+  public ResponseEntity<String> handleIOException() {
+    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+  }
+
+  @ExceptionHandler(UploadTooLargeException.class)
+  public ResponseEntity<String> handleUploadTooLargeException() {
+    return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+  }
+
+  @ExceptionHandler(QuotaExceededException.class)
+  public ResponseEntity<String> handleQuotaExceededException() {
+    return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).build();
+  }
+
+  private Mono<Void> writeFile(final GridFSFile file, final String range, final String ifRange,
+      final String acceptEncoding, final ServerWebExchange exchange) {
+    final ServerHttpResponse response = exchange.getResponse();
+    final HttpHeaders headers = response.getHeaders();
+    // stored content is sent as is when the client accepts its encoding; otherwise it is decoded
+    // on the fly, which rules out ranges
+    final Optional<ContentEncoding> encoding = DocumentMetadata.contentEncoding(file);
+    final Optional<String> contentEncoding = encoding.map(ContentEncoding::coding)
+        .filter(coding -> AcceptEncoding.accepts(acceptEncoding, coding));
+    final boolean decode = encoding.isPresent() && contentEncoding.isEmpty();
+    final long length = decode ? DocumentMetadata.originalLength(file) : file.getLength();
+    final Instant lastModified = file.getUploadDate().toInstant();
+    final String contentHash = DocumentMetadata.contentHash(file);
+    final String etag = contentHash != null
+        ? "\"" + contentHash + contentEncoding.map(coding -> "-" + coding).orElse("") + "\""
+        : null;
+    headers.setCacheControl(this.downloadProperties.cacheControl());
+    headers.set(HttpHeaders.ACCEPT_RANGES, decode ? "none" : "bytes");
+    if (encoding.isPresent()) {
+      headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+    if (etag != null ? exchange.checkNotModified(etag, lastModified)
+        : exchange.checkNotModified(lastModified)) {
+      return response.setComplete();
+    }
+
+    final List<HttpRange> ranges;
+    try {
+      ranges = decode ? Collections.emptyList()
+          : ByteRanges.requested(range, ifRange, etag, lastModified.toEpochMilli(), length);
+    } catch (IllegalArgumentException e) {
+      response.setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+      headers.set(HttpHeaders.CONTENT_RANGE, ByteRanges.unsatisfiedContentRange(length));
+      return response.setComplete();
+    }
+
+    headers.setContentDisposition(ContentDisposition.attachment()
+        .filename(file.getFilename())
+        .build());
+    contentEncoding.ifPresent(coding -> headers.set(HttpHeaders.CONTENT_ENCODING, coding));
+    final String contentType = contentType(file);
+    return this.reactiveDmsService.recordView(file)
+        .then(Mono.using(() -> this.transferMetrics.start(Direction.DOWNLOAD, contentType),
+            transfer -> this.writeContent(file, contentType, decode ? encoding.get() : null,
+                length, ranges, transfer, response),
+            Transfer::close));
+  }
+
+  /**
+   * Writes the content of {@code file}, decoded from {@code decodeFrom} unless {@code null},
+   * counting it in {@code transfer}.
+   */
+  private Mono<Void> writeContent(final GridFSFile file, final String contentType,
+      final ContentEncoding decodeFrom, final long length, final List<HttpRange> ranges,
+      final Transfer transfer, final ServerHttpResponse response) {
+    final HttpHeaders headers = response.getHeaders();
+    final boolean decode = decodeFrom != null;
+    // content in the filesystem tier is handed to the server for a zero-copy transfer
+    final Optional<Path> localFile = decode || ranges.size() > 1
+        || !(response instanceof ZeroCopyHttpOutputMessage)
+        ? Optional.empty()
+        : this.reactiveDmsService.localFile(file);
+    if (ranges.isEmpty()) {
+      headers.set(HttpHeaders.CONTENT_TYPE, contentType);
+      headers.setContentLength(length);
+      if (localFile.isPresent()) {
+        return ((ZeroCopyHttpOutputMessage) response).writeWith(localFile.get(), 0, length)
+            .doOnSuccess(done -> transfer.add(length));
+      }
+      return response.writeWith(transfer.count(decode
+          ? this.reactiveDmsService.getDecodedContent(file, decodeFrom)
+          : this.reactiveDmsService.getContent(file)));
+    } else if (ranges.size() == 1) {
+      final long start = ranges.get(0).getRangeStart(length);
+      final long end = ranges.get(0).getRangeEnd(length);
+      response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+      headers.set(HttpHeaders.CONTENT_TYPE, contentType);
+      headers.setContentLength(end - start + 1);
+      headers.set(HttpHeaders.CONTENT_RANGE, ByteRanges.contentRange(start, end, length));
+      if (localFile.isPresent()) {
+        return ((ZeroCopyHttpOutputMessage) response).writeWith(localFile.get(), start,
+                end - start + 1)
+            .doOnSuccess(done -> transfer.add(end - start + 1));
+      }
+      return response.writeWith(transfer.count(
+          this.reactiveDmsService.getRange(file, start, end)));
+    } else {
+      return this.writeRanges(file, contentType, ranges, transfer, response);
+    }
+  }
+
+  private Mono<Void> writeRanges(final GridFSFile file, final String contentType,
+      final List<HttpRange> ranges, final Transfer transfer, final ServerHttpResponse response) {
+    final long length = file.getLength();
+    final String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+    response.getHeaders().set(HttpHeaders.CONTENT_TYPE,
+        "multipart/byteranges; boundary=" + boundary);
+    return response.writeWith(Flux.fromIterable(ranges)
+        .concatMap(httpRange -> {
+          final long start = httpRange.getRangeStart(length);
+          final long end = httpRange.getRangeEnd(length);
+          return Mono.fromSupplier(() -> ascii(response, "\r\n--" + boundary + "\r\n"
+                  + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                  + HttpHeaders.CONTENT_RANGE + ": " + ByteRanges.contentRange(start, end, length)
+                  + "\r\n\r\n"))
+              .concatWith(transfer.count(this.reactiveDmsService.getRange(file, start, end)));
+        })
+        .concatWith(Mono.fromSupplier(() -> ascii(response, "\r\n--" + boundary + "--\r\n"))));
+  }
+
+  /**
+   * Returns the position paging continues after on {@code field}, like
+   * {@code DmsController#pageCursor}.
+   */
+  private Mono<Optional<PageCursor>> pageCursor(final String after, final String field) {
+    if (after == null || !ObjectId.isValid(after)) {
+      return Mono.just(Optional.ofNullable(DmsController.decodeCursor(after, field)));
+    }
+    return this.reactiveDmsService.findFile(new ObjectId(after))
+        .map(file -> Optional.of(PageCursor.of(file, field)))
+        .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST,
+            "Unknown after")));
+  }
+
+  private static DataBuffer ascii(final ServerHttpResponse response, final String text) {
+    return response.bufferFactory().wrap(text.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static String contentType(final GridFSFile file) {
+    final Document metadata = file.getMetadata();
+    final String contentType = metadata != null ? metadata.getString(CONTENT_TYPE_KEY) : null;
+    return contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+  }
+
+  private static ResponseEntity<Void> created(final ServerHttpRequest request,
+      final ObjectId objectId) {
+    return ResponseEntity.created(UriComponentsBuilder.fromHttpRequest(request)
+            .path("/{id}")
+            .buildAndExpand(objectId)
+            .toUri())
+        .build();
+  }
+
+  private static Map<String, String> metadataHeaders(final HttpHeaders headers) {
+    final Map<String, String> metadata = new HashMap<>();
+    headers.forEach((name, values) -> {
+      final String lowerCaseName = name.toLowerCase(Locale.ROOT);
+      if (lowerCaseName.startsWith(METADATA_HEADER_PREFIX)) {
+        metadata.put(lowerCaseName.substring(METADATA_HEADER_PREFIX.length()),
+            headers.getFirst(name));
+      }
+    });
+    return metadata;
+  }
+}
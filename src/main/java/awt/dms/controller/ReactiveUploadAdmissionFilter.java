@@ -0,0 +1,73 @@
+package awt.dms.controller;
+
+import awt.dms.service.LengthRequiredException;
+import awt.dms.service.UploadAdmission;
+import awt.dms.service.UploadRejectedException;
+import java.net.InetSocketAddress;
+import java.security.Principal;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Reactive variant of {@link UploadAdmissionFilter}. Waiting for a slot happens on a bounded
+ * elastic thread; the slot is given back once the exchange completes.
+ */
+@Profile("reactive")
+@Component
+public class ReactiveUploadAdmissionFilter implements WebFilter {
+
+  private final UploadAdmission uploadAdmission;
+
+  public ReactiveUploadAdmissionFilter(final UploadAdmission uploadAdmission) {
+    this.uploadAdmission = uploadAdmission;
+  }
+
+  @Override
+  public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+    final ServerHttpRequest request = exchange.getRequest();
+    if (!UploadAdmissionFilter.isUpload(request.getMethod().name(),
+        request.getPath().pathWithinApplication().value())) {
+      return chain.filter(exchange);
+    }
+
+    return exchange.getPrincipal()
+        .map(Principal::getName)
+        .defaultIfEmpty(fallbackUser(request))
+        .flatMap(user -> Mono.fromCallable(() -> this.uploadAdmission.admit(user,
+                request.getHeaders().getContentLength()))
+            .subscribeOn(Schedulers.boundedElastic()))
+        .flatMap(permit -> chain.filter(exchange).doFinally(signal -> permit.close()))
+        .onErrorResume(UploadRejectedException.class,
+            e -> reject(exchange.getResponse(), e))
+        .onErrorResume(LengthRequiredException.class, e -> {
+          exchange.getResponse().setStatusCode(HttpStatus.LENGTH_REQUIRED);
+          return exchange.getResponse().setComplete();
+        });
+  }
+
+  private static Mono<Void> reject(final ServerHttpResponse response,
+      final UploadRejectedException e) {
+    response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+    response.getHeaders().set(HttpHeaders.RETRY_AFTER,
+        Long.toString(e.retryAfter().toSeconds()));
+    return response.setComplete();
+  }
+
+  private static String fallbackUser(final ServerHttpRequest request) {
+    final String user = request.getHeaders().getFirst(UploadAdmissionFilter.USER_HEADER);
+    if (user != null) {
+      return user;
+    }
+    final InetSocketAddress address = request.getRemoteAddress();
+    return address != null ? address.getHostString() : "";
+  }
+}
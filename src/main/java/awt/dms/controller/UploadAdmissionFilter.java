@@ -0,0 +1,86 @@
+package awt.dms.controller;
+
+import awt.dms.service.LengthRequiredException;
+import awt.dms.service.UploadAdmission;
+import awt.dms.service.UploadAdmission.Permit;
+import awt.dms.service.UploadRejectedException;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Set;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Passes uploads through {@link UploadAdmission} before the request body, and thus a multipart
+ * upload spooled to disk, is read. Shed uploads are answered with {@code 503} and
+ * {@code Retry-After}, uploads that must declare their length with {@code 411}. Uploads are
+ * attributed to the logged in user, else to the {@code X-Dms-Meta-user} header of raw-body
+ * uploads, else to the client address.
+ */
+@Profile("!reactive")
+@Component
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+
+  static final String USER_HEADER = "X-Dms-Meta-user";
+
+  private static final Set<String> UPLOAD_PATHS = Set.of("/v1/documents", "/v1/documents/batch");
+
+  private final UploadAdmission uploadAdmission;
+
+  public UploadAdmissionFilter(final UploadAdmission uploadAdmission) {
+    this.uploadAdmission = uploadAdmission;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(final HttpServletRequest request) {
+    return !isUpload(request.getMethod(),
+        request.getRequestURI().substring(request.getContextPath().length()));
+  }
+
+  @Override
+  protected void doFilterInternal(final HttpServletRequest request,
+      final HttpServletResponse response, final FilterChain filterChain)
+      throws ServletException, IOException {
+    final Permit permit;
+    try {
+      permit = this.uploadAdmission.admit(user(request), request.getContentLengthLong());
+    } catch (UploadRejectedException e) {
+      response.setHeader(HttpHeaders.RETRY_AFTER,
+          Long.toString(e.retryAfter().toSeconds()));
+      response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), e.getMessage());
+      return;
+    } catch (LengthRequiredException e) {
+      response.sendError(HttpStatus.LENGTH_REQUIRED.value(), e.getMessage());
+      return;
+    }
+
+    try (permit) {
+      filterChain.doFilter(request, response);
+    }
+  }
+
+  /**
+   * Returns whether a request with {@code method} to {@code path} uploads documents.
+   */
+  static boolean isUpload(final String method, final String path) {
+    return (HttpMethod.POST.matches(method) || HttpMethod.PUT.matches(method))
+        && UPLOAD_PATHS.contains(path);
+  }
+
+  private static String user(final HttpServletRequest request) {
+    final Principal principal = request.getUserPrincipal();
+    if (principal != null) {
+      return principal.getName();
+    }
+    final String user = request.getHeader(USER_HEADER);
+    return user != null ? user : request.getRemoteAddr();
+  }
+}
@@ -0,0 +1,25 @@
+package awt.dms.service;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint {@code /actuator/admission} showing the current upload limit, the uploads
+ * running and waiting, and the uploads shed per reason.
+ */
+@Component
+@Endpoint(id = "admission")
+public class AdmissionEndpoint {
+
+  private final UploadAdmission uploadAdmission;
+
+  public AdmissionEndpoint(final UploadAdmission uploadAdmission) {
+    this.uploadAdmission = uploadAdmission;
+  }
+
+  @ReadOperation
+  public UploadAdmission.State admission() {
+    return this.uploadAdmission.state();
+  }
+}
@@ -0,0 +1,42 @@
+package awt.dms.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import org.bson.types.ObjectId;
+
+/**
+ * Storage tier holding the content of files. The {@code fs.files} entry always stays in MongoDB;
+ * {@link DocumentMetadata#TIER_KEY} names the tier holding its bytes. Files are passed as resolved
+ * by {@link DocumentMetadata#contentFile(GridFSFile)}, so their id is that of the stored content.
+ */
+public interface BlobStore {
+
+  /**
+   * Name recorded in {@link DocumentMetadata#TIER_KEY}.
+   */
+  String tier();
+
+  /**
+   * Opens the stored bytes of {@code file}.
+   */
+  InputStream open(GridFSFile file) throws IOException;
+
+  /**
+   * Opens stored bytes {@code start} to {@code end} of {@code file}, both inclusive.
+   */
+  InputStream open(GridFSFile file, long start, long end) throws IOException;
+
+  /**
+   * Removes the content stored under {@code contentId}, if this tier holds it.
+   */
+  void delete(ObjectId contentId);
+
+  /**
+   * Removes the content stored under each of {@code contentIds} this tier holds.
+   */
+  default void deleteAll(final Collection<ObjectId> contentIds) {
+    contentIds.forEach(this::delete);
+  }
+}
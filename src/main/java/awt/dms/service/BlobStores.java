@@ -0,0 +1,52 @@
+package awt.dms.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.bson.types.ObjectId;
+import org.springframework.stereotype.Component;
+
+/**
+ * Picks the {@link BlobStore} holding the content of a file.
+ */
+@Component
+public class BlobStores {
+
+  private final Map<String, BlobStore> stores;
+
+  public BlobStores(final List<BlobStore> stores) {
+    this.stores = stores.stream().collect(Collectors.toMap(BlobStore::tier, Function.identity()));
+  }
+
+  /**
+   * Returns the store of {@code file}; files without a recorded tier are in GridFS.
+   */
+  public BlobStore forFile(final GridFSFile file) {
+    final BlobStore store = this.stores.get(DocumentMetadata.tier(file));
+    if (store == null) {
+      throw new IllegalStateException("Unknown tier " + DocumentMetadata.tier(file) + " of "
+          + file.getObjectId());
+    }
+    return store;
+  }
+
+  /**
+   * Removes content no file refers to anymore from every tier, as a file may be moved between
+   * tiers at any time.
+   */
+  public void delete(final ObjectId contentId) {
+    this.stores.values().forEach(store -> store.delete(contentId));
+  }
+
+  /**
+   * Like {@link #delete(ObjectId)} for several contents at once.
+   */
+  public void deleteAll(final Collection<ObjectId> contentIds) {
+    if (!contentIds.isEmpty()) {
+      this.stores.values().forEach(store -> store.deleteAll(contentIds));
+    }
+  }
+}
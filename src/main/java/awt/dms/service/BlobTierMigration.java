@@ -0,0 +1,156 @@
+package awt.dms.service;
+
+import awt.dms.config.BlobTierProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Moves the content of files above {@code dms.tiers.threshold} from GridFS to the
+ * {@link FileSystemBlobStore} while the service keeps running. The content is copied first; the
+ * {@code fs.files} entries sharing it in its bucket are then switched to the filesystem tier in
+ * one transaction. The GridFS chunks are kept for {@code dms.tiers.chunk-retention}, so downloads
+ * that already started, or instances still caching the old entry, can finish reading them.
+ *
+ * <p>Content whose owning file was deleted while other files still share it stays in GridFS.
+ */
+@ConditionalOnProperty(prefix = "dms.tiers", name = "migrate")
+@Component
+public class BlobTierMigration {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BlobTierMigration.class);
+
+  static final String RETAINED_CHUNKS = "tier_migrations";
+
+  private static final String ID_KEY = "_id";
+  private static final String LENGTH_KEY = "length";
+  private static final String MIGRATED_AT_KEY = "migratedAt";
+  private static final String TIER_FIELD = "metadata." + DocumentMetadata.TIER_KEY;
+  private static final String BLOB_FIELD = "metadata." + DocumentMetadata.BLOB_KEY;
+
+  private final DocumentPartitions documentPartitions;
+  private final MongoOperations mongoOperations;
+  private final TransactionOperations transactionOperations;
+  private final GridFsBlobStore gridFsBlobStore;
+  private final FileSystemBlobStore fileSystemBlobStore;
+  private final DocumentCache documentCache;
+  private final BlobTierProperties blobTierProperties;
+
+  private final Set<ObjectId> failed = ConcurrentHashMap.newKeySet();
+
+  public BlobTierMigration(final DocumentPartitions documentPartitions,
+      final MongoOperations mongoOperations, final TransactionOperations transactionOperations,
+      final GridFsBlobStore gridFsBlobStore, final FileSystemBlobStore fileSystemBlobStore,
+      final DocumentCache documentCache, final BlobTierProperties blobTierProperties) {
+    this.documentPartitions = documentPartitions;
+    this.mongoOperations = mongoOperations;
+    this.transactionOperations = transactionOperations;
+    this.gridFsBlobStore = gridFsBlobStore;
+    this.fileSystemBlobStore = fileSystemBlobStore;
+    this.documentCache = documentCache;
+    this.blobTierProperties = blobTierProperties;
+  }
+
+  @Scheduled(initialDelayString = "${dms.tiers.initial-delay:PT1M}",
+      fixedDelayString = "${dms.tiers.interval:PT5M}")
+  public void migrate() {
+    this.removeRetainedChunks();
+    this.documentPartitions.buckets().forEach(this::migrate);
+  }
+
+  private void migrate(final String bucket) {
+    final List<GridFSFile> files = new ArrayList<>(this.blobTierProperties.batchSize());
+    this.documentPartitions.gridFs(bucket).find(Query.query(Criteria
+            .where(LENGTH_KEY).gt(this.blobTierProperties.threshold().toBytes())
+            .and(TIER_FIELD).exists(false)
+            .and(BLOB_FIELD).exists(false)
+            .and(ID_KEY).nin(this.failed)
+            .andOperator(DocumentMetadata.notDeleted())))
+        .limit(this.blobTierProperties.batchSize())
+        .into(files);
+    if (!files.isEmpty()) {
+      LOGGER.info("Moving {} files of {} to the filesystem tier", files.size(), bucket);
+      files.forEach(file -> this.migrate(bucket, file));
+    }
+  }
+
+  private void migrate(final String bucket, final GridFSFile file) {
+    final ObjectId contentId = file.getObjectId();
+    try (InputStream content = this.gridFsBlobStore.open(file)) {
+      final long written = this.fileSystemBlobStore.write(contentId, content);
+      if (written != file.getLength()) {
+        throw new IOException("Copied " + written + " of " + file.getLength() + " bytes");
+      }
+    } catch (IOException | RuntimeException e) {
+      this.failed.add(contentId);
+      this.fileSystemBlobStore.delete(contentId);
+      LOGGER.warn("Could not move {} to the filesystem tier", contentId, e);
+      return;
+    }
+
+    final Query sharing = Query.query(new Criteria().orOperator(
+        Criteria.where(ID_KEY).is(contentId),
+        Criteria.where(BLOB_FIELD).is(contentId)));
+    final List<ObjectId> switched;
+    try {
+      switched = this.transactionOperations.execute(status -> {
+        final List<ObjectId> ids = this.mongoOperations.findDistinct(sharing, ID_KEY,
+            GridFsCollections.files(bucket), ObjectId.class);
+        if (ids.isEmpty()) {
+          return ids;
+        }
+        this.mongoOperations.updateMulti(sharing,
+            Update.update(TIER_FIELD, FileSystemBlobStore.TIER), GridFsCollections.files(bucket));
+        this.mongoOperations.updateFirst(
+            Query.query(Criteria.where(GridFsWriter.BLOB_FILES_ID_KEY).is(contentId)),
+            Update.update(GridFsWriter.BLOB_TIER_KEY, FileSystemBlobStore.TIER),
+            GridFsCollections.blobs(bucket));
+        this.mongoOperations.insert(new Document(ID_KEY, contentId)
+            .append(MIGRATED_AT_KEY, new Date()), RETAINED_CHUNKS);
+        return ids;
+      });
+    } catch (RuntimeException e) {
+      this.failed.add(contentId);
+      this.fileSystemBlobStore.delete(contentId);
+      LOGGER.warn("Could not switch {} to the filesystem tier", contentId, e);
+      return;
+    }
+
+    if (switched == null || switched.isEmpty()) {
+      // deleted in the meantime
+      this.fileSystemBlobStore.delete(contentId);
+      return;
+    }
+    switched.forEach(this.documentCache::invalidate);
+  }
+
+  private void removeRetainedChunks() {
+    final Date retainedSince = new Date(
+        System.currentTimeMillis() - this.blobTierProperties.chunkRetention().toMillis());
+    final Query expired = Query.query(Criteria.where(MIGRATED_AT_KEY).lt(retainedSince));
+    for (final Document retained : this.mongoOperations.find(expired, Document.class,
+        RETAINED_CHUNKS)) {
+      final ObjectId contentId = retained.getObjectId(ID_KEY);
+      this.gridFsBlobStore.delete(contentId);
+      this.mongoOperations.remove(Query.query(Criteria.where(ID_KEY).is(contentId)),
+          RETAINED_CHUNKS);
+    }
+  }
+}
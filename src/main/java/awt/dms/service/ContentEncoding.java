@@ -0,0 +1,55 @@
+package awt.dms.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodings content can be stored in, named by their HTTP content coding.
+ */
+public enum ContentEncoding {
+
+  GZIP("gzip") {
+    @Override
+    OutputStream encode(final OutputStream out) throws IOException {
+      return new GZIPOutputStream(out, BUFFER_SIZE);
+    }
+
+    @Override
+    public InputStream decode(final InputStream in) throws IOException {
+      return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+  };
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final String coding;
+
+  ContentEncoding(final String coding) {
+    this.coding = coding;
+  }
+
+  /**
+   * Returns the HTTP content coding, as used in {@code Content-Encoding}.
+   */
+  public String coding() {
+    return this.coding;
+  }
+
+  abstract OutputStream encode(OutputStream out) throws IOException;
+
+  /**
+   * Wraps {@code in}, returning the decoded content.
+   */
+  public abstract InputStream decode(InputStream in) throws IOException;
+
+  public static Optional<ContentEncoding> fromCoding(final String coding) {
+    return Arrays.stream(values())
+        .filter(encoding -> encoding.coding.equals(coding))
+        .findFirst();
+  }
+}
@@ -0,0 +1,120 @@
+package awt.dms.service;
+
+import awt.dms.config.BackfillProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Computes the content hash of files stored before uploads recorded it. Works through the
+ * backlog of every bucket in batches and stops querying once no file is left without a hash.
+ * Content is read from the blob store of its tier and decoded, as the hash is that of the content
+ * as uploaded. Files that cannot be read are skipped until the next restart.
+ */
+@ConditionalOnProperty(prefix = "dms.content-hash.backfill", name = "enabled",
+    matchIfMissing = true)
+@Component
+public class ContentHashBackfill {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ContentHashBackfill.class);
+
+  private static final String HASH_FIELD = "metadata." + DocumentMetadata.CONTENT_HASH_KEY;
+
+  private final DocumentPartitions documentPartitions;
+  private final BlobStores blobStores;
+  private final MongoOperations mongoOperations;
+  private final BackfillProperties backfillProperties;
+
+  private final Set<ObjectId> failed = ConcurrentHashMap.newKeySet();
+
+  private volatile boolean complete;
+
+  public ContentHashBackfill(final DocumentPartitions documentPartitions,
+      final BlobStores blobStores, final MongoOperations mongoOperations,
+      final BackfillProperties backfillProperties) {
+    this.documentPartitions = documentPartitions;
+    this.blobStores = blobStores;
+    this.mongoOperations = mongoOperations;
+    this.backfillProperties = backfillProperties;
+  }
+
+  @Scheduled(initialDelayString = "${dms.content-hash.backfill.initial-delay:PT1M}",
+      fixedDelayString = "${dms.content-hash.backfill.interval:PT1M}")
+  public void backfill() {
+    if (this.complete) {
+      return;
+    }
+
+    boolean pending = false;
+    for (final String bucket : this.documentPartitions.buckets()) {
+      pending |= this.backfill(bucket);
+    }
+    if (!pending) {
+      LOGGER.info("Content hash backfill complete");
+      this.complete = true;
+    }
+  }
+
+  private boolean backfill(final String bucket) {
+    final int batchSize = this.backfillProperties.batchSize();
+    final List<GridFSFile> files = new ArrayList<>(batchSize);
+    this.documentPartitions.gridFs(bucket).find(Query.query(Criteria.where(HASH_FIELD)
+            .exists(false).and("_id").nin(this.failed)))
+        .limit(batchSize)
+        .into(files);
+    if (files.isEmpty()) {
+      return false;
+    }
+
+    LOGGER.info("Backfilling content hash of {} files in {}", files.size(), bucket);
+    files.forEach(file -> this.backfill(bucket, file));
+    return true;
+  }
+
+  private void backfill(final String bucket, final GridFSFile file) {
+    try (DigestInputStream content = new DigestInputStream(this.open(file),
+        DocumentMetadata.contentDigest())) {
+      content.transferTo(OutputStream.nullOutputStream());
+      this.mongoOperations.updateFirst(Query.query(Criteria.where("_id").is(file.getObjectId())),
+          Update.update(HASH_FIELD,
+              HexFormat.of().formatHex(content.getMessageDigest().digest())),
+          GridFsCollections.files(bucket));
+    } catch (IOException | RuntimeException e) {
+      this.failed.add(file.getObjectId());
+      LOGGER.warn("Could not backfill content hash of {}", file.getObjectId(), e);
+    }
+  }
+
+  /**
+   * Opens the content of {@code file}, decoded.
+   */
+  private InputStream open(final GridFSFile file) throws IOException {
+    final GridFSFile contentFile = DocumentMetadata.contentFile(file);
+    final InputStream content = this.blobStores.forFile(contentFile).open(contentFile);
+    final Optional<ContentEncoding> encoding = DocumentMetadata.contentEncoding(file);
+    try {
+      return encoding.isPresent() ? encoding.get().decode(content) : content;
+    } catch (IOException | RuntimeException e) {
+      content.close();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package awt.dms.service;
+
+import static org.springframework.data.mongodb.gridfs.GridFsCriteria.whereMetaData;
+
+import awt.dms.config.ArchiveProperties;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import jakarta.validation.constraints.NotNull;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Writes many documents as one ZIP archive, streaming each entry from its blob store straight into
+ * the output. Neither the archive nor a whole document is held in memory: only the first
+ * {@code dms.archive.prefetch-size} bytes of the next {@code dms.archive.prefetch} documents are
+ * read ahead, so opening them overlaps with writing the current one.
+ */
+@Validated
+@Service
+public class DmsArchiveService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DmsArchiveService.class);
+
+  private static final String ID_KEY = "_id";
+  private static final String USER_KEY = "user";
+  private static final String CONTENT_TYPE_KEY = "_contentType";
+
+  private final DocumentPartitions documentPartitions;
+  private final DmsService dmsService;
+  private final ArchiveProperties archiveProperties;
+  private final AsyncTaskExecutor taskExecutor;
+
+  public DmsArchiveService(final DocumentPartitions documentPartitions,
+      final DmsService dmsService,
+      final ArchiveProperties archiveProperties,
+      @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+      final AsyncTaskExecutor taskExecutor) {
+    this.documentPartitions = documentPartitions;
+    this.dmsService = dmsService;
+    this.archiveProperties = archiveProperties;
+    this.taskExecutor = taskExecutor;
+  }
+
+  /**
+   * Writes those of {@code objectIds} that exist to {@code out}, read with one {@code $in} query
+   * per bucket holding any of them.
+   */
+  public void write(@NotNull final Collection<ObjectId> objectIds, @NotNull final OutputStream out)
+      throws IOException {
+    LOGGER.info("Trying to archive {} files", objectIds.size());
+    final Map<String, Query> queries = new LinkedHashMap<>();
+    this.documentPartitions.group(objectIds).forEach((bucket, ids) -> queries.put(bucket,
+        Query.query(Criteria.where(ID_KEY).in(ids).andOperator(DocumentMetadata.notDeleted()))));
+    this.write(queries, out);
+  }
+
+  /**
+   * Writes every file of {@code userId}, when given, whose metadata has all entries of
+   * {@code filter} to {@code out}.
+   */
+  public void write(final String userId, @NotNull final Map<String, String> filter,
+      @NotNull final OutputStream out) throws IOException {
+    LOGGER.info("Trying to archive files of {} matching {}", userId, filter);
+    final List<Criteria> criteria = new ArrayList<>();
+    criteria.add(DocumentMetadata.notDeleted());
+    if (userId != null) {
+      criteria.add(whereMetaData(USER_KEY).is(userId));
+    }
+    filter.forEach((key, value) -> criteria.add(whereMetaData(key).is(value)));
+    final Query query = Query.query(new Criteria().andOperator(criteria));
+    final Map<String, Query> queries = new LinkedHashMap<>();
+    (userId != null ? this.documentPartitions.bucketsOf(userId)
+        : this.documentPartitions.buckets()).forEach(bucket -> queries.put(bucket, query));
+    this.write(queries, out);
+  }
+
+  /**
+   * Writes the files matching the query of each bucket, bucket by bucket.
+   */
+  private void write(final Map<String, Query> queries, final OutputStream out)
+      throws IOException {
+    final Deque<Prefetched> pending = new ArrayDeque<>();
+    final Set<String> names = new HashSet<>();
+    final Deque<MongoCursor<GridFSFile>> files = new ArrayDeque<>();
+    try {
+      queries.forEach((bucket, query) -> files.addLast(
+          this.documentPartitions.gridFs(bucket).find(query).iterator()));
+      // not closed, so the caller's stream stays open; finish() completes the archive
+      final ZipOutputStream zip = new ZipOutputStream(out);
+      this.prefetch(files, pending);
+      while (!pending.isEmpty()) {
+        final Prefetched next = pending.removeFirst();
+        try (InputStream content = await(next.content())) {
+          final ZipEntry entry = new ZipEntry(entryName(next.file(), names));
+          entry.setLastModifiedTime(FileTime.fromMillis(next.file().getUploadDate().getTime()));
+          zip.setLevel(this.archiveProperties.stores(contentType(next.file()))
+              ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+          zip.putNextEntry(entry);
+          content.transferTo(zip);
+          zip.closeEntry();
+        }
+        this.prefetch(files, pending);
+      }
+      zip.finish();
+    } finally {
+      pending.forEach(DmsArchiveService::discard);
+      files.forEach(MongoCursor::close);
+    }
+  }
+
+  private void prefetch(final Deque<MongoCursor<GridFSFile>> files,
+      final Deque<Prefetched> pending) {
+    while (pending.size() < this.archiveProperties.prefetch() && !files.isEmpty()) {
+      if (!files.peekFirst().hasNext()) {
+        files.removeFirst().close();
+        continue;
+      }
+      final GridFSFile file = files.peekFirst().next();
+      pending.addLast(new Prefetched(file, this.taskExecutor.submit(() -> this.open(file))));
+    }
+  }
+
+  /**
+   * Opens the content of {@code file}, decoded, and reads its first bytes.
+   */
+  private InputStream open(final GridFSFile file) throws IOException {
+    InputStream content = this.dmsService.getResource(file).getInputStream();
+    final Optional<ContentEncoding> encoding = DocumentMetadata.contentEncoding(file);
+    if (encoding.isPresent()) {
+      content = encoding.get().decode(content);
+    }
+    try {
+      final byte[] head = content.readNBytes(
+          Math.toIntExact(this.archiveProperties.prefetchSize().toBytes()));
+      return new SequenceInputStream(new ByteArrayInputStream(head), content);
+    } catch (IOException | RuntimeException e) {
+      content.close();
+      throw e;
+    }
+  }
+
+  private static InputStream await(final Future<InputStream> content) throws IOException {
+    try {
+      return content.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while opening content");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+        throw uncheckedIOException.getCause();
+      }
+      throw new IOException("Could not open content", e.getCause());
+    }
+  }
+
+  /**
+   * Closes the content of a document that will not be written anymore. A running open cannot be
+   * cancelled without leaking its stream, so this waits for it.
+   */
+  private static void discard(final Prefetched prefetched) {
+    try (InputStream content = prefetched.content().get()) {
+      LOGGER.debug("Discarding prefetched {}", prefetched.file().getObjectId());
+    } catch (IOException | ExecutionException e) {
+      LOGGER.debug("Could not close prefetched {}", prefetched.file().getObjectId(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns the filename of {@code file} without directories, made unique within the archive by
+   * appending a counter before the extension.
+   */
+  static String entryName(final GridFSFile file, final Set<String> names) {
+    final String filename = file.getFilename() != null && !file.getFilename().isBlank()
+        ? file.getFilename().replaceAll("[/\\\\]", "_")
+        : file.getObjectId().toString();
+    final int dot = filename.lastIndexOf('.');
+    final String base = dot > 0 ? filename.substring(0, dot) : filename;
+    final String extension = dot > 0 ? filename.substring(dot) : "";
+    String name = filename;
+    for (int i = 1; !names.add(name); i++) {
+      name = base + " (" + i + ")" + extension;
+    }
+    return name;
+  }
+
+  private static String contentType(final GridFSFile file) {
+    final Document metadata = file.getMetadata();
+    return metadata != null ? metadata.getString(CONTENT_TYPE_KEY) : null;
+  }
+
+  private record Prefetched(GridFSFile file, Future<InputStream> content) {
+
+  }
+}
@@ -0,0 +1,208 @@
+package awt.dms.service;
+
+import static org.springframework.data.mongodb.gridfs.GridFsCriteria.whereMetaData;
+
+import awt.dms.config.BatchProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Operations on many documents per call. Deletes mark a whole batch deleted with one
+ * {@code updateMany} on {@code fs.files} and write a single {@code file.deleted} event listing the
+ * batch; the {@link DocumentReaper} purges them later.
+ */
+@Validated
+@Service
+public class DmsBatchService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DmsBatchService.class);
+
+  private static final String DELETED_OUTPUT_BINDING_NAME = "file-deleted-out-0";
+
+  private static final String ID_KEY = "_id";
+  private static final String LENGTH_KEY = "length";
+  private static final String METADATA_PREFIX = "metadata.";
+  private static final String USER_FIELD = METADATA_PREFIX + "user";
+
+  private final DmsService dmsService;
+  private final DocumentPartitions documentPartitions;
+  private final MongoOperations mongoOperations;
+  private final Outbox outbox;
+  private final TransactionOperations transactionOperations;
+  private final DocumentCache documentCache;
+  private final StorageUsage storageUsage;
+  private final BatchProperties batchProperties;
+  private final AsyncTaskExecutor taskExecutor;
+
+  public DmsBatchService(final DmsService dmsService,
+      final DocumentPartitions documentPartitions, final MongoOperations mongoOperations,
+      final Outbox outbox, final TransactionOperations transactionOperations,
+      final DocumentCache documentCache, final StorageUsage storageUsage,
+      final BatchProperties batchProperties,
+      @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+      final AsyncTaskExecutor taskExecutor) {
+    this.dmsService = dmsService;
+    this.documentPartitions = documentPartitions;
+    this.mongoOperations = mongoOperations;
+    this.outbox = outbox;
+    this.transactionOperations = transactionOperations;
+    this.documentCache = documentCache;
+    this.storageUsage = storageUsage;
+    this.batchProperties = batchProperties;
+    this.taskExecutor = taskExecutor;
+  }
+
+  /**
+   * Uploads each of {@code files} with {@code metadata}, at most {@code dms.batch.parallelism}
+   * at a time. A failing file does not stop the others; the results are in the order of
+   * {@code files}.
+   */
+  public List<UploadResult> upload(@NotNull final List<MultipartFile> files,
+      @NotNull final Map<String, String> metadata) {
+    LOGGER.info("Trying to upload {} files", files.size());
+    final UploadResult[] results = new UploadResult[files.size()];
+    final AtomicInteger next = new AtomicInteger();
+    final Runnable worker = () -> {
+      int index;
+      while ((index = next.getAndIncrement()) < files.size()) {
+        results[index] = this.upload(files.get(index), metadata);
+      }
+    };
+    CompletableFuture.allOf(IntStream.range(0,
+            Math.min(this.batchProperties.parallelism(), files.size()))
+        .mapToObj(i -> CompletableFuture.runAsync(worker, this.taskExecutor))
+        .toArray(CompletableFuture[]::new)).join();
+    return List.of(results);
+  }
+
+  /**
+   * Returns the {@code fs.files} entries of those of {@code objectIds} that exist, read with one
+   * {@code $in} query per bucket holding any of them.
+   */
+  public Map<ObjectId, GridFSFile> findAll(@NotNull final Collection<ObjectId> objectIds) {
+    LOGGER.info("Trying to find {} files", objectIds.size());
+    final Map<ObjectId, GridFSFile> files = new HashMap<>();
+    this.documentPartitions.group(objectIds).forEach((bucket, ids) ->
+        this.documentPartitions.gridFs(bucket).find(Query.query(Criteria.where(ID_KEY).in(ids)
+                .andOperator(DocumentMetadata.notDeleted())))
+            .forEach(file -> files.put(file.getObjectId(), file)));
+    return files;
+  }
+
+  /**
+   * Deletes those of {@code objectIds} that exist in one transaction and returns their ids.
+   */
+  public List<ObjectId> delete(@NotNull final Collection<ObjectId> objectIds) {
+    LOGGER.info("Trying to delete {} files", objectIds.size());
+    final Map<String, Query> queries = new LinkedHashMap<>();
+    this.documentPartitions.group(objectIds).forEach((bucket, ids) -> queries.put(bucket,
+        Query.query(Criteria.where(ID_KEY).in(ids).andOperator(DocumentMetadata.notDeleted()))));
+    return this.deleteBatch(queries);
+  }
+
+  /**
+   * Deletes every file whose metadata has all entries of {@code filter}, in transactions of
+   * {@code dms.batch.max-items} files of one bucket, and returns their ids.
+   */
+  public List<ObjectId> deleteByMetadata(@NotEmpty final Map<String, String> filter) {
+    LOGGER.info("Trying to delete files matching {}", filter);
+    final List<Criteria> conditions = new ArrayList<>(filter.entrySet().stream()
+        .map(entry -> whereMetaData(entry.getKey()).is(entry.getValue()))
+        .toList());
+    conditions.add(DocumentMetadata.notDeleted());
+    final Criteria criteria = new Criteria().andOperator(conditions);
+    final List<ObjectId> deleted = new ArrayList<>();
+    for (final String bucket : this.documentPartitions.buckets()) {
+      List<ObjectId> batch;
+      do {
+        batch = this.deleteBatch(Map.of(bucket,
+            Query.query(criteria).limit(this.batchProperties.maxItems())));
+        deleted.addAll(batch);
+      } while (!batch.isEmpty());
+    }
+    return deleted;
+  }
+
+  private UploadResult upload(final MultipartFile file, final Map<String, String> metadata) {
+    try {
+      return new UploadResult(file.getOriginalFilename(),
+          this.dmsService.upload(file, metadata), null);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Could not upload {}", file.getOriginalFilename(), e);
+      return new UploadResult(file.getOriginalFilename(), null, e);
+    }
+  }
+
+  /**
+   * Marks the {@code fs.files} entries matching the query of each bucket deleted, removes them
+   * from the usage of their users and writes one delete event in a transaction.
+   */
+  private List<ObjectId> deleteBatch(final Map<String, Query> queries) {
+    final List<ObjectId> deleted = Objects.requireNonNull(
+        this.transactionOperations.execute(status -> {
+          final List<Document> files = new ArrayList<>();
+          final List<ObjectId> ids = new ArrayList<>();
+          queries.forEach((bucket, query) -> {
+            query.fields().include(LENGTH_KEY).include(USER_FIELD);
+            final List<Document> found = this.mongoOperations.find(query, Document.class,
+                GridFsCollections.files(bucket));
+            if (found.isEmpty()) {
+              return;
+            }
+
+            final List<ObjectId> foundIds = found.stream()
+                .map(file -> file.getObjectId(ID_KEY))
+                .toList();
+            this.mongoOperations.updateMulti(Query.query(Criteria.where(ID_KEY).in(foundIds)),
+                Update.update(METADATA_PREFIX + DocumentMetadata.DELETED_AT_KEY, new Date()),
+                GridFsCollections.files(bucket));
+            files.addAll(found);
+            ids.addAll(foundIds);
+          });
+          if (ids.isEmpty()) {
+            return List.<ObjectId>of();
+          }
+
+          this.storageUsage.subtract(files);
+          this.outbox.append(DELETED_OUTPUT_BINDING_NAME, FileDeleted.of(ids));
+          return ids;
+        }));
+    deleted.forEach(this.documentCache::invalidate);
+    return deleted;
+  }
+
+  /**
+   * Outcome of one file of a batch upload: its new id, or the failure.
+   */
+  public record UploadResult(String filename, ObjectId objectId, Exception failure) {
+
+  }
+}
@@ -2,28 +2,43 @@ package awt.dms.service;
 
 import static org.springframework.data.mongodb.gridfs.GridFsCriteria.whereMetaData;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import awt.dms.config.CompressionProperties;
+import awt.dms.config.UploadProperties;
 import com.mongodb.client.gridfs.GridFSFindIterable;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import jakarta.validation.constraints.NotNull;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.gridfs.GridFsResource;
-import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -37,85 +52,380 @@ public class DmsService {
   private static final String VIEWED_OUTPUT_BINDING_NAME = "file-viewed-out-0";
   private static final String DELETED_OUTPUT_BINDING_NAME = "file-deleted-out-0";
 
+  private static final String GRIDFS_OBSERVATION = "dms.gridfs";
+  private static final String OPERATION_KEY = "operation";
+
   private static final String FALLBACK_OBJECT_TYPE = "application/octet-stream";
 
   private static final String ID_KEY = "_id";
+  private static final String FILENAME_KEY = "filename";
+  private static final String UPLOAD_DATE_KEY = "uploadDate";
+  private static final String METADATA_KEY = "metadata";
+  private static final String METADATA_PREFIX = METADATA_KEY + ".";
+  private static final String CONTENT_TYPE_KEY = "_contentType";
+  private static final String USER_KEY = "user";
+
+  /**
+   * Order of {@link #findPage} over {@code fs.files} entries, newest first.
+   */
+  static final Comparator<Document> PAGE_ORDER = Comparator
+      .comparing((Document file) -> file.getDate(UPLOAD_DATE_KEY))
+      .thenComparing(file -> file.getObjectId(ID_KEY))
+      .reversed();
 
-  private final GridFsOperations gridFsOperations;
-  private final StreamBridge streamBridge;
-  private final ObjectMapper objectMapper;
+  private final DocumentPartitions documentPartitions;
+  private final MongoOperations mongoOperations;
+  private final EventPublisher eventPublisher;
+  private final UploadProperties uploadProperties;
+  private final BlobStores blobStores;
+  private final GridFsWriter gridFsWriter;
+  private final Outbox outbox;
+  private final TransactionOperations transactionOperations;
+  private final CompressionProperties compressionProperties;
+  private final DocumentCache documentCache;
+  private final ObservationRegistry observationRegistry;
+  private final TransferMetrics transferMetrics;
+  private final StorageUsage storageUsage;
+  private final DistributionSummary findAllResultsSummary;
 
-  public DmsService(final GridFsTemplate gridFsTemplate, final StreamBridge streamBridge,
-      final ObjectMapper objectMapper) {
-    this.gridFsOperations = gridFsTemplate;
-    this.streamBridge = streamBridge;
-    this.objectMapper = objectMapper;
+  public DmsService(final DocumentPartitions documentPartitions,
+      final MongoOperations mongoOperations, final EventPublisher eventPublisher,
+      final UploadProperties uploadProperties, final BlobStores blobStores,
+      final GridFsWriter gridFsWriter, final Outbox outbox,
+      final TransactionOperations transactionOperations,
+      final CompressionProperties compressionProperties, final DocumentCache documentCache,
+      final MeterRegistry meterRegistry, final ObservationRegistry observationRegistry,
+      final TransferMetrics transferMetrics, final StorageUsage storageUsage) {
+    this.documentPartitions = documentPartitions;
+    this.mongoOperations = mongoOperations;
+    this.eventPublisher = eventPublisher;
+    this.uploadProperties = uploadProperties;
+    this.blobStores = blobStores;
+    this.gridFsWriter = gridFsWriter;
+    this.outbox = outbox;
+    this.transactionOperations = transactionOperations;
+    this.compressionProperties = compressionProperties;
+    this.documentCache = documentCache;
+    this.observationRegistry = observationRegistry;
+    this.transferMetrics = transferMetrics;
+    this.storageUsage = storageUsage;
+    this.findAllResultsSummary = DistributionSummary.builder("dms.find.results")
+        .description("Files found per findAll")
+        .register(meterRegistry);
   }
 
   public ObjectId upload(@NotNull final MultipartFile file,
       @NotNull final Map<String, String> metadata) throws IOException {
-    LOGGER.info("Trying to upload {}", file.getOriginalFilename());
-    final ObjectId objectId = this.gridFsOperations.store(file.getInputStream(),
-        file.getOriginalFilename(), file.getContentType(), new Document(metadata));
+    try (InputStream content = file.getInputStream()) {
+      return this.upload(content, file.getSize(), file.getOriginalFilename(),
+          file.getContentType(), metadata);
+    }
+  }
+
+  /**
+   * Streams {@code content} straight into GridFS chunks, so memory use does not depend on the
+   * document size, and records its SHA-256 for use as entity tag. Content types listed in
+   * {@code dms.compression.content-types} are stored gzip compressed. The upload event is written
+   * to the outbox in the transaction that creates the file. Fails with
+   * {@link UploadTooLargeException} once more than {@code dms.upload.max-size} bytes have been
+   * read. {@code length} is the declared length, negative when not known, and decides the chunk
+   * size. Fails with a {@link QuotaExceededException} before reading or once stored when the
+   * document takes its user beyond a quota. The document goes to the bucket its user is assigned by
+   * {@link DocumentPartitions}.
+   */
+  public ObjectId upload(@NotNull final InputStream content, final long length,
+      final String filename, final String contentType,
+      @NotNull final Map<String, String> metadata) throws IOException {
+    LOGGER.info("Trying to upload {}", filename);
+    this.storageUsage.checkQuota(metadata, length);
+    try (TransferMetrics.Transfer transfer = this.transferMetrics.start(
+        TransferMetrics.Direction.UPLOAD, contentType)) {
+      final GridFSFile file = this.observation("store").observeChecked(() ->
+          this.gridFsWriter.write(transfer.count(
+                  new SizeLimitedInputStream(content, this.uploadProperties.maxSize().toBytes())),
+              length, filename, contentType, this.storedMetadata(metadata),
+              this.encodingFor(contentType), this.appendUploaded(filename, contentType)));
+      return file.getObjectId();
+    }
+  }
+
+  /**
+   * Returns {@code metadata} as stored, naming the bucket of its user unless that is the default
+   * one.
+   */
+  Document storedMetadata(final Map<String, String> metadata) {
+    final Document stored = new Document(metadata);
+    final String bucket = this.documentPartitions.assign(metadata.get(USER_KEY));
+    if (!GridFsCollections.DEFAULT_BUCKET.equals(bucket)) {
+      stored.append(DocumentMetadata.BUCKET_KEY, bucket);
+    }
+    return stored;
+  }
 
-    final ObjectNode message = this.createRabbitMessage(objectId, file.getOriginalFilename(),
-        "userId", file.getContentType());
-    this.streamBridge.send(UPLOADED_OUTPUT_BINDING_NAME, message);
-    return objectId;
+  /**
+   * Returns the encoding content of {@code contentType} is stored in, {@code null} for none.
+   */
+  ContentEncoding encodingFor(final String contentType) {
+    return this.compressionProperties.compresses(contentType) ? ContentEncoding.GZIP : null;
+  }
+
+  /**
+   * Returns the callback counting a new file in the usage of its user and writing its upload
+   * event to the outbox, to be run in the transaction that creates the file.
+   */
+  Consumer<GridFSFile> appendUploaded(final String filename, final String contentType) {
+    return stored -> {
+      this.storageUsage.recordUpload(stored);
+      this.outbox.append(UPLOADED_OUTPUT_BINDING_NAME,
+          FileUploaded.of(stored.getObjectId(), filename, "userId", contentType));
+    };
   }
 
   public Collection<GridFsResource> findAll(@NotNull String userId) {
     LOGGER.info("Trying to find {}", userId);
     final Collection<GridFsResource> resources = new HashSet<>();
-    final GridFSFindIterable iterable = this.gridFsOperations.find(
-        Query.query(whereMetaData("user").is(userId)));
-    final Collection<ObjectNode> nodes = new HashSet<>();
-    iterable.forEach(file -> {
-      final GridFsResource resource = this.gridFsOperations.getResource(file);
-      resources.add(resource);
-      nodes.add(this.createRabbitMessage(file, userId));
+    final List<FileViewed> views = new ArrayList<>();
+    this.observation("find").observe(() -> {
+      for (final String bucket : this.documentPartitions.bucketsOf(userId)) {
+        final GridFSFindIterable iterable = this.documentPartitions.gridFs(bucket).find(
+            Query.query(whereMetaData(USER_KEY).is(userId)
+                .andOperator(DocumentMetadata.notDeleted())));
+        iterable.forEach(file -> {
+          final GridFsResource resource = this.openResource(DocumentMetadata.contentFile(file));
+          resources.add(resource);
+          views.add(viewed(file, userId));
+        });
+      }
     });
+    this.findAllResultsSummary.record(resources.size());
 
-    this.streamBridge.send(VIEWED_OUTPUT_BINDING_NAME, nodes);
+    this.eventPublisher.publish(VIEWED_OUTPUT_BINDING_NAME, EventBatch.of(views));
     return resources;
   }
 
+  /**
+   * Lists up to {@code limit} documents of {@code userId}, newest first, starting after
+   * {@code after}, a cursor on {@code uploadDate}, when given. Only the listed fields are read
+   * from {@code fs.files} and no content is opened. While the user is moved between buckets, both
+   * are read and merged. The returned stream holds a cursor and must be closed.
+   */
+  public Stream<DocumentSummary> findPage(@NotNull final String userId, final PageCursor after,
+      final int limit) {
+    LOGGER.info("Trying to list {} after {}", userId, after);
+    final Query query = pageQuery(userId, after, limit);
+    return DocumentPartitions.merge(this.documentPartitions.bucketsOf(userId).stream()
+            .map(bucket -> this.mongoOperations.stream(query, Document.class,
+                GridFsCollections.files(bucket)))
+            .toList(), PAGE_ORDER, limit)
+        .map(DmsService::toSummary);
+  }
+
   public Optional<GridFsResource> findOne(@NotNull final ObjectId objectId) {
-    LOGGER.info("Trying to find {}", objectId);
-    final GridFSFile file = this.gridFsOperations.findOne(
-        Query.query(Criteria.where(ID_KEY).is(objectId)));
-    if (file == null) {
-      return Optional.empty();
-    }
+    return this.findFile(objectId).map(this::getResource);
+  }
 
-    final Optional<GridFsResource> resource = Optional.of(this.gridFsOperations.getResource(file));
-    final ObjectNode message = createRabbitMessage(file, "userId");
+  /**
+   * Looks up the {@code fs.files} entry only, without opening the content or publishing a view.
+   * The bucket holding it is found through the {@link DocumentPartitions} directory. Served from
+   * the {@link DocumentCache} when enabled.
+   */
+  public Optional<GridFSFile> findFile(@NotNull final ObjectId objectId) {
+    LOGGER.info("Trying to find {}", objectId);
+    return this.documentCache.file(objectId, id -> this.documentPartitions.locate(id, bucket ->
+        Optional.ofNullable(this.observation("find").observe(() ->
+            this.documentPartitions.gridFs(bucket).findOne(Query.query(
+                Criteria.where(ID_KEY).is(id).andOperator(DocumentMetadata.notDeleted())))))));
+  }
 
-    this.streamBridge.send(VIEWED_OUTPUT_BINDING_NAME, message);
+  /**
+   * Returns the content of a file found through {@link #findFile(ObjectId)} and records the view.
+   * Small files are read completely and kept in the {@link DocumentCache} when enabled.
+   */
+  public GridFsResource getResource(@NotNull final GridFSFile file) {
+    final GridFSFile contentFile = DocumentMetadata.contentFile(file);
+    final GridFsResource resource = this.documentCache.content(file)
+        .map(content -> new GridFsResource(contentFile, new ByteArrayInputStream(content)))
+        .orElseGet(() -> this.observation("getResource").observe(() ->
+            this.readResource(file, contentFile)));
+    this.recordView(file);
     return resource;
   }
 
+  /**
+   * Records a view of {@code file} whose content is sent without {@link #getResource(GridFSFile)},
+   * e.g. straight from {@link #localFile(GridFSFile)}.
+   */
+  public void recordView(@NotNull final GridFSFile file) {
+    final String userId = "userId";
+    this.eventPublisher.publishCoalesced(VIEWED_OUTPUT_BINDING_NAME,
+        List.of(file.getObjectId(), userId), viewed(file, userId));
+  }
+
+  /**
+   * Returns the local file holding the stored content of {@code file} when it is kept in the
+   * filesystem tier, so it can be sent without passing through the heap.
+   */
+  public Optional<Path> localFile(@NotNull final GridFSFile file) {
+    final GridFSFile contentFile = DocumentMetadata.contentFile(file);
+    return this.blobStores.forFile(contentFile) instanceof FileSystemBlobStore fileSystem
+        ? Optional.of(fileSystem.path(contentFile.getObjectId()))
+        : Optional.empty();
+  }
+
+  /**
+   * Opens bytes {@code start} to {@code end}, both inclusive, of the content as stored, reading
+   * only the chunks covering them.
+   */
+  public InputStream openRange(@NotNull final GridFSFile file, final long start,
+      final long end) throws IOException {
+    final Optional<byte[]> cached = this.documentCache.content(file);
+    if (cached.isPresent()) {
+      return new ByteArrayInputStream(cached.get(), Math.toIntExact(start),
+          Math.toIntExact(end - start + 1));
+    }
+    final GridFSFile contentFile = DocumentMetadata.contentFile(file);
+    return this.blobStores.forFile(contentFile).open(contentFile, start, end);
+  }
+
+  /**
+   * Marks the {@code fs.files} entry deleted, removes it from the usage of its user and writes
+   * the delete event to the outbox in one transaction. The file is hidden at once; its renditions
+   * and content are purged by the {@link DocumentReaper} once {@code dms.reaper.retention} has
+   * passed.
+   */
   public void delete(@NotNull final ObjectId objectId) {
     LOGGER.info("Trying to delete {}", objectId);
-    this.gridFsOperations.delete(new Query(Criteria.where(ID_KEY).is(objectId)));
+    this.observation("delete").observe(() -> this.deleteObserved(objectId));
+  }
 
-    final ObjectNode node = this.objectMapper.createObjectNode()
-        .put("objectId", objectId.toString());
-    this.streamBridge.send(DELETED_OUTPUT_BINDING_NAME, node);
+  private void deleteObserved(final ObjectId objectId) {
+    this.transactionOperations.executeWithoutResult(status -> {
+      this.documentPartitions.locate(objectId, bucket -> Optional.ofNullable(
+              this.mongoOperations.findAndModify(Query.query(Criteria.where(ID_KEY).is(objectId)
+                      .andOperator(DocumentMetadata.notDeleted())),
+                  Update.update(METADATA_PREFIX + DocumentMetadata.DELETED_AT_KEY, new Date()),
+                  Document.class, GridFsCollections.files(bucket))))
+          .ifPresent(deleted -> this.storageUsage.subtract(List.of(deleted)));
+      this.outbox.append(DELETED_OUTPUT_BINDING_NAME, FileDeleted.of(objectId));
+    });
+    this.documentCache.invalidate(objectId);
   }
 
-  private ObjectNode createRabbitMessage(final GridFSFile file, final String userId) {
-    return this.createRabbitMessage(file.getObjectId(), file.getFilename(), userId,
-        file.getMetadata() != null ? file.getMetadata().getString("_contentType")
-            : FALLBACK_OBJECT_TYPE);
+  /**
+   * Brings back a deleted file that has not been purged yet and counts it in the usage of its
+   * user again, regardless of quotas. Returns {@code false} when there is no such file.
+   */
+  public boolean restore(@NotNull final ObjectId objectId) {
+    LOGGER.info("Trying to restore {}", objectId);
+    final Document restored = this.transactionOperations.execute(status -> {
+      final Optional<Document> file = this.documentPartitions.locate(objectId, bucket ->
+          Optional.ofNullable(this.mongoOperations.findAndModify(
+              Query.query(Criteria.where(ID_KEY).is(objectId)
+                  .and(METADATA_PREFIX + DocumentMetadata.DELETED_AT_KEY).exists(true)),
+              new Update().unset(METADATA_PREFIX + DocumentMetadata.DELETED_AT_KEY),
+              Document.class, GridFsCollections.files(bucket))));
+      file.ifPresent(found -> this.storageUsage.add(List.of(found)));
+      return file.orElse(null);
+    });
+    this.documentCache.invalidate(objectId);
+    return restored != null;
+  }
+
+  /**
+   * Removes the renditions derived from {@code objectIds}, which are kept in the bucket of their
+   * originals, and releases their content. Must be called inside the transaction that removes the
+   * files themselves. Returns the ids of chunks no file refers to anymore, which the caller
+   * removes once the transaction committed.
+   */
+  public List<ObjectId> removeRenditions(@NotNull final String bucket,
+      @NotNull final Collection<ObjectId> objectIds) {
+    final List<Document> renditions = this.mongoOperations.findAllAndRemove(
+        Query.query(whereMetaData(DocumentMetadata.RENDITION_OF_KEY).in(objectIds)),
+        Document.class, GridFsCollections.files(bucket));
+    if (!renditions.isEmpty() && !GridFsCollections.DEFAULT_BUCKET.equals(bucket)) {
+      this.mongoOperations.remove(Query.query(Criteria.where(ID_KEY).in(renditions.stream()
+          .map(rendition -> rendition.getObjectId(ID_KEY))
+          .toList())), GridFsCollections.DIRECTORY);
+    }
+    final List<ObjectId> unreferenced = new ArrayList<>();
+    renditions.forEach(rendition -> this.gridFsWriter.release(rendition.getObjectId(ID_KEY),
+        rendition.get(METADATA_KEY, Document.class)).ifPresent(unreferenced::add));
+    return unreferenced;
+  }
+
+  /**
+   * Returns an observation of the GridFS {@code operation}, timed as {@code dms.gridfs} and traced
+   * as a span around the Mongo commands it runs.
+   */
+  private Observation observation(final String operation) {
+    return Observation.createNotStarted(GRIDFS_OBSERVATION, this.observationRegistry)
+        .lowCardinalityKeyValue(OPERATION_KEY, operation);
+  }
+
+  private GridFsResource readResource(final GridFSFile file, final GridFSFile contentFile) {
+    final GridFsResource resource = this.openResource(contentFile);
+    if (!this.documentCache.admits(file)) {
+      return resource;
+    }
+
+    try (InputStream content = resource.getInputStream()) {
+      final byte[] bytes = content.readAllBytes();
+      this.documentCache.putContent(file, bytes);
+      return new GridFsResource(contentFile, new ByteArrayInputStream(bytes));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private GridFsResource openResource(final GridFSFile contentFile) {
+    try {
+      return new GridFsResource(contentFile,
+          this.blobStores.forFile(contentFile).open(contentFile));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
-  private ObjectNode createRabbitMessage(final ObjectId objectId, final String filename,
-      final String userId, final String objectType) {
-    return this.objectMapper.createObjectNode()
-        .put("objectId", Objects.requireNonNull(objectId.toString()))
-        .put("displayName", Objects.requireNonNull(filename))
-        .put("userId", Objects.requireNonNull(userId))
-        .put("objectType", Objects.requireNonNull(objectType));
+  /**
+   * Selects a page of the files of {@code userId}, newest first, reading only the fields of a
+   * {@link DocumentSummary}.
+   */
+  static Query pageQuery(final String userId, final PageCursor after, final int limit) {
+    final Criteria criteria = whereMetaData(USER_KEY).is(userId)
+        .andOperator(DocumentMetadata.notDeleted());
+    if (after != null) {
+      criteria.orOperator(
+          Criteria.where(UPLOAD_DATE_KEY).lt(after.sortValue()),
+          Criteria.where(UPLOAD_DATE_KEY).is(after.sortValue()).and(ID_KEY).lt(after.id()));
+    }
+
+    final Query query = Query.query(criteria)
+        .with(Sort.by(Direction.DESC, UPLOAD_DATE_KEY, ID_KEY))
+        .limit(limit);
+    query.fields()
+        .include(FILENAME_KEY)
+        .include(UPLOAD_DATE_KEY)
+        .include(METADATA_PREFIX + CONTENT_TYPE_KEY);
+    return query;
+  }
+
+  static DocumentSummary toSummary(final Document file) {
+    return toSummary(file, UPLOAD_DATE_KEY);
+  }
+
+  /**
+   * Returns the summary of an {@code fs.files} entry listed in order of {@code sortField}.
+   */
+  static DocumentSummary toSummary(final Document file, final String sortField) {
+    final Document metadata = file.get(METADATA_KEY, Document.class);
+    return new DocumentSummary(file.getObjectId(ID_KEY), file.getString(FILENAME_KEY),
+        metadata != null ? metadata.getString(CONTENT_TYPE_KEY) : null,
+        file.getDate(UPLOAD_DATE_KEY), PageCursor.of(file, sortField));
+  }
+
+  private static FileViewed viewed(final GridFSFile file, final String userId) {
+    return FileViewed.of(file.getObjectId(), file.getFilename(), userId,
+        file.getMetadata() != null ? file.getMetadata().getString(CONTENT_TYPE_KEY)
+            : FALLBACK_OBJECT_TYPE);
   }
 }
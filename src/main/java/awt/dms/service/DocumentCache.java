@@ -0,0 +1,133 @@
+package awt.dms.service;
+
+import awt.dms.config.DocumentCacheProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.bson.types.ObjectId;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the {@code fs.files} entries of requested documents and the stored bytes of the small
+ * ones. Both caches evict by W-TinyLFU, the content cache within a total byte budget. Entries are
+ * invalidated on delete, locally and through the {@code file.deleted} events of other instances.
+ * Restores, moves between buckets and tier migrations only invalidate the entries of the instance
+ * making them; other instances see them once their entries expire after
+ * {@code dms.cache.expire-after-write}, which is therefore short. Content is kept longer, as it is
+ * only served for an entry that was found.
+ */
+@Component
+public class DocumentCache {
+
+  private final DocumentCacheProperties properties;
+  private final Cache<ObjectId, GridFSFile> files;
+  private final Cache<ObjectId, byte[]> contents;
+  private final AtomicLong invalidations = new AtomicLong();
+
+  public DocumentCache(final DocumentCacheProperties properties,
+      final MeterRegistry meterRegistry) {
+    this.properties = properties;
+    this.files = Caffeine.newBuilder()
+        .maximumSize(properties.maxFiles())
+        .expireAfterWrite(properties.expireAfterWrite())
+        .recordStats()
+        .build();
+    this.contents = Caffeine.newBuilder()
+        .maximumWeight(properties.maxTotalSize().toBytes())
+        .<ObjectId, byte[]>weigher((objectId, content) -> content.length)
+        .expireAfterWrite(properties.contentExpireAfterWrite())
+        .recordStats()
+        .build();
+
+    if (properties.enabled()) {
+      CaffeineCacheMetrics.monitor(meterRegistry, this.files, "dms.documents.files",
+          Collections.emptyList());
+      CaffeineCacheMetrics.monitor(meterRegistry, this.contents, "dms.documents.contents",
+          Collections.emptyList());
+    }
+  }
+
+  /**
+   * Returns the cached entry of {@code objectId}, looking it up with {@code loader} on a miss.
+   * Files that do not exist are not cached. The lookup runs outside the cache, whose loads hold a
+   * monitor that would pin a virtual thread for the duration of the query; concurrent misses may
+   * therefore look up the same file.
+   */
+  public Optional<GridFSFile> file(final ObjectId objectId,
+      final Function<ObjectId, Optional<GridFSFile>> loader) {
+    final Optional<GridFSFile> cached = this.cachedFile(objectId);
+    if (cached.isPresent()) {
+      return cached;
+    }
+    final long invalidations = this.invalidations();
+    final Optional<GridFSFile> loaded = loader.apply(objectId);
+    loaded.ifPresent(file -> this.putFile(file, invalidations));
+    return loaded;
+  }
+
+  /**
+   * Returns the cached entry of {@code objectId} without looking it up, for callers that look up
+   * files asynchronously and {@link #putFile(GridFSFile, long) put} them afterwards.
+   */
+  public Optional<GridFSFile> cachedFile(final ObjectId objectId) {
+    return this.properties.enabled()
+        ? Optional.ofNullable(this.files.getIfPresent(objectId))
+        : Optional.empty();
+  }
+
+  /**
+   * Returns the count of invalidations so far, to be read before looking up a file to
+   * {@link #putFile(GridFSFile, long) put}.
+   */
+  public long invalidations() {
+    return this.invalidations.get();
+  }
+
+  /**
+   * Caches {@code file} looked up after {@code invalidations} were counted. It is dropped when an
+   * entry was invalidated since, as the lookup may have read it before it was deleted or moved.
+   */
+  public void putFile(final GridFSFile file, final long invalidations) {
+    if (this.properties.enabled()) {
+      // computing holds the entry, so an invalidation either happens before the check or
+      // removes the entry afterwards
+      this.files.asMap().compute(file.getObjectId(), (objectId, cached) ->
+          this.invalidations.get() == invalidations ? file : cached);
+    }
+  }
+
+  /**
+   * Returns the cached stored bytes of {@code file}, if any.
+   */
+  public Optional<byte[]> content(final GridFSFile file) {
+    return this.properties.enabled()
+        ? Optional.ofNullable(this.contents.getIfPresent(file.getObjectId()))
+        : Optional.empty();
+  }
+
+  /**
+   * Returns whether the content of {@code file} is small enough to be cached.
+   */
+  public boolean admits(final GridFSFile file) {
+    return this.properties.enabled()
+        && file.getLength() <= this.properties.maxContentSize().toBytes();
+  }
+
+  public void putContent(final GridFSFile file, final byte[] content) {
+    if (this.admits(file)) {
+      this.contents.put(file.getObjectId(), content);
+    }
+  }
+
+  public void invalidate(final ObjectId objectId) {
+    this.invalidations.incrementAndGet();
+    this.files.invalidate(objectId);
+    this.contents.invalidate(objectId);
+  }
+}
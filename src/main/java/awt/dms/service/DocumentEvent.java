@@ -0,0 +1,16 @@
+package awt.dms.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Payload of an event about a document. {@link #SCHEMA_VERSION} is raised when a field is removed
+ * or changes its meaning; fields are only ever added within a version and ignored by consumers
+ * that do not know them, so producers and consumers upgrade independently.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public sealed interface DocumentEvent permits FileDeleted, FileUploaded, FileViewed {
+
+  int SCHEMA_VERSION = 1;
+
+  int schemaVersion();
+}
@@ -0,0 +1,143 @@
+package awt.dms.service;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Sorts.descending;
+
+import awt.dms.config.IndexProperties;
+import awt.dms.config.IndexProperties.CollectionScanPolicy;
+import awt.dms.config.PartitionProperties;
+import com.mongodb.ExplainVerbosity;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.WildcardIndex;
+import org.springframework.stereotype.Component;
+
+/**
+ * Declares the indexes the queries of {@link DmsService} and {@link DocumentSearchService} rely on
+ * in every GridFS bucket and checks at startup that the listing plans do not scan the whole
+ * collection. The buckets are indexed alike, so plans are checked on the default one.
+ */
+@Component
+public class DocumentIndexes implements ApplicationRunner {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocumentIndexes.class);
+
+  private static final String USER_KEY = "user";
+  private static final String METADATA_KEY = "metadata";
+  private static final String METADATA_PREFIX = METADATA_KEY + ".";
+  private static final String UPLOAD_DATE_KEY = "uploadDate";
+  private static final String ID_KEY = "_id";
+  private static final String LENGTH_KEY = "length";
+
+  private final MongoOperations mongoOperations;
+  private final IndexProperties indexProperties;
+  private final PartitionProperties partitionProperties;
+
+  public DocumentIndexes(final MongoOperations mongoOperations,
+      final IndexProperties indexProperties, final PartitionProperties partitionProperties) {
+    this.mongoOperations = mongoOperations;
+    this.indexProperties = indexProperties;
+    this.partitionProperties = partitionProperties;
+  }
+
+  @Override
+  public void run(final ApplicationArguments args) {
+    this.partitionProperties.allBuckets().forEach(this::ensureIndexes);
+    this.mongoOperations.indexOps(DocumentPartitions.PARTITIONS).ensureIndex(new Index()
+        .on(DocumentPartitions.MOVING_FROM_KEY, Direction.ASC)
+        .sparse()
+        .named("movingFrom"));
+
+    final List<String> problems = new ArrayList<>();
+    for (final String key : this.metadataKeys()) {
+      final String field = METADATA_PREFIX + key;
+      final Document explain = this.explain(eq(field, ""), descending(UPLOAD_DATE_KEY, ID_KEY));
+      if (QueryPlans.isCollectionScan(explain)) {
+        problems.add(field);
+      }
+    }
+
+    if (problems.isEmpty()) {
+      LOGGER.info("Verified query plans on {}", this.metadataKeys());
+    } else if (this.indexProperties.collectionScan() == CollectionScanPolicy.FAIL) {
+      throw new IllegalStateException("Queries on " + problems + " scan the whole collection");
+    } else {
+      LOGGER.warn("Queries on {} scan the whole collection", problems);
+    }
+  }
+
+  /**
+   * Explains a query on {@code fs.files} without executing it.
+   */
+  public Document explain(final Bson filter, final Bson sort) {
+    return this.mongoOperations.getCollection(GridFsCollections.FILES)
+        .find(filter)
+        .sort(sort)
+        .explain(ExplainVerbosity.QUERY_PLANNER);
+  }
+
+  private void ensureIndexes(final String bucket) {
+    final String files = GridFsCollections.files(bucket);
+    this.mongoOperations.indexOps(GridFsCollections.chunks(bucket)).ensureIndex(new Index()
+        .on("files_id", Direction.ASC)
+        .on("n", Direction.ASC)
+        .unique()
+        .named("files_id_1_n_1"));
+    this.mongoOperations.indexOps(files).ensureIndex(new Index()
+        .on(METADATA_PREFIX + DocumentMetadata.BLOB_KEY, Direction.ASC)
+        .sparse()
+        .named("metadata_blob"));
+    this.mongoOperations.indexOps(files).ensureIndex(new Index()
+        .on(METADATA_PREFIX + DocumentMetadata.RENDITION_OF_KEY, Direction.ASC)
+        .on(METADATA_PREFIX + DocumentMetadata.RENDITION_KEY, Direction.ASC)
+        .unique()
+        .sparse()
+        .named("metadata_rendition"));
+    this.mongoOperations.indexOps(files).ensureIndex(new Index()
+        .on(METADATA_PREFIX + DocumentMetadata.DELETED_AT_KEY, Direction.ASC)
+        .sparse()
+        .named("metadata_deletedAt"));
+    this.mongoOperations.indexOps(files).ensureIndex(new Index()
+        .on(LENGTH_KEY, Direction.DESC)
+        .on(ID_KEY, Direction.DESC)
+        .named("length_id"));
+    this.mongoOperations.indexOps(files).ensureIndex(new Index()
+        .on(UPLOAD_DATE_KEY, Direction.DESC)
+        .on(ID_KEY, Direction.DESC)
+        .named("uploadDate_id"));
+    if (this.indexProperties.metadataWildcard()) {
+      this.mongoOperations.indexOps(files).ensureIndex(
+          new WildcardIndex(METADATA_KEY).named("metadata_wildcard"));
+    }
+    this.mongoOperations.indexOps(GridFsCollections.blobs(bucket)).ensureIndex(new Index()
+        .on(GridFsWriter.BLOB_FILES_ID_KEY, Direction.ASC)
+        .named("files_id"));
+
+    for (final String key : this.metadataKeys()) {
+      final String field = METADATA_PREFIX + key;
+      this.mongoOperations.indexOps(files).ensureIndex(new Index()
+          .on(field, Direction.ASC)
+          .on(UPLOAD_DATE_KEY, Direction.DESC)
+          .on(ID_KEY, Direction.DESC)
+          .named(field + "_uploadDate_id"));
+    }
+  }
+
+  private List<String> metadataKeys() {
+    final List<String> keys = new ArrayList<>();
+    keys.add(USER_KEY);
+    this.indexProperties.metadataKeys().stream()
+        .filter(key -> !keys.contains(key))
+        .forEach(keys::add);
+    return keys;
+  }
+}
@@ -0,0 +1,121 @@
+package awt.dms.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/**
+ * Keys the service keeps in the GridFS metadata document next to the user supplied metadata.
+ * They are prefixed with an underscore like Spring's {@code _contentType}.
+ */
+public final class DocumentMetadata {
+
+  public static final String CONTENT_HASH_KEY = "_sha256";
+  public static final String BLOB_KEY = "_blob";
+  public static final String CONTENT_ENCODING_KEY = "_contentEncoding";
+  public static final String ORIGINAL_LENGTH_KEY = "_originalLength";
+  public static final String TIER_KEY = "_tier";
+  public static final String RENDITION_OF_KEY = "_renditionOf";
+  public static final String RENDITION_KEY = "_rendition";
+  public static final String DELETED_AT_KEY = "_deletedAt";
+  public static final String BUCKET_KEY = "_bucket";
+
+  private static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+  private static final String METADATA_PREFIX = "metadata.";
+
+  private DocumentMetadata() {
+  }
+
+  /**
+   * Returns the hex encoded SHA-256 of the document content, or {@code null} for files stored
+   * before hashes were recorded and not yet backfilled.
+   */
+  public static String contentHash(final GridFSFile file) {
+    final Document metadata = file.getMetadata();
+    return metadata != null ? metadata.getString(CONTENT_HASH_KEY) : null;
+  }
+
+  /**
+   * Returns the encoding the content is stored in, empty when it is stored as uploaded.
+   */
+  public static Optional<ContentEncoding> contentEncoding(final GridFSFile file) {
+    final Document metadata = file.getMetadata();
+    return Optional.ofNullable(metadata != null ? metadata.getString(CONTENT_ENCODING_KEY) : null)
+        .flatMap(ContentEncoding::fromCoding);
+  }
+
+  /**
+   * Returns the length of the content as uploaded; {@link GridFSFile#getLength()} is the length
+   * as stored.
+   */
+  public static long originalLength(final GridFSFile file) {
+    final Document metadata = file.getMetadata();
+    final Number originalLength = metadata != null
+        ? metadata.get(ORIGINAL_LENGTH_KEY, Number.class) : null;
+    return originalLength != null ? originalLength.longValue() : file.getLength();
+  }
+
+  /**
+   * Returns the {@link BlobStore#tier()} holding the content.
+   */
+  public static String tier(final GridFSFile file) {
+    final Document metadata = file.getMetadata();
+    final String tier = metadata != null ? metadata.getString(TIER_KEY) : null;
+    return tier != null ? tier : GridFsBlobStore.TIER;
+  }
+
+  /**
+   * Returns the GridFS bucket holding the file, recorded only for files outside the default one.
+   */
+  public static String bucket(final GridFSFile file) {
+    return bucket(file.getMetadata());
+  }
+
+  /**
+   * Like {@link #bucket(GridFSFile)} for the metadata of a file.
+   */
+  public static String bucket(final Document metadata) {
+    final String bucket = metadata != null ? metadata.getString(BUCKET_KEY) : null;
+    return bucket != null ? bucket : GridFsCollections.DEFAULT_BUCKET;
+  }
+
+  /**
+   * Returns the id of the file whose chunks hold the content: the file itself, or the file it
+   * shares identical content with.
+   */
+  public static ObjectId chunksId(final ObjectId objectId, final Document metadata) {
+    final ObjectId blob = metadata != null ? metadata.getObjectId(BLOB_KEY) : null;
+    return blob != null ? blob : objectId;
+  }
+
+  /**
+   * Returns {@code file} with the id of the file holding its chunks, for reading the content.
+   */
+  public static GridFSFile contentFile(final GridFSFile file) {
+    final ObjectId chunksId = chunksId(file.getObjectId(), file.getMetadata());
+    return chunksId.equals(file.getObjectId()) ? file : new GridFSFile(
+        new BsonObjectId(chunksId), file.getFilename(), file.getLength(), file.getChunkSize(),
+        file.getUploadDate(), file.getMetadata());
+  }
+
+  /**
+   * Selects files that are not deleted. Deleted files stay in {@code fs.files} until the
+   * {@link DocumentReaper} purges them, so every query for live documents includes this.
+   */
+  public static Criteria notDeleted() {
+    return Criteria.where(METADATA_PREFIX + DELETED_AT_KEY).exists(false);
+  }
+
+  static MessageDigest contentDigest() {
+    try {
+      return MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(CONTENT_HASH_ALGORITHM + " is not available", e);
+    }
+  }
+}
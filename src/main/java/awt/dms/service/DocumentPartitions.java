@@ -0,0 +1,263 @@
+package awt.dms.service;
+
+import awt.dms.config.PartitionProperties;
+import awt.dms.config.PartitionProperties.Strategy;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Routes documents to the GridFS buckets of {@link PartitionProperties} by their user, the
+ * tenant. A user is assigned a bucket on the first upload, recorded in {@value #PARTITIONS}, so
+ * changing the configured buckets or strategy only affects users new to the service;
+ * {@link PartitionRebalancer} moves users between buckets. Documents outside the default bucket
+ * are listed in {@link GridFsCollections#DIRECTORY}, so a document is found by id with one lookup
+ * by key. Both are cached. Without buckets besides the default one nothing is looked up.
+ */
+@Component
+public class DocumentPartitions {
+
+  static final String PARTITIONS = "partitions";
+  static final String BUCKET_KEY = "bucket";
+  static final String MOVING_FROM_KEY = "movingFrom";
+  static final String MOVING_SINCE_KEY = "movingSince";
+
+  // users whose assignment is cached
+  private static final int MAX_ASSIGNMENTS = 10_000;
+
+  private static final String ID_KEY = "_id";
+  private static final String USER_FIELD = "metadata.user";
+
+  private final GridFsTemplate gridFsTemplate;
+  private final MongoDatabaseFactory mongoDatabaseFactory;
+  private final MongoOperations mongoOperations;
+  private final PartitionProperties partitionProperties;
+  private final List<String> buckets;
+  private final Map<String, GridFsOperations> gridFsTemplates = new ConcurrentHashMap<>();
+  private final Cache<String, Assignment> assignments;
+  private final Cache<ObjectId, String> directory;
+
+  public DocumentPartitions(final GridFsTemplate gridFsTemplate,
+      final MongoDatabaseFactory mongoDatabaseFactory, final MongoOperations mongoOperations,
+      final PartitionProperties partitionProperties) {
+    this.gridFsTemplate = gridFsTemplate;
+    this.mongoDatabaseFactory = mongoDatabaseFactory;
+    this.mongoOperations = mongoOperations;
+    this.partitionProperties = partitionProperties;
+    this.buckets = partitionProperties.allBuckets();
+    partitionProperties.assignments().forEach((user, bucket) -> this.checkBucket(bucket));
+    this.assignments = Caffeine.newBuilder()
+        .maximumSize(MAX_ASSIGNMENTS)
+        .expireAfterWrite(partitionProperties.cacheTtl())
+        .build();
+    this.directory = Caffeine.newBuilder()
+        .maximumSize(partitionProperties.directoryCacheSize())
+        .build();
+  }
+
+  public boolean partitioned() {
+    return this.buckets.size() > 1;
+  }
+
+  /**
+   * Returns every bucket, the default one first.
+   */
+  public List<String> buckets() {
+    return this.buckets;
+  }
+
+  /**
+   * Returns the GridFS operations on {@code bucket}.
+   */
+  public GridFsOperations gridFs(final String bucket) {
+    return GridFsCollections.DEFAULT_BUCKET.equals(bucket) ? this.gridFsTemplate
+        : this.gridFsTemplates.computeIfAbsent(bucket, key -> new GridFsTemplate(
+            this.mongoDatabaseFactory, this.mongoOperations.getConverter(), key));
+  }
+
+  /**
+   * Returns the buckets holding documents of {@code user}: the one assigned and, while the user
+   * is moved, the one it is moved from.
+   */
+  public List<String> bucketsOf(final String user) {
+    if (!this.partitioned() || user == null) {
+      return List.of(GridFsCollections.DEFAULT_BUCKET);
+    }
+    return this.assignment(user).buckets();
+  }
+
+  /**
+   * Returns the bucket new documents of {@code user} go to, assigning one when the user has none
+   * yet: the default bucket when the user has documents stored before partitioning, else the one
+   * in {@code dms.partitions.assignments} or picked by the strategy. Concurrent first uploads
+   * agree on the bucket through an upsert.
+   */
+  public String assign(final String user) {
+    if (!this.partitioned() || user == null) {
+      return GridFsCollections.DEFAULT_BUCKET;
+    }
+    final Assignment cached = this.assignment(user);
+    if (cached.bucket() != null) {
+      return cached.bucket();
+    }
+
+    final String bucket = this.mongoOperations.exists(Query.query(
+        Criteria.where(USER_FIELD).is(user)), GridFsCollections.FILES)
+        ? GridFsCollections.DEFAULT_BUCKET : this.choose(user);
+    final Assignment assigned = toAssignment(this.mongoOperations.findAndModify(
+        Query.query(Criteria.where(ID_KEY).is(user)), new Update().setOnInsert(BUCKET_KEY, bucket),
+        FindAndModifyOptions.options().upsert(true).returnNew(true), Document.class, PARTITIONS));
+    this.assignments.put(user, assigned);
+    return assigned.bucket();
+  }
+
+  /**
+   * Looks {@code objectId} up with {@code lookup} in the bucket holding it. When the document is
+   * not found in a bucket taken from the cache, it may have been moved since, so the directory is
+   * read again.
+   */
+  public <T> Optional<T> locate(final ObjectId objectId,
+      final Function<String, Optional<T>> lookup) {
+    if (!this.partitioned()) {
+      return lookup.apply(GridFsCollections.DEFAULT_BUCKET);
+    }
+    final String cached = this.directory.getIfPresent(objectId);
+    if (cached != null) {
+      final Optional<T> found = lookup.apply(cached);
+      if (found.isPresent()) {
+        return found;
+      }
+    }
+
+    final Document entry = this.mongoOperations.findById(objectId, Document.class,
+        GridFsCollections.DIRECTORY);
+    final String bucket = entry != null ? entry.getString(BUCKET_KEY)
+        : GridFsCollections.DEFAULT_BUCKET;
+    this.directory.put(objectId, bucket);
+    return bucket.equals(cached) ? Optional.empty() : lookup.apply(bucket);
+  }
+
+  /**
+   * Groups {@code objectIds} by the bucket holding them, read from the directory with one
+   * {@code $in} query.
+   */
+  public Map<String, List<ObjectId>> group(final Collection<ObjectId> objectIds) {
+    if (!this.partitioned()) {
+      return Map.of(GridFsCollections.DEFAULT_BUCKET, List.copyOf(objectIds));
+    }
+    final Map<ObjectId, String> located = new HashMap<>();
+    this.mongoOperations.find(Query.query(Criteria.where(ID_KEY).in(objectIds)), Document.class,
+            GridFsCollections.DIRECTORY)
+        .forEach(entry -> located.put(entry.getObjectId(ID_KEY), entry.getString(BUCKET_KEY)));
+    final Map<String, List<ObjectId>> grouped = new LinkedHashMap<>();
+    objectIds.forEach(objectId -> grouped.computeIfAbsent(
+        located.getOrDefault(objectId, GridFsCollections.DEFAULT_BUCKET),
+        bucket -> new ArrayList<>()).add(objectId));
+    return grouped;
+  }
+
+  /**
+   * Returns the stored assignment of {@code user}, read again after {@code cache-ttl}.
+   */
+  public Assignment assignment(final String user) {
+    return this.assignments.get(user, key -> toAssignment(this.mongoOperations.findById(key,
+        Document.class, PARTITIONS)));
+  }
+
+  /**
+   * Drops the cached assignment of {@code user}, after it changed.
+   */
+  void invalidateAssignment(final String user) {
+    this.assignments.invalidate(user);
+  }
+
+  /**
+   * Drops the cached bucket of {@code objectIds}, after they moved.
+   */
+  void invalidateDirectory(final Collection<ObjectId> objectIds) {
+    this.directory.invalidateAll(objectIds);
+  }
+
+  void checkBucket(final String bucket) {
+    if (!this.buckets.contains(bucket)) {
+      throw new IllegalArgumentException("Unknown bucket " + bucket);
+    }
+  }
+
+  private String choose(final String user) {
+    final String assigned = this.partitionProperties.assignments().get(user);
+    if (assigned != null) {
+      return assigned;
+    }
+    if (this.partitionProperties.strategy() != Strategy.HASH) {
+      return GridFsCollections.DEFAULT_BUCKET;
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(user.getBytes(StandardCharsets.UTF_8));
+    return this.buckets.get((int) (crc.getValue() % this.buckets.size()));
+  }
+
+  /**
+   * Merges the results of several buckets, each sorted by {@code order}, into the first
+   * {@code limit} in that order. A single stream is returned as it is.
+   */
+  static <T> Stream<T> merge(final List<Stream<T>> streams, final Comparator<? super T> order,
+      final int limit) {
+    if (streams.size() == 1) {
+      return streams.get(0);
+    }
+    return streams.stream()
+        .flatMap(Function.identity())
+        .sorted(order)
+        .limit(limit)
+        .onClose(() -> streams.forEach(Stream::close));
+  }
+
+  private static Assignment toAssignment(final Document partition) {
+    return partition == null ? new Assignment(null, null, null)
+        : new Assignment(partition.getString(BUCKET_KEY), partition.getString(MOVING_FROM_KEY),
+            partition.getDate(MOVING_SINCE_KEY));
+  }
+
+  /**
+   * Bucket assigned to a user, {@code null} before the first upload, and the bucket the user is
+   * moved from since {@code movingSince}, if any.
+   */
+  public record Assignment(String bucket, String movingFrom, Date movingSince) {
+
+    /**
+     * Returns the buckets that may hold documents of the user.
+     */
+    public List<String> buckets() {
+      if (this.bucket == null) {
+        return List.of(GridFsCollections.DEFAULT_BUCKET);
+      }
+      return this.movingFrom != null ? List.of(this.bucket, this.movingFrom)
+          : List.of(this.bucket);
+    }
+  }
+}
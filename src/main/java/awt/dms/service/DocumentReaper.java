@@ -0,0 +1,234 @@
+package awt.dms.service;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+
+import awt.dms.config.ReaperProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Purges documents deleted more than {@code dms.reaper.retention} ago. Their {@code fs.files}
+ * entries and renditions are removed and their content released in transactions of
+ * {@code dms.reaper.batch-size} files of one bucket; content no file refers to anymore is
+ * recorded in {@value #PENDING_CONTENTS} with its bucket, so it is removed even if the instance
+ * stops in between. Chunks are then removed with one {@code deleteMany} per
+ * {@code dms.reaper.chunks-per-delete} chunks, at most {@code dms.reaper.max-chunks-per-second},
+ * and only within the configured window.
+ */
+@ConditionalOnProperty(prefix = "dms.reaper", name = "enabled", matchIfMissing = true)
+@Component
+public class DocumentReaper {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocumentReaper.class);
+
+  static final String PENDING_CONTENTS = "reaped_contents";
+
+  private static final String ID_KEY = "_id";
+  private static final String METADATA_KEY = "metadata";
+  private static final String FILES_ID_KEY = "files_id";
+  private static final String N_KEY = "n";
+  private static final String REAPED_AT_KEY = "reapedAt";
+  private static final String BUCKET_KEY = "bucket";
+  private static final String DELETED_AT_FIELD = METADATA_KEY + "."
+      + DocumentMetadata.DELETED_AT_KEY;
+
+  private final MongoOperations mongoOperations;
+  private final TransactionOperations transactionOperations;
+  private final DmsService dmsService;
+  private final GridFsWriter gridFsWriter;
+  private final BlobStores blobStores;
+  private final DocumentPartitions documentPartitions;
+  private final ReaperProperties reaperProperties;
+  private final AtomicLong filesBacklog = new AtomicLong();
+  private final AtomicLong contentsBacklog = new AtomicLong();
+  private final Counter purgedFilesCounter;
+  private final Counter deletedChunksCounter;
+
+  public DocumentReaper(final MongoOperations mongoOperations,
+      final TransactionOperations transactionOperations, final DmsService dmsService,
+      final GridFsWriter gridFsWriter, final BlobStores blobStores,
+      final DocumentPartitions documentPartitions, final ReaperProperties reaperProperties,
+      final MeterRegistry meterRegistry) {
+    this.mongoOperations = mongoOperations;
+    this.transactionOperations = transactionOperations;
+    this.dmsService = dmsService;
+    this.gridFsWriter = gridFsWriter;
+    this.blobStores = blobStores;
+    this.documentPartitions = documentPartitions;
+    this.reaperProperties = reaperProperties;
+    Gauge.builder("dms.reaper.backlog.files", this.filesBacklog, AtomicLong::get)
+        .description("Deleted files not purged yet, including those within retention")
+        .register(meterRegistry);
+    Gauge.builder("dms.reaper.backlog.contents", this.contentsBacklog, AtomicLong::get)
+        .description("Contents of purged files whose chunks are still to be removed")
+        .register(meterRegistry);
+    this.purgedFilesCounter = Counter.builder("dms.reaper.purged.files")
+        .description("Deleted files purged")
+        .register(meterRegistry);
+    this.deletedChunksCounter = Counter.builder("dms.reaper.deleted.chunks")
+        .description("GridFS chunks removed by the reaper")
+        .register(meterRegistry);
+  }
+
+  @Scheduled(initialDelayString = "${dms.reaper.initial-delay:PT1M}",
+      fixedDelayString = "${dms.reaper.interval:PT5M}")
+  public void reap() {
+    this.updateBacklog();
+    if (!this.inWindow()) {
+      return;
+    }
+
+    for (final String bucket : this.documentPartitions.buckets()) {
+      int purged;
+      do {
+        if (!this.deleteContents()) {
+          return;
+        }
+        purged = this.purgeBatch(bucket);
+      } while (purged == this.reaperProperties.batchSize() && this.inWindow());
+      if (!this.inWindow()) {
+        break;
+      }
+    }
+    this.deleteContents();
+    this.updateBacklog();
+  }
+
+  /**
+   * Removes up to {@code dms.reaper.batch-size} files of {@code bucket} deleted before the
+   * retention, their renditions and their directory entries in one transaction, recording the
+   * content left unreferenced. Returns the number of files removed.
+   */
+  int purgeBatch(final String bucket) {
+    final Date cutoff = new Date(
+        System.currentTimeMillis() - this.reaperProperties.retention().toMillis());
+    final Query expired = Query.query(Criteria.where(DELETED_AT_FIELD).lt(cutoff))
+        .limit(this.reaperProperties.batchSize());
+    expired.fields().include(METADATA_KEY);
+    final Integer purged = this.transactionOperations.execute(status -> {
+      final List<Document> files = this.mongoOperations.findAllAndRemove(expired,
+          Document.class, GridFsCollections.files(bucket));
+      if (files.isEmpty()) {
+        return 0;
+      }
+
+      final List<ObjectId> ids = files.stream()
+          .map(file -> file.getObjectId(ID_KEY))
+          .toList();
+      final List<ObjectId> unreferenced = new ArrayList<>();
+      files.forEach(file -> this.gridFsWriter.release(file.getObjectId(ID_KEY),
+          file.get(METADATA_KEY, Document.class)).ifPresent(unreferenced::add));
+      unreferenced.addAll(this.dmsService.removeRenditions(bucket, ids));
+      if (!GridFsCollections.DEFAULT_BUCKET.equals(bucket)) {
+        this.mongoOperations.remove(Query.query(Criteria.where(ID_KEY).in(ids)),
+            GridFsCollections.DIRECTORY);
+      }
+      if (!unreferenced.isEmpty()) {
+        final Date now = new Date();
+        this.mongoOperations.insert(unreferenced.stream()
+            .map(id -> new Document(ID_KEY, id).append(REAPED_AT_KEY, now)
+                .append(BUCKET_KEY, bucket))
+            .toList(), PENDING_CONTENTS);
+      }
+      return files.size();
+    });
+    if (Objects.requireNonNull(purged) > 0) {
+      LOGGER.info("Purged {} deleted files", purged);
+      this.purgedFilesCounter.increment(purged);
+    }
+    return purged;
+  }
+
+  /**
+   * Removes the content recorded by {@link #purgeBatch(String)} while the window is open. Returns
+   * {@code false} when interrupted.
+   */
+  boolean deleteContents() {
+    List<Document> pending;
+    while (this.inWindow() && !(pending = this.mongoOperations.find(
+        new Query().limit(this.reaperProperties.batchSize()), Document.class,
+        PENDING_CONTENTS)).isEmpty()) {
+      for (final Document content : pending) {
+        final ObjectId contentId = content.getObjectId(ID_KEY);
+        final String chunks = GridFsCollections.chunks(content.get(BUCKET_KEY,
+            GridFsCollections.DEFAULT_BUCKET));
+        if (!this.deleteChunks(chunks, contentId)) {
+          return false;
+        }
+        // other tiers, e.g. the filesystem
+        this.blobStores.delete(contentId);
+        this.mongoOperations.remove(Query.query(Criteria.where(ID_KEY).is(contentId)),
+            PENDING_CONTENTS);
+      }
+    }
+    return true;
+  }
+
+  private boolean deleteChunks(final String chunks, final ObjectId contentId) {
+    final Query last = Query.query(Criteria.where(FILES_ID_KEY).is(contentId))
+        .with(Sort.by(Direction.DESC, N_KEY));
+    last.fields().include(N_KEY);
+    final Document lastChunk = this.mongoOperations.findOne(last, Document.class, chunks);
+    if (lastChunk == null) {
+      return true;
+    }
+
+    final int lastN = lastChunk.getInteger(N_KEY);
+    final int step = this.reaperProperties.chunksPerDelete() > 0
+        ? this.reaperProperties.chunksPerDelete() : lastN + 1;
+    final int maxChunksPerSecond = this.reaperProperties.maxChunksPerSecond();
+    for (int from = 0; from <= lastN; from += step) {
+      final long deleted = this.mongoOperations.getCollection(chunks)
+          .deleteMany(and(eq(FILES_ID_KEY, contentId), gte(N_KEY, from), lt(N_KEY, from + step)))
+          .getDeletedCount();
+      this.deletedChunksCounter.increment(deleted);
+      if (maxChunksPerSecond <= 0) {
+        continue;
+      }
+      try {
+        Thread.sleep(deleted * 1000 / maxChunksPerSecond);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void updateBacklog() {
+    this.filesBacklog.set(this.documentPartitions.buckets().stream()
+        .mapToLong(bucket -> this.mongoOperations.count(
+            Query.query(Criteria.where(DELETED_AT_FIELD).exists(true)),
+            GridFsCollections.files(bucket)))
+        .sum());
+    this.contentsBacklog.set(this.mongoOperations.getCollection(PENDING_CONTENTS)
+        .estimatedDocumentCount());
+  }
+
+  private boolean inWindow() {
+    return this.reaperProperties.inWindow(LocalTime.now());
+  }
+}
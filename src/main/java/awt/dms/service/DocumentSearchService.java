@@ -0,0 +1,140 @@
+package awt.dms.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Searches documents by typed filters on their metadata, content type, upload date and length.
+ * The first search of a shape, i.e. its fields, operators and sort, is explained, and shapes whose
+ * plan does not narrow a filter through an index are rejected with an
+ * {@link UnindexedQueryException} instead of scanning. Verdicts are kept per shape, so later
+ * searches run without explaining. When documents are partitioned, every bucket is searched and the
+ * results are merged.
+ */
+@Service
+@Validated
+public class DocumentSearchService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocumentSearchService.class);
+
+  // bounds the verdicts kept; shapes beyond it are explained on every search
+  private static final int MAX_SHAPES = 1024;
+
+  private static final String ID_KEY = "_id";
+  private static final String FILENAME_KEY = "filename";
+  private static final String UPLOAD_DATE_KEY = "uploadDate";
+  private static final String METADATA_PREFIX = "metadata.";
+  private static final String CONTENT_TYPE_KEY = "_contentType";
+
+  private final MongoOperations mongoOperations;
+  private final DocumentPartitions documentPartitions;
+  private final DocumentIndexes documentIndexes;
+  private final Map<QueryShape, Boolean> indexedShapes = new ConcurrentHashMap<>();
+  private final Counter rejectedCounter;
+
+  public DocumentSearchService(final MongoOperations mongoOperations,
+      final DocumentPartitions documentPartitions, final DocumentIndexes documentIndexes,
+      final MeterRegistry meterRegistry) {
+    this.mongoOperations = mongoOperations;
+    this.documentPartitions = documentPartitions;
+    this.documentIndexes = documentIndexes;
+    this.rejectedCounter = Counter.builder("dms.search.rejected")
+        .description("Searches rejected because no index serves them")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Finds up to {@code limit} documents matching all {@code filters} in {@code sort} order,
+   * starting after {@code after}, a cursor on the sorted field, when given. Renditions and
+   * deleted documents are never found. The returned stream holds a cursor and must be closed.
+   */
+  public Stream<DocumentSummary> search(@NotNull final List<SearchFilter> filters,
+      @NotNull final SearchSort sort, final PageCursor after, final int limit) {
+    LOGGER.info("Trying to search {} by {}", filters, sort);
+    if (after != null && !sort.field().equals(after.field())) {
+      throw new IllegalArgumentException("Cursor on " + after.field() + " cannot continue "
+          + sort);
+    }
+    final List<Criteria> criteria = new ArrayList<>();
+    filters.forEach(filter -> criteria.add(filter.criteria()));
+    criteria.add(Criteria.where(METADATA_PREFIX + DocumentMetadata.RENDITION_OF_KEY).exists(false));
+    criteria.add(DocumentMetadata.notDeleted());
+    if (after != null) {
+      criteria.add(keyset(sort, after));
+    }
+
+    final Query query = Query.query(new Criteria().andOperator(criteria))
+        .with(sort.toSort())
+        .limit(limit);
+    query.fields()
+        .include(FILENAME_KEY)
+        .include(UPLOAD_DATE_KEY)
+        .include(sort.field())
+        .include(METADATA_PREFIX + CONTENT_TYPE_KEY);
+    this.checkIndexed(filters, new QueryShape(filters.stream()
+        .map(filter -> filter.path() + ":" + filter.operator())
+        .collect(Collectors.toCollection(TreeSet::new)), sort, after != null), query);
+    return DocumentPartitions.merge(this.documentPartitions.buckets().stream()
+            .map(bucket -> this.mongoOperations.stream(query, Document.class,
+                GridFsCollections.files(bucket)))
+            .toList(), sort.toComparator(), limit)
+        .map(file -> DmsService.toSummary(file, sort.field()));
+  }
+
+  private void checkIndexed(final List<SearchFilter> filters, final QueryShape shape,
+      final Query query) {
+    Boolean indexed = this.indexedShapes.get(shape);
+    if (indexed == null) {
+      final Document explain = this.documentIndexes.explain(query.getQueryObject(),
+          query.getSortObject());
+      final Set<String> scanned = QueryPlans.scannedIndexFields(explain);
+      // without filters the sort index bounds the scan to the page
+      indexed = !QueryPlans.isCollectionScan(explain) && (filters.isEmpty()
+          || filters.stream().anyMatch(filter -> scanned.contains(filter.path())));
+      if (this.indexedShapes.size() < MAX_SHAPES) {
+        this.indexedShapes.put(shape, indexed);
+      }
+    }
+
+    if (!indexed) {
+      this.rejectedCounter.increment();
+      LOGGER.warn("Rejected unindexed search {}", shape);
+      throw new UnindexedQueryException(filters.stream().map(SearchFilter::field).toList());
+    }
+  }
+
+  /**
+   * Selects what comes after {@code after} in {@code sort} order.
+   */
+  static Criteria keyset(final SearchSort sort, final PageCursor after) {
+    final Object value = after.sortValue();
+    return sort.direction().isDescending()
+        ? new Criteria().orOperator(
+            Criteria.where(sort.field()).lt(value),
+            Criteria.where(sort.field()).is(value).and(ID_KEY).lt(after.id()))
+        : new Criteria().orOperator(
+            Criteria.where(sort.field()).gt(value),
+            Criteria.where(sort.field()).is(value).and(ID_KEY).gt(after.id()));
+  }
+
+  private record QueryShape(Set<String> conditions, SearchSort sort, boolean keyset) {
+
+  }
+}
@@ -0,0 +1,12 @@
+package awt.dms.service;
+
+import java.util.Date;
+import org.bson.types.ObjectId;
+
+/**
+ * The {@code fs.files} fields needed to list documents, and the position to continue after it.
+ */
+public record DocumentSummary(ObjectId id, String filename, String contentType, Date uploadDate,
+                              PageCursor cursor) {
+
+}
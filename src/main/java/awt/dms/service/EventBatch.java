@@ -0,0 +1,17 @@
+package awt.dms.service;
+
+import java.util.List;
+
+/**
+ * Envelope carrying many events of one binding in a single message, e.g. the views of a
+ * {@code findAll} or the events of the bindings in {@code dms.events.envelope-bindings}.
+ * {@code schemaVersion} versions the envelope; each event carries its own.
+ */
+public record EventBatch<T>(int schemaVersion, List<T> events) {
+
+  public static final int SCHEMA_VERSION = 1;
+
+  public static <T> EventBatch<T> of(final List<T> events) {
+    return new EventBatch<>(SCHEMA_VERSION, List.copyOf(events));
+  }
+}
@@ -0,0 +1,285 @@
+package awt.dms.service;
+
+import awt.dms.config.EventProperties;
+import awt.dms.config.EventProperties.Overflow;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.boot.thread.Threading;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.env.Environment;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes events from a bounded in-memory queue on a background thread, so request threads
+ * never wait for the broker. Events are drained in batches, grouped per binding, sent back to back
+ * and then confirmed together through publisher confirms; events of the bindings in
+ * {@code dms.events.envelope-bindings} are sent as one {@link EventBatch}. The thread is virtual
+ * when {@code spring.threads.virtual.enabled} is set. Sends are observed as
+ * {@code dms.events.publish}; confirm latency and failures are metered per binding.
+ */
+@Component
+public class EventPublisher implements SmartLifecycle {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventPublisher.class);
+
+  private static final long POLL_TIMEOUT_MILLIS = 100;
+  private static final String BINDING_TAG = "binding";
+
+  private final StreamBridge streamBridge;
+  private final EventProperties eventProperties;
+  private final MeterRegistry meterRegistry;
+  private final ObservationRegistry observationRegistry;
+  private final boolean virtualThreads;
+  private final BlockingQueue<OutboundEvent> queue;
+  private final Cache<Object, Boolean> recentlyCoalesced;
+  private final Map<String, BindingMeters> bindingMeters = new ConcurrentHashMap<>();
+
+  private final Counter droppedCounter;
+  private final Counter coalescedCounter;
+  private final DistributionSummary batchSizeSummary;
+  private final Timer sendTimer;
+
+  private volatile boolean running;
+  private Thread sender;
+
+  public EventPublisher(final StreamBridge streamBridge, final EventProperties eventProperties,
+      final MeterRegistry meterRegistry, final ObservationRegistry observationRegistry,
+      final Environment environment) {
+    this.streamBridge = streamBridge;
+    this.eventProperties = eventProperties;
+    this.meterRegistry = meterRegistry;
+    this.observationRegistry = observationRegistry;
+    this.virtualThreads = Threading.VIRTUAL.isActive(environment);
+    this.queue = new ArrayBlockingQueue<>(eventProperties.queueCapacity());
+    this.recentlyCoalesced = Caffeine.newBuilder()
+        .maximumSize(eventProperties.viewCoalesceMaxKeys())
+        .expireAfterWrite(eventProperties.viewCoalesceWindow())
+        .build();
+
+    Gauge.builder("dms.events.queue.depth", this.queue, BlockingQueue::size)
+        .register(meterRegistry);
+    this.droppedCounter = meterRegistry.counter("dms.events.dropped");
+    this.coalescedCounter = meterRegistry.counter("dms.events.coalesced");
+    this.batchSizeSummary = DistributionSummary.builder("dms.events.batch.size")
+        .register(meterRegistry);
+    this.sendTimer = Timer.builder("dms.events.send")
+        .description("Time to send a batch and receive its publisher confirms")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Queues {@code payload} for {@code bindingName}. Returns {@code false} when the event was
+   * dropped because the queue stayed full.
+   */
+  public boolean publish(final String bindingName, final Object payload) {
+    final OutboundEvent event = new OutboundEvent(bindingName, payload);
+    try {
+      final boolean queued = this.eventProperties.overflow() == Overflow.BLOCK
+          ? this.queue.offer(event, this.eventProperties.blockTimeout().toMillis(),
+          TimeUnit.MILLISECONDS)
+          : this.queue.offer(event);
+      if (!queued) {
+        this.droppedCounter.increment();
+        LOGGER.warn("Event queue full, dropped event for {}", bindingName);
+      }
+      return queued;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.droppedCounter.increment();
+      return false;
+    }
+  }
+
+  /**
+   * Like {@link #publish(String, Object)}, but drops the event when one with the same
+   * {@code key} was queued within the coalesce window. Keys are remembered up to
+   * {@code dms.events.view-coalesce-max-keys}, and not at all when the event was dropped.
+   */
+  public boolean publishCoalesced(final String bindingName, final Object key,
+      final Object payload) {
+    if (this.recentlyCoalesced.asMap().putIfAbsent(key, Boolean.TRUE) != null) {
+      this.coalescedCounter.increment();
+      return true;
+    }
+    final boolean queued = this.publish(bindingName, payload);
+    if (!queued) {
+      this.recentlyCoalesced.invalidate(key);
+    }
+    return queued;
+  }
+
+  @Override
+  public void start() {
+    this.running = true;
+    final Thread.Builder builder = this.virtualThreads ? Thread.ofVirtual()
+        : Thread.ofPlatform().daemon();
+    this.sender = builder.name("event-publisher").start(this::sendLoop);
+  }
+
+  @Override
+  public void stop() {
+    this.running = false;
+    try {
+      this.sender.join(this.eventProperties.confirmTimeout().toMillis() * 2);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!this.queue.isEmpty()) {
+      LOGGER.warn("Stopped with {} unpublished events", this.queue.size());
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return this.running;
+  }
+
+  private void sendLoop() {
+    final List<OutboundEvent> batch = new ArrayList<>(this.eventProperties.batchSize());
+    while (this.running || !this.queue.isEmpty()) {
+      try {
+        final OutboundEvent first = this.queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+
+        batch.add(first);
+        this.queue.drainTo(batch, this.eventProperties.batchSize() - 1);
+        this.batchSizeSummary.record(batch.size());
+        this.sendAndConfirm(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (RuntimeException e) {
+        LOGGER.error("Unexpected error publishing events", e);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Sends {@code batch} on the calling thread and waits for its publisher confirms. Returns
+   * whether every event was acknowledged by the broker.
+   */
+  boolean sendAndConfirm(final List<OutboundEvent> batch) {
+    final long start = System.nanoTime();
+    final int failed = this.send(batch);
+    this.sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    return failed == 0;
+  }
+
+  private int send(final List<OutboundEvent> batch) {
+    final Map<String, List<Object>> byBinding = new LinkedHashMap<>();
+    batch.forEach(event -> byBinding.computeIfAbsent(event.bindingName(),
+        k -> new ArrayList<>()).add(event.payload()));
+
+    int failed = 0;
+    final List<PendingConfirm> confirms = new ArrayList<>(batch.size());
+    for (final Map.Entry<String, List<Object>> binding : byBinding.entrySet()) {
+      final String bindingName = binding.getKey();
+      final BindingMeters meters = this.meters(bindingName);
+      for (final Object payload : this.messages(bindingName, binding.getValue())) {
+        final CorrelationData correlationData = new CorrelationData();
+        final long sentAt = System.nanoTime();
+        final boolean sent = Observation.createNotStarted("dms.events.publish",
+                this.observationRegistry)
+            .lowCardinalityKeyValue(BINDING_TAG, bindingName)
+            .observe(() -> this.streamBridge.send(bindingName,
+                MessageBuilder.withPayload(payload)
+                    .setHeader(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, correlationData)
+                    .build()));
+        if (sent) {
+          correlationData.getFuture().whenComplete((confirm, e) ->
+              meters.confirm().record(System.nanoTime() - sentAt, TimeUnit.NANOSECONDS));
+          confirms.add(new PendingConfirm(correlationData, meters));
+        } else {
+          failed++;
+          meters.failed().increment();
+        }
+      }
+    }
+
+    final long deadline = System.nanoTime() + this.eventProperties.confirmTimeout().toNanos();
+    for (final PendingConfirm pending : confirms) {
+      try {
+        final CorrelationData.Confirm confirm = pending.correlationData().getFuture()
+            .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if (!confirm.isAck()) {
+          failed++;
+          pending.meters().failed().increment();
+          LOGGER.warn("Event not acknowledged: {}", confirm.getReason());
+        }
+      } catch (ExecutionException | TimeoutException e) {
+        failed++;
+        pending.meters().failed().increment();
+        LOGGER.warn("Event not confirmed", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return batch.size();
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * Returns the messages carrying {@code payloads}: one each, or a single {@link EventBatch} for
+   * the bindings in {@code dms.events.envelope-bindings}, into which queued batches are merged.
+   */
+  private List<Object> messages(final String bindingName, final List<Object> payloads) {
+    if (!this.eventProperties.envelopeBindings().contains(bindingName)) {
+      return payloads;
+    }
+    final List<Object> events = new ArrayList<>(payloads.size());
+    payloads.forEach(payload -> {
+      if (payload instanceof EventBatch<?> envelope) {
+        events.addAll(envelope.events());
+      } else {
+        events.add(payload);
+      }
+    });
+    return List.of(EventBatch.of(events));
+  }
+
+  private BindingMeters meters(final String bindingName) {
+    return this.bindingMeters.computeIfAbsent(bindingName, name -> new BindingMeters(
+        Counter.builder("dms.events.failed")
+            .tag(BINDING_TAG, name)
+            .register(this.meterRegistry),
+        Timer.builder("dms.events.confirm")
+            .description("Time from sending an event to receiving its publisher confirm")
+            .tag(BINDING_TAG, name)
+            .register(this.meterRegistry)));
+  }
+
+  private record BindingMeters(Counter failed, Timer confirm) {
+
+  }
+
+  private record PendingConfirm(CorrelationData correlationData, BindingMeters meters) {
+
+  }
+}
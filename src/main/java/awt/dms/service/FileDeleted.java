@@ -0,0 +1,35 @@
+package awt.dms.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+import org.bson.types.ObjectId;
+
+/**
+ * Payload of the {@code file.deleted} event: {@code objectId} for a single delete, or
+ * {@code objectIds} for a batch.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record FileDeleted(int schemaVersion, String objectId, List<String> objectIds)
+    implements DocumentEvent {
+
+  public static FileDeleted of(final ObjectId objectId) {
+    return new FileDeleted(SCHEMA_VERSION, objectId.toString(), null);
+  }
+
+  public static FileDeleted of(final Collection<ObjectId> objectIds) {
+    return new FileDeleted(SCHEMA_VERSION, null, objectIds.stream()
+        .map(ObjectId::toString)
+        .toList());
+  }
+
+  /**
+   * Returns the ids of all files deleted.
+   */
+  public List<String> ids() {
+    return Stream.concat(Stream.ofNullable(this.objectId),
+            this.objectIds != null ? this.objectIds.stream() : Stream.empty())
+        .toList();
+  }
+}
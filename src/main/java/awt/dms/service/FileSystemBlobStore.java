@@ -0,0 +1,136 @@
+package awt.dms.service;
+
+import awt.dms.config.BlobTierProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tier keeping the content of large files as plain files under {@code dms.tiers.root}, one per
+ * content id, so downloads can hand them to the container for zero-copy sendfile.
+ */
+@Component
+public class FileSystemBlobStore implements BlobStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemBlobStore.class);
+
+  static final String TIER = "fs";
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final Path root;
+
+  public FileSystemBlobStore(final BlobTierProperties blobTierProperties) {
+    this.root = blobTierProperties.root();
+  }
+
+  @Override
+  public String tier() {
+    return TIER;
+  }
+
+  /**
+   * Returns the file holding the content stored under {@code contentId}. Content is spread over
+   * 256 directories by the last byte of the id, which varies the most.
+   */
+  public Path path(final ObjectId contentId) {
+    final String hex = contentId.toHexString();
+    return this.root.resolve(hex.substring(hex.length() - 2)).resolve(hex);
+  }
+
+  /**
+   * Stores {@code content} under {@code contentId}. The file is synced and moved into place
+   * atomically, so it is either complete or absent. Returns the number of bytes written.
+   */
+  public long write(final ObjectId contentId, final InputStream content) throws IOException {
+    final Path target = this.path(contentId);
+    Files.createDirectories(target.getParent());
+    final Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      final OutputStream out = Channels.newOutputStream(channel);
+      final long length = content.transferTo(out);
+      channel.force(true);
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      return length;
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+  }
+
+  @Override
+  public InputStream open(final GridFSFile file) throws IOException {
+    return Files.newInputStream(this.path(file.getObjectId()));
+  }
+
+  @Override
+  public InputStream open(final GridFSFile file, final long start, final long end)
+      throws IOException {
+    final FileChannel channel = FileChannel.open(this.path(file.getObjectId()),
+        StandardOpenOption.READ);
+    channel.position(start);
+    return new BoundedInputStream(Channels.newInputStream(channel), end - start + 1);
+  }
+
+  @Override
+  public void delete(final ObjectId contentId) {
+    try {
+      Files.deleteIfExists(this.path(contentId));
+    } catch (IOException e) {
+      LOGGER.warn("Could not remove content of {}", contentId, e);
+    }
+  }
+
+  private static final class BoundedInputStream extends InputStream {
+
+    private final InputStream in;
+    private long remaining;
+
+    private BoundedInputStream(final InputStream in, final long length) {
+      this.in = in;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (this.remaining <= 0) {
+        return -1;
+      }
+      final int b = this.in.read();
+      if (b != -1) {
+        this.remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (this.remaining <= 0) {
+        return -1;
+      }
+      final int read = this.in.read(b, off, (int) Math.min(len, this.remaining));
+      if (read > 0) {
+        this.remaining -= read;
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.in.close();
+    }
+  }
+}
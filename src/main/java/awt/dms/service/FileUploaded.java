@@ -0,0 +1,18 @@
+package awt.dms.service;
+
+import java.util.Objects;
+import org.bson.types.ObjectId;
+
+/**
+ * Payload of the {@code file.uploaded} event.
+ */
+public record FileUploaded(int schemaVersion, String objectId, String displayName, String userId,
+                           String objectType) implements DocumentEvent {
+
+  public static FileUploaded of(final ObjectId objectId, final String displayName,
+      final String userId, final String objectType) {
+    return new FileUploaded(SCHEMA_VERSION, objectId.toString(),
+        Objects.requireNonNull(displayName), Objects.requireNonNull(userId),
+        Objects.requireNonNull(objectType));
+  }
+}
@@ -0,0 +1,18 @@
+package awt.dms.service;
+
+import java.util.Objects;
+import org.bson.types.ObjectId;
+
+/**
+ * Payload of the {@code file.viewed} event.
+ */
+public record FileViewed(int schemaVersion, String objectId, String displayName, String userId,
+                         String objectType) implements DocumentEvent {
+
+  public static FileViewed of(final ObjectId objectId, final String displayName,
+      final String userId, final String objectType) {
+    return new FileViewed(SCHEMA_VERSION, objectId.toString(),
+        Objects.requireNonNull(displayName), Objects.requireNonNull(userId),
+        Objects.requireNonNull(objectType));
+  }
+}
@@ -0,0 +1,51 @@
+package awt.dms.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.InputStream;
+import java.util.Collection;
+import org.bson.types.ObjectId;
+import org.springframework.stereotype.Component;
+
+/**
+ * The default tier: content in {@code fs.chunks}, as written by {@link GridFsWriter} and read by
+ * {@link GridFsChunkReader}.
+ */
+@Component
+public class GridFsBlobStore implements BlobStore {
+
+  static final String TIER = "gridfs";
+
+  private final GridFsChunkReader gridFsChunkReader;
+  private final GridFsWriter gridFsWriter;
+
+  public GridFsBlobStore(final GridFsChunkReader gridFsChunkReader,
+      final GridFsWriter gridFsWriter) {
+    this.gridFsChunkReader = gridFsChunkReader;
+    this.gridFsWriter = gridFsWriter;
+  }
+
+  @Override
+  public String tier() {
+    return TIER;
+  }
+
+  @Override
+  public InputStream open(final GridFSFile file) {
+    return this.gridFsChunkReader.open(file);
+  }
+
+  @Override
+  public InputStream open(final GridFSFile file, final long start, final long end) {
+    return this.gridFsChunkReader.open(file, start, end);
+  }
+
+  @Override
+  public void delete(final ObjectId contentId) {
+    this.gridFsWriter.deleteChunks(contentId);
+  }
+
+  @Override
+  public void deleteAll(final Collection<ObjectId> contentIds) {
+    this.gridFsWriter.deleteChunks(contentIds);
+  }
+}
@@ -0,0 +1,245 @@
+package awt.dms.service;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Sorts.ascending;
+
+import awt.dms.config.ChunkProperties;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads byte ranges of a GridFS file by querying only the chunks that cover the range, instead of
+ * reading the file from its first chunk and skipping. Chunks are fetched in windows of
+ * {@code dms.chunks.read-ahead} bytes; while one window is read, the next one is fetched on the
+ * application task executor. The chunks are read from the bucket named in the file's metadata.
+ */
+@Component
+public class GridFsChunkReader {
+
+  private static final String FILES_ID_KEY = "files_id";
+  private static final String N_KEY = "n";
+  private static final String DATA_KEY = "data";
+
+  private final MongoOperations mongoOperations;
+  private final ChunkProperties chunkProperties;
+  private final AsyncTaskExecutor taskExecutor;
+
+  public GridFsChunkReader(final MongoOperations mongoOperations,
+      final ChunkProperties chunkProperties,
+      @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+      final AsyncTaskExecutor taskExecutor) {
+    this.mongoOperations = mongoOperations;
+    this.chunkProperties = chunkProperties;
+    this.taskExecutor = taskExecutor;
+  }
+
+  /**
+   * Opens a stream over the whole content of {@code file}.
+   */
+  public InputStream open(final GridFSFile file) {
+    return file.getLength() == 0 ? InputStream.nullInputStream()
+        : this.open(file, 0, file.getLength() - 1);
+  }
+
+  /**
+   * Opens a stream over bytes {@code start} to {@code end} of {@code file}, both inclusive.
+   */
+  public InputStream open(final GridFSFile file, final long start, final long end) {
+    if (start < 0 || end < start || end >= file.getLength()) {
+      throw new IllegalArgumentException(
+          "Invalid range " + start + "-" + end + " for length " + file.getLength());
+    }
+
+    final int chunkSize = file.getChunkSize();
+    final int firstChunk = Math.toIntExact(start / chunkSize);
+    final int lastChunk = Math.toIntExact(end / chunkSize);
+    final int window = Math.clamp(this.chunkProperties.readAhead().toBytes() / chunkSize, 1,
+        Integer.MAX_VALUE);
+    final ChunkWindows windows = new ChunkWindows(
+        GridFsCollections.chunks(DocumentMetadata.bucket(file)), file.getId(), firstChunk,
+        lastChunk, window);
+    return new ChunkRangeInputStream(windows, firstChunk, (int) (start % chunkSize),
+        end - start + 1);
+  }
+
+  /**
+   * Returns chunks {@code from} to {@code to}, both inclusive, of the file with {@code fileId} in
+   * the collection {@code chunksCollection}, as far as they exist.
+   */
+  private List<Document> fetch(final String chunksCollection, final BsonValue fileId,
+      final int from, final int to) {
+    try (MongoCursor<Document> cursor = this.mongoOperations
+        .getCollection(chunksCollection)
+        .find(and(eq(FILES_ID_KEY, fileId), gte(N_KEY, from), lte(N_KEY, to)))
+        .sort(ascending(N_KEY))
+        .iterator()) {
+      final List<Document> chunks = new ArrayList<>(to - from + 1);
+      while (chunks.size() <= to - from && cursor.hasNext()) {
+        chunks.add(cursor.next());
+      }
+      return chunks;
+    }
+  }
+
+  private static List<Document> await(final Future<List<Document>> fetch) throws IOException {
+    try {
+      return fetch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading chunks");
+    } catch (ExecutionException e) {
+      throw new IOException("Could not read chunks", e.getCause());
+    }
+  }
+
+  /**
+   * The chunks of a range, fetched window by window. The first window is fetched on the reading
+   * thread when first needed, so opening a stream queries nothing.
+   */
+  private final class ChunkWindows {
+
+    private final String chunksCollection;
+    private final BsonValue fileId;
+    private final int lastChunk;
+    private final int window;
+    private int nextChunk;
+    private Iterator<Document> current = Collections.emptyIterator();
+    private Future<List<Document>> ahead;
+
+    private ChunkWindows(final String chunksCollection, final BsonValue fileId,
+        final int firstChunk, final int lastChunk, final int window) {
+      this.chunksCollection = chunksCollection;
+      this.fileId = fileId;
+      this.nextChunk = firstChunk;
+      this.lastChunk = lastChunk;
+      this.window = window;
+    }
+
+    /**
+     * Returns the next chunk, {@code null} when there is none.
+     */
+    private Document next() throws IOException {
+      if (!this.current.hasNext()) {
+        if (this.ahead != null) {
+          this.current = await(this.ahead).iterator();
+          this.ahead = null;
+        } else if (this.nextChunk <= this.lastChunk) {
+          final int from = this.nextChunk;
+          final int to = this.advance();
+          this.current = GridFsChunkReader.this.fetch(this.chunksCollection, this.fileId, from,
+              to).iterator();
+        }
+        if (this.nextChunk <= this.lastChunk) {
+          final int from = this.nextChunk;
+          final int to = this.advance();
+          this.ahead = GridFsChunkReader.this.taskExecutor.submit(() ->
+              GridFsChunkReader.this.fetch(this.chunksCollection, this.fileId, from, to));
+        }
+      }
+      return this.current.hasNext() ? this.current.next() : null;
+    }
+
+    private void close() {
+      if (this.ahead != null) {
+        // a fetch holds no resources once done, so it is left to finish
+        this.ahead.cancel(false);
+      }
+    }
+
+    private int advance() {
+      final int to = (int) Math.min((long) this.nextChunk + this.window - 1, this.lastChunk);
+      this.nextChunk = to + 1;
+      return to;
+    }
+  }
+
+  private static final class ChunkRangeInputStream extends InputStream {
+
+    private final ChunkWindows chunks;
+    private final int firstChunk;
+    private final int firstOffset;
+    private int expectedChunk;
+    private int offset;
+    private long remaining;
+    private byte[] buffer = new byte[0];
+
+    private ChunkRangeInputStream(final ChunkWindows chunks, final int firstChunk,
+        final int firstOffset, final long length) {
+      this.chunks = chunks;
+      this.firstChunk = firstChunk;
+      this.firstOffset = firstOffset;
+      this.expectedChunk = firstChunk;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] single = new byte[1];
+      return this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (this.remaining == 0) {
+        return -1;
+      }
+      if (this.offset >= this.buffer.length) {
+        this.nextChunk();
+      }
+
+      final int read = (int) Math.min(Math.min(len, this.buffer.length - this.offset),
+          this.remaining);
+      System.arraycopy(this.buffer, this.offset, b, off, read);
+      this.offset += read;
+      this.remaining -= read;
+      return read;
+    }
+
+    @Override
+    public void close() {
+      this.chunks.close();
+    }
+
+    private void nextChunk() throws IOException {
+      final Document chunk = this.chunks.next();
+      if (chunk == null) {
+        throw new IOException("Missing chunk " + this.expectedChunk);
+      }
+
+      final int n = chunk.getInteger(N_KEY);
+      if (n != this.expectedChunk) {
+        throw new IOException("Expected chunk " + this.expectedChunk + " but found " + n);
+      }
+
+      this.buffer = chunk.get(DATA_KEY, Binary.class).getData();
+      this.offset = n == this.firstChunk ? this.firstOffset : 0;
+      this.expectedChunk++;
+      if (this.offset >= this.buffer.length) {
+        throw new IOException("Chunk " + n + " is shorter than expected");
+      }
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package awt.dms.service;
+
+/**
+ * Collections of the GridFS buckets. Documents are stored in the default bucket unless
+ * {@link DocumentPartitions} assigns their user another one; each bucket has its own files,
+ * chunks and {@link GridFsWriter blobs}, so content is deduplicated within a bucket.
+ */
+public final class GridFsCollections {
+
+  public static final String DEFAULT_BUCKET = "fs";
+
+  public static final String FILES = "fs.files";
+  public static final String CHUNKS = "fs.chunks";
+
+  /**
+   * Maps the id of each document outside the default bucket to its bucket.
+   */
+  public static final String DIRECTORY = "directory";
+
+  private GridFsCollections() {
+  }
+
+  public static String files(final String bucket) {
+    return bucket + ".files";
+  }
+
+  public static String chunks(final String bucket) {
+    return bucket + ".chunks";
+  }
+
+  /**
+   * Returns the collection of the content hashes of {@code bucket}; the default bucket keeps the
+   * name it had before there were others.
+   */
+  public static String blobs(final String bucket) {
+    return DEFAULT_BUCKET.equals(bucket) ? GridFsWriter.BLOBS : bucket + "." + GridFsWriter.BLOBS;
+  }
+}
@@ -0,0 +1,622 @@
+package awt.dms.service;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+
+import awt.dms.config.ChunkProperties;
+import awt.dms.config.PartitionProperties;
+import awt.dms.config.RetryingTransactionOperations;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Writes files in the GridFS layout. Chunks are inserted as the content streams in; the
+ * {@code fs.files} entry is inserted last, in a transaction together with whatever the caller
+ * needs to commit atomically with it. Until that transaction commits the file does not exist, and
+ * if it fails the chunks are removed again.
+ *
+ * <p>Content is deduplicated by its SHA-256. The {@code blobs} collection maps each hash to the
+ * file that owns the chunks and counts the files referring to them. A file whose content is
+ * already stored gets an {@code fs.files} entry pointing to the owner's chunks through
+ * {@link DocumentMetadata#BLOB_KEY}. The hash of an upload is only known once it is read to the
+ * end, when all but the last batch of chunks are inserted already: content fitting in one batch
+ * is looked up before any chunk is inserted and not written at all when it is stored, larger
+ * duplicates have their chunks removed once the transaction commits. Copies between buckets know
+ * the hash up front and are never written when the target bucket has the content.
+ *
+ * <p>Content may be stored in a {@link ContentEncoding}. The hash is always that of the content as
+ * uploaded, and {@code length} that of the stored bytes, so plain GridFS reads return the encoded
+ * content.
+ *
+ * <p>The chunk size is chosen per file by {@link ChunkProperties#chunkSize}. Chunks are inserted in
+ * batches with {@code insertMany}; while one batch fills, the previous ones are inserted on the
+ * application task executor.
+ *
+ * <p>Files go to the GridFS bucket named by {@link DocumentMetadata#BUCKET_KEY} in their metadata,
+ * the default one without; files outside the default bucket are recorded in the
+ * {@link GridFsCollections#DIRECTORY} in the same transaction.
+ */
+@Component
+public class GridFsWriter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(GridFsWriter.class);
+
+  static final int DEFAULT_CHUNK_SIZE = 255 * 1024;
+
+  static final String INSERT_TIMER = "dms.gridfs.insert";
+
+  static final String BLOBS = "blobs";
+  static final String BLOB_FILES_ID_KEY = "files_id";
+  static final String BLOB_TIER_KEY = "tier";
+
+  private static final String ID_KEY = "_id";
+  private static final String FILES_ID_KEY = "files_id";
+  private static final String LENGTH_KEY = "length";
+  private static final String CHUNK_SIZE_KEY = "chunkSize";
+  private static final String DATA_KEY = "data";
+  private static final String REFS_KEY = "refs";
+  private static final String ENCODING_KEY = "encoding";
+  private static final String CONTENT_TYPE_KEY = "_contentType";
+
+  private final MongoOperations mongoOperations;
+  private final TransactionOperations transactionOperations;
+  private final ChunkProperties chunkProperties;
+  private final List<String> buckets;
+  private final AsyncTaskExecutor taskExecutor;
+
+  private final Counter uploadedBytesCounter;
+  private final Counter storedBytesCounter;
+  private final Counter duplicatesCounter;
+  private final Timer insertTimer;
+
+  public GridFsWriter(final MongoOperations mongoOperations,
+      final TransactionOperations transactionOperations, final ChunkProperties chunkProperties,
+      final PartitionProperties partitionProperties,
+      @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+      final AsyncTaskExecutor taskExecutor, final MeterRegistry meterRegistry) {
+    this.mongoOperations = mongoOperations;
+    this.transactionOperations = transactionOperations;
+    this.chunkProperties = chunkProperties;
+    this.buckets = partitionProperties.allBuckets();
+    this.taskExecutor = taskExecutor;
+
+    this.uploadedBytesCounter = meterRegistry.counter("dms.dedup.uploaded.bytes");
+    this.storedBytesCounter = meterRegistry.counter("dms.dedup.stored.bytes");
+    this.duplicatesCounter = meterRegistry.counter("dms.dedup.duplicates");
+    this.insertTimer = Timer.builder(INSERT_TIMER)
+        .description("Duration of one insertMany of chunks")
+        .register(meterRegistry);
+    Gauge.builder("dms.dedup.ratio", this, GridFsWriter::dedupRatio)
+        .description("Bytes uploaded per byte stored since start")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Stores {@code content}, encoded with {@code encoding} unless that is {@code null}, and calls
+   * {@code inTransaction} with the new file inside the transaction that creates its
+   * {@code fs.files} entry. The SHA-256 of the content is recorded in the metadata, and when
+   * content with that hash is already stored the file refers to it instead of keeping its own
+   * chunks. {@code length} is the declared length of the content, negative when not known; it
+   * only serves to choose the chunk size.
+   */
+  public GridFSFile write(final InputStream content, final long length, final String filename,
+      final String contentType, final Document metadata, final ContentEncoding encoding,
+      final Consumer<GridFSFile> inTransaction) throws IOException {
+    final ObjectId objectId = new ObjectId();
+    final String bucket = DocumentMetadata.bucket(metadata);
+    final int chunkSize = this.chunkProperties.chunkSize(length, contentType);
+    final DigestInputStream digestInputStream = new DigestInputStream(content,
+        DocumentMetadata.contentDigest());
+    final BatchInserter inserter = this.inserter(bucket);
+    final ChunkOutputStream chunks = new ChunkOutputStream(objectId, chunkSize, inserter);
+    final long originalLength;
+    try {
+      try (chunks; OutputStream out = encoding != null ? encoding.encode(chunks) : chunks) {
+        originalLength = digestInputStream.transferTo(out);
+      }
+    } catch (IOException | RuntimeException e) {
+      inserter.abort();
+      this.deleteChunks(bucket, objectId);
+      throw e;
+    }
+
+    final String contentHash = HexFormat.of().formatHex(
+        digestInputStream.getMessageDigest().digest());
+    if (!inserter.flushed() && this.isStored(bucket, contentHash)) {
+      final GridFSFile duplicate = this.commit(objectId, filename, contentType, metadata,
+          encoding, contentHash, originalLength, chunks.length(), chunkSize, false,
+          inTransaction);
+      if (duplicate != null) {
+        inserter.abort();
+        return duplicate;
+      }
+    }
+    try {
+      inserter.finish();
+    } catch (RuntimeException e) {
+      inserter.abort();
+      this.deleteChunks(bucket, objectId);
+      throw e;
+    }
+    return this.commit(objectId, filename, contentType, metadata, encoding, contentHash,
+        originalLength, chunks.length(), chunkSize, true, inTransaction);
+  }
+
+  /**
+   * Creates the {@code fs.files} entry of chunks already written under {@code objectId} and calls
+   * {@code inTransaction} with it inside the same transaction. {@code originalLength} is the
+   * length of the content as uploaded and {@code storedLength} that of the chunks. When the
+   * content turns out to be stored already, the chunks are removed again after the commit.
+   */
+  GridFSFile commit(final ObjectId objectId, final String filename, final String contentType,
+      final Document metadata, final ContentEncoding encoding, final String contentHash,
+      final long originalLength, final long storedLength, final int chunkSize,
+      final Consumer<GridFSFile> inTransaction) {
+    return this.commit(objectId, filename, contentType, metadata, encoding, contentHash,
+        originalLength, storedLength, chunkSize, true, inTransaction);
+  }
+
+  /**
+   * Like {@link #commit(ObjectId, String, String, Document, ContentEncoding, String, long, long,
+   * int, Consumer)}; without {@code chunksWritten} the file refers to stored content, returning
+   * {@code null} when that is gone.
+   */
+  private GridFSFile commit(final ObjectId objectId, final String filename,
+      final String contentType, final Document metadata, final ContentEncoding encoding,
+      final String contentHash, final long originalLength, final long storedLength,
+      final int chunkSize, final boolean chunksWritten,
+      final Consumer<GridFSFile> inTransaction) {
+    final GridFSFile file = this.store(objectId, objectId, new Date(), filename,
+        new Document(metadata)
+            .append(CONTENT_TYPE_KEY, contentType)
+            .append(DocumentMetadata.CONTENT_HASH_KEY, contentHash),
+        encoding != null ? encoding.coding() : null, originalLength, storedLength, chunkSize,
+        chunksWritten, inTransaction);
+    if (file == null) {
+      return null;
+    }
+
+    this.uploadedBytesCounter.increment(originalLength);
+    if (DocumentMetadata.chunksId(objectId, file.getMetadata()).equals(objectId)) {
+      this.storedBytesCounter.increment(storedLength);
+    } else {
+      this.duplicatesCounter.increment();
+    }
+    return file;
+  }
+
+  /**
+   * Copies {@code file}, whose content as stored is read from {@code storedContent}, to
+   * {@code bucket} under the same id and upload date, calling {@code inTransaction} with the copy
+   * inside the transaction that creates it. The content goes to new chunks, or refers to content
+   * with the same hash already in {@code bucket}, so chunk ids stay unique across buckets. Files
+   * stored before hashes were recorded cannot be copied until they are backfilled.
+   */
+  GridFSFile copy(final GridFSFile file, final InputStream storedContent, final String bucket,
+      final Consumer<GridFSFile> inTransaction) throws IOException {
+    final String contentHash = DocumentMetadata.contentHash(file);
+    if (contentHash == null) {
+      throw new IllegalStateException("No content hash recorded for " + file.getObjectId());
+    }
+
+    final Document metadata = new Document(file.getMetadata());
+    List.of(DocumentMetadata.BLOB_KEY, DocumentMetadata.TIER_KEY,
+        DocumentMetadata.CONTENT_ENCODING_KEY, DocumentMetadata.ORIGINAL_LENGTH_KEY,
+        DocumentMetadata.BUCKET_KEY).forEach(metadata::remove);
+    if (!GridFsCollections.DEFAULT_BUCKET.equals(bucket)) {
+      metadata.append(DocumentMetadata.BUCKET_KEY, bucket);
+    }
+    final String coding = DocumentMetadata.contentEncoding(file).map(ContentEncoding::coding)
+        .orElse(null);
+    final ObjectId contentId = new ObjectId();
+    if (this.isStored(bucket, contentHash)) {
+      final GridFSFile duplicate = this.store(file.getObjectId(), contentId,
+          file.getUploadDate(), file.getFilename(), metadata, coding,
+          DocumentMetadata.originalLength(file), file.getLength(), file.getChunkSize(), false,
+          inTransaction);
+      if (duplicate != null) {
+        return duplicate;
+      }
+    }
+
+    final BatchInserter inserter = this.inserter(bucket);
+    final ChunkOutputStream chunks = new ChunkOutputStream(contentId, file.getChunkSize(),
+        inserter);
+    try {
+      try (chunks) {
+        storedContent.transferTo(chunks);
+      }
+      inserter.finish();
+    } catch (IOException | RuntimeException e) {
+      inserter.abort();
+      this.deleteChunks(bucket, contentId);
+      throw e;
+    }
+    return this.store(file.getObjectId(), contentId, file.getUploadDate(), file.getFilename(),
+        metadata, coding, DocumentMetadata.originalLength(file), chunks.length(),
+        file.getChunkSize(), true, inTransaction);
+  }
+
+  /**
+   * Creates the entry of the file {@code objectId} whose content was written to chunks under
+   * {@code chunksId}, in the bucket named in {@code metadata}, and calls {@code inTransaction}
+   * with it inside the same transaction. When the content turns out to be stored already, the
+   * chunks are removed again after the commit. Without {@code chunksWritten} the file refers to
+   * the stored content, and {@code null} is returned when that was removed meanwhile.
+   */
+  private GridFSFile store(final ObjectId objectId, final ObjectId chunksId,
+      final Date uploadDate, final String filename, final Document metadata,
+      final String coding, final long originalLength, final long storedLength,
+      final int chunkSize, final boolean chunksWritten,
+      final Consumer<GridFSFile> inTransaction) {
+    final String bucket = DocumentMetadata.bucket(metadata);
+    final String contentHash = metadata.getString(DocumentMetadata.CONTENT_HASH_KEY);
+    final GridFSFile file;
+    try {
+      file = this.transactionOperations.execute(status -> {
+        final Document blob = this.reference(bucket, contentHash, chunksId, storedLength,
+            chunkSize, coding, chunksWritten);
+        if (blob == null) {
+          return null;
+        }
+        final ObjectId owner = blob.getObjectId(FILES_ID_KEY);
+        final String blobEncoding = blob.getString(ENCODING_KEY);
+        final Document fileMetadata = new Document(metadata);
+        if (blobEncoding != null) {
+          fileMetadata.append(DocumentMetadata.CONTENT_ENCODING_KEY, blobEncoding)
+              .append(DocumentMetadata.ORIGINAL_LENGTH_KEY, originalLength);
+        }
+        if (!owner.equals(objectId)) {
+          fileMetadata.append(DocumentMetadata.BLOB_KEY, owner);
+          if (blob.getString(BLOB_TIER_KEY) != null) {
+            fileMetadata.append(DocumentMetadata.TIER_KEY, blob.getString(BLOB_TIER_KEY));
+          }
+        }
+        // a duplicate is read from the owner's chunks, which may have another size
+        final GridFSFile stored = new GridFSFile(new BsonObjectId(objectId), filename,
+            blob.get(LENGTH_KEY, Number.class).longValue(),
+            blob.getInteger(CHUNK_SIZE_KEY, DEFAULT_CHUNK_SIZE), uploadDate, fileMetadata);
+        this.mongoOperations.insert(new Document(ID_KEY, objectId)
+            .append(LENGTH_KEY, stored.getLength())
+            .append(CHUNK_SIZE_KEY, stored.getChunkSize())
+            .append("uploadDate", stored.getUploadDate())
+            .append("filename", stored.getFilename())
+            .append("metadata", fileMetadata), GridFsCollections.files(bucket));
+        if (!GridFsCollections.DEFAULT_BUCKET.equals(bucket)) {
+          this.mongoOperations.upsert(Query.query(Criteria.where(ID_KEY).is(objectId)),
+              Update.update(DocumentPartitions.BUCKET_KEY, bucket), GridFsCollections.DIRECTORY);
+        }
+        inTransaction.accept(stored);
+        return stored;
+      });
+    } catch (RuntimeException e) {
+      // after an unknown commit result the file may exist and own the chunks
+      if (chunksWritten && !RetryingTransactionOperations.hasErrorLabel(e,
+          MongoException.UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL)) {
+        this.deleteChunks(bucket, chunksId);
+      }
+      throw e;
+    }
+
+    if (file != null && chunksWritten
+        && !DocumentMetadata.chunksId(objectId, file.getMetadata()).equals(chunksId)) {
+      this.deleteChunks(bucket, chunksId);
+    }
+    return file;
+  }
+
+  /**
+   * Drops the reference of a removed file to its content. Must be called inside the transaction
+   * that removes the {@code fs.files} entry. Returns the id of chunks no file refers to anymore,
+   * which the caller removes once the transaction committed.
+   */
+  public Optional<ObjectId> release(final ObjectId objectId, final Document metadata) {
+    final String blobs = GridFsCollections.blobs(DocumentMetadata.bucket(metadata));
+    final String contentHash = metadata != null
+        ? metadata.getString(DocumentMetadata.CONTENT_HASH_KEY) : null;
+    final ObjectId chunksId = DocumentMetadata.chunksId(objectId, metadata);
+    if (contentHash == null) {
+      return Optional.of(chunksId);
+    }
+
+    final Query blob = Query.query(Criteria.where(ID_KEY).is(contentHash));
+    final Document released = this.mongoOperations.findAndModify(blob,
+        new Update().inc(REFS_KEY, -1), FindAndModifyOptions.options().returnNew(true),
+        Document.class, blobs);
+    if (released == null) {
+      // stored before deduplication, or its hash was backfilled
+      return Optional.of(chunksId);
+    }
+    if (released.getInteger(REFS_KEY, 0) > 0) {
+      return Optional.empty();
+    }
+    this.mongoOperations.remove(blob, blobs);
+    return Optional.of(released.getObjectId(FILES_ID_KEY));
+  }
+
+  /**
+   * Removes the chunks of a file whose {@code fs.files} entry is gone or was never committed.
+   * Chunk ids are unique across buckets, so they are removed from every bucket.
+   */
+  public void deleteChunks(final ObjectId objectId) {
+    this.buckets.forEach(bucket -> this.deleteChunks(bucket, objectId));
+  }
+
+  /**
+   * Removes the chunks of several files with one {@code deleteMany} per bucket.
+   */
+  public void deleteChunks(final Collection<ObjectId> objectIds) {
+    for (final String bucket : this.buckets) {
+      try {
+        this.mongoOperations.getCollection(GridFsCollections.chunks(bucket))
+            .deleteMany(in(FILES_ID_KEY, objectIds));
+      } catch (RuntimeException e) {
+        LOGGER.warn("Could not remove chunks of {}", objectIds, e);
+      }
+    }
+  }
+
+  private void deleteChunks(final String bucket, final ObjectId objectId) {
+    try {
+      this.mongoOperations.getCollection(GridFsCollections.chunks(bucket))
+          .deleteMany(eq(FILES_ID_KEY, objectId));
+    } catch (RuntimeException e) {
+      LOGGER.warn("Could not remove chunks of {}", objectId, e);
+    }
+  }
+
+  private BatchInserter inserter(final String bucket) {
+    return new BatchInserter(this.mongoOperations.getCollection(GridFsCollections.chunks(bucket)),
+        this.taskExecutor, this.chunkProperties.insertBatchSize().toBytes(),
+        this.chunkProperties.insertsInFlight(), this.insertTimer);
+  }
+
+  /**
+   * Counts a reference to the content with {@code contentHash}, registering {@code objectId} as
+   * its owner when it is new and {@code register} is set. Returns the blob, naming the file owning
+   * the content, its chunk size, how it is encoded and, once moved from GridFS, its tier, or
+   * {@code null} when there is none to count. Blobs registered before chunk sizes varied have no
+   * chunk size and use {@link #DEFAULT_CHUNK_SIZE}.
+   */
+  private Document reference(final String bucket, final String contentHash,
+      final ObjectId objectId, final long length, final int chunkSize, final String coding,
+      final boolean register) {
+    final Update update = new Update()
+        .inc(REFS_KEY, 1)
+        .setOnInsert(FILES_ID_KEY, objectId)
+        .setOnInsert(LENGTH_KEY, length)
+        .setOnInsert(CHUNK_SIZE_KEY, chunkSize);
+    if (coding != null) {
+      update.setOnInsert(ENCODING_KEY, coding);
+    }
+    return this.mongoOperations.findAndModify(
+        Query.query(Criteria.where(ID_KEY).is(contentHash)), update,
+        FindAndModifyOptions.options().upsert(register).returnNew(true), Document.class,
+        GridFsCollections.blobs(bucket));
+  }
+
+  private boolean isStored(final String bucket, final String contentHash) {
+    return this.mongoOperations.exists(Query.query(Criteria.where(ID_KEY).is(contentHash)),
+        GridFsCollections.blobs(bucket));
+  }
+
+  private double dedupRatio() {
+    final double stored = this.storedBytesCounter.count();
+    return stored > 0 ? this.uploadedBytesCounter.count() / stored : Double.NaN;
+  }
+
+  /**
+   * Cuts what is written into GridFS chunk documents of {@code chunkSize} bytes, handing each
+   * completed chunk to a consumer.
+   */
+  static final class ChunkOutputStream extends OutputStream {
+
+    private final ObjectId objectId;
+    private final byte[] buffer;
+    private final Consumer<Document> consumer;
+    private int position;
+    private int n;
+    private long length;
+
+    ChunkOutputStream(final ObjectId objectId, final int chunkSize,
+        final Consumer<Document> consumer) {
+      this.objectId = objectId;
+      this.buffer = new byte[chunkSize];
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void write(final int b) {
+      this.buffer[this.position++] = (byte) b;
+      if (this.position == this.buffer.length) {
+        this.flushChunk();
+      }
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+      int offset = off;
+      int remaining = len;
+      while (remaining > 0) {
+        final int copied = Math.min(remaining, this.buffer.length - this.position);
+        System.arraycopy(b, offset, this.buffer, this.position, copied);
+        this.position += copied;
+        offset += copied;
+        remaining -= copied;
+        if (this.position == this.buffer.length) {
+          this.flushChunk();
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      if (this.position > 0) {
+        this.flushChunk();
+      }
+    }
+
+    long length() {
+      return this.length;
+    }
+
+    private void flushChunk() {
+      final byte[] data = new byte[this.position];
+      System.arraycopy(this.buffer, 0, data, 0, this.position);
+      this.consumer.accept(new Document(FILES_ID_KEY, this.objectId)
+          .append("n", this.n++)
+          .append(DATA_KEY, new Binary(data)));
+      this.length += this.position;
+      this.position = 0;
+    }
+  }
+
+  /**
+   * Inserts chunks with {@code insertMany} in batches of about {@code batchSize} bytes. Full
+   * batches are inserted on an executor, at most {@code inFlight} at a time, so reading and
+   * cutting the content overlaps with the inserts; the last batch is inserted on the calling
+   * thread, which is all that happens for content smaller than a batch. Each insert is timed
+   * with {@code insertTimer}.
+   */
+  static final class BatchInserter implements Consumer<Document> {
+
+    private final MongoCollection<Document> chunksCollection;
+    private final AsyncTaskExecutor taskExecutor;
+    private final long batchSize;
+    private final int inFlight;
+    private final Timer insertTimer;
+    private final Deque<Future<?>> pending = new ArrayDeque<>();
+    private List<Document> batch = new ArrayList<>();
+    private long batchBytes;
+    private boolean flushed;
+
+    BatchInserter(final MongoCollection<Document> chunksCollection,
+        final AsyncTaskExecutor taskExecutor, final long batchSize, final int inFlight,
+        final Timer insertTimer) {
+      this.chunksCollection = chunksCollection;
+      this.taskExecutor = taskExecutor;
+      this.batchSize = batchSize;
+      this.inFlight = inFlight;
+      this.insertTimer = insertTimer;
+    }
+
+    @Override
+    public void accept(final Document chunk) {
+      this.batch.add(chunk);
+      this.batchBytes += chunk.get(DATA_KEY, Binary.class).length();
+      if (this.batchBytes < this.batchSize) {
+        return;
+      }
+
+      final List<Document> full = this.take();
+      this.flushed = true;
+      if (this.inFlight < 1) {
+        this.insert(full);
+        return;
+      }
+      while (this.pending.size() >= this.inFlight) {
+        await(this.pending.removeFirst());
+      }
+      this.pending.addLast(this.taskExecutor.submit(() -> this.insert(full)));
+    }
+
+    /**
+     * Inserts the last batch and waits for the ones in flight, failing if any insert failed.
+     */
+    void finish() {
+      if (!this.batch.isEmpty()) {
+        this.insert(this.take());
+      }
+      while (!this.pending.isEmpty()) {
+        await(this.pending.removeFirst());
+      }
+    }
+
+    /**
+     * Returns whether chunks were handed to {@code insertMany}; until then all of them are in the
+     * last batch.
+     */
+    boolean flushed() {
+      return this.flushed;
+    }
+
+    /**
+     * Drops the last batch and waits for the ones in flight, ignoring their failures, so the
+     * chunks can be removed once nothing inserts them anymore.
+     */
+    void abort() {
+      this.batch.clear();
+      while (!this.pending.isEmpty()) {
+        try {
+          this.pending.removeFirst().get();
+        } catch (ExecutionException e) {
+          LOGGER.debug("Chunk insert failed while aborting", e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+
+    private void insert(final List<Document> chunks) {
+      this.insertTimer.record(() -> this.chunksCollection.insertMany(chunks));
+    }
+
+    private List<Document> take() {
+      final List<Document> taken = this.batch;
+      this.batch = new ArrayList<>();
+      this.batchBytes = 0;
+      return taken;
+    }
+
+    private static void await(final Future<?> insert) {
+      try {
+        insert.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException runtimeException) {
+          throw runtimeException;
+        }
+        throw new IllegalStateException("Could not insert chunks", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while inserting chunks", e);
+      }
+    }
+  }
+}
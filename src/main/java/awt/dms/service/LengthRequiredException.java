@@ -0,0 +1,12 @@
+package awt.dms.service;
+
+/**
+ * Thrown by {@link UploadAdmission} for uploads without a declared length while byte rates are
+ * limited, as their bytes could not be taken from the budgets.
+ */
+public class LengthRequiredException extends RuntimeException {
+
+  public LengthRequiredException() {
+    super("Uploads must declare their length");
+  }
+}
@@ -0,0 +1,8 @@
+package awt.dms.service;
+
+/**
+ * A payload waiting to be sent to an output binding.
+ */
+record OutboundEvent(String bindingName, Object payload) {
+
+}
@@ -0,0 +1,39 @@
+package awt.dms.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Date;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+/**
+ * Events that must be published if, and only if, the write they describe commits. Entries are
+ * written in the transaction of that write and picked up by {@link OutboxRelay}.
+ */
+@Component
+public class Outbox {
+
+  static final String COLLECTION = "outbox";
+
+  static final String BINDING_KEY = "binding";
+  static final String PAYLOAD_KEY = "payload";
+  static final String CREATED_AT_KEY = "createdAt";
+
+  private final MongoOperations mongoOperations;
+  private final ObjectMapper objectMapper;
+
+  public Outbox(final MongoOperations mongoOperations, final ObjectMapper objectMapper) {
+    this.mongoOperations = mongoOperations;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Appends an event for {@code bindingName}. Must be called inside the transaction of the write
+   * the event describes.
+   */
+  public void append(final String bindingName, final Object payload) {
+    this.mongoOperations.insert(new Document(BINDING_KEY, bindingName)
+        .append(PAYLOAD_KEY, this.objectMapper.convertValue(payload, Document.class))
+        .append(CREATED_AT_KEY, new Date()), COLLECTION);
+  }
+}
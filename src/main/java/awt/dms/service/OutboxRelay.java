@@ -0,0 +1,269 @@
+package awt.dms.service;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.or;
+
+import awt.dms.config.OutboxProperties;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.thread.Threading;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes {@link Outbox} entries by tailing the outbox with a change stream. Entries are sent in
+ * batches with publisher confirms; after a batch is confirmed the resume token of its last entry
+ * is saved and the entries are removed, so a restarted relay continues after the last confirmed
+ * batch. Delivery is at least once.
+ *
+ * <p>Only one instance relays at a time: the holder of a lease in {@code outbox_relay}, renewed
+ * whenever the change stream comes back empty or a batch is done.
+ */
+@ConditionalOnProperty(prefix = "dms.outbox", name = "relay-enabled", matchIfMissing = true)
+@Component
+public class OutboxRelay implements SmartLifecycle {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OutboxRelay.class);
+
+  static final String LEASE_COLLECTION = "outbox_relay";
+
+  private static final String LEASE_ID = "relay";
+  private static final String ID_KEY = "_id";
+  private static final String OWNER_KEY = "owner";
+  private static final String LEASE_UNTIL_KEY = "leaseUntil";
+  private static final String RESUME_TOKEN_KEY = "resumeToken";
+
+  private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+  private final MongoOperations mongoOperations;
+  private final EventPublisher eventPublisher;
+  private final OutboxProperties outboxProperties;
+  private final boolean virtualThreads;
+  private final String owner = UUID.randomUUID().toString();
+
+  private volatile boolean running;
+  private Thread relay;
+
+  public OutboxRelay(final MongoOperations mongoOperations, final EventPublisher eventPublisher,
+      final OutboxProperties outboxProperties, final Environment environment) {
+    this.mongoOperations = mongoOperations;
+    this.eventPublisher = eventPublisher;
+    this.outboxProperties = outboxProperties;
+    this.virtualThreads = Threading.VIRTUAL.isActive(environment);
+  }
+
+  @Override
+  public void start() {
+    this.running = true;
+    final Thread.Builder builder = this.virtualThreads ? Thread.ofVirtual()
+        : Thread.ofPlatform().daemon();
+    this.relay = builder.name("outbox-relay").start(this::relayLoop);
+  }
+
+  @Override
+  public void stop() {
+    this.running = false;
+    try {
+      this.relay.join(this.outboxProperties.maxAwaitTime().toMillis() * 2);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return this.running;
+  }
+
+  private void relayLoop() {
+    while (this.running) {
+      try {
+        if (this.acquireLease()) {
+          this.relay();
+        }
+      } catch (MongoCommandException e) {
+        if (e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST) {
+          LOGGER.warn("Outbox resume token expired, relaying from the remaining entries");
+          this.saveResumeToken(null);
+        } else {
+          LOGGER.warn("Outbox relay failed", e);
+        }
+      } catch (RuntimeException e) {
+        LOGGER.warn("Outbox relay failed", e);
+      }
+
+      try {
+        Thread.sleep(this.outboxProperties.retryDelay().toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Relays until the lease is lost, a batch is not confirmed or the relay is stopped. Without a
+   * resume token the stream is opened first and the entries already in the outbox are relayed
+   * before it, so nothing inserted in between is missed.
+   */
+  private void relay() {
+    final MongoCollection<Document> outbox = this.mongoOperations.getCollection(
+        Outbox.COLLECTION);
+    final BsonDocument resumeToken = this.loadResumeToken();
+    ChangeStreamIterable<Document> changeStream = outbox
+        .watch(List.of(Aggregates.match(eq("operationType", "insert"))))
+        .maxAwaitTime(this.outboxProperties.maxAwaitTime().toMillis(), TimeUnit.MILLISECONDS);
+    if (resumeToken != null) {
+      changeStream = changeStream.resumeAfter(resumeToken);
+    }
+
+    try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changeStream.cursor()) {
+      final Set<Object> relayed = new HashSet<>();
+      if (resumeToken == null && !this.relayBacklog(outbox, relayed)) {
+        return;
+      }
+
+      final List<ChangeStreamDocument<Document>> changes = new ArrayList<>();
+      while (this.running) {
+        ChangeStreamDocument<Document> change;
+        while (changes.size() < this.outboxProperties.batchSize()
+            && (change = cursor.tryNext()) != null) {
+          if (change.getFullDocument() != null
+              && !relayed.remove(change.getFullDocument().get(ID_KEY))) {
+            changes.add(change);
+          }
+        }
+
+        if (!changes.isEmpty()) {
+          if (!this.publish(outbox, changes.stream()
+              .map(ChangeStreamDocument::getFullDocument)
+              .toList())) {
+            return;
+          }
+          this.saveResumeToken(changes.get(changes.size() - 1).getResumeToken());
+          changes.clear();
+        }
+        if (!this.renewLease()) {
+          LOGGER.info("Outbox relay lease lost");
+          return;
+        }
+      }
+    }
+  }
+
+  private boolean relayBacklog(final MongoCollection<Document> outbox,
+      final Set<Object> relayed) {
+    final List<Document> entries = new ArrayList<>(this.outboxProperties.batchSize());
+    for (final Document entry : outbox.find().sort(Sorts.ascending(ID_KEY))) {
+      entries.add(entry);
+      if (entries.size() == this.outboxProperties.batchSize()) {
+        if (!this.publish(outbox, entries)) {
+          return false;
+        }
+        entries.forEach(published -> relayed.add(published.get(ID_KEY)));
+        entries.clear();
+      }
+    }
+    if (!entries.isEmpty()) {
+      if (!this.publish(outbox, entries)) {
+        return false;
+      }
+      entries.forEach(published -> relayed.add(published.get(ID_KEY)));
+    }
+    return true;
+  }
+
+  private boolean publish(final MongoCollection<Document> outbox, final List<Document> entries) {
+    final boolean confirmed = this.eventPublisher.sendAndConfirm(entries.stream()
+        .map(entry -> new OutboundEvent(entry.getString(Outbox.BINDING_KEY),
+            entry.get(Outbox.PAYLOAD_KEY, Document.class)))
+        .toList());
+    if (!confirmed) {
+      LOGGER.warn("Outbox batch of {} entries not confirmed, retrying", entries.size());
+      return false;
+    }
+    outbox.deleteMany(in(ID_KEY, entries.stream().map(entry -> entry.get(ID_KEY)).toList()));
+    return true;
+  }
+
+  private boolean acquireLease() {
+    final Date now = new Date();
+    try {
+      return this.leases().findOneAndUpdate(
+          and(eq(ID_KEY, LEASE_ID), or(eq(OWNER_KEY, this.owner), lt(LEASE_UNTIL_KEY, now))),
+          Updates.combine(
+              Updates.set(OWNER_KEY, this.owner),
+              Updates.set(LEASE_UNTIL_KEY, this.leaseUntil(now))),
+          new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER))
+          != null;
+    } catch (MongoCommandException | MongoWriteException e) {
+      // the upsert collides with the lease of another instance
+      if (ErrorCategory.fromErrorCode(errorCode(e)) == ErrorCategory.DUPLICATE_KEY) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private boolean renewLease() {
+    final Date now = new Date();
+    return this.leases().updateOne(
+        and(eq(ID_KEY, LEASE_ID), eq(OWNER_KEY, this.owner)),
+        Updates.set(LEASE_UNTIL_KEY, this.leaseUntil(now))).getModifiedCount() == 1;
+  }
+
+  private BsonDocument loadResumeToken() {
+    final Document lease = this.leases().find(eq(ID_KEY, LEASE_ID)).first();
+    final Document resumeToken = lease != null ? lease.get(RESUME_TOKEN_KEY, Document.class)
+        : null;
+    return resumeToken != null ? resumeToken.toBsonDocument() : null;
+  }
+
+  private void saveResumeToken(final BsonDocument resumeToken) {
+    this.leases().updateOne(and(eq(ID_KEY, LEASE_ID), eq(OWNER_KEY, this.owner)),
+        resumeToken != null
+        ? Updates.set(RESUME_TOKEN_KEY, resumeToken)
+        : Updates.unset(RESUME_TOKEN_KEY));
+  }
+
+  private MongoCollection<Document> leases() {
+    return this.mongoOperations.getCollection(LEASE_COLLECTION);
+  }
+
+  private Date leaseUntil(final Date now) {
+    return new Date(now.getTime() + this.outboxProperties.leaseDuration().toMillis());
+  }
+
+  private static int errorCode(final RuntimeException e) {
+    return e instanceof MongoWriteException writeException
+        ? writeException.getError().getCode()
+        : ((MongoCommandException) e).getErrorCode();
+  }
+}
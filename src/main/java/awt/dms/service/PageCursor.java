@@ -0,0 +1,78 @@
+package awt.dms.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * Position of a listed document: the value of the field it is sorted by and its id, which
+ * breaks ties. Clients get it {@link #encode() encoded} as an opaque string and pass it back to
+ * continue paging, which keeps working when that document is deleted meanwhile.
+ */
+public record PageCursor(String field, long value, ObjectId id) {
+
+  private static final List<String> FIELDS = List.of(SearchFilter.UPLOAD_DATE_FIELD,
+      SearchFilter.LENGTH_FIELD);
+  private static final int OBJECT_ID_LENGTH = 12;
+  private static final int ENCODED_LENGTH = 1 + Long.BYTES + OBJECT_ID_LENGTH;
+
+  public PageCursor {
+    if (!FIELDS.contains(field)) {
+      throw new IllegalArgumentException("Cannot page by " + field);
+    }
+  }
+
+  /**
+   * Returns the position of an {@code fs.files} entry read with {@code field}.
+   */
+  public static PageCursor of(final Document file, final String field) {
+    final Object value = file.get(field);
+    return new PageCursor(field,
+        value instanceof Date date ? date.getTime() : ((Number) value).longValue(),
+        file.getObjectId("_id"));
+  }
+
+  public static PageCursor of(final GridFSFile file, final String field) {
+    return new PageCursor(field, SearchFilter.LENGTH_FIELD.equals(field) ? file.getLength()
+        : file.getUploadDate().getTime(), file.getObjectId());
+  }
+
+  /**
+   * Reads a cursor written by {@link #encode()}.
+   *
+   * @throws IllegalArgumentException when {@code cursor} is not one
+   */
+  public static PageCursor decode(final String cursor) {
+    final byte[] bytes;
+    try {
+      bytes = Base64.getUrlDecoder().decode(cursor);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+    }
+    if (bytes.length != ENCODED_LENGTH || bytes[0] < 0 || bytes[0] >= FIELDS.size()) {
+      throw new IllegalArgumentException("Invalid cursor " + cursor);
+    }
+
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    return new PageCursor(FIELDS.get(buffer.get()), buffer.getLong(), new ObjectId(buffer));
+  }
+
+  public String encode() {
+    final ByteBuffer buffer = ByteBuffer.allocate(ENCODED_LENGTH)
+        .put((byte) FIELDS.indexOf(this.field))
+        .putLong(this.value);
+    this.id.putToByteBuffer(buffer);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+  }
+
+  /**
+   * Returns the value as stored in {@code fs.files}, for comparing in queries.
+   */
+  public Object sortValue() {
+    return SearchFilter.LENGTH_FIELD.equals(this.field) ? this.value : new Date(this.value);
+  }
+}
@@ -0,0 +1,210 @@
+package awt.dms.service;
+
+import awt.dms.config.PartitionProperties;
+import awt.dms.service.DocumentPartitions.Assignment;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.result.DeleteResult;
+import jakarta.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Moves users between the buckets of {@link DocumentPartitions} while the service keeps running.
+ * {@link #move(String, String)} assigns the user the target bucket and records the one it is
+ * moved from, so new documents go to the target while both buckets are listed. Once every
+ * instance read the new assignment, the documents are copied in batches of
+ * {@code dms.partitions.move-batch-size}, each file in the transaction that removes it from the
+ * source bucket, followed by its renditions. Content no file refers to anymore is kept for
+ * {@code dms.partitions.content-retention}, so downloads that already started, or instances still
+ * caching the old entry, can finish reading it.
+ *
+ * <p>Files stored before hashes were recorded are moved once they are backfilled.
+ */
+@Component
+@Validated
+public class PartitionRebalancer {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PartitionRebalancer.class);
+
+  static final String RETAINED_CONTENTS = "partition_moves";
+
+  private static final String ID_KEY = "_id";
+  private static final String MOVED_AT_KEY = "movedAt";
+  private static final String USER_FIELD = "metadata.user";
+  private static final String RENDITION_OF_FIELD = "metadata." + DocumentMetadata.RENDITION_OF_KEY;
+
+  private final MongoOperations mongoOperations;
+  private final DocumentPartitions documentPartitions;
+  private final GridFsWriter gridFsWriter;
+  private final BlobStores blobStores;
+  private final DocumentCache documentCache;
+  private final PartitionProperties partitionProperties;
+
+  private final Set<ObjectId> failed = ConcurrentHashMap.newKeySet();
+
+  public PartitionRebalancer(final MongoOperations mongoOperations,
+      final DocumentPartitions documentPartitions, final GridFsWriter gridFsWriter,
+      final BlobStores blobStores, final DocumentCache documentCache,
+      final PartitionProperties partitionProperties) {
+    this.mongoOperations = mongoOperations;
+    this.documentPartitions = documentPartitions;
+    this.gridFsWriter = gridFsWriter;
+    this.blobStores = blobStores;
+    this.documentCache = documentCache;
+    this.partitionProperties = partitionProperties;
+  }
+
+  /**
+   * Starts moving {@code user} to {@code bucket}. A user is moved once at a time; the documents
+   * follow within {@code dms.partitions.interval} after {@code dms.partitions.cache-ttl}.
+   */
+  public Assignment move(@NotNull final String user, @NotNull final String bucket) {
+    this.documentPartitions.checkBucket(bucket);
+    this.documentPartitions.invalidateAssignment(user);
+    final Assignment current = this.documentPartitions.assignment(user);
+    final String source = current.bucket() != null ? current.bucket()
+        : GridFsCollections.DEFAULT_BUCKET;
+    if (current.movingFrom() == null && source.equals(bucket)) {
+      return current;
+    }
+
+    LOGGER.info("Moving {} from {} to {}", user, source, bucket);
+    final Document moving;
+    try {
+      moving = this.mongoOperations.findAndModify(Query.query(Criteria.where(ID_KEY).is(user)
+              .and(DocumentPartitions.BUCKET_KEY).is(current.bucket())
+              .and(DocumentPartitions.MOVING_FROM_KEY).exists(false)),
+          new Update().set(DocumentPartitions.BUCKET_KEY, bucket)
+              .set(DocumentPartitions.MOVING_FROM_KEY, source)
+              .set(DocumentPartitions.MOVING_SINCE_KEY, new Date()),
+          FindAndModifyOptions.options().upsert(true).returnNew(true), Document.class,
+          DocumentPartitions.PARTITIONS);
+    } catch (DuplicateKeyException e) {
+      throw new IllegalStateException(user + " is being moved or was assigned meanwhile", e);
+    }
+    this.documentPartitions.invalidateAssignment(user);
+    return new Assignment(Objects.requireNonNull(moving).getString(DocumentPartitions.BUCKET_KEY),
+        moving.getString(DocumentPartitions.MOVING_FROM_KEY),
+        moving.getDate(DocumentPartitions.MOVING_SINCE_KEY));
+  }
+
+  @Scheduled(initialDelayString = "${dms.partitions.initial-delay:PT1M}",
+      fixedDelayString = "${dms.partitions.interval:PT1M}")
+  public void sweep() {
+    this.removeRetainedContents();
+    if (!this.documentPartitions.partitioned()) {
+      return;
+    }
+
+    // instances may upload to the source until their cached assignment expired
+    final Date settled = new Date(
+        System.currentTimeMillis() - this.partitionProperties.cacheTtl().toMillis());
+    for (final Document moving : this.mongoOperations.find(Query.query(
+            Criteria.where(DocumentPartitions.MOVING_FROM_KEY).exists(true)
+                .and(DocumentPartitions.MOVING_SINCE_KEY).lt(settled)), Document.class,
+        DocumentPartitions.PARTITIONS)) {
+      this.moveBatch(moving.getString(ID_KEY),
+          moving.getString(DocumentPartitions.MOVING_FROM_KEY),
+          moving.getString(DocumentPartitions.BUCKET_KEY));
+    }
+  }
+
+  private void moveBatch(final String user, final String source, final String target) {
+    final List<GridFSFile> files = new ArrayList<>(this.partitionProperties.moveBatchSize());
+    this.documentPartitions.gridFs(source).find(Query.query(Criteria.where(USER_FIELD).is(user)
+            .and(ID_KEY).nin(this.failed)))
+        .limit(this.partitionProperties.moveBatchSize())
+        .into(files);
+    if (!files.isEmpty()) {
+      LOGGER.info("Moving {} files of {} from {} to {}", files.size(), user, source, target);
+      files.forEach(file -> this.move(file, source, target));
+      return;
+    }
+    if (this.mongoOperations.exists(Query.query(Criteria.where(USER_FIELD).is(user)),
+        GridFsCollections.files(source))) {
+      LOGGER.warn("Files of {} that could not be moved remain in {}", user, source);
+      return;
+    }
+
+    this.mongoOperations.updateFirst(Query.query(Criteria.where(ID_KEY).is(user)
+            .and(DocumentPartitions.MOVING_FROM_KEY).is(source)),
+        new Update().unset(DocumentPartitions.MOVING_FROM_KEY)
+            .unset(DocumentPartitions.MOVING_SINCE_KEY),
+        DocumentPartitions.PARTITIONS);
+    this.documentPartitions.invalidateAssignment(user);
+    LOGGER.info("Moved {} from {} to {}", user, source, target);
+  }
+
+  private void move(final GridFSFile file, final String source, final String target) {
+    if (!this.copy(file, source, target)) {
+      return;
+    }
+    // renditions stored meanwhile are removed again as their original is gone from the source
+    final List<GridFSFile> renditions = new ArrayList<>();
+    this.documentPartitions.gridFs(source).find(Query.query(
+            Criteria.where(RENDITION_OF_FIELD).is(file.getObjectId())))
+        .into(renditions);
+    renditions.forEach(rendition -> this.copy(rendition, source, target));
+  }
+
+  private boolean copy(final GridFSFile file, final String source, final String target) {
+    final GridFSFile contentFile = DocumentMetadata.contentFile(file);
+    try (InputStream content = this.blobStores.forFile(contentFile).open(contentFile)) {
+      this.gridFsWriter.copy(file, content, target, copy -> {
+        final DeleteResult removed = this.mongoOperations.remove(
+            Query.query(Criteria.where(ID_KEY).is(file.getObjectId())),
+            GridFsCollections.files(source));
+        if (removed.getDeletedCount() == 0) {
+          throw new IllegalStateException(file.getObjectId() + " is gone from " + source);
+        }
+        this.gridFsWriter.release(file.getObjectId(), file.getMetadata())
+            .ifPresent(contentId -> this.mongoOperations.insert(new Document(ID_KEY, contentId)
+                .append(MOVED_AT_KEY, new Date()), RETAINED_CONTENTS));
+        if (GridFsCollections.DEFAULT_BUCKET.equals(target)) {
+          this.mongoOperations.remove(Query.query(Criteria.where(ID_KEY).is(file.getObjectId())),
+              GridFsCollections.DIRECTORY);
+        }
+      });
+    } catch (IOException | RuntimeException e) {
+      this.failed.add(file.getObjectId());
+      LOGGER.warn("Could not move {} from {} to {}", file.getObjectId(), source, target, e);
+      return false;
+    }
+
+    this.documentCache.invalidate(file.getObjectId());
+    this.documentPartitions.invalidateDirectory(List.of(file.getObjectId()));
+    return true;
+  }
+
+  private void removeRetainedContents() {
+    final Date retainedSince = new Date(
+        System.currentTimeMillis() - this.partitionProperties.contentRetention().toMillis());
+    final Query expired = Query.query(Criteria.where(MOVED_AT_KEY).lt(retainedSince));
+    for (final Document retained : this.mongoOperations.find(expired, Document.class,
+        RETAINED_CONTENTS)) {
+      final ObjectId contentId = retained.getObjectId(ID_KEY);
+      this.blobStores.delete(contentId);
+      this.mongoOperations.remove(Query.query(Criteria.where(ID_KEY).is(contentId)),
+          RETAINED_CONTENTS);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package awt.dms.service;
+
+import awt.dms.service.DocumentPartitions.Assignment;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint {@code /actuator/partitions/{user}} showing the bucket a user is assigned and
+ * moving the user to another one with a {@code POST} of {@code {"bucket": ...}}.
+ */
+@Component
+@Endpoint(id = "partitions")
+public class PartitionsEndpoint {
+
+  private final DocumentPartitions documentPartitions;
+  private final PartitionRebalancer partitionRebalancer;
+
+  public PartitionsEndpoint(final DocumentPartitions documentPartitions,
+      final PartitionRebalancer partitionRebalancer) {
+    this.documentPartitions = documentPartitions;
+    this.partitionRebalancer = partitionRebalancer;
+  }
+
+  @ReadOperation
+  public Assignment assignment(@Selector final String user) {
+    return this.documentPartitions.assignment(user);
+  }
+
+  @WriteOperation
+  public Assignment move(@Selector final String user, final String bucket) {
+    return this.partitionRebalancer.move(user, bucket);
+  }
+}
@@ -0,0 +1,81 @@
+package awt.dms.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bson.Document;
+
+/**
+ * Reads the winning plan of an {@code explain} result.
+ */
+public final class QueryPlans {
+
+  public static final String COLLECTION_SCAN = "COLLSCAN";
+  public static final String INDEX_SCAN = "IXSCAN";
+
+  private static final String WILDCARD_PATH_KEY = "$_path";
+
+  private QueryPlans() {
+  }
+
+  /**
+   * Returns every stage of the winning plan. Stages are searched recursively because their nesting
+   * differs between query engines and server versions.
+   */
+  public static List<String> winningStages(final Document explain) {
+    final List<String> stages = new ArrayList<>();
+    final Document queryPlanner = explain.get("queryPlanner", Document.class);
+    if (queryPlanner != null) {
+      collectStages(queryPlanner.get("winningPlan"), stages);
+    }
+    return stages;
+  }
+
+  public static boolean isCollectionScan(final Document explain) {
+    return winningStages(explain).contains(COLLECTION_SCAN);
+  }
+
+  /**
+   * Returns the fields of the indexes the index scans of the winning plan read. A wildcard index
+   * reports the field it was used for.
+   */
+  public static Set<String> scannedIndexFields(final Document explain) {
+    final Set<String> fields = new LinkedHashSet<>();
+    final Document queryPlanner = explain.get("queryPlanner", Document.class);
+    if (queryPlanner != null) {
+      collectIndexFields(queryPlanner.get("winningPlan"), fields);
+    }
+    return fields;
+  }
+
+  private static void collectIndexFields(final Object node, final Set<String> fields) {
+    if (node instanceof Map<?, ?> map) {
+      if (INDEX_SCAN.equals(map.get("stage")) && map.get("keyPattern") instanceof Map<?, ?> keys) {
+        keys.keySet().stream()
+            .map(String::valueOf)
+            .filter(key -> !WILDCARD_PATH_KEY.equals(key))
+            .forEach(fields::add);
+      }
+      map.values().forEach(value -> collectIndexFields(value, fields));
+    } else if (node instanceof Collection<?> collection) {
+      collection.forEach(element -> collectIndexFields(element, fields));
+    }
+  }
+
+  private static void collectStages(final Object node, final List<String> stages) {
+    if (node instanceof Map<?, ?> map) {
+      map.forEach((key, value) -> {
+        if ("stage".equals(key) && value instanceof String stage) {
+          stages.add(stage);
+        } else {
+          collectStages(value, stages);
+        }
+      });
+    } else if (node instanceof Collection<?> collection) {
+      collection.forEach(element -> collectStages(element, stages));
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package awt.dms.service;
+
+/**
+ * Thrown instead of storing a document that would take its user beyond a quota.
+ */
+public class QuotaExceededException extends RuntimeException {
+
+  public QuotaExceededException(final String user) {
+    super("Storage quota of " + user + " exceeded");
+  }
+}
@@ -0,0 +1,256 @@
+package awt.dms.service;
+
+import awt.dms.config.UploadProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import jakarta.validation.constraints.NotNull;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsOperations;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.annotation.Validated;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Non-blocking variant of {@link DmsService} for the {@code reactive} profile. Content streams as
+ * {@link DataBuffer}s between the client and the blob stores without holding a thread. The short
+ * transactions creating and deleting files, which also write the outbox, are those of
+ * {@link DmsService} and run on bounded elastic threads.
+ */
+@Profile("reactive")
+@Validated
+@Service
+public class ReactiveDmsService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveDmsService.class);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final String ID_KEY = "_id";
+
+  private final DataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+
+  private final ReactiveGridFsOperations reactiveGridFsOperations;
+  private final ReactiveMongoOperations reactiveMongoOperations;
+  private final ReactiveGridFsWriter reactiveGridFsWriter;
+  private final ReactiveGridFsChunkReader reactiveGridFsChunkReader;
+  private final DmsService dmsService;
+  private final DocumentPartitions documentPartitions;
+  private final UploadProperties uploadProperties;
+  private final DocumentCache documentCache;
+  private final StorageUsage storageUsage;
+  private final TransferMetrics transferMetrics;
+
+  public ReactiveDmsService(final ReactiveGridFsTemplate reactiveGridFsTemplate,
+      final ReactiveMongoOperations reactiveMongoOperations,
+      final ReactiveGridFsWriter reactiveGridFsWriter,
+      final ReactiveGridFsChunkReader reactiveGridFsChunkReader, final DmsService dmsService,
+      final DocumentPartitions documentPartitions, final UploadProperties uploadProperties,
+      final DocumentCache documentCache, final StorageUsage storageUsage,
+      final TransferMetrics transferMetrics) {
+    this.reactiveGridFsOperations = reactiveGridFsTemplate;
+    this.reactiveMongoOperations = reactiveMongoOperations;
+    this.reactiveGridFsWriter = reactiveGridFsWriter;
+    this.reactiveGridFsChunkReader = reactiveGridFsChunkReader;
+    this.dmsService = dmsService;
+    this.documentPartitions = documentPartitions;
+    this.uploadProperties = uploadProperties;
+    this.documentCache = documentCache;
+    this.storageUsage = storageUsage;
+    this.transferMetrics = transferMetrics;
+  }
+
+  /**
+   * Streams {@code content} into GridFS chunks as it arrives, like
+   * {@link DmsService#upload(java.io.InputStream, long, String, String, Map)}. {@code length} is
+   * the declared length, negative when not known, and decides the chunk size.
+   */
+  public Mono<ObjectId> upload(@NotNull final Flux<DataBuffer> content, final long length,
+      final String filename, final String contentType,
+      @NotNull final Map<String, String> metadata) {
+    LOGGER.info("Trying to upload {}", filename);
+    return Mono.fromCallable(() -> {
+          this.storageUsage.checkQuota(metadata, length);
+          return this.dmsService.storedMetadata(metadata);
+        })
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(stored -> Mono.using(
+            () -> this.transferMetrics.start(TransferMetrics.Direction.UPLOAD, contentType),
+            transfer -> this.reactiveGridFsWriter.write(transfer.count(content), length,
+                this.uploadProperties.maxSize().toBytes(), filename, contentType, stored,
+                this.dmsService.encodingFor(contentType),
+                this.dmsService.appendUploaded(filename, contentType)),
+            TransferMetrics.Transfer::close))
+        .map(GridFSFile::getObjectId);
+  }
+
+  /**
+   * Lists a page of documents of {@code userId} like {@link DmsService#findPage}, merging the
+   * buckets of a user being moved as the pages arrive.
+   */
+  public Flux<DocumentSummary> findPage(@NotNull final String userId, final PageCursor after,
+      final int limit) {
+    LOGGER.info("Trying to list {} after {}", userId, after);
+    final Query query = DmsService.pageQuery(userId, after, limit);
+    if (!this.documentPartitions.partitioned()) {
+      return this.reactiveMongoOperations.find(query, Document.class, GridFsCollections.FILES)
+          .map(DmsService::toSummary);
+    }
+    return Mono.fromCallable(() -> this.documentPartitions.bucketsOf(userId))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMapMany(buckets -> Flux.mergeComparing(DmsService.PAGE_ORDER, buckets.stream()
+            .map(bucket -> this.reactiveMongoOperations.find(query, Document.class,
+                GridFsCollections.files(bucket)))
+            .toArray(Flux[]::new)))
+        .take(limit)
+        .map(DmsService::toSummary);
+  }
+
+  /**
+   * Looks up the {@code fs.files} entry only, served from the {@link DocumentCache} when enabled.
+   * Documents are located through the {@link DocumentPartitions} directory on a bounded elastic
+   * thread once there are buckets besides the default one.
+   */
+  public Mono<GridFSFile> findFile(@NotNull final ObjectId objectId) {
+    LOGGER.info("Trying to find {}", objectId);
+    if (this.documentPartitions.partitioned()) {
+      return Mono.fromCallable(() -> this.dmsService.findFile(objectId))
+          .subscribeOn(Schedulers.boundedElastic())
+          .flatMap(Mono::justOrEmpty);
+    }
+    return Mono.justOrEmpty(this.documentCache.cachedFile(objectId))
+        .switchIfEmpty(Mono.defer(() -> {
+          final long invalidations = this.documentCache.invalidations();
+          return this.reactiveGridFsOperations
+              .findOne(Query.query(Criteria.where(ID_KEY).is(objectId)
+                  .andOperator(DocumentMetadata.notDeleted())))
+              .doOnNext(file -> this.documentCache.putFile(file, invalidations));
+        }));
+  }
+
+  /**
+   * Streams the content of {@code file} as stored. Small files are read completely and kept in
+   * the {@link DocumentCache} when enabled. Views are recorded by the caller through
+   * {@link #recordView(GridFSFile)}.
+   */
+  public Flux<DataBuffer> getContent(@NotNull final GridFSFile file) {
+    final Optional<byte[]> cached = this.documentCache.content(file);
+    if (cached.isPresent()) {
+      return Flux.just(this.bufferFactory.wrap(cached.get()));
+    }
+
+    final Optional<Path> localFile = this.localFile(file);
+    final Flux<DataBuffer> content;
+    if (localFile.isPresent()) {
+      content = DataBufferUtils.read(localFile.get(), this.bufferFactory, BUFFER_SIZE);
+    } else if (file.getLength() == 0) {
+      content = Flux.empty();
+    } else {
+      // the chunks may be in any bucket, which the template of the default one cannot read
+      content = this.reactiveGridFsChunkReader.read(DocumentMetadata.contentFile(file), 0,
+          file.getLength() - 1);
+    }
+    if (!this.documentCache.admits(file)) {
+      return content;
+    }
+
+    return DataBufferUtils.join(content)
+        .map(joined -> {
+          final byte[] bytes = new byte[joined.readableByteCount()];
+          joined.read(bytes);
+          DataBufferUtils.release(joined);
+          this.documentCache.putContent(file, bytes);
+          return this.bufferFactory.wrap(bytes);
+        })
+        .flux();
+  }
+
+  /**
+   * Streams the content of {@code file} decoded from {@code encoding}. Decoding works on a
+   * blocking stream, so it runs on a bounded elastic thread; clients accepting the stored
+   * encoding never take this path.
+   */
+  public Flux<DataBuffer> getDecodedContent(@NotNull final GridFSFile file,
+      @NotNull final ContentEncoding encoding) {
+    // encoded content is never empty, the encoding adds at least a header
+    return DataBufferUtils.readInputStream(() -> encoding.decode(
+                this.dmsService.openRange(file, 0, file.getLength() - 1)),
+            this.bufferFactory, BUFFER_SIZE)
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  /**
+   * Streams bytes {@code start} to {@code end}, both inclusive, of the content as stored, reading
+   * only the chunks covering them.
+   */
+  public Flux<DataBuffer> getRange(@NotNull final GridFSFile file, final long start,
+      final long end) {
+    final Optional<byte[]> cached = this.documentCache.content(file);
+    if (cached.isPresent()) {
+      return Flux.just(this.bufferFactory.wrap(ByteBuffer.wrap(cached.get(),
+          Math.toIntExact(start), Math.toIntExact(end - start + 1))));
+    }
+
+    final Optional<Path> localFile = this.localFile(file);
+    if (localFile.isPresent()) {
+      return DataBufferUtils.takeUntilByteCount(DataBufferUtils.readAsynchronousFileChannel(
+              () -> AsynchronousFileChannel.open(localFile.get(), StandardOpenOption.READ), start,
+              this.bufferFactory, BUFFER_SIZE),
+          end - start + 1);
+    }
+    return this.reactiveGridFsChunkReader.read(DocumentMetadata.contentFile(file), start, end);
+  }
+
+  /**
+   * Returns the local file holding the stored content of {@code file} when it is kept in the
+   * filesystem tier, so it can be sent with zero-copy.
+   */
+  public Optional<Path> localFile(@NotNull final GridFSFile file) {
+    return this.dmsService.localFile(file);
+  }
+
+  /**
+   * Records a view like {@link DmsService#recordView(GridFSFile)} on a bounded elastic thread, as
+   * publishing waits for room in the event queue when it is full.
+   */
+  public Mono<Void> recordView(@NotNull final GridFSFile file) {
+    return Mono.fromRunnable(() -> this.dmsService.recordView(file))
+        .subscribeOn(Schedulers.boundedElastic())
+        .then();
+  }
+
+  /**
+   * Deletes the file like {@link DmsService#delete(ObjectId)}.
+   */
+  public Mono<Void> delete(@NotNull final ObjectId objectId) {
+    return Mono.fromRunnable(() -> this.dmsService.delete(objectId))
+        .subscribeOn(Schedulers.boundedElastic())
+        .then();
+  }
+
+  /**
+   * Restores the file like {@link DmsService#restore(ObjectId)}.
+   */
+  public Mono<Boolean> restore(@NotNull final ObjectId objectId) {
+    return Mono.fromCallable(() -> this.dmsService.restore(objectId))
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+}
@@ -0,0 +1,86 @@
+package awt.dms.service;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Sorts.ascending;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive counterpart of {@link GridFsChunkReader}, emitting the covered part of each chunk as a
+ * {@link DataBuffer} as the chunks come in.
+ */
+@Profile("reactive")
+@Component
+public class ReactiveGridFsChunkReader {
+
+  private static final String FILES_ID_KEY = "files_id";
+  private static final String N_KEY = "n";
+  private static final String DATA_KEY = "data";
+
+  private final ReactiveMongoOperations reactiveMongoOperations;
+
+  public ReactiveGridFsChunkReader(final ReactiveMongoOperations reactiveMongoOperations) {
+    this.reactiveMongoOperations = reactiveMongoOperations;
+  }
+
+  /**
+   * Reads bytes {@code start} to {@code end} of {@code file}, both inclusive.
+   */
+  public Flux<DataBuffer> read(final GridFSFile file, final long start, final long end) {
+    if (start < 0 || end < start || end >= file.getLength()) {
+      throw new IllegalArgumentException(
+          "Invalid range " + start + "-" + end + " for length " + file.getLength());
+    }
+
+    final int chunkSize = file.getChunkSize();
+    final int firstChunk = Math.toIntExact(start / chunkSize);
+    final int lastChunk = Math.toIntExact(end / chunkSize);
+    final int firstOffset = (int) (start % chunkSize);
+    final int lastLimit = (int) (end % chunkSize) + 1;
+    return Flux.defer(() -> {
+      final AtomicInteger expectedChunk = new AtomicInteger(firstChunk);
+      return this.reactiveMongoOperations.getCollection(
+              GridFsCollections.chunks(DocumentMetadata.bucket(file)))
+          .flatMapMany(chunks -> chunks.find(and(eq(FILES_ID_KEY, file.getId()),
+                  gte(N_KEY, firstChunk), lte(N_KEY, lastChunk)))
+              .sort(ascending(N_KEY)))
+          .<DataBuffer>handle((chunk, sink) -> {
+            final int n = chunk.getInteger(N_KEY);
+            if (n != expectedChunk.get()) {
+              sink.error(new IOException(
+                  "Expected chunk " + expectedChunk.get() + " but found " + n));
+              return;
+            }
+
+            final byte[] data = chunk.get(DATA_KEY, Binary.class).getData();
+            final int offset = n == firstChunk ? firstOffset : 0;
+            final int limit = n == lastChunk ? lastLimit : data.length;
+            if (offset >= limit || limit > data.length) {
+              sink.error(new IOException("Chunk " + n + " is shorter than expected"));
+              return;
+            }
+            expectedChunk.incrementAndGet();
+            sink.next(DefaultDataBufferFactory.sharedInstance.wrap(
+                ByteBuffer.wrap(data, offset, limit - offset)));
+          })
+          .concatWith(Mono.defer(() -> expectedChunk.get() <= lastChunk
+              ? Mono.error(new IOException("Missing chunk " + expectedChunk.get()))
+              : Mono.empty()));
+    });
+  }
+}
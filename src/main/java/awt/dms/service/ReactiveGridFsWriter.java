@@ -0,0 +1,167 @@
+package awt.dms.service;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import awt.dms.config.ChunkProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Consumer;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Reactive counterpart of {@link GridFsWriter#write}. Chunks are cut from the request body as it
+ * arrives and inserted one at a time, so more of the body is only requested once Mongo took the
+ * previous chunk. The {@code fs.files} entry is created by {@link GridFsWriter#commit} on a
+ * bounded elastic thread, as its transaction with the outbox runs on the blocking driver. The
+ * chunk size is chosen by {@link ChunkProperties#chunkSize} from the declared length of the body.
+ */
+@Profile("reactive")
+@Component
+public class ReactiveGridFsWriter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveGridFsWriter.class);
+
+  private static final String FILES_ID_KEY = "files_id";
+
+  private final ReactiveMongoOperations reactiveMongoOperations;
+  private final GridFsWriter gridFsWriter;
+  private final ChunkProperties chunkProperties;
+
+  public ReactiveGridFsWriter(final ReactiveMongoOperations reactiveMongoOperations,
+      final GridFsWriter gridFsWriter, final ChunkProperties chunkProperties) {
+    this.reactiveMongoOperations = reactiveMongoOperations;
+    this.gridFsWriter = gridFsWriter;
+    this.chunkProperties = chunkProperties;
+  }
+
+  /**
+   * Stores {@code content} like {@link GridFsWriter#write}, {@code length} being the declared
+   * length, negative when not known. Fails with an {@link UploadTooLargeException} once more than
+   * {@code maxSize} bytes arrived; the chunks written so far are removed when the upload fails or
+   * is cancelled.
+   */
+  public Mono<GridFSFile> write(final Flux<DataBuffer> content, final long length,
+      final long maxSize, final String filename, final String contentType,
+      final Document metadata, final ContentEncoding encoding,
+      final Consumer<GridFSFile> inTransaction) {
+    return Mono.defer(() -> {
+      final ObjectId objectId = new ObjectId();
+      final String chunks = GridFsCollections.chunks(DocumentMetadata.bucket(metadata));
+      final int chunkSize = this.chunkProperties.chunkSize(length, contentType);
+      final ChunkCutter cutter = new ChunkCutter(objectId, chunkSize, maxSize, encoding);
+      return content
+          .concatMapIterable(cutter::cut, 1)
+          .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+          .concatWith(Flux.defer(() -> Flux.fromIterable(cutter.finish())))
+          .concatMap(chunk -> this.insertChunk(chunks, chunk), 1)
+          .then()
+          .onErrorResume(e -> this.deleteChunks(chunks, objectId).then(Mono.error(e)))
+          .doOnCancel(() -> this.deleteChunks(chunks, objectId).subscribe())
+          .then(Mono.fromCallable(() -> this.gridFsWriter.commit(objectId, filename, contentType,
+                  metadata, encoding, cutter.contentHash(), cutter.originalLength(),
+                  cutter.storedLength(), chunkSize, inTransaction))
+              .subscribeOn(Schedulers.boundedElastic()));
+    });
+  }
+
+  private Mono<Void> insertChunk(final String chunksCollection, final Document chunk) {
+    return this.reactiveMongoOperations.getCollection(chunksCollection)
+        .flatMap(chunks -> Mono.from(chunks.insertOne(chunk)))
+        .then();
+  }
+
+  private Mono<Void> deleteChunks(final String chunksCollection, final ObjectId objectId) {
+    return this.reactiveMongoOperations.getCollection(chunksCollection)
+        .flatMap(chunks -> Mono.from(chunks.deleteMany(eq(FILES_ID_KEY, objectId))))
+        .doOnError(e -> LOGGER.warn("Could not remove chunks of {}", objectId, e))
+        .onErrorComplete()
+        .then();
+  }
+
+  /**
+   * Hashes, encodes and cuts the buffers of one upload, collecting the completed chunks until
+   * they are taken.
+   */
+  private static final class ChunkCutter {
+
+    private final long maxSize;
+    private final MessageDigest digest = DocumentMetadata.contentDigest();
+    private final List<Document> completed = new ArrayList<>();
+    private final GridFsWriter.ChunkOutputStream chunks;
+    private final OutputStream out;
+    private long originalLength;
+
+    private ChunkCutter(final ObjectId objectId, final int chunkSize, final long maxSize,
+        final ContentEncoding encoding) {
+      this.maxSize = maxSize;
+      this.chunks = new GridFsWriter.ChunkOutputStream(objectId, chunkSize, this.completed::add);
+      try {
+        this.out = encoding != null ? encoding.encode(this.chunks) : this.chunks;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private List<Document> cut(final DataBuffer buffer) {
+      try {
+        final byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        this.originalLength += bytes.length;
+        if (this.originalLength > this.maxSize) {
+          throw new UploadTooLargeException(this.maxSize);
+        }
+        this.digest.update(bytes);
+        this.out.write(bytes);
+        return this.take();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        DataBufferUtils.release(buffer);
+      }
+    }
+
+    private List<Document> finish() {
+      try {
+        this.out.close();
+        return this.take();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private List<Document> take() {
+      final List<Document> taken = List.copyOf(this.completed);
+      this.completed.clear();
+      return taken;
+    }
+
+    private String contentHash() {
+      return HexFormat.of().formatHex(this.digest.digest());
+    }
+
+    private long originalLength() {
+      return this.originalLength;
+    }
+
+    private long storedLength() {
+      return this.chunks.length();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package awt.dms.service;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Derivatives generated from a document and stored as GridFS files linked to it.
+ */
+public enum RenditionKind {
+  THUMBNAIL("image/png", ".png"),
+  EXCERPT("text/plain;charset=UTF-8", ".txt");
+
+  private final String contentType;
+  private final String extension;
+
+  RenditionKind(final String contentType, final String extension) {
+    this.contentType = contentType;
+    this.extension = extension;
+  }
+
+  public String contentType() {
+    return this.contentType;
+  }
+
+  public String extension() {
+    return this.extension;
+  }
+
+  /**
+   * Returns the name of the kind in URLs and the {@code _rendition} metadata entry.
+   */
+  public String key() {
+    return this.name().toLowerCase(Locale.ROOT);
+  }
+
+  public static Optional<RenditionKind> fromKey(final String key) {
+    return Arrays.stream(values())
+        .filter(kind -> kind.key().equalsIgnoreCase(key))
+        .findFirst();
+  }
+}
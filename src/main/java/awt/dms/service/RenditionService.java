@@ -0,0 +1,369 @@
+package awt.dms.service;
+
+import awt.dms.config.RenditionProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.validation.constraints.NotNull;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.MimeType;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Generates renditions of documents and stores them as GridFS files linked to the original through
+ * the {@code _renditionOf} and {@code _rendition} metadata entries, so each is generated once and
+ * removed together with the original. Concurrent requests for a missing rendition wait for a
+ * single generation.
+ */
+@Service
+@Validated
+public class RenditionService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RenditionService.class);
+
+  private static final String ID_KEY = "_id";
+  private static final String METADATA_PREFIX = "metadata.";
+  private static final String CONTENT_TYPE_KEY = "_contentType";
+  private static final String KIND_TAG = "kind";
+  private static final String ELLIPSIS = "\u2026";
+
+  private final DocumentPartitions documentPartitions;
+  private final MongoOperations mongoOperations;
+  private final DmsService dmsService;
+  private final GridFsWriter gridFsWriter;
+  private final BlobStores blobStores;
+  private final TransactionOperations transactionOperations;
+  private final RenditionProperties renditionProperties;
+  private final MeterRegistry meterRegistry;
+  private final Map<Generation, CompletableFuture<Optional<GridFSFile>>> generating =
+      new ConcurrentHashMap<>();
+
+  public RenditionService(final DocumentPartitions documentPartitions,
+      final MongoOperations mongoOperations, final DmsService dmsService,
+      final GridFsWriter gridFsWriter, final BlobStores blobStores,
+      final TransactionOperations transactionOperations,
+      final RenditionProperties renditionProperties, final MeterRegistry meterRegistry) {
+    this.documentPartitions = documentPartitions;
+    this.mongoOperations = mongoOperations;
+    this.dmsService = dmsService;
+    this.gridFsWriter = gridFsWriter;
+    this.blobStores = blobStores;
+    this.transactionOperations = transactionOperations;
+    this.renditionProperties = renditionProperties;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Returns the {@code kind} rendition of the document {@code objectId}, generating it when it
+   * was not yet. Empty when the document does not exist or has no such rendition, e.g. a
+   * thumbnail of a text.
+   */
+  public Optional<Rendition> get(@NotNull final ObjectId objectId,
+      @NotNull final RenditionKind kind) throws IOException {
+    final Optional<GridFSFile> original = this.dmsService.findFile(objectId)
+        .filter(file -> !isRendition(file));
+    if (original.isEmpty()) {
+      return Optional.empty();
+    }
+
+    Optional<GridFSFile> rendition = this.find(original.get(), kind);
+    if (rendition.isEmpty()) {
+      rendition = this.generateOnce(original.get(), kind);
+    }
+    if (rendition.isEmpty()) {
+      return Optional.empty();
+    }
+
+    final GridFSFile contentFile = DocumentMetadata.contentFile(rendition.get());
+    try (InputStream content = this.blobStores.forFile(contentFile).open(contentFile)) {
+      return Optional.of(new Rendition(kind.contentType(),
+          DocumentMetadata.contentHash(rendition.get()), content.readAllBytes()));
+    }
+  }
+
+  /**
+   * Generates every rendition of the document {@code objectId} it supports and does not have
+   * yet. Does nothing when the document is gone.
+   */
+  public void generateAll(@NotNull final ObjectId objectId) throws IOException {
+    final Optional<GridFSFile> original = this.dmsService.findFile(objectId)
+        .filter(file -> !isRendition(file));
+    if (original.isEmpty()) {
+      LOGGER.debug("Not generating renditions of missing {}", objectId);
+      return;
+    }
+
+    for (final RenditionKind kind : RenditionKind.values()) {
+      if (this.supports(original.get(), kind) && this.find(original.get(), kind).isEmpty()) {
+        this.generateOnce(original.get(), kind);
+      }
+    }
+  }
+
+  /**
+   * Returns whether a {@code kind} rendition can be generated from {@code original}.
+   */
+  boolean supports(final GridFSFile original, final RenditionKind kind) {
+    final Document metadata = original.getMetadata();
+    final String contentType = metadata != null ? metadata.getString(CONTENT_TYPE_KEY) : null;
+    return switch (kind) {
+      // images are decoded completely, text only as far as the excerpt goes
+      case THUMBNAIL -> readableImage(contentType) && DocumentMetadata.originalLength(original)
+          <= this.renditionProperties.maxImageSize().toBytes();
+      case EXCERPT -> this.renditionProperties.isText(contentType);
+    };
+  }
+
+  /**
+   * Returns the {@code kind} rendition of {@code original}, kept in the bucket of the original.
+   */
+  private Optional<GridFSFile> find(final GridFSFile original, final RenditionKind kind) {
+    return Optional.ofNullable(this.documentPartitions.gridFs(DocumentMetadata.bucket(original))
+        .findOne(Query.query(Criteria.where(METADATA_PREFIX + DocumentMetadata.RENDITION_OF_KEY)
+            .is(original.getObjectId())
+            .and(METADATA_PREFIX + DocumentMetadata.RENDITION_KEY).is(kind.key()))));
+  }
+
+  /**
+   * Generates the {@code kind} rendition of {@code original}, or waits for the generation already
+   * running in this instance.
+   */
+  private Optional<GridFSFile> generateOnce(final GridFSFile original, final RenditionKind kind)
+      throws IOException {
+    final Generation generation = new Generation(original.getObjectId(), kind);
+    final CompletableFuture<Optional<GridFSFile>> created = new CompletableFuture<>();
+    final CompletableFuture<Optional<GridFSFile>> running = this.generating.putIfAbsent(
+        generation, created);
+    if (running != null) {
+      try {
+        return running.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof UncheckedIOException io) {
+          throw io.getCause();
+        }
+        throw e;
+      }
+    }
+
+    try {
+      final Optional<GridFSFile> rendition = this.generate(original, kind);
+      created.complete(rendition);
+      return rendition;
+    } catch (IOException e) {
+      created.completeExceptionally(new UncheckedIOException(e));
+      throw e;
+    } catch (RuntimeException e) {
+      created.completeExceptionally(e);
+      throw e;
+    } finally {
+      this.generating.remove(generation);
+    }
+  }
+
+  private Optional<GridFSFile> generate(final GridFSFile original, final RenditionKind kind)
+      throws IOException {
+    if (!this.supports(original, kind)) {
+      return Optional.empty();
+    }
+
+    final long start = System.nanoTime();
+    final byte[] content;
+    final GridFSFile contentFile = DocumentMetadata.contentFile(original);
+    final Optional<ContentEncoding> encoding = DocumentMetadata.contentEncoding(original);
+    try (InputStream stored = this.blobStores.forFile(contentFile).open(contentFile);
+        InputStream decoded = encoding.isPresent() ? encoding.get().decode(stored) : stored) {
+      content = switch (kind) {
+        case THUMBNAIL -> thumbnail(decoded, this.renditionProperties.thumbnailSize());
+        case EXCERPT -> excerpt(decoded, charset(original),
+            this.renditionProperties.excerptLength());
+      };
+    }
+    Timer.builder("dms.renditions.generate")
+        .description("Time to read a document and render a derivative of it")
+        .tag(KIND_TAG, kind.key())
+        .register(this.meterRegistry)
+        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    if (content == null) {
+      LOGGER.info("Could not render {} of {}", kind.key(), original.getObjectId());
+      return Optional.empty();
+    }
+    return this.store(original, kind, content);
+  }
+
+  private Optional<GridFSFile> store(final GridFSFile original, final RenditionKind kind,
+      final byte[] content) throws IOException {
+    final ObjectId objectId = original.getObjectId();
+    final String bucket = DocumentMetadata.bucket(original);
+    final String filename = (original.getFilename() != null ? original.getFilename()
+        : objectId.toString()) + "." + kind.key() + kind.extension();
+    final Document metadata = new Document(DocumentMetadata.RENDITION_OF_KEY, objectId)
+        .append(DocumentMetadata.RENDITION_KEY, kind.key());
+    if (!GridFsCollections.DEFAULT_BUCKET.equals(bucket)) {
+      metadata.append(DocumentMetadata.BUCKET_KEY, bucket);
+    }
+    final GridFSFile rendition;
+    try {
+      rendition = this.gridFsWriter.write(new ByteArrayInputStream(content), content.length,
+          filename, kind.contentType(), metadata, null, stored -> {
+          });
+    } catch (DuplicateKeyException e) {
+      // generated by another instance in the meantime
+      return this.find(original, kind);
+    }
+
+    // the original may have been deleted or moved while rendering, after its renditions were
+    // removed or moved along
+    if (!this.mongoOperations.exists(Query.query(Criteria.where(ID_KEY).is(objectId)),
+        GridFsCollections.files(bucket))) {
+      final List<ObjectId> unreferenced = this.transactionOperations.execute(status ->
+          this.dmsService.removeRenditions(bucket, List.of(objectId)));
+      this.blobStores.deleteAll(Objects.requireNonNull(unreferenced));
+      return Optional.empty();
+    }
+    return Optional.of(rendition);
+  }
+
+  /**
+   * Renders the image in {@code content} as PNG whose longer side is at most {@code size}
+   * pixels. Large images are decoded subsampled, at no less than twice the target resolution.
+   * Returns {@code null} when no reader understands the content.
+   */
+  static byte[] thumbnail(final InputStream content, final int size) throws IOException {
+    final BufferedImage image;
+    try (ImageInputStream input = ImageIO.createImageInputStream(content)) {
+      final Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input)
+          : null;
+      if (readers == null || !readers.hasNext()) {
+        return null;
+      }
+
+      final ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        final int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+        final int subsampling = Math.max(1, longest / (size * 2));
+        final ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        image = reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
+
+    final double scale = Math.min(1, (double) size
+        / Math.max(image.getWidth(), image.getHeight()));
+    final int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+    final int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+    final BufferedImage thumbnail = new BufferedImage(width, height,
+        BufferedImage.TYPE_INT_ARGB);
+    final Graphics2D graphics = thumbnail.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(thumbnail, "png", out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns the first {@code length} characters of the text in {@code content}, UTF-8 encoded,
+   * with runs of whitespace collapsed. A cut off text ends at a word boundary with an ellipsis.
+   */
+  static byte[] excerpt(final InputStream content, final Charset charset, final int length)
+      throws IOException {
+    final char[] buffer = new char[length + 1];
+    int read = 0;
+    try (Reader reader = new InputStreamReader(content, charset)) {
+      int count;
+      while (read < buffer.length
+          && (count = reader.read(buffer, read, buffer.length - read)) >= 0) {
+        read += count;
+      }
+    }
+
+    String text = new String(buffer, 0, read).replaceAll("\\s+", " ").strip();
+    if (read > length) {
+      final String cut = text.substring(0, Math.min(text.length(), length));
+      final int lastSpace = cut.lastIndexOf(' ');
+      text = (lastSpace > 0 ? cut.substring(0, lastSpace) : cut) + ELLIPSIS;
+    }
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static boolean readableImage(final String contentType) {
+    try {
+      final MimeType mimeType = contentType != null ? MimeType.valueOf(contentType) : null;
+      return mimeType != null && ImageIO.getImageReadersByMIMEType(
+          mimeType.getType() + "/" + mimeType.getSubtype()).hasNext();
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private static Charset charset(final GridFSFile original) {
+    final Document metadata = original.getMetadata();
+    final String contentType = metadata != null ? metadata.getString(CONTENT_TYPE_KEY) : null;
+    try {
+      final Charset charset = contentType != null
+          ? MimeType.valueOf(contentType).getCharset() : null;
+      return charset != null ? charset : StandardCharsets.UTF_8;
+    } catch (IllegalArgumentException e) {
+      return StandardCharsets.UTF_8;
+    }
+  }
+
+  private static boolean isRendition(final GridFSFile file) {
+    return file.getMetadata() != null
+        && file.getMetadata().containsKey(DocumentMetadata.RENDITION_OF_KEY);
+  }
+
+  /**
+   * Content of a rendition, small enough to be held in memory.
+   */
+  public record Rendition(String contentType, String contentHash, byte[] content) {
+
+  }
+
+  private record Generation(ObjectId objectId, RenditionKind kind) {
+
+  }
+}
@@ -0,0 +1,107 @@
+package awt.dms.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/**
+ * One condition of a document search, written {@code field:operator:value}. Fields are
+ * {@code contentType}, {@code uploadDate}, {@code length} and {@code metadata.<key>} for the
+ * metadata supplied on upload. {@code in} takes comma separated values, {@code prefix} applies
+ * to text fields only, and dates are ISO-8601 instants or days in UTC.
+ */
+public record SearchFilter(String field, Operator operator, String value) {
+
+  public static final String CONTENT_TYPE_FIELD = "contentType";
+  public static final String UPLOAD_DATE_FIELD = "uploadDate";
+  public static final String LENGTH_FIELD = "length";
+  public static final String METADATA_PREFIX = "metadata.";
+
+  private static final Pattern METADATA_KEY = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_-]*");
+  private static final Pattern REGEX_SPECIAL = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+  private static final String CONTENT_TYPE_PATH = METADATA_PREFIX + "_contentType";
+
+  public SearchFilter {
+    if (!CONTENT_TYPE_FIELD.equals(field) && !UPLOAD_DATE_FIELD.equals(field)
+        && !LENGTH_FIELD.equals(field) && !(field.startsWith(METADATA_PREFIX)
+        && METADATA_KEY.matcher(field.substring(METADATA_PREFIX.length())).matches())) {
+      throw new IllegalArgumentException("Cannot search on " + field);
+    }
+    if (operator == Operator.PREFIX && (UPLOAD_DATE_FIELD.equals(field)
+        || LENGTH_FIELD.equals(field))) {
+      throw new IllegalArgumentException("prefix does not apply to " + field);
+    }
+    rawValues(operator, value).forEach(raw -> typed(field, raw));
+  }
+
+  /**
+   * Parses {@code field:operator:value}; the value may contain colons.
+   */
+  public static SearchFilter parse(final String filter) {
+    final String[] parts = filter.split(":", 3);
+    if (parts.length < 3) {
+      throw new IllegalArgumentException("Expected field:operator:value but got " + filter);
+    }
+    return new SearchFilter(parts[0], Operator.fromName(parts[1]), parts[2]);
+  }
+
+  /**
+   * Returns the {@code fs.files} path the field is stored at.
+   */
+  public String path() {
+    return CONTENT_TYPE_FIELD.equals(this.field) ? CONTENT_TYPE_PATH : this.field;
+  }
+
+  public Criteria criteria() {
+    final Criteria criteria = Criteria.where(this.path());
+    return switch (this.operator) {
+      case EQ -> criteria.is(typed(this.field, this.value));
+      case IN -> criteria.in(rawValues(this.operator, this.value).stream()
+          .map(raw -> typed(this.field, raw))
+          .toList());
+      case GT -> criteria.gt(typed(this.field, this.value));
+      case GTE -> criteria.gte(typed(this.field, this.value));
+      case LT -> criteria.lt(typed(this.field, this.value));
+      case LTE -> criteria.lte(typed(this.field, this.value));
+      // an anchored regex without quoting constructs keeps to the index bounds of the prefix
+      case PREFIX -> criteria.regex("^"
+          + REGEX_SPECIAL.matcher(this.value).replaceAll("\\\\$0"));
+    };
+  }
+
+  private static List<String> rawValues(final Operator operator, final String value) {
+    return operator == Operator.IN ? List.of(value.split(",")) : List.of(value);
+  }
+
+  private static Object typed(final String field, final String raw) {
+    try {
+      return switch (field) {
+        case UPLOAD_DATE_FIELD -> raw.contains("T") ? Date.from(Instant.parse(raw))
+            : Date.from(LocalDate.parse(raw).atStartOfDay(ZoneOffset.UTC).toInstant());
+        case LENGTH_FIELD -> Long.parseLong(raw);
+        default -> raw;
+      };
+    } catch (DateTimeParseException | NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid " + field + " " + raw, e);
+    }
+  }
+
+  public enum Operator {
+    EQ, IN, GT, GTE, LT, LTE, PREFIX;
+
+    static Operator fromName(final String name) {
+      return Arrays.stream(values())
+          .filter(operator -> operator.name().equalsIgnoreCase(name))
+          .findFirst()
+          .orElseThrow(() -> new IllegalArgumentException("Unknown operator " + name
+              + ", expected one of " + List.of(values()).toString().toLowerCase(Locale.ROOT)));
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package awt.dms.service;
+
+import java.util.Comparator;
+import java.util.Date;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+
+/**
+ * Order of search results, {@code uploadDate} or {@code length}, written with a leading
+ * {@code -} for descending. Ties are broken by id, so results can be paged by keyset.
+ */
+public record SearchSort(String field, Direction direction) {
+
+  private static final String ID_KEY = "_id";
+
+  public SearchSort {
+    if (!SearchFilter.UPLOAD_DATE_FIELD.equals(field) && !SearchFilter.LENGTH_FIELD.equals(field)) {
+      throw new IllegalArgumentException("Cannot sort by " + field);
+    }
+  }
+
+  public static SearchSort parse(final String sort) {
+    return sort.startsWith("-") ? new SearchSort(sort.substring(1), Direction.DESC)
+        : new SearchSort(sort, Direction.ASC);
+  }
+
+  public Sort toSort() {
+    return Sort.by(this.direction, this.field, ID_KEY);
+  }
+
+  /**
+   * Returns this order on {@code fs.files} entries read with the sorted field, for merging the
+   * results of several buckets.
+   */
+  public Comparator<Document> toComparator() {
+    final Comparator<Document> byField = SearchFilter.LENGTH_FIELD.equals(this.field)
+        ? Comparator.<Document>comparingLong(file -> file.get(this.field, Number.class).longValue())
+        : Comparator.<Document, Date>comparing(file -> file.getDate(this.field));
+    final Comparator<Document> order = byField.thenComparing(file -> file.getObjectId(ID_KEY));
+    return this.direction.isDescending() ? order.reversed() : order;
+  }
+}
@@ -0,0 +1,57 @@
+package awt.dms.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fails the read that would take the stream past {@code maxBytes}. The exception is unchecked so
+ * that the GridFS driver aborts the upload and removes the chunks already written.
+ */
+final class SizeLimitedInputStream extends FilterInputStream {
+
+  private final long maxBytes;
+  private long count;
+
+  SizeLimitedInputStream(final InputStream in, final long maxBytes) {
+    super(in);
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final int b = super.read();
+    if (b != -1) {
+      this.count(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    final int read = super.read(b, off, len);
+    if (read > 0) {
+      this.count(read);
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException {
+    final long skipped = super.skip(n);
+    this.count(skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private void count(final long read) {
+    this.count += read;
+    if (this.count > this.maxBytes) {
+      throw new UploadTooLargeException(this.maxBytes);
+    }
+  }
+}
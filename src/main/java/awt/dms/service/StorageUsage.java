@@ -0,0 +1,151 @@
+package awt.dms.service;
+
+import awt.dms.config.QuotaProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.constraints.NotNull;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Bytes and files stored per user, kept in {@value #USAGE} and changed with {@code $inc} in the
+ * transactions that create, delete and restore documents, so reading the usage of a user takes a
+ * single lookup instead of aggregating {@code fs.files}. {@link StorageUsageReconciliation}
+ * corrects drift. Documents without a {@code user} metadata entry are not counted.
+ *
+ * <p>Concurrent transactions changing the usage of the same user conflict on its document; the
+ * loser aborts with a transient error and is run again by
+ * {@link awt.dms.config.RetryingTransactionOperations}.
+ */
+@Service
+@Validated
+public class StorageUsage {
+
+  static final String USAGE = "usage";
+  static final String BYTES_KEY = "bytes";
+  static final String FILES_KEY = "files";
+
+  private static final String ID_KEY = "_id";
+  private static final String LENGTH_KEY = "length";
+  private static final String METADATA_KEY = "metadata";
+  private static final String USER_KEY = "user";
+
+  private final MongoOperations mongoOperations;
+  private final QuotaProperties quotaProperties;
+  private final Counter rejectedCounter;
+
+  public StorageUsage(final MongoOperations mongoOperations,
+      final QuotaProperties quotaProperties, final MeterRegistry meterRegistry) {
+    this.mongoOperations = mongoOperations;
+    this.quotaProperties = quotaProperties;
+    this.rejectedCounter = Counter.builder("dms.quotas.rejected")
+        .description("Uploads rejected because they exceed a quota")
+        .register(meterRegistry);
+  }
+
+  public Usage get(@NotNull final String user) {
+    final Document usage = this.mongoOperations.findById(user, Document.class, USAGE);
+    return usage != null ? toUsage(usage) : new Usage(user, 0, 0);
+  }
+
+  /**
+   * Rejects an upload of {@code length} bytes, negative when not known, that would exceed the
+   * quota of the user in {@code metadata}, before any content is read. Uploads running at the
+   * same time are only accounted for by {@link #recordUpload(GridFSFile)}.
+   */
+  public void checkQuota(@NotNull final Map<String, String> metadata, final long length) {
+    final String user = metadata.get(USER_KEY);
+    if (this.quotaProperties.enabled() && user != null
+        && this.exceeds(this.get(user), Math.max(length, 0), 1)) {
+      this.reject(user);
+    }
+  }
+
+  /**
+   * Counts a new file in the usage of its user. Must be called inside the transaction that
+   * creates the file; throws a {@link QuotaExceededException} rolling it back when the file takes
+   * the user beyond a quota.
+   */
+  public void recordUpload(@NotNull final GridFSFile file) {
+    final String user = file.getMetadata() != null ? file.getMetadata().getString(USER_KEY)
+        : null;
+    if (user == null) {
+      return;
+    }
+    final Usage usage = this.record(user, file.getLength(), 1);
+    if (this.quotaProperties.enabled() && this.exceeds(usage, 0, 0)) {
+      this.reject(user);
+    }
+  }
+
+  /**
+   * Counts restored {@code fs.files} entries, read with their {@code length} and
+   * {@code metadata.user}, in the usage of their users.
+   */
+  public void add(@NotNull final Collection<Document> files) {
+    this.recordAll(files, 1);
+  }
+
+  /**
+   * Removes deleted {@code fs.files} entries, read with their {@code length} and
+   * {@code metadata.user}, from the usage of their users.
+   */
+  public void subtract(@NotNull final Collection<Document> files) {
+    this.recordAll(files, -1);
+  }
+
+  private void recordAll(final Collection<Document> files, final int sign) {
+    files.stream()
+        .filter(file -> user(file) != null)
+        .collect(Collectors.groupingBy(StorageUsage::user, Collectors.toList()))
+        .forEach((user, owned) -> this.record(user, sign * owned.stream()
+                .mapToLong(file -> file.get(LENGTH_KEY, Number.class).longValue())
+                .sum(),
+            sign * owned.size()));
+  }
+
+  private Usage record(final String user, final long bytes, final long files) {
+    return toUsage(Objects.requireNonNull(this.mongoOperations.findAndModify(
+        Query.query(Criteria.where(ID_KEY).is(user)),
+        new Update().inc(BYTES_KEY, bytes).inc(FILES_KEY, files),
+        FindAndModifyOptions.options().returnNew(true).upsert(true), Document.class, USAGE)));
+  }
+
+  private boolean exceeds(final Usage usage, final long bytes, final long files) {
+    return usage.bytes() + bytes > this.quotaProperties.maxSize().toBytes()
+        || usage.files() + files > this.quotaProperties.maxFiles();
+  }
+
+  private void reject(final String user) {
+    this.rejectedCounter.increment();
+    throw new QuotaExceededException(user);
+  }
+
+  private static String user(final Document file) {
+    final Document metadata = file.get(METADATA_KEY, Document.class);
+    return metadata != null ? metadata.getString(USER_KEY) : null;
+  }
+
+  static Usage toUsage(final Document usage) {
+    return new Usage(usage.getString(ID_KEY), usage.get(BYTES_KEY, Number.class).longValue(),
+        usage.get(FILES_KEY, Number.class).longValue());
+  }
+
+  /**
+   * Total length and number of the documents of a user.
+   */
+  public record Usage(String user, long bytes, long files) {
+
+  }
+}
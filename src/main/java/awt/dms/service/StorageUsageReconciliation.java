@@ -0,0 +1,107 @@
+package awt.dms.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+
+import awt.dms.service.StorageUsage.Usage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Corrects drift of the counters of {@link StorageUsage}, e.g. from files stored before they were
+ * kept. The usage of all users is aggregated from the files of every bucket outside any
+ * transaction; only users whose counters differ are aggregated again and overwritten, each in a
+ * transaction, so uploads of other users never conflict with it.
+ */
+@ConditionalOnProperty(prefix = "dms.quotas.reconciliation", name = "enabled",
+    matchIfMissing = true)
+@Component
+public class StorageUsageReconciliation {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StorageUsageReconciliation.class);
+
+  private static final String ID_KEY = "_id";
+  private static final String LENGTH_KEY = "length";
+  private static final String USER_FIELD = "metadata.user";
+
+  private final MongoOperations mongoOperations;
+  private final TransactionOperations transactionOperations;
+  private final DocumentPartitions documentPartitions;
+  private final Counter correctionsCounter;
+
+  public StorageUsageReconciliation(final MongoOperations mongoOperations,
+      final TransactionOperations transactionOperations,
+      final DocumentPartitions documentPartitions, final MeterRegistry meterRegistry) {
+    this.mongoOperations = mongoOperations;
+    this.transactionOperations = transactionOperations;
+    this.documentPartitions = documentPartitions;
+    this.correctionsCounter = Counter.builder("dms.quotas.corrections")
+        .description("Users whose usage counters were corrected")
+        .register(meterRegistry);
+  }
+
+  @Scheduled(initialDelayString = "${dms.quotas.reconciliation.initial-delay:PT5M}",
+      fixedDelayString = "${dms.quotas.reconciliation.interval:PT1H}")
+  public void reconcile() {
+    final Map<String, Usage> stored = this.aggregate(Criteria.where(USER_FIELD).exists(true));
+    final Map<String, Usage> counted = new HashMap<>();
+    this.mongoOperations.findAll(Document.class, StorageUsage.USAGE)
+        .forEach(usage -> counted.put(usage.getString(ID_KEY), StorageUsage.toUsage(usage)));
+
+    final Set<String> users = new HashSet<>(stored.keySet());
+    users.addAll(counted.keySet());
+    users.stream()
+        .filter(user -> !usage(stored, user).equals(usage(counted, user)))
+        .forEach(this::correct);
+  }
+
+  private void correct(final String user) {
+    final Usage usage = this.transactionOperations.execute(status -> {
+      final Usage actual = usage(this.aggregate(Criteria.where(USER_FIELD).is(user)), user);
+      this.mongoOperations.upsert(Query.query(Criteria.where(ID_KEY).is(user)),
+          Update.update(StorageUsage.BYTES_KEY, actual.bytes())
+              .set(StorageUsage.FILES_KEY, actual.files()),
+          StorageUsage.USAGE);
+      return actual;
+    });
+    this.correctionsCounter.increment();
+    LOGGER.info("Corrected usage of {} to {}", user, usage);
+  }
+
+  private Map<String, Usage> aggregate(final Criteria users) {
+    final Aggregation aggregation = newAggregation(
+        match(users.andOperator(DocumentMetadata.notDeleted())),
+        group(USER_FIELD)
+            .sum(LENGTH_KEY).as(StorageUsage.BYTES_KEY)
+            .count().as(StorageUsage.FILES_KEY));
+    final Map<String, Usage> usages = new HashMap<>();
+    // a user being moved has documents in two buckets
+    this.documentPartitions.buckets().forEach(bucket -> this.mongoOperations
+        .aggregate(aggregation, GridFsCollections.files(bucket), Document.class)
+        .forEach(usage -> usages.merge(usage.getString(ID_KEY), StorageUsage.toUsage(usage),
+            (first, second) -> new Usage(first.user(), first.bytes() + second.bytes(),
+                first.files() + second.files()))));
+    return usages;
+  }
+
+  private static Usage usage(final Map<String, Usage> usages, final String user) {
+    return usages.getOrDefault(user, new Usage(user, 0, 0));
+  }
+}
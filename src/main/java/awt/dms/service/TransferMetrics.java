@@ -0,0 +1,224 @@
+package awt.dms.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+
+/**
+ * Tracks document content moving in and out of the service: bytes and throughput per transfer as
+ * well as the transfers in flight.
+ */
+@Component
+public class TransferMetrics {
+
+  public static final String METER_PREFIX = "dms.transfer";
+  public static final String CONTENT_TYPE_TAG = "content.type";
+
+  private static final String DIRECTION_TAG = "direction";
+  private static final String UNKNOWN_CONTENT_TYPE = "unknown";
+
+  private final MeterRegistry meterRegistry;
+  private final Map<Direction, Set<Transfer>> active = new EnumMap<>(Direction.class);
+  private final Map<Direction, Timer> durations = new EnumMap<>(Direction.class);
+  private final Map<Direction, DistributionSummary> throughputs = new EnumMap<>(Direction.class);
+
+  public TransferMetrics(final MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    for (final Direction direction : Direction.values()) {
+      final Set<Transfer> transfers = ConcurrentHashMap.newKeySet();
+      this.active.put(direction, transfers);
+      Gauge.builder(METER_PREFIX + ".active", transfers, Set::size)
+          .description("Transfers in flight")
+          .tag(DIRECTION_TAG, direction.tag())
+          .register(meterRegistry);
+      Gauge.builder(METER_PREFIX + ".active.bytes", transfers, TransferMetrics::bytes)
+          .description("Bytes moved so far by the transfers in flight")
+          .baseUnit("bytes")
+          .tag(DIRECTION_TAG, direction.tag())
+          .register(meterRegistry);
+      this.durations.put(direction, Timer.builder(METER_PREFIX + ".duration")
+          .tag(DIRECTION_TAG, direction.tag())
+          .register(meterRegistry));
+      this.throughputs.put(direction, DistributionSummary.builder(METER_PREFIX + ".throughput")
+          .description("Throughput of single transfers")
+          .baseUnit("bytes/s")
+          .tag(DIRECTION_TAG, direction.tag())
+          .register(meterRegistry));
+    }
+  }
+
+  /**
+   * Starts a transfer of content of {@code contentType}. Its bytes are counted through the
+   * streams it wraps or {@link Transfer#add(long)}, and recorded once it is closed.
+   */
+  public Transfer start(final Direction direction, final String contentType) {
+    final Transfer transfer = new Transfer(direction, contentType);
+    this.active.get(direction).add(transfer);
+    return transfer;
+  }
+
+  /**
+   * Returns the current load in {@code direction}.
+   */
+  public Load load(final Direction direction) {
+    final long now = System.nanoTime();
+    long bytes = 0;
+    double bytesPerSecond = 0;
+    long oldestNanos = 0;
+    final Set<Transfer> transfers = this.active.get(direction);
+    for (final Transfer transfer : transfers) {
+      final long elapsed = now - transfer.start;
+      bytes += transfer.bytes;
+      bytesPerSecond += elapsed > 0 ? transfer.bytes * 1e9 / elapsed : 0;
+      oldestNanos = Math.max(oldestNanos, elapsed);
+    }
+    final Timer duration = this.durations.get(direction);
+    return new Load(transfers.size(), bytes, Math.round(bytesPerSecond),
+        TimeUnit.NANOSECONDS.toMillis(oldestNanos), duration.count(),
+        Math.round(this.throughputs.get(direction).mean()));
+  }
+
+  private static double bytes(final Set<Transfer> transfers) {
+    return transfers.stream().mapToLong(transfer -> transfer.bytes).sum();
+  }
+
+  private static String contentTypeTag(final String contentType) {
+    if (contentType == null) {
+      return UNKNOWN_CONTENT_TYPE;
+    }
+    try {
+      final MimeType mimeType = MimeType.valueOf(contentType);
+      return (mimeType.getType() + "/" + mimeType.getSubtype()).toLowerCase(Locale.ROOT);
+    } catch (IllegalArgumentException e) {
+      return UNKNOWN_CONTENT_TYPE;
+    }
+  }
+
+  public enum Direction {
+    UPLOAD, DOWNLOAD;
+
+    String tag() {
+      return this.name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  /**
+   * Load in one direction.
+   *
+   * @param active               transfers in flight
+   * @param activeBytes          bytes moved so far by them
+   * @param activeBytesPerSecond their combined throughput
+   * @param oldestMillis         age of the oldest of them
+   * @param completed            transfers completed since start
+   * @param meanBytesPerSecond   mean throughput of the completed transfers
+   */
+  public record Load(int active, long activeBytes, long activeBytesPerSecond, long oldestMillis,
+                     long completed, long meanBytesPerSecond) {
+
+  }
+
+  /**
+   * One upload or download, moved by a single thread at a time.
+   */
+  public final class Transfer implements AutoCloseable {
+
+    private final Direction direction;
+    private final String contentType;
+    private final long start = System.nanoTime();
+    // written by the transferring thread only, read by gauges and the actuator endpoint
+    private volatile long bytes;
+    private boolean closed;
+
+    private Transfer(final Direction direction, final String contentType) {
+      this.direction = direction;
+      this.contentType = contentType;
+    }
+
+    public void add(final long count) {
+      this.bytes += count;
+    }
+
+    public InputStream count(final InputStream in) {
+      return new FilterInputStream(in) {
+        @Override
+        public int read() throws IOException {
+          final int b = super.read();
+          if (b >= 0) {
+            Transfer.this.add(1);
+          }
+          return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+          final int read = super.read(b, off, len);
+          if (read > 0) {
+            Transfer.this.add(read);
+          }
+          return read;
+        }
+      };
+    }
+
+    public OutputStream count(final OutputStream out) {
+      return new FilterOutputStream(out) {
+        @Override
+        public void write(final int b) throws IOException {
+          this.out.write(b);
+          Transfer.this.add(1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+          this.out.write(b, off, len);
+          Transfer.this.add(len);
+        }
+      };
+    }
+
+    /**
+     * Counts the buffers of {@code buffers} as they are passed on.
+     */
+    public Flux<DataBuffer> count(final Flux<DataBuffer> buffers) {
+      return buffers.doOnNext(buffer -> this.add(buffer.readableByteCount()));
+    }
+
+    @Override
+    public void close() {
+      if (this.closed) {
+        return;
+      }
+
+      this.closed = true;
+      TransferMetrics.this.active.get(this.direction).remove(this);
+      final long elapsed = System.nanoTime() - this.start;
+      DistributionSummary.builder(METER_PREFIX + ".bytes")
+          .description("Content bytes per transfer")
+          .baseUnit("bytes")
+          .tag(DIRECTION_TAG, this.direction.tag())
+          .tag(CONTENT_TYPE_TAG, contentTypeTag(this.contentType))
+          .register(TransferMetrics.this.meterRegistry)
+          .record(this.bytes);
+      TransferMetrics.this.durations.get(this.direction).record(elapsed, TimeUnit.NANOSECONDS);
+      if (elapsed > 0) {
+        TransferMetrics.this.throughputs.get(this.direction).record(this.bytes * 1e9 / elapsed);
+      }
+    }
+  }
+}
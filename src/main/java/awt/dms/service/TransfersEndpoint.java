@@ -0,0 +1,33 @@
+package awt.dms.service;
+
+import awt.dms.service.TransferMetrics.Direction;
+import awt.dms.service.TransferMetrics.Load;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint {@code /actuator/transfers} summarising the uploads and downloads in flight,
+ * for dashboards polling the current load rather than meter rates.
+ */
+@Component
+@Endpoint(id = "transfers")
+public class TransfersEndpoint {
+
+  private final TransferMetrics transferMetrics;
+
+  public TransfersEndpoint(final TransferMetrics transferMetrics) {
+    this.transferMetrics = transferMetrics;
+  }
+
+  @ReadOperation
+  public Map<String, Load> transfers() {
+    final Map<String, Load> load = new LinkedHashMap<>();
+    for (final Direction direction : Direction.values()) {
+      load.put(direction.tag(), this.transferMetrics.load(direction));
+    }
+    return load;
+  }
+}
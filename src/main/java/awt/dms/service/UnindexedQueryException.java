@@ -0,0 +1,14 @@
+package awt.dms.service;
+
+import java.util.Collection;
+
+/**
+ * Thrown instead of running a search whose plan would not narrow its filters through an index.
+ */
+public class UnindexedQueryException extends IllegalArgumentException {
+
+  public UnindexedQueryException(final Collection<String> fields) {
+    super("No index serves a search on " + fields
+        + "; add a filter on an indexed field or index one of them");
+  }
+}
@@ -0,0 +1,325 @@
+package awt.dms.service;
+
+import awt.dms.config.AdmissionProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admits uploads within {@link AdmissionProperties} before their content is read, so bursts do
+ * not saturate the Mongo write capacity that downloads and listings share. Uploads take one of
+ * {@code max-concurrent} slots, and one of {@code max-concurrent-per-user} of their user, for as
+ * long as they run; their declared length is taken from byte budgets refilled at
+ * {@code bytes-per-second}, so uploads that do not declare it are refused while a rate is set.
+ * Containers stop reading a body at its declared length. In adaptive mode the slots follow the
+ * latency of GridFS chunk inserts, shrinking by a quarter while it is above
+ * {@code target-latency} and growing by one otherwise.
+ */
+@Component
+public class UploadAdmission {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(UploadAdmission.class);
+
+  // per user byte budgets kept before full ones are dropped
+  private static final int MAX_USER_BUDGETS = 10_000;
+  private static final Duration MIN_RETRY_AFTER = Duration.ofSeconds(1);
+
+  private static final Permit UNLIMITED = () -> { };
+
+  private final AdmissionProperties admissionProperties;
+  private final MeterRegistry meterRegistry;
+  private final Lock lock = new ReentrantLock();
+  private final Condition released = this.lock.newCondition();
+  private final Map<String, Integer> userSlots = new HashMap<>();
+  private final Map<String, ByteBudget> userBudgets = new HashMap<>();
+  private final ByteBudget budget;
+  private final Map<Reason, Counter> rejectedCounters = new EnumMap<>(Reason.class);
+
+  private volatile int limit;
+  private int active;
+  private int queued;
+  private long insertCount;
+  private double insertNanos;
+
+  public UploadAdmission(final AdmissionProperties admissionProperties,
+      final MeterRegistry meterRegistry) {
+    this.admissionProperties = admissionProperties;
+    this.meterRegistry = meterRegistry;
+    this.budget = new ByteBudget(admissionProperties.bytesPerSecond().toBytes(),
+        admissionProperties.burst().toBytes());
+    this.limit = admissionProperties.maxConcurrent();
+    Gauge.builder("dms.admission.limit", this, admission -> admission.limit)
+        .description("Uploads admitted at the same time")
+        .register(meterRegistry);
+    Gauge.builder("dms.admission.active", this, admission -> admission.active)
+        .description("Uploads admitted and running")
+        .register(meterRegistry);
+    Gauge.builder("dms.admission.queued", this, admission -> admission.queued)
+        .description("Uploads waiting for a slot")
+        .register(meterRegistry);
+    for (final Reason reason : Reason.values()) {
+      this.rejectedCounters.put(reason, Counter.builder("dms.admission.rejected")
+          .description("Uploads shed")
+          .tag("reason", reason.tag())
+          .register(meterRegistry));
+    }
+  }
+
+  /**
+   * Admits an upload of {@code user} declaring {@code length} bytes, negative when not known,
+   * waiting up to {@code max-wait} for a slot. The returned permit must be closed once the upload
+   * finished. Throws an {@link UploadRejectedException} when the upload is shed, and a
+   * {@link LengthRequiredException} when it does not declare its length while byte rates are
+   * limited.
+   */
+  public Permit admit(final String user, final long length) {
+    if (!this.admissionProperties.enabled()) {
+      return UNLIMITED;
+    }
+    if (length < 0 && (this.admissionProperties.bytesPerSecond().toBytes() > 0
+        || this.admissionProperties.bytesPerSecondPerUser().toBytes() > 0)) {
+      this.rejectedCounters.get(Reason.LENGTH).increment();
+      throw new LengthRequiredException();
+    }
+
+    this.lock.lock();
+    try {
+      final long now = System.nanoTime();
+      final ByteBudget userBudget = this.userBudget(user, now);
+      this.checkBudget(this.budget, now, Reason.BYTES);
+      this.checkBudget(userBudget, now, Reason.USER_BYTES);
+      if (!this.hasSlot(user)) {
+        this.awaitSlot(user);
+      }
+
+      this.active++;
+      this.userSlots.merge(user, 1, Integer::sum);
+      this.budget.take(Math.max(length, 0));
+      userBudget.take(Math.max(length, 0));
+      return new UserPermit(user);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the current limit, the uploads running and waiting, and the uploads shed so far.
+   */
+  public State state() {
+    final Map<String, Double> rejected = new LinkedHashMap<>();
+    this.rejectedCounters.forEach((reason, counter) -> rejected.put(reason.tag(),
+        counter.count()));
+    this.lock.lock();
+    try {
+      return new State(this.limit, this.active, this.queued, rejected);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Scheduled(initialDelayString = "${dms.admission.adaptive-interval:PT5S}",
+      fixedDelayString = "${dms.admission.adaptive-interval:PT5S}")
+  public void adapt() {
+    final Timer inserts = this.meterRegistry.find(GridFsWriter.INSERT_TIMER).timer();
+    if (!this.admissionProperties.adaptive() || inserts == null) {
+      return;
+    }
+
+    final long count = inserts.count();
+    final double nanos = inserts.totalTime(TimeUnit.NANOSECONDS);
+    final long recentCount = count - this.insertCount;
+    final double meanNanos = recentCount > 0 ? (nanos - this.insertNanos) / recentCount : 0;
+    this.insertCount = count;
+    this.insertNanos = nanos;
+
+    this.lock.lock();
+    try {
+      final int previous = this.limit;
+      this.limit = meanNanos > this.admissionProperties.targetLatency().toNanos()
+          ? Math.max(this.admissionProperties.minConcurrent(), previous * 3 / 4)
+          : Math.min(this.admissionProperties.maxConcurrent(), previous + 1);
+      if (this.limit != previous) {
+        LOGGER.info("Admitting {} uploads at a time, chunk inserts took {}ms", this.limit,
+            TimeUnit.NANOSECONDS.toMillis((long) meanNanos));
+        this.released.signalAll();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private boolean hasSlot(final String user) {
+    return this.active < this.limit && this.userSlots.getOrDefault(user, 0)
+        < this.admissionProperties.maxConcurrentPerUser();
+  }
+
+  private void awaitSlot(final String user) {
+    if (this.queued >= this.admissionProperties.maxQueued()) {
+      throw this.reject(Reason.QUEUE, this.slotRetryAfter());
+    }
+
+    this.queued++;
+    try {
+      long remaining = this.admissionProperties.maxWait().toNanos();
+      while (!this.hasSlot(user)) {
+        if (remaining <= 0) {
+          throw this.reject(this.active >= this.limit ? Reason.CONCURRENCY
+              : Reason.USER_CONCURRENCY, this.slotRetryAfter());
+        }
+        remaining = this.released.awaitNanos(remaining);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw this.reject(Reason.CONCURRENCY, this.slotRetryAfter());
+    } finally {
+      this.queued--;
+    }
+  }
+
+  private void release(final String user) {
+    this.lock.lock();
+    try {
+      this.active--;
+      this.userSlots.computeIfPresent(user, (key, slots) -> slots > 1 ? slots - 1 : null);
+      this.released.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private ByteBudget userBudget(final String user, final long now) {
+    if (this.userBudgets.size() >= MAX_USER_BUDGETS) {
+      this.userBudgets.values().removeIf(userBudget -> userBudget.full(now));
+    }
+    return this.userBudgets.computeIfAbsent(user, key -> new ByteBudget(
+        this.admissionProperties.bytesPerSecondPerUser().toBytes(),
+        this.admissionProperties.burst().toBytes()));
+  }
+
+  private void checkBudget(final ByteBudget byteBudget, final long now, final Reason reason) {
+    final Duration wait = byteBudget.wait(now);
+    if (!wait.isZero()) {
+      throw this.reject(reason, wait);
+    }
+  }
+
+  private Duration slotRetryAfter() {
+    final Duration maxWait = this.admissionProperties.maxWait();
+    return maxWait.compareTo(MIN_RETRY_AFTER) > 0 ? maxWait : MIN_RETRY_AFTER;
+  }
+
+  private UploadRejectedException reject(final Reason reason, final Duration retryAfter) {
+    this.rejectedCounters.get(reason).increment();
+    return new UploadRejectedException(reason.tag(), retryAfter);
+  }
+
+  /**
+   * A slot held by an admitted upload, given back once closed.
+   */
+  public interface Permit extends AutoCloseable {
+
+    @Override
+    void close();
+  }
+
+  /**
+   * Load and shedding of uploads, as reported by the {@code admission} actuator endpoint.
+   */
+  public record State(int limit, int active, int queued, Map<String, Double> rejected) {
+
+  }
+
+  private enum Reason {
+    CONCURRENCY,
+    USER_CONCURRENCY,
+    QUEUE,
+    BYTES,
+    USER_BYTES,
+    LENGTH;
+
+    String tag() {
+      return this.name().toLowerCase(Locale.ROOT).replace('_', '.');
+    }
+  }
+
+  private final class UserPermit implements Permit {
+
+    private final String user;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private UserPermit(final String user) {
+      this.user = user;
+    }
+
+    @Override
+    public void close() {
+      if (this.closed.compareAndSet(false, true)) {
+        UploadAdmission.this.release(this.user);
+      }
+    }
+  }
+
+  /**
+   * Bytes admitted at {@code rate} per second with bursts of up to {@code capacity}. An upload is
+   * admitted while any budget is left and may take it below zero, so uploads larger than the
+   * burst still pass once the budget refilled. A rate of zero admits everything.
+   */
+  private static final class ByteBudget {
+
+    private final long rate;
+    private final long capacity;
+    private double available;
+    private long refilledAt = System.nanoTime();
+
+    private ByteBudget(final long rate, final long capacity) {
+      this.rate = rate;
+      this.capacity = capacity;
+      this.available = capacity;
+    }
+
+    Duration wait(final long now) {
+      if (this.rate <= 0) {
+        return Duration.ZERO;
+      }
+      this.refill(now);
+      if (this.available > 0) {
+        return Duration.ZERO;
+      }
+      final long seconds = (long) Math.ceil(-this.available / this.rate);
+      return Duration.ofSeconds(Math.max(1, seconds));
+    }
+
+    void take(final long bytes) {
+      if (this.rate > 0) {
+        this.available -= bytes;
+      }
+    }
+
+    boolean full(final long now) {
+      this.refill(now);
+      return this.available >= this.capacity;
+    }
+
+    private void refill(final long now) {
+      this.available = Math.min(this.capacity,
+          this.available + (now - this.refilledAt) * this.rate / 1e9);
+      this.refilledAt = now;
+    }
+  }
+}
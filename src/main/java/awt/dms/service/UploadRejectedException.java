@@ -0,0 +1,23 @@
+package awt.dms.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown instead of admitting an upload beyond the limits of {@link UploadAdmission}.
+ */
+public class UploadRejectedException extends RuntimeException {
+
+  private final transient Duration retryAfter;
+
+  public UploadRejectedException(final String reason, final Duration retryAfter) {
+    super("Upload rejected: " + reason);
+    this.retryAfter = retryAfter;
+  }
+
+  /**
+   * Returns how long the client should wait before trying again.
+   */
+  public Duration retryAfter() {
+    return this.retryAfter;
+  }
+}
@@ -0,0 +1,12 @@
+package awt.dms.service;
+
+/**
+ * Thrown once an upload exceeds {@code dms.upload.max-size}. Unchecked so that the writers abort
+ * the upload and remove the chunks already written.
+ */
+public class UploadTooLargeException extends RuntimeException {
+
+  public UploadTooLargeException(final long maxSize) {
+    super("Upload exceeds " + maxSize + " bytes");
+  }
+}
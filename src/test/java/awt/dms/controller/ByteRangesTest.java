@@ -0,0 +1,45 @@
+package awt.dms.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpRange;
+
+class ByteRangesTest {
+
+  private static final long LENGTH = 12;
+
+  @Test
+  void given_range_starting_at_length_when_evaluating_then_throw() {
+    assertThatIllegalArgumentException().isThrownBy(() -> requested("bytes=12-"));
+  }
+
+  @Test
+  void given_range_starting_past_length_when_evaluating_then_throw() {
+    assertThatIllegalArgumentException().isThrownBy(() -> requested("bytes=100-"));
+    assertThatIllegalArgumentException().isThrownBy(() -> requested("bytes=0-1,100-200"));
+  }
+
+  @Test
+  void given_suffix_range_longer_than_document_when_evaluating_then_serve_whole_document() {
+    final List<HttpRange> ranges = requested("bytes=-100");
+
+    assertThat(ranges).hasSize(1);
+    assertThat(ranges.get(0).getRangeStart(LENGTH)).isZero();
+    assertThat(ranges.get(0).getRangeEnd(LENGTH)).isEqualTo(LENGTH - 1);
+  }
+
+  @Test
+  void given_range_ending_past_length_when_evaluating_then_end_at_last_byte() {
+    final List<HttpRange> ranges = requested("bytes=4-100");
+
+    assertThat(ranges.get(0).getRangeStart(LENGTH)).isEqualTo(4);
+    assertThat(ranges.get(0).getRangeEnd(LENGTH)).isEqualTo(LENGTH - 1);
+  }
+
+  private static List<HttpRange> requested(final String range) {
+    return ByteRanges.requested(range, null, null, 0, LENGTH);
+  }
+}
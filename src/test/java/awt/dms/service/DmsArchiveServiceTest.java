@@ -0,0 +1,163 @@
+package awt.dms.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.ArchiveProperties;
+import awt.dms.config.PartitionProperties;
+import awt.dms.config.PartitionProperties.Strategy;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.GridFSFindIterable;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.util.MimeType;
+import org.springframework.util.unit.DataSize;
+
+@ExtendWith(MockitoExtension.class)
+class DmsArchiveServiceTest {
+
+  private static final ArchiveProperties ARCHIVE_PROPERTIES = new ArchiveProperties(2,
+      DataSize.ofBytes(4), List.of(MimeType.valueOf("image/*")));
+
+  private static final PartitionProperties PARTITION_PROPERTIES = new PartitionProperties(
+      Strategy.EXPLICIT, List.of(), Map.of(), Duration.ofSeconds(10), 1000, 100,
+      Duration.ofHours(1));
+
+  @Mock
+  private GridFsTemplate gridFsTemplateMock;
+
+  @Mock
+  private GridFSFindIterable findIterableMock;
+
+  @Mock
+  private MongoCursor<GridFSFile> cursorMock;
+
+  @Mock
+  private DmsService dmsServiceMock;
+
+  private DmsArchiveService dmsArchiveService;
+
+  @BeforeEach
+  void setUp() {
+    when(this.gridFsTemplateMock.find(any(Query.class))).thenReturn(this.findIterableMock);
+    when(this.findIterableMock.iterator()).thenReturn(this.cursorMock);
+    this.dmsArchiveService = new DmsArchiveService(
+        new DocumentPartitions(this.gridFsTemplateMock, null, null, PARTITION_PROPERTIES),
+        this.dmsServiceMock, ARCHIVE_PROPERTIES, new TaskExecutorAdapter(new SyncTaskExecutor()));
+  }
+
+  @Test
+  void given_files_when_writing_then_add_decoded_entries_with_unique_names() throws IOException {
+    final GridFSFile plain = file("a.txt", "text/plain", new Document());
+    final GridFSFile compressed = file("a.txt", "text/plain",
+        new Document(DocumentMetadata.CONTENT_ENCODING_KEY, "gzip"));
+    final GridFSFile image = file("dir/b.png", "image/png", new Document());
+    this.files(plain, compressed, image);
+    this.content(plain, "Some content".getBytes(UTF_8));
+    this.content(compressed, gzip("Compressed content"));
+    this.content(image, "png".getBytes(UTF_8));
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    this.dmsArchiveService.write(Set.of(new ObjectId()), out);
+
+    assertThat(entries(out.toByteArray())).containsExactly(
+        Map.entry("a.txt", "Some content"),
+        Map.entry("a (1).txt", "Compressed content"),
+        Map.entry("dir_b.png", "png"));
+  }
+
+  @Test
+  void given_unreadable_file_when_writing_then_fail_and_close_cursor() throws IOException {
+    final GridFSFile file = file("a.txt", "text/plain", new Document());
+    this.files(file);
+    when(this.dmsServiceMock.getResource(file)).thenThrow(new IllegalStateException("Unknown"));
+
+    assertThatThrownBy(() -> this.dmsArchiveService.write("someone", Map.of(),
+        new ByteArrayOutputStream()))
+        .isInstanceOf(IOException.class)
+        .hasCauseInstanceOf(IllegalStateException.class);
+    verify(this.cursorMock).close();
+  }
+
+  @Test
+  void given_file_with_blank_name_when_naming_entry_then_use_object_id() {
+    final GridFSFile file = file(" ", "text/plain", new Document());
+
+    assertThat(DmsArchiveService.entryName(file, new HashSet<>()))
+        .isEqualTo(file.getObjectId().toString());
+  }
+
+  private void files(final GridFSFile... files) {
+    final Boolean[] more = new Boolean[files.length];
+    Arrays.fill(more, Boolean.TRUE);
+    more[files.length - 1] = Boolean.FALSE;
+    when(this.cursorMock.hasNext()).thenReturn(true, more);
+    if (files.length == 1) {
+      when(this.cursorMock.next()).thenReturn(files[0]);
+    } else {
+      when(this.cursorMock.next()).thenReturn(files[0],
+          Arrays.copyOfRange(files, 1, files.length));
+    }
+  }
+
+  private void content(final GridFSFile file, final byte[] content) {
+    final InputStream stream = new ByteArrayInputStream(content);
+    when(this.dmsServiceMock.getResource(file)).thenReturn(new GridFsResource(file, stream));
+  }
+
+  private static GridFSFile file(final String filename, final String contentType,
+      final Document metadata) {
+    return new GridFSFile(new BsonObjectId(), filename, 10, GridFsWriter.DEFAULT_CHUNK_SIZE,
+        new Date(), metadata.append("_contentType", contentType));
+  }
+
+  private static byte[] gzip(final String content) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(content.getBytes(UTF_8));
+    }
+    return out.toByteArray();
+  }
+
+  private static Map<String, String> entries(final byte[] archive) throws IOException {
+    final Map<String, String> entries = new LinkedHashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        entries.put(entry.getName(), new String(zip.readAllBytes(), UTF_8));
+      }
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,138 @@
+package awt.dms.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyMap;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.BatchProperties;
+import awt.dms.config.DocumentCacheProperties;
+import awt.dms.config.PartitionProperties;
+import awt.dms.config.PartitionProperties.Strategy;
+import awt.dms.service.DmsBatchService.UploadResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.unit.DataSize;
+
+@ExtendWith(MockitoExtension.class)
+class DmsBatchServiceTest {
+
+  private static final DocumentCacheProperties CACHE_PROPERTIES = new DocumentCacheProperties(
+      false, 10, DataSize.ofKilobytes(1), DataSize.ofKilobytes(10), Duration.ofMinutes(1),
+      Duration.ofMinutes(1));
+
+  private static final PartitionProperties PARTITION_PROPERTIES = new PartitionProperties(
+      Strategy.EXPLICIT, List.of(), Map.of(), Duration.ofSeconds(10), 1000, 100,
+      Duration.ofHours(1));
+
+  @Mock
+  private DmsService dmsServiceMock;
+
+  @Mock
+  private MongoOperations mongoOperationsMock;
+
+  @Mock
+  private Outbox outboxMock;
+
+  @Mock
+  private StorageUsage storageUsageMock;
+
+  @Captor
+  private ArgumentCaptor<FileDeleted> payloadCaptor;
+
+  @Captor
+  private ArgumentCaptor<UpdateDefinition> updateCaptor;
+
+  private DmsBatchService dmsBatchService;
+
+  @BeforeEach
+  void setUp() {
+    this.dmsBatchService = new DmsBatchService(this.dmsServiceMock,
+        new DocumentPartitions(null, null, this.mongoOperationsMock, PARTITION_PROPERTIES),
+        this.mongoOperationsMock, this.outboxMock, TransactionOperations.withoutTransaction(),
+        new DocumentCache(CACHE_PROPERTIES, new SimpleMeterRegistry()), this.storageUsageMock,
+        new BatchProperties(2, 10), new TaskExecutorAdapter(new SyncTaskExecutor()));
+  }
+
+  @Test
+  void given_files_when_one_upload_fails_then_report_each_in_order() throws IOException {
+    final MockMultipartFile first = new MockMultipartFile("file", "first.txt", "text/plain",
+        "first".getBytes(UTF_8));
+    final MockMultipartFile second = new MockMultipartFile("file", "second.txt", "text/plain",
+        "second".getBytes(UTF_8));
+    final MockMultipartFile third = new MockMultipartFile("file", "third.txt", "text/plain",
+        "third".getBytes(UTF_8));
+    final ObjectId firstId = new ObjectId();
+    final ObjectId thirdId = new ObjectId();
+    when(this.dmsServiceMock.upload(eq(first), anyMap())).thenReturn(firstId);
+    when(this.dmsServiceMock.upload(eq(second), anyMap())).thenThrow(IOException.class);
+    when(this.dmsServiceMock.upload(eq(third), anyMap())).thenReturn(thirdId);
+
+    final List<UploadResult> results = this.dmsBatchService.upload(
+        List.of(first, second, third), Map.of());
+
+    assertThat(results).extracting(UploadResult::filename)
+        .containsExactly("first.txt", "second.txt", "third.txt");
+    assertThat(results).extracting(UploadResult::objectId)
+        .containsExactly(firstId, null, thirdId);
+    assertThat(results.get(1).failure()).isInstanceOf(IOException.class);
+  }
+
+  @Test
+  void given_ids_when_deleting_then_mark_all_with_one_update_and_one_event() {
+    final ObjectId firstId = new ObjectId();
+    final ObjectId secondId = new ObjectId();
+    final List<Document> files = List.of(new Document("_id", firstId),
+        new Document("_id", secondId));
+    when(this.mongoOperationsMock.find(any(Query.class), eq(Document.class),
+        eq(GridFsCollections.FILES))).thenReturn(files);
+
+    final List<ObjectId> deleted = this.dmsBatchService.delete(Set.of(firstId, secondId));
+
+    assertThat(deleted).containsExactly(firstId, secondId);
+    verify(this.mongoOperationsMock).updateMulti(any(Query.class),
+        this.updateCaptor.capture(), eq(GridFsCollections.FILES));
+    assertThat(this.updateCaptor.getValue().modifies("metadata._deletedAt")).isTrue();
+    verify(this.mongoOperationsMock, never()).remove(any(Query.class), anyString());
+    verify(this.storageUsageMock).subtract(files);
+    verify(this.outboxMock).append(eq("file-deleted-out-0"), this.payloadCaptor.capture());
+    assertThat(this.payloadCaptor.getValue().objectIds())
+        .containsExactly(firstId.toString(), secondId.toString());
+  }
+
+  @Test
+  void given_no_matching_files_when_deleting_then_write_no_event() {
+    when(this.mongoOperationsMock.find(any(Query.class), eq(Document.class),
+        eq(GridFsCollections.FILES))).thenReturn(List.of());
+
+    assertThat(this.dmsBatchService.delete(Set.of(new ObjectId()))).isEmpty();
+    verify(this.outboxMock, never()).append(any(), any());
+    verify(this.mongoOperationsMock, never()).updateMulti(any(Query.class),
+        any(UpdateDefinition.class), anyString());
+  }
+}
@@ -2,36 +2,77 @@ package awt.dms.service;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.isNull;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import awt.dms.config.BlobTierProperties;
+import awt.dms.config.CompressionProperties;
+import awt.dms.config.DocumentCacheProperties;
+import awt.dms.config.PartitionProperties;
+import awt.dms.config.PartitionProperties.Strategy;
+import awt.dms.config.UploadProperties;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.bson.BsonObjectId;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
 import org.springframework.data.mongodb.gridfs.GridFsResource;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.MimeType;
+import org.springframework.util.unit.DataSize;
 
 @ExtendWith(MockitoExtension.class)
 class DmsServiceTest {
 
+  private static final UploadProperties UPLOAD_PROPERTIES = new UploadProperties(
+      DataSize.ofBytes(16));
+
+  private static final CompressionProperties COMPRESSION_PROPERTIES = new CompressionProperties(
+      true, List.of(MimeType.valueOf("text/*")));
+
+  private static final DocumentCacheProperties CACHE_PROPERTIES = new DocumentCacheProperties(
+      false, 10, DataSize.ofKilobytes(1), DataSize.ofKilobytes(10), Duration.ofMinutes(1),
+      Duration.ofMinutes(1));
+
+  private static final PartitionProperties PARTITION_PROPERTIES = new PartitionProperties(
+      Strategy.EXPLICIT, List.of(), Map.of(), Duration.ofSeconds(10), 1000, 100,
+      Duration.ofHours(1));
+
   private static final MockMultipartFile MULTIPART_FILE_MOCK = new MockMultipartFile("file",
       "originalFileName", "text/plain",
       "Some content".getBytes(UTF_8));
@@ -40,10 +81,10 @@ class DmsServiceTest {
   private GridFsTemplate gridFsTemplateMock;
 
   @Mock
-  private GridFsResource gridFsResourceMock;
+  private MongoOperations mongoOperationsMock;
 
   @Mock
-  private StreamBridge streamBridgeMock;
+  private EventPublisher eventPublisherMock;
 
   @Mock
   private GridFSFile gridFSFileMock;
@@ -52,17 +93,37 @@ class DmsServiceTest {
   private ObjectId objectIdMock;
 
   @Mock
-  private ObjectMapper objectMapperMock;
+  private GridFsChunkReader gridFsChunkReaderMock;
+
+  @Mock
+  private GridFsWriter gridFsWriterMock;
+
+  @Mock
+  private Outbox outboxMock;
 
   @Mock
-  private ObjectNode objectNodeMock;
+  private StorageUsage storageUsageMock;
+
+  @TempDir
+  private Path blobRoot;
 
   private DmsService dmsService;
 
   @BeforeEach
   void setUp() {
-    this.dmsService = new DmsService(this.gridFsTemplateMock, this.streamBridgeMock,
-        this.objectMapperMock);
+    final BlobStores blobStores = new BlobStores(List.of(
+        new GridFsBlobStore(this.gridFsChunkReaderMock, this.gridFsWriterMock),
+        new FileSystemBlobStore(new BlobTierProperties(this.blobRoot, false,
+            DataSize.ofMegabytes(16), 10, Duration.ofHours(2)))));
+    this.dmsService = new DmsService(
+        new DocumentPartitions(this.gridFsTemplateMock, null, this.mongoOperationsMock,
+            PARTITION_PROPERTIES), this.mongoOperationsMock,
+        this.eventPublisherMock, UPLOAD_PROPERTIES, blobStores, this.gridFsWriterMock,
+        this.outboxMock,
+        TransactionOperations.withoutTransaction(), COMPRESSION_PROPERTIES,
+        new DocumentCache(CACHE_PROPERTIES, new SimpleMeterRegistry()),
+        new SimpleMeterRegistry(), ObservationRegistry.NOOP,
+        new TransferMetrics(new SimpleMeterRegistry()), this.storageUsageMock);
   }
 
   @Test
@@ -72,43 +133,143 @@ class DmsServiceTest {
     final Optional<GridFsResource> optional = this.dmsService.findOne(this.objectIdMock);
 
     assertThat(optional).isEqualTo(Optional.empty());
-    verifyNoInteractions(this.streamBridgeMock);
+    verifyNoInteractions(this.eventPublisherMock);
   }
 
   @Test
-  void given_valid_object_id_when_file_found_then_return_optional() {
-    mockRabbitMessageBuilder();
-
+  void given_valid_object_id_when_file_found_then_return_optional() throws IOException {
+    final InputStream content = new ByteArrayInputStream(new byte[0]);
     when(objectIdMock.toString()).thenReturn("123");
     when(this.gridFSFileMock.getObjectId()).thenReturn(objectIdMock);
     when(this.gridFSFileMock.getFilename()).thenReturn("filename");
     when(this.gridFsTemplateMock.findOne(any(Query.class))).thenReturn(this.gridFSFileMock);
-    when(this.gridFsTemplateMock.getResource(this.gridFSFileMock)).thenReturn(
-        this.gridFsResourceMock);
+    when(this.gridFsChunkReaderMock.open(this.gridFSFileMock)).thenReturn(content);
 
     final Optional<GridFsResource> optional = this.dmsService.findOne(any(ObjectId.class));
 
-    assertThat(optional).isEqualTo(Optional.of(this.gridFsResourceMock));
-    verify(this.streamBridgeMock).send(anyString(), any());
+    assertThat(optional).isPresent();
+    assertThat(optional.get().getInputStream()).isSameAs(content);
+    verify(this.eventPublisherMock).publishCoalesced(anyString(), any(), any());
   }
 
   @Test
   void given_upload_feature_enabled_when_uploading_file_then_return_object_id() throws IOException {
-    mockRabbitMessageBuilder();
-
-    when(this.gridFsTemplateMock.store(any(InputStream.class),
+    when(this.gridFSFileMock.getObjectId()).thenReturn(this.objectIdMock);
+    when(this.gridFsWriterMock.write(any(InputStream.class), eq(MULTIPART_FILE_MOCK.getSize()),
         eq(MULTIPART_FILE_MOCK.getOriginalFilename()),
         eq(MULTIPART_FILE_MOCK.getContentType()),
-        any(Document.class)))
-        .thenReturn(this.objectIdMock);
+        any(Document.class), eq(ContentEncoding.GZIP), any()))
+        .thenAnswer(invocation -> {
+          invocation.getArgument(0, InputStream.class).readAllBytes();
+          invocation.<Consumer<GridFSFile>>getArgument(6).accept(this.gridFSFileMock);
+          return this.gridFSFileMock;
+        });
 
     assertThat(this.dmsService.upload(MULTIPART_FILE_MOCK, Collections.emptyMap())).isEqualTo(
         this.objectIdMock);
-    verify(this.streamBridgeMock).send(anyString(), any());
+    verify(this.outboxMock).append(anyString(), any());
+    verifyNoInteractions(this.eventPublisherMock);
+  }
+
+  @Test
+  void given_stream_above_size_limit_when_uploading_then_throw_upload_too_large()
+      throws IOException {
+    when(this.gridFsWriterMock.write(any(InputStream.class), eq(-1L), anyString(), anyString(),
+        any(Document.class), isNull(), any()))
+        .thenAnswer(invocation -> {
+          invocation.getArgument(0, InputStream.class).readAllBytes();
+          return this.gridFSFileMock;
+        });
+
+    assertThatExceptionOfType(UploadTooLargeException.class).isThrownBy(
+        () -> this.dmsService.upload(new ByteArrayInputStream(new byte[17]), -1, "filename",
+            "application/octet-stream", Collections.emptyMap()));
+    verifyNoInteractions(this.outboxMock, this.eventPublisherMock);
+  }
+
+  @Test
+  void given_object_id_when_deleting_then_mark_file_and_append_event_without_removing() {
+    final ObjectId objectId = new ObjectId();
+    final Document file = new Document("_id", objectId).append("length", 12L)
+        .append("metadata", new Document("user", "user"));
+    when(this.mongoOperationsMock.findAndModify(any(Query.class),
+        argThat(update -> update.modifies("metadata._deletedAt")), eq(Document.class),
+        eq(GridFsCollections.FILES))).thenReturn(file);
+
+    this.dmsService.delete(objectId);
+
+    final InOrder inOrder = inOrder(this.storageUsageMock, this.outboxMock);
+    inOrder.verify(this.storageUsageMock).subtract(List.of(file));
+    inOrder.verify(this.outboxMock).append(anyString(), eq(FileDeleted.of(objectId)));
+    verify(this.mongoOperationsMock, never()).findAndRemove(any(Query.class), any(), anyString());
+    verifyNoInteractions(this.gridFsWriterMock, this.eventPublisherMock);
+  }
+
+  @Test
+  void given_purged_file_when_restoring_then_report_not_restored() {
+    final ObjectId objectId = new ObjectId();
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(UpdateDefinition.class),
+        eq(Document.class), eq(GridFsCollections.FILES))).thenReturn(null);
+
+    assertThat(this.dmsService.restore(objectId)).isFalse();
+    verifyNoInteractions(this.storageUsageMock);
   }
 
-  private void mockRabbitMessageBuilder() {
-    when(this.objectMapperMock.createObjectNode()).thenReturn(this.objectNodeMock);
-    when(this.objectNodeMock.put(anyString(), anyString())).thenReturn(this.objectNodeMock);
+  @Test
+  void given_file_sharing_content_when_getting_resource_then_read_owner_chunks()
+      throws IOException {
+    final ObjectId owner = new ObjectId();
+    final GridFSFile file = new GridFSFile(new BsonObjectId(new ObjectId()), "filename", 10,
+        GridFsWriter.DEFAULT_CHUNK_SIZE, new Date(),
+        new Document(DocumentMetadata.BLOB_KEY, owner).append("_contentType", "text/plain"));
+    when(this.gridFsChunkReaderMock.open(any(GridFSFile.class)))
+        .thenReturn(new ByteArrayInputStream(new byte[0]));
+
+    this.dmsService.getResource(file);
+
+    verify(this.gridFsChunkReaderMock).open(argThat(read ->
+        read.getObjectId().equals(owner) && read.getFilename().equals("filename")));
   }
-}
+
+  @Test
+  void given_file_in_filesystem_tier_when_opening_range_then_read_local_file() throws IOException {
+    final ObjectId objectId = new ObjectId();
+    final GridFSFile file = new GridFSFile(new BsonObjectId(objectId), "filename", 12,
+        GridFsWriter.DEFAULT_CHUNK_SIZE, new Date(),
+        new Document(DocumentMetadata.TIER_KEY, "fs"));
+    final Path path = this.dmsService.localFile(file).orElseThrow();
+    Files.createDirectories(path.getParent());
+    Files.write(path, "Some content".getBytes(UTF_8));
+
+    try (InputStream content = this.dmsService.openRange(file, 5, 11)) {
+      assertThat(content).hasContent("content");
+    }
+    verifyNoInteractions(this.gridFsChunkReaderMock, this.gridFsTemplateMock);
+  }
+
+  @Test
+  void given_file_in_gridfs_when_asking_for_local_file_then_return_empty() {
+    final GridFSFile file = new GridFSFile(new BsonObjectId(new ObjectId()), "filename", 12,
+        GridFsWriter.DEFAULT_CHUNK_SIZE, new Date(), new Document());
+
+    assertThat(this.dmsService.localFile(file)).isEmpty();
+  }
+
+  @Test
+  void given_files_when_finding_page_then_return_projected_summaries() {
+    final ObjectId objectId = new ObjectId();
+    final Date uploadDate = new Date();
+    when(this.mongoOperationsMock.stream(any(Query.class), eq(Document.class),
+        eq(GridFsCollections.FILES)))
+        .thenReturn(Stream.of(new Document("_id", objectId)
+            .append("filename", "filename")
+            .append("uploadDate", uploadDate)
+            .append("metadata", new Document("_contentType", "text/plain"))));
+
+    try (Stream<DocumentSummary> page = this.dmsService.findPage("user", null, 10)) {
+      assertThat(page).containsExactly(
+          new DocumentSummary(objectId, "filename", "text/plain", uploadDate,
+              new PageCursor(SearchFilter.UPLOAD_DATE_FIELD, uploadDate.getTime(), objectId)));
+    }
+    verifyNoInteractions(this.gridFsTemplateMock, this.eventPublisherMock);
+  }}
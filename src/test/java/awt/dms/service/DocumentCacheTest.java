@@ -0,0 +1,106 @@
+package awt.dms.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import awt.dms.config.DocumentCacheProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.BsonObjectId;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+class DocumentCacheTest {
+
+  private static final DocumentCacheProperties PROPERTIES = new DocumentCacheProperties(true,
+      10, DataSize.ofBytes(16), DataSize.ofKilobytes(1), Duration.ofMinutes(1),
+      Duration.ofMinutes(1));
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final DocumentCache documentCache = new DocumentCache(PROPERTIES, this.meterRegistry);
+
+  @Test
+  void given_cached_file_when_finding_again_then_do_not_load() {
+    final GridFSFile file = file(10);
+    final AtomicInteger loads = new AtomicInteger();
+
+    this.documentCache.file(file.getObjectId(), id -> {
+      loads.incrementAndGet();
+      return Optional.of(file);
+    });
+    final Optional<GridFSFile> cached = this.documentCache.file(file.getObjectId(), id -> {
+      loads.incrementAndGet();
+      return Optional.of(file);
+    });
+
+    assertThat(cached).hasValue(file);
+    assertThat(loads).hasValue(1);
+    assertThat(this.meterRegistry.get("cache.gets").tag("cache", "dms.documents.files")
+        .tag("result", "hit").functionCounter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void given_missing_file_when_finding_then_do_not_cache_absence() {
+    final ObjectId objectId = new ObjectId();
+    final AtomicInteger loads = new AtomicInteger();
+
+    this.documentCache.file(objectId, id -> {
+      loads.incrementAndGet();
+      return Optional.empty();
+    });
+    this.documentCache.file(objectId, id -> {
+      loads.incrementAndGet();
+      return Optional.empty();
+    });
+
+    assertThat(loads).hasValue(2);
+  }
+
+  @Test
+  void given_file_above_max_content_size_when_putting_content_then_skip() {
+    final GridFSFile small = file(16);
+    final GridFSFile large = file(17);
+
+    this.documentCache.putContent(small, new byte[16]);
+    this.documentCache.putContent(large, new byte[17]);
+
+    assertThat(this.documentCache.content(small)).isPresent();
+    assertThat(this.documentCache.content(large)).isEmpty();
+  }
+
+  @Test
+  void given_cached_file_when_invalidating_then_drop_entry_and_content() {
+    final GridFSFile file = file(10);
+    this.documentCache.file(file.getObjectId(), id -> Optional.of(file));
+    this.documentCache.putContent(file, new byte[10]);
+
+    this.documentCache.invalidate(file.getObjectId());
+
+    assertThat(this.documentCache.content(file)).isEmpty();
+    assertThat(this.documentCache.file(file.getObjectId(), id -> Optional.empty())).isEmpty();
+  }
+
+  @Test
+  void given_file_invalidated_while_loading_when_finding_then_do_not_cache_loaded_entry() {
+    final GridFSFile file = file(10);
+
+    final Optional<GridFSFile> loaded = this.documentCache.file(file.getObjectId(), id -> {
+      this.documentCache.invalidate(id);
+      return Optional.of(file);
+    });
+
+    assertThat(loaded).hasValue(file);
+    assertThat(this.documentCache.cachedFile(file.getObjectId())).isEmpty();
+  }
+
+  private static GridFSFile file(final long length) {
+    return new GridFSFile(new BsonObjectId(new ObjectId()), "filename", length,
+        GridFsWriter.DEFAULT_CHUNK_SIZE, new Date(), null);
+  }
+}
@@ -0,0 +1,103 @@
+package awt.dms.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.PartitionProperties;
+import awt.dms.config.PartitionProperties.Strategy;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+@ExtendWith(MockitoExtension.class)
+class DocumentPartitionsTest {
+
+  private static final PartitionProperties HASH_PROPERTIES = new PartitionProperties(
+      Strategy.HASH, List.of("a", "b"), Map.of("alice", "b"), Duration.ofSeconds(10), 1000, 100,
+      Duration.ofHours(1));
+
+  @Mock
+  private MongoOperations mongoOperationsMock;
+
+  @Captor
+  private ArgumentCaptor<Update> updateCaptor;
+
+  @Test
+  void given_new_users_when_assigning_then_store_explicit_or_hashed_bucket() {
+    final DocumentPartitions documentPartitions = this.newDocumentPartitions(HASH_PROPERTIES);
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), this.updateCaptor.capture(),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(DocumentPartitions.PARTITIONS)))
+        .thenAnswer(invocation -> new Document(invocation.getArgument(1, Update.class)
+            .getUpdateObject().get("$setOnInsert", Document.class)));
+
+    assertThat(documentPartitions.assign("alice")).isEqualTo("b");
+    final String hashed = documentPartitions.assign("bob");
+
+    assertThat(hashed).isIn(documentPartitions.buckets());
+    assertThat(this.newDocumentPartitions(HASH_PROPERTIES).assign("bob")).isEqualTo(hashed);
+    assertThat(this.updateCaptor.getAllValues()).extracting(update -> update.getUpdateObject()
+            .get("$setOnInsert", Document.class).getString(DocumentPartitions.BUCKET_KEY))
+        .containsExactly("b", hashed, hashed);
+  }
+
+  @Test
+  void given_user_with_documents_before_partitioning_when_assigning_then_keep_default_bucket() {
+    final DocumentPartitions documentPartitions = this.newDocumentPartitions(HASH_PROPERTIES);
+    when(this.mongoOperationsMock.exists(any(Query.class), eq(GridFsCollections.FILES)))
+        .thenReturn(true);
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(Update.class),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(DocumentPartitions.PARTITIONS)))
+        .thenReturn(new Document(DocumentPartitions.BUCKET_KEY, GridFsCollections.DEFAULT_BUCKET));
+
+    assertThat(documentPartitions.assign("alice")).isEqualTo(GridFsCollections.DEFAULT_BUCKET);
+    assertThat(documentPartitions.bucketsOf("alice"))
+        .containsExactly(GridFsCollections.DEFAULT_BUCKET);
+    assertThatIllegalArgumentException().isThrownBy(() -> documentPartitions.checkBucket("c"));
+  }
+
+  @Test
+  void given_moved_document_when_locating_then_read_directory_again() {
+    final DocumentPartitions documentPartitions = this.newDocumentPartitions(HASH_PROPERTIES);
+    final ObjectId objectId = new ObjectId();
+    when(this.mongoOperationsMock.findById(objectId, Document.class, GridFsCollections.DIRECTORY))
+        .thenReturn(new Document(DocumentPartitions.BUCKET_KEY, "a"), (Document) null);
+
+    assertThat(documentPartitions.locate(objectId, bucket -> Optional.of(bucket))).contains("a");
+    assertThat(documentPartitions.locate(objectId, bucket -> "a".equals(bucket)
+        ? Optional.<String>empty() : Optional.of(bucket)))
+        .contains(GridFsCollections.DEFAULT_BUCKET);
+
+    verify(this.mongoOperationsMock, times(2)).findById(objectId, Document.class,
+        GridFsCollections.DIRECTORY);
+  }
+
+  @Test
+  void given_sorted_streams_when_merging_then_keep_order_up_to_limit() {
+    assertThat(DocumentPartitions.merge(List.of(Stream.of(9, 4, 1), Stream.of(8, 7, 2)),
+        Comparator.<Integer>reverseOrder(), 4)).containsExactly(9, 8, 7, 4);
+  }
+
+  private DocumentPartitions newDocumentPartitions(final PartitionProperties properties) {
+    return new DocumentPartitions(null, null, this.mongoOperationsMock, properties);
+  }
+}
@@ -0,0 +1,157 @@
+package awt.dms.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.PartitionProperties;
+import awt.dms.config.PartitionProperties.Strategy;
+import awt.dms.config.ReaperProperties;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.result.DeleteResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.transaction.support.TransactionOperations;
+
+@ExtendWith(MockitoExtension.class)
+class DocumentReaperTest {
+
+  private static final ReaperProperties REAPER_PROPERTIES = new ReaperProperties(true,
+      Duration.ofDays(7), null, null, 10, 256, Integer.MAX_VALUE);
+
+  private static final PartitionProperties PARTITION_PROPERTIES = new PartitionProperties(
+      Strategy.EXPLICIT, List.of(), Map.of(), Duration.ofSeconds(10), 1000, 100,
+      Duration.ofHours(1));
+
+  @Mock
+  private MongoOperations mongoOperationsMock;
+
+  @Mock
+  private DmsService dmsServiceMock;
+
+  @Mock
+  private GridFsWriter gridFsWriterMock;
+
+  @Mock
+  private BlobStore blobStoreMock;
+
+  @Mock
+  private MongoCollection<Document> chunksMock;
+
+  @Captor
+  private ArgumentCaptor<List<Document>> pendingCaptor;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private DocumentReaper documentReaper;
+
+  @BeforeEach
+  void setUp() {
+    when(this.blobStoreMock.tier()).thenReturn(GridFsBlobStore.TIER);
+    this.documentReaper = new DocumentReaper(this.mongoOperationsMock,
+        TransactionOperations.withoutTransaction(), this.dmsServiceMock, this.gridFsWriterMock,
+        new BlobStores(List.of(this.blobStoreMock)),
+        new DocumentPartitions(null, null, this.mongoOperationsMock, PARTITION_PROPERTIES),
+        REAPER_PROPERTIES, this.meterRegistry);
+  }
+
+  @Test
+  void given_expired_files_when_purging_then_record_unreferenced_content() {
+    final ObjectId ownedId = new ObjectId();
+    final ObjectId sharedId = new ObjectId();
+    final ObjectId renditionId = new ObjectId();
+    when(this.mongoOperationsMock.findAllAndRemove(any(Query.class), eq(Document.class),
+        eq(GridFsCollections.FILES))).thenReturn(List.of(
+        new Document("_id", ownedId).append("metadata", new Document()),
+        new Document("_id", sharedId).append("metadata", new Document())));
+    when(this.gridFsWriterMock.release(eq(ownedId), any())).thenReturn(Optional.of(ownedId));
+    when(this.gridFsWriterMock.release(eq(sharedId), any())).thenReturn(Optional.empty());
+    when(this.dmsServiceMock.removeRenditions(GridFsCollections.DEFAULT_BUCKET,
+        List.of(ownedId, sharedId)))
+        .thenReturn(List.of(renditionId));
+
+    assertThat(this.documentReaper.purgeBatch(GridFsCollections.DEFAULT_BUCKET)).isEqualTo(2);
+
+    verify(this.mongoOperationsMock).insert(this.pendingCaptor.capture(),
+        eq(DocumentReaper.PENDING_CONTENTS));
+    assertThat(this.pendingCaptor.getValue()).extracting(pending -> pending.get("_id"))
+        .containsExactly(ownedId, renditionId);
+    assertThat(this.meterRegistry.counter("dms.reaper.purged.files").count()).isEqualTo(2);
+  }
+
+  @Test
+  void given_unlimited_chunk_deletes_when_deleting_then_remove_all_chunks_at_once() {
+    final DocumentReaper unlimited = new DocumentReaper(this.mongoOperationsMock,
+        TransactionOperations.withoutTransaction(), this.dmsServiceMock, this.gridFsWriterMock,
+        new BlobStores(List.of(this.blobStoreMock)),
+        new DocumentPartitions(null, null, this.mongoOperationsMock, PARTITION_PROPERTIES),
+        new ReaperProperties(true, Duration.ofDays(7), null, null, 10, 0, 0),
+        this.meterRegistry);
+    when(this.mongoOperationsMock.find(any(Query.class), eq(Document.class),
+        eq(DocumentReaper.PENDING_CONTENTS)))
+        .thenReturn(List.of(new Document("_id", new ObjectId())), List.of());
+    when(this.mongoOperationsMock.findOne(any(Query.class), eq(Document.class),
+        eq(GridFsCollections.CHUNKS))).thenReturn(new Document("n", 599));
+    when(this.mongoOperationsMock.getCollection(GridFsCollections.CHUNKS))
+        .thenReturn(this.chunksMock);
+    when(this.chunksMock.deleteMany(any(Bson.class))).thenReturn(DeleteResult.acknowledged(600));
+
+    assertThat(unlimited.deleteContents()).isTrue();
+
+    verify(this.chunksMock).deleteMany(any(Bson.class));
+    assertThat(this.meterRegistry.counter("dms.reaper.deleted.chunks").count()).isEqualTo(600);
+  }
+
+  @Test
+  void given_pending_content_when_deleting_then_remove_chunks_in_ranges() {
+    final ObjectId contentId = new ObjectId();
+    when(this.mongoOperationsMock.find(any(Query.class), eq(Document.class),
+        eq(DocumentReaper.PENDING_CONTENTS)))
+        .thenReturn(List.of(new Document("_id", contentId)), List.of());
+    when(this.mongoOperationsMock.findOne(any(Query.class), eq(Document.class),
+        eq(GridFsCollections.CHUNKS))).thenReturn(new Document("n", 599));
+    when(this.mongoOperationsMock.getCollection(GridFsCollections.CHUNKS))
+        .thenReturn(this.chunksMock);
+    when(this.chunksMock.deleteMany(any(Bson.class)))
+        .thenReturn(DeleteResult.acknowledged(256), DeleteResult.acknowledged(256),
+            DeleteResult.acknowledged(88));
+
+    assertThat(this.documentReaper.deleteContents()).isTrue();
+
+    verify(this.chunksMock, times(3)).deleteMany(any(Bson.class));
+    verify(this.blobStoreMock).delete(contentId);
+    verify(this.mongoOperationsMock).remove(any(Query.class),
+        eq(DocumentReaper.PENDING_CONTENTS));
+    assertThat(this.meterRegistry.counter("dms.reaper.deleted.chunks").count()).isEqualTo(600);
+  }
+
+  @Test
+  void given_window_spanning_midnight_when_checking_then_run_only_inside() {
+    final ReaperProperties night = new ReaperProperties(true, Duration.ofDays(7),
+        LocalTime.of(22, 0), LocalTime.of(5, 0), 10, 256, 100);
+
+    assertThat(night.inWindow(LocalTime.of(23, 30))).isTrue();
+    assertThat(night.inWindow(LocalTime.of(4, 59))).isTrue();
+    assertThat(night.inWindow(LocalTime.NOON)).isFalse();
+  }
+}
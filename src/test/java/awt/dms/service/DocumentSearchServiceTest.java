@@ -0,0 +1,126 @@
+package awt.dms.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.PartitionProperties;
+import awt.dms.config.PartitionProperties.Strategy;
+import awt.dms.service.SearchFilter.Operator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+@ExtendWith(MockitoExtension.class)
+class DocumentSearchServiceTest {
+
+  private static final SearchSort NEWEST_FIRST = new SearchSort("uploadDate", Direction.DESC);
+
+  private static final PartitionProperties PARTITION_PROPERTIES = new PartitionProperties(
+      Strategy.EXPLICIT, List.of(), Map.of(), Duration.ofSeconds(10), 1000, 100,
+      Duration.ofHours(1));
+
+  @Mock
+  private MongoOperations mongoOperationsMock;
+
+  @Mock
+  private DocumentIndexes documentIndexesMock;
+
+  @Captor
+  private ArgumentCaptor<Query> queryCaptor;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private DocumentSearchService documentSearchService;
+
+  @BeforeEach
+  void setUp() {
+    this.documentSearchService = new DocumentSearchService(this.mongoOperationsMock,
+        new DocumentPartitions(null, null, this.mongoOperationsMock, PARTITION_PROPERTIES),
+        this.documentIndexesMock, this.meterRegistry);
+  }
+
+  @Test
+  void given_indexed_filter_when_searching_twice_then_explain_shape_once() {
+    when(this.documentIndexesMock.explain(any(Bson.class), any(Bson.class)))
+        .thenReturn(indexScan("metadata.caseNumber"));
+    when(this.mongoOperationsMock.stream(any(Query.class), eq(Document.class),
+        eq(GridFsCollections.FILES))).thenAnswer(invocation -> Stream.empty());
+
+    this.documentSearchService.search(List.of(SearchFilter.parse("metadata.caseNumber:eq:1")),
+        NEWEST_FIRST, null, 10).close();
+    this.documentSearchService.search(List.of(SearchFilter.parse("metadata.caseNumber:eq:2")),
+        NEWEST_FIRST, null, 10).close();
+
+    verify(this.documentIndexesMock, times(1)).explain(any(Bson.class), any(Bson.class));
+    verify(this.mongoOperationsMock, times(2)).stream(this.queryCaptor.capture(),
+        eq(Document.class), eq(GridFsCollections.FILES));
+    assertThat(this.queryCaptor.getValue().getQueryObject().toJson())
+        .contains("\"metadata.caseNumber\": \"2\"", "\"metadata._renditionOf\"");
+    assertThat(this.queryCaptor.getValue().getLimit()).isEqualTo(10);
+  }
+
+  @Test
+  void given_filter_no_index_narrows_when_searching_then_reject_without_running() {
+    when(this.documentIndexesMock.explain(any(Bson.class), any(Bson.class)))
+        .thenReturn(indexScan("uploadDate"));
+
+    assertThatExceptionOfType(UnindexedQueryException.class).isThrownBy(() ->
+        this.documentSearchService.search(List.of(SearchFilter.parse("contentType:prefix:text/")),
+            NEWEST_FIRST, null, 10));
+    verify(this.mongoOperationsMock, never()).stream(any(Query.class), eq(Document.class),
+        any());
+    assertThat(this.meterRegistry.counter("dms.search.rejected").count()).isEqualTo(1);
+  }
+
+  @Test
+  void given_filter_when_parsing_then_type_value_by_field() {
+    final SearchFilter filter = SearchFilter.parse("uploadDate:gte:2024-05-01T10:15:30Z");
+
+    assertThat(filter.operator()).isEqualTo(Operator.GTE);
+    assertThat(filter.criteria().getCriteriaObject().get("uploadDate", Document.class)
+        .get("$gte")).isInstanceOf(Date.class);
+    assertThat(SearchFilter.parse("length:in:1,2").criteria().getCriteriaObject()
+        .get("length", Document.class).getList("$in", Long.class)).containsExactly(1L, 2L);
+    assertThat(SearchFilter.parse("contentType:eq:text/plain").path())
+        .isEqualTo("metadata._contentType");
+  }
+
+  @Test
+  void given_invalid_filters_when_parsing_then_reject() {
+    assertThatIllegalArgumentException().isThrownBy(() -> SearchFilter.parse("filename:eq:a"));
+    assertThatIllegalArgumentException().isThrownBy(
+        () -> SearchFilter.parse("metadata._blob:eq:a"));
+    assertThatIllegalArgumentException().isThrownBy(() -> SearchFilter.parse("length:gt:many"));
+    assertThatIllegalArgumentException().isThrownBy(() -> SearchFilter.parse("length:prefix:1"));
+    assertThatIllegalArgumentException().isThrownBy(() -> SearchSort.parse("-filename"));
+  }
+
+  private static Document indexScan(final String field) {
+    return new Document("queryPlanner", new Document("winningPlan",
+        new Document("stage", "FETCH").append("inputStage", new Document("stage", "IXSCAN")
+            .append("keyPattern", new Document(field, 1).append("_id", -1)))));
+  }
+}
@@ -0,0 +1,161 @@
+package awt.dms.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.EventProperties;
+import awt.dms.config.EventProperties.Overflow;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.core.env.Environment;
+import org.springframework.messaging.Message;
+import org.springframework.mock.env.MockEnvironment;
+
+@ExtendWith(MockitoExtension.class)
+class EventPublisherTest {
+
+  private static final String BINDING_NAME = "file-viewed-out-0";
+
+  @Mock
+  private StreamBridge streamBridgeMock;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private EventPublisher eventPublisher;
+
+  @AfterEach
+  void tearDown() {
+    if (this.eventPublisher.isRunning()) {
+      this.eventPublisher.stop();
+    }
+  }
+
+  @Test
+  void given_started_publisher_when_publishing_then_send_in_background_and_await_confirm() {
+    this.eventPublisher = this.newEventPublisher(Overflow.BLOCK, 10);
+    when(this.streamBridgeMock.send(eq(BINDING_NAME), any(Message.class))).thenAnswer(
+        invocation -> {
+          final Message<?> message = invocation.getArgument(1);
+          message.getHeaders().get(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, CorrelationData.class)
+              .getFuture().complete(new CorrelationData.Confirm(true, null));
+          return true;
+        });
+    this.eventPublisher.start();
+
+    assertThat(this.eventPublisher.publish(BINDING_NAME, "payload")).isTrue();
+
+    verify(this.streamBridgeMock, timeout(1000)).send(eq(BINDING_NAME), any(Message.class));
+  }
+
+  @Test
+  void given_full_queue_when_dropping_then_reject_and_count() {
+    this.eventPublisher = this.newEventPublisher(Overflow.DROP, 1);
+
+    assertThat(this.eventPublisher.publish(BINDING_NAME, "first")).isTrue();
+    assertThat(this.eventPublisher.publish(BINDING_NAME, "second")).isFalse();
+    assertThat(this.meterRegistry.counter("dms.events.dropped").count()).isEqualTo(1);
+    assertThat(this.meterRegistry.get("dms.events.queue.depth").gauge().value()).isEqualTo(1);
+  }
+
+  @Test
+  void given_repeated_view_within_window_when_publishing_then_queue_once() {
+    this.eventPublisher = this.newEventPublisher(Overflow.DROP, 10);
+
+    this.eventPublisher.publishCoalesced(BINDING_NAME, "key", "first");
+    this.eventPublisher.publishCoalesced(BINDING_NAME, "key", "second");
+    this.eventPublisher.publishCoalesced(BINDING_NAME, "other", "third");
+
+    assertThat(this.meterRegistry.get("dms.events.queue.depth").gauge().value()).isEqualTo(2);
+    assertThat(this.meterRegistry.counter("dms.events.coalesced").count()).isEqualTo(1);
+    verifyNoInteractions(this.streamBridgeMock);
+  }
+
+  @Test
+  void given_full_queue_when_publishing_coalesced_then_publish_next_view_again() {
+    this.eventPublisher = this.newEventPublisher(Overflow.DROP, 1);
+
+    this.eventPublisher.publishCoalesced(BINDING_NAME, "key", "first");
+    this.eventPublisher.publishCoalesced(BINDING_NAME, "other", "second");
+    this.eventPublisher.publishCoalesced(BINDING_NAME, "other", "third");
+
+    assertThat(this.meterRegistry.counter("dms.events.dropped").count()).isEqualTo(2);
+    assertThat(this.meterRegistry.counter("dms.events.coalesced").count()).isZero();
+  }
+
+  @Test
+  void given_envelope_binding_when_sending_then_merge_events_into_one_batch() {
+    this.eventPublisher = this.newEventPublisher(Overflow.BLOCK, 10, new MockEnvironment(),
+        Set.of(BINDING_NAME));
+    final List<Object> payloads = new ArrayList<>();
+    when(this.streamBridgeMock.send(eq(BINDING_NAME), any(Message.class))).thenAnswer(
+        invocation -> {
+          final Message<?> message = invocation.getArgument(1);
+          payloads.add(message.getPayload());
+          message.getHeaders().get(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, CorrelationData.class)
+              .getFuture().complete(new CorrelationData.Confirm(true, null));
+          return true;
+        });
+
+    assertThat(this.eventPublisher.sendAndConfirm(List.of(
+        new OutboundEvent(BINDING_NAME, "first"),
+        new OutboundEvent(BINDING_NAME, EventBatch.of(List.of("second", "third")))))).isTrue();
+
+    assertThat(payloads).containsExactly(EventBatch.of(List.of("first", "second", "third")));
+  }
+
+  @Test
+  void given_virtual_threads_enabled_when_started_then_send_on_virtual_thread() {
+    this.eventPublisher = this.newEventPublisher(Overflow.BLOCK, 10,
+        new MockEnvironment().withProperty("spring.threads.virtual.enabled", "true"));
+    final CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+    when(this.streamBridgeMock.send(eq(BINDING_NAME), any(Message.class))).thenAnswer(
+        invocation -> {
+          virtual.complete(Thread.currentThread().isVirtual());
+          final Message<?> message = invocation.getArgument(1);
+          message.getHeaders().get(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, CorrelationData.class)
+              .getFuture().complete(new CorrelationData.Confirm(true, null));
+          return true;
+        });
+    this.eventPublisher.start();
+
+    this.eventPublisher.publish(BINDING_NAME, "payload");
+
+    assertThat(virtual).succeedsWithin(Duration.ofSeconds(1)).isEqualTo(true);
+  }
+
+  private EventPublisher newEventPublisher(final Overflow overflow, final int capacity) {
+    return this.newEventPublisher(overflow, capacity, new MockEnvironment());
+  }
+
+  private EventPublisher newEventPublisher(final Overflow overflow, final int capacity,
+      final Environment environment) {
+    return this.newEventPublisher(overflow, capacity, environment, Set.of());
+  }
+
+  private EventPublisher newEventPublisher(final Overflow overflow, final int capacity,
+      final Environment environment, final Set<String> envelopeBindings) {
+    return new EventPublisher(this.streamBridgeMock, new EventProperties(capacity, 10, overflow,
+        Duration.ofMillis(10), Duration.ofSeconds(1), Duration.ofMinutes(1), 100,
+        envelopeBindings),
+        this.meterRegistry, ObservationRegistry.NOOP, environment);
+  }
+}
@@ -0,0 +1,78 @@
+package awt.dms.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import awt.dms.config.BlobTierProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Date;
+import java.util.stream.Stream;
+import org.bson.BsonObjectId;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class FileSystemBlobStoreTest {
+
+  private static final byte[] CONTENT = "Some content".getBytes(UTF_8);
+
+  @TempDir
+  private Path root;
+
+  private FileSystemBlobStore fileSystemBlobStore;
+
+  @BeforeEach
+  void setUp() {
+    this.fileSystemBlobStore = new FileSystemBlobStore(new BlobTierProperties(this.root, true,
+        DataSize.ofMegabytes(16), 10, Duration.ofHours(2)));
+  }
+
+  @Test
+  void given_content_when_writing_then_store_complete_file_without_temp_file()
+      throws IOException {
+    final ObjectId contentId = new ObjectId();
+
+    final long written = this.fileSystemBlobStore.write(contentId,
+        new ByteArrayInputStream(CONTENT));
+
+    final Path path = this.fileSystemBlobStore.path(contentId);
+    assertThat(written).isEqualTo(CONTENT.length);
+    assertThat(path).startsWith(this.root).hasBinaryContent(CONTENT);
+    try (Stream<Path> siblings = Files.list(path.getParent())) {
+      assertThat(siblings).containsExactly(path);
+    }
+  }
+
+  @Test
+  void given_stored_content_when_opening_range_then_return_only_that_range() throws IOException {
+    final GridFSFile file = this.store();
+
+    try (InputStream content = this.fileSystemBlobStore.open(file, 5, 8)) {
+      assertThat(content).hasContent("cont");
+    }
+  }
+
+  @Test
+  void given_stored_content_when_deleting_then_remove_file() throws IOException {
+    final GridFSFile file = this.store();
+
+    this.fileSystemBlobStore.delete(file.getObjectId());
+
+    assertThat(this.fileSystemBlobStore.path(file.getObjectId())).doesNotExist();
+  }
+
+  private GridFSFile store() throws IOException {
+    final ObjectId contentId = new ObjectId();
+    this.fileSystemBlobStore.write(contentId, new ByteArrayInputStream(CONTENT));
+    return new GridFSFile(new BsonObjectId(contentId), "filename", CONTENT.length,
+        GridFsWriter.DEFAULT_CHUNK_SIZE, new Date(), null);
+  }
+}
@@ -0,0 +1,150 @@
+package awt.dms.service;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lte;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.ChunkProperties;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.util.unit.DataSize;
+
+@ExtendWith(MockitoExtension.class)
+class GridFsChunkReaderTest {
+
+  private static final int CHUNK_SIZE = 256;
+  private static final int LENGTH = 1000;
+  private static final BsonObjectId FILE_ID = new BsonObjectId(new ObjectId());
+  private static final GridFSFile FILE = new GridFSFile(FILE_ID, "filename", LENGTH, CHUNK_SIZE,
+      new Date(), null);
+
+  @Mock
+  private MongoOperations mongoOperationsMock;
+
+  @Mock
+  private MongoCollection<Document> chunksMock;
+
+  @Mock
+  private FindIterable<Document> findIterableMock;
+
+  @Mock
+  private MongoCursor<Document> cursorMock;
+
+  @Captor
+  private ArgumentCaptor<Bson> filterCaptor;
+
+  private GridFsChunkReader gridFsChunkReader;
+
+  @BeforeEach
+  void setUp() {
+    when(this.mongoOperationsMock.getCollection(GridFsCollections.CHUNKS))
+        .thenReturn(this.chunksMock);
+    when(this.chunksMock.find(any(Bson.class))).thenReturn(this.findIterableMock);
+    when(this.findIterableMock.sort(any(Bson.class))).thenReturn(this.findIterableMock);
+    when(this.findIterableMock.iterator()).thenReturn(this.cursorMock);
+    this.gridFsChunkReader = this.newGridFsChunkReader(DataSize.ofMegabytes(4));
+  }
+
+  @Test
+  void given_tail_range_when_opening_then_only_last_chunk_is_queried() throws IOException {
+    when(this.cursorMock.hasNext()).thenReturn(true);
+    when(this.cursorMock.next()).thenReturn(chunk(3));
+
+    try (InputStream content = this.gridFsChunkReader.open(FILE, 900, 999)) {
+      assertThat(content.readAllBytes()).isEqualTo(expected(900, 999));
+    }
+
+    verify(this.chunksMock).find(this.filterCaptor.capture());
+    assertThat(render(this.filterCaptor.getValue())).isEqualTo(
+        render(and(eq("files_id", FILE_ID), gte("n", 3), lte("n", 3))));
+    verify(this.cursorMock).close();
+  }
+
+  @Test
+  void given_range_across_chunks_when_opening_then_covering_chunks_are_read() throws IOException {
+    when(this.cursorMock.hasNext()).thenReturn(true);
+    when(this.cursorMock.next()).thenReturn(chunk(0), chunk(1), chunk(2));
+
+    try (InputStream content = this.gridFsChunkReader.open(FILE, 200, 600)) {
+      assertThat(content.readAllBytes()).isEqualTo(expected(200, 600));
+    }
+
+    verify(this.chunksMock).find(this.filterCaptor.capture());
+    assertThat(render(this.filterCaptor.getValue())).isEqualTo(
+        render(and(eq("files_id", FILE_ID), gte("n", 0), lte("n", 2))));
+  }
+
+  @Test
+  void given_range_larger_than_read_ahead_when_reading_then_query_chunks_window_by_window()
+      throws IOException {
+    this.gridFsChunkReader = this.newGridFsChunkReader(DataSize.ofBytes(2 * CHUNK_SIZE));
+    when(this.cursorMock.hasNext()).thenReturn(true);
+    when(this.cursorMock.next()).thenReturn(chunk(0), chunk(1), chunk(2), chunk(3));
+
+    try (InputStream content = this.gridFsChunkReader.open(FILE)) {
+      assertThat(content.readAllBytes()).isEqualTo(expected(0, LENGTH - 1));
+    }
+
+    verify(this.chunksMock, times(2)).find(this.filterCaptor.capture());
+    assertThat(this.filterCaptor.getAllValues()).extracting(GridFsChunkReaderTest::render)
+        .containsExactly(
+            render(and(eq("files_id", FILE_ID), gte("n", 0), lte("n", 1))),
+            render(and(eq("files_id", FILE_ID), gte("n", 2), lte("n", 3))));
+    verify(this.cursorMock, times(2)).close();
+  }
+
+  private GridFsChunkReader newGridFsChunkReader(final DataSize readAhead) {
+    return new GridFsChunkReader(this.mongoOperationsMock, new ChunkProperties(
+        DataSize.ofKilobytes(255), DataSize.ofMegabytes(4), 128, List.of(),
+        DataSize.ofMegabytes(8), 4, readAhead), new TaskExecutorAdapter(new SyncTaskExecutor()));
+  }
+
+  private static Document chunk(final int n) {
+    final int start = n * CHUNK_SIZE;
+    final int end = Math.min(start + CHUNK_SIZE, LENGTH) - 1;
+    return new Document("files_id", FILE_ID.getValue())
+        .append("n", n)
+        .append("data", new Binary(expected(start, end)));
+  }
+
+  private static byte[] expected(final int start, final int end) {
+    final byte[] bytes = new byte[end - start + 1];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (start + i);
+    }
+    return bytes;
+  }
+
+  private static BsonDocument render(final Bson filter) {
+    return filter.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+  }
+}
@@ -0,0 +1,349 @@
+package awt.dms.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.ChunkProperties;
+import awt.dms.config.PartitionProperties;
+import awt.dms.config.PartitionProperties.Strategy;
+import awt.dms.config.QuotaProperties;
+import awt.dms.config.RetryingTransactionOperations;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.MimeType;
+import org.springframework.util.unit.DataSize;
+
+@ExtendWith(MockitoExtension.class)
+class GridFsWriterTest {
+
+  private static final PartitionProperties PARTITION_PROPERTIES = new PartitionProperties(
+      Strategy.EXPLICIT, List.of(), Map.of(), Duration.ofSeconds(10), 1000, 100,
+      Duration.ofHours(1));
+
+  private static final ChunkProperties CHUNK_PROPERTIES = new ChunkProperties(
+      DataSize.ofKilobytes(255), DataSize.ofMegabytes(4), 128,
+      List.of(MimeType.valueOf("video/*")), DataSize.ofMegabytes(8), 4, DataSize.ofMegabytes(4));
+
+  @Mock
+  private MongoOperations mongoOperationsMock;
+
+  @Mock
+  private MongoCollection<Document> chunksMock;
+
+  @Captor
+  private ArgumentCaptor<Document> documentCaptor;
+
+  @Captor
+  private ArgumentCaptor<List<Document>> chunksCaptor;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private GridFsWriter gridFsWriter;
+
+  @BeforeEach
+  void setUp() {
+    lenient().when(this.mongoOperationsMock.getCollection(GridFsCollections.CHUNKS))
+        .thenReturn(this.chunksMock);
+    this.gridFsWriter = this.newGridFsWriter(CHUNK_PROPERTIES);
+  }
+
+  @Test
+  void given_content_larger_than_chunk_when_writing_then_insert_chunks_and_file_entry()
+      throws IOException {
+    final byte[] content = new byte[GridFsWriter.DEFAULT_CHUNK_SIZE + 10];
+    final AtomicReference<GridFSFile> committed = new AtomicReference<>();
+    this.mockBlobOwnedByWrittenFile();
+
+    final GridFSFile file = this.gridFsWriter.write(new ByteArrayInputStream(content), -1,
+        "filename", "text/plain", new Document("user", "user"), null, committed::set);
+
+    verify(this.chunksMock).insertMany(this.chunksCaptor.capture());
+    final List<Document> chunks = this.chunksCaptor.getValue();
+    assertThat(chunks).extracting(chunk -> chunk.getInteger("n")).containsExactly(0, 1);
+    assertThat(chunks).extracting(chunk -> chunk.get("data", Binary.class).length())
+        .containsExactly(GridFsWriter.DEFAULT_CHUNK_SIZE, 10);
+    assertThat(chunks).extracting(chunk -> chunk.getObjectId("files_id"))
+        .containsOnly(file.getObjectId());
+
+    verify(this.mongoOperationsMock).insert(this.documentCaptor.capture(),
+        eq(GridFsCollections.FILES));
+    final Document entry = this.documentCaptor.getValue();
+    assertThat(entry.getObjectId("_id")).isEqualTo(file.getObjectId());
+    assertThat(entry.getLong("length")).isEqualTo((long) content.length);
+    assertThat(entry.getInteger("chunkSize")).isEqualTo(GridFsWriter.DEFAULT_CHUNK_SIZE);
+    assertThat(entry.get("metadata", Document.class))
+        .containsEntry("user", "user")
+        .containsEntry("_contentType", "text/plain")
+        .containsKey(DocumentMetadata.CONTENT_HASH_KEY)
+        .doesNotContainKey(DocumentMetadata.BLOB_KEY);
+    assertThat(committed).hasValue(file);
+    verify(this.chunksMock, never()).deleteMany(any(Bson.class));
+  }
+
+  @Test
+  void given_content_when_writing_then_record_sha256() throws IOException {
+    this.mockBlobOwnedByWrittenFile();
+    final GridFSFile file = this.gridFsWriter.write(
+        new ByteArrayInputStream("Some content".getBytes(UTF_8)), 12, "filename", "text/plain",
+        new Document(), null, stored -> {
+        });
+
+    assertThat(DocumentMetadata.contentHash(file)).isEqualTo(
+        "9c6609fc5111405ea3f5bb3d1f6b5a5efd19a0cec53d85893fd96d265439cd5b");
+  }
+
+  @Test
+  void given_failing_transaction_when_writing_then_delete_chunks() {
+    this.mockBlobOwnedByWrittenFile();
+    assertThatIllegalStateException().isThrownBy(() -> this.gridFsWriter.write(
+        new ByteArrayInputStream(new byte[10]), 10, "filename", "text/plain", new Document(), null,
+        stored -> {
+          throw new IllegalStateException();
+        }));
+
+    verify(this.chunksMock).deleteMany(any(Bson.class));
+  }
+
+  @Test
+  void given_encoding_when_writing_then_store_encoded_bytes_and_original_length()
+      throws IOException {
+    final byte[] content = "Some content, some content, some content".getBytes(UTF_8);
+    this.mockBlobOwnedByWrittenFile();
+
+    final GridFSFile file = this.gridFsWriter.write(new ByteArrayInputStream(content), -1,
+        "filename", "text/plain", new Document(), ContentEncoding.GZIP, stored -> {
+        });
+
+    verify(this.chunksMock).insertMany(this.chunksCaptor.capture());
+    final byte[] stored = this.chunksCaptor.getValue().get(0).get("data", Binary.class).getData();
+    try (InputStream decoded = ContentEncoding.GZIP.decode(new ByteArrayInputStream(stored))) {
+      assertThat(decoded.readAllBytes()).isEqualTo(content);
+    }
+    assertThat(file.getLength()).isEqualTo(stored.length);
+    assertThat(DocumentMetadata.originalLength(file)).isEqualTo(content.length);
+    assertThat(DocumentMetadata.contentEncoding(file)).hasValue(ContentEncoding.GZIP);
+  }
+
+  @Test
+  void given_stored_content_when_writing_then_refer_to_owner_and_delete_own_chunks()
+      throws IOException {
+    final ObjectId owner = new ObjectId();
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(Update.class),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(GridFsWriter.BLOBS)))
+        .thenReturn(new Document("files_id", owner).append("length", 10L).append("chunkSize", 10)
+            .append("refs", 2));
+
+    final GridFSFile file = this.gridFsWriter.write(new ByteArrayInputStream(new byte[10]), 10,
+        "filename", "text/plain", new Document(), null, stored -> {
+        });
+
+    assertThat(file.getMetadata()).containsEntry(DocumentMetadata.BLOB_KEY, owner);
+    assertThat(DocumentMetadata.contentFile(file).getObjectId()).isEqualTo(owner);
+    verify(this.chunksMock).deleteMany(eq(Filters.eq("files_id", file.getObjectId())));
+    assertThat(this.meterRegistry.get("dms.dedup.uploaded.bytes").counter().count())
+        .isEqualTo(10);
+    assertThat(this.meterRegistry.get("dms.dedup.stored.bytes").counter().count()).isZero();
+  }
+
+  @Test
+  void given_small_content_stored_already_when_writing_then_never_insert_chunks()
+      throws IOException {
+    final ObjectId owner = new ObjectId();
+    when(this.mongoOperationsMock.exists(any(Query.class), eq(GridFsWriter.BLOBS)))
+        .thenReturn(true);
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(Update.class),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(GridFsWriter.BLOBS)))
+        .thenReturn(new Document("files_id", owner).append("length", 10L).append("chunkSize", 10)
+            .append("refs", 2));
+
+    final GridFSFile file = this.gridFsWriter.write(new ByteArrayInputStream(new byte[10]), 10,
+        "filename", "text/plain", new Document(), null, stored -> {
+        });
+
+    assertThat(file.getMetadata()).containsEntry(DocumentMetadata.BLOB_KEY, owner);
+    verify(this.chunksMock, never()).insertMany(any());
+    verify(this.chunksMock, never()).deleteMany(any(Bson.class));
+    assertThat(this.meterRegistry.get("dms.dedup.duplicates").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void given_stored_content_removed_meanwhile_when_writing_then_insert_chunks_after_all()
+      throws IOException {
+    when(this.mongoOperationsMock.exists(any(Query.class), eq(GridFsWriter.BLOBS)))
+        .thenReturn(true);
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(Update.class),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(GridFsWriter.BLOBS)))
+        .thenReturn(null)
+        .thenAnswer(invocation -> new Document(invocation.getArgument(1, Update.class)
+            .getUpdateObject().get("$setOnInsert", Document.class))
+            .append("refs", 1));
+
+    final GridFSFile file = this.gridFsWriter.write(new ByteArrayInputStream(new byte[10]), 10,
+        "filename", "text/plain", new Document(), null, stored -> {
+        });
+
+    assertThat(file.getMetadata()).doesNotContainKey(DocumentMetadata.BLOB_KEY);
+    verify(this.chunksMock).insertMany(any());
+  }
+
+  @Test
+  void given_known_length_when_writing_then_size_chunks_for_it() throws IOException {
+    this.mockBlobOwnedByWrittenFile();
+
+    final GridFSFile small = this.gridFsWriter.write(new ByteArrayInputStream(new byte[1000]),
+        1000, "thumbnail.png", "image/png", new Document(), null, stored -> {
+        });
+    final GridFSFile large = this.gridFsWriter.write(InputStream.nullInputStream(),
+        DataSize.ofMegabytes(256).toBytes(), "scan.tiff", "image/tiff", new Document(), null,
+        stored -> {
+        });
+    final GridFSFile video = this.gridFsWriter.write(InputStream.nullInputStream(), -1,
+        "video.mp4", "video/mp4", new Document(), null, stored -> {
+        });
+
+    assertThat(small.getChunkSize()).isEqualTo(1000);
+    assertThat(large.getChunkSize()).isEqualTo((int) DataSize.ofMegabytes(2).toBytes());
+    assertThat(video.getChunkSize()).isEqualTo((int) DataSize.ofMegabytes(4).toBytes());
+  }
+
+  @Test
+  void given_content_larger_than_batch_when_writing_then_insert_chunks_in_batches()
+      throws IOException {
+    this.gridFsWriter = this.newGridFsWriter(new ChunkProperties(DataSize.ofBytes(100),
+        DataSize.ofBytes(100), 128, List.of(), DataSize.ofBytes(200), 2, DataSize.ofBytes(100)));
+    this.mockBlobOwnedByWrittenFile();
+
+    this.gridFsWriter.write(new ByteArrayInputStream(new byte[550]), 550, "filename",
+        "text/plain", new Document(), null, stored -> {
+        });
+
+    verify(this.chunksMock, times(3)).insertMany(this.chunksCaptor.capture());
+    assertThat(this.chunksCaptor.getAllValues()).extracting(Collection::size)
+        .containsExactly(2, 2, 2);
+    assertThat(this.chunksCaptor.getAllValues()).flatExtracting(chunks -> chunks)
+        .extracting(chunk -> chunk.getInteger("n"))
+        .containsExactly(0, 1, 2, 3, 4, 5);
+  }
+
+  @Test
+  void given_concurrent_uploads_of_same_user_when_usage_conflicts_then_retry_transaction()
+      throws Exception {
+    this.gridFsWriter = new GridFsWriter(this.mongoOperationsMock,
+        new RetryingTransactionOperations(TransactionOperations.withoutTransaction()),
+        CHUNK_PROPERTIES, PARTITION_PROPERTIES, new TaskExecutorAdapter(new SyncTaskExecutor()),
+        this.meterRegistry);
+    final StorageUsage storageUsage = new StorageUsage(this.mongoOperationsMock,
+        new QuotaProperties(true, DataSize.ofKilobytes(1), 10), this.meterRegistry);
+    this.mockBlobOwnedByWrittenFile();
+    final AtomicInteger usageUpdates = new AtomicInteger();
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(Update.class),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(StorageUsage.USAGE)))
+        .thenAnswer(invocation -> {
+          if (usageUpdates.getAndIncrement() == 0) {
+            final MongoException writeConflict = new MongoException(112, "Write conflict");
+            writeConflict.addLabel(MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL);
+            throw new UncategorizedMongoDbException(writeConflict.getMessage(), writeConflict);
+          }
+          return new Document("_id", "user").append("bytes", 20L).append("files", 2L);
+        });
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for (final Future<GridFSFile> upload : executor.invokeAll(List.of(
+          () -> this.upload(storageUsage), () -> this.upload(storageUsage)))) {
+        assertThat(upload.get().getMetadata()).containsEntry("user", "user");
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(usageUpdates).hasValue(3);
+    verify(this.chunksMock, never()).deleteMany(any(Bson.class));
+  }
+
+  @Test
+  void given_last_reference_when_releasing_then_return_owner_chunks() {
+    final ObjectId owner = new ObjectId();
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(Update.class),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(GridFsWriter.BLOBS)))
+        .thenReturn(new Document("files_id", owner).append("refs", 0));
+
+    assertThat(this.gridFsWriter.release(new ObjectId(),
+        new Document(DocumentMetadata.CONTENT_HASH_KEY, "hash")
+            .append(DocumentMetadata.BLOB_KEY, owner)))
+        .hasValue(owner);
+    verify(this.mongoOperationsMock).remove(any(Query.class), eq(GridFsWriter.BLOBS));
+  }
+
+  @Test
+  void given_remaining_references_when_releasing_then_keep_chunks() {
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(Update.class),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(GridFsWriter.BLOBS)))
+        .thenReturn(new Document("files_id", new ObjectId()).append("refs", 1));
+
+    assertThat(this.gridFsWriter.release(new ObjectId(),
+        new Document(DocumentMetadata.CONTENT_HASH_KEY, "hash"))).isEmpty();
+  }
+
+  private GridFsWriter newGridFsWriter(final ChunkProperties chunkProperties) {
+    return new GridFsWriter(this.mongoOperationsMock, TransactionOperations.withoutTransaction(),
+        chunkProperties, PARTITION_PROPERTIES, new TaskExecutorAdapter(new SyncTaskExecutor()),
+        this.meterRegistry);
+  }
+
+  private GridFSFile upload(final StorageUsage storageUsage) throws IOException {
+    return this.gridFsWriter.write(new ByteArrayInputStream(new byte[10]), 10, "filename",
+        "text/plain", new Document("user", "user"), null, storageUsage::recordUpload);
+  }
+
+  private void mockBlobOwnedByWrittenFile() {
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(Update.class),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(GridFsWriter.BLOBS)))
+        .thenAnswer(invocation -> new Document(invocation.getArgument(1, Update.class)
+            .getUpdateObject().get("$setOnInsert", Document.class))
+            .append("refs", 1));
+  }
+}
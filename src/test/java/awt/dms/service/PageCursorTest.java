@@ -0,0 +1,39 @@
+package awt.dms.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.util.Date;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+class PageCursorTest {
+
+  @Test
+  void given_listed_file_when_encoding_then_decode_same_position() {
+    final ObjectId objectId = new ObjectId();
+    final PageCursor cursor = PageCursor.of(new Document("_id", objectId)
+        .append(SearchFilter.LENGTH_FIELD, 42L), SearchFilter.LENGTH_FIELD);
+
+    final String encoded = cursor.encode();
+
+    assertThat(encoded).matches("[A-Za-z0-9_-]+");
+    assertThat(PageCursor.decode(encoded)).isEqualTo(cursor);
+    assertThat(cursor.sortValue()).isEqualTo(42L);
+  }
+
+  @Test
+  void given_upload_date_cursor_when_comparing_then_return_date() {
+    final Date uploadDate = new Date();
+
+    assertThat(new PageCursor(SearchFilter.UPLOAD_DATE_FIELD, uploadDate.getTime(),
+        new ObjectId()).sortValue()).isEqualTo(uploadDate);
+  }
+
+  @Test
+  void given_garbage_when_decoding_then_throw() {
+    assertThatIllegalArgumentException().isThrownBy(() -> PageCursor.decode("not a cursor"));
+    assertThatIllegalArgumentException().isThrownBy(() -> PageCursor.decode("AAAA"));
+  }
+}
@@ -0,0 +1,40 @@
+package awt.dms.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class QueryPlansTest {
+
+  @Test
+  void given_nested_index_scan_when_reading_stages_then_return_all_stages() {
+    final Document explain = new Document("queryPlanner", new Document("winningPlan",
+        new Document("queryPlan", new Document("stage", "LIMIT")
+            .append("inputStage", new Document("stage", "FETCH")
+                .append("inputStage", new Document("stage", "IXSCAN"))))));
+
+    assertThat(QueryPlans.winningStages(explain)).containsExactly("LIMIT", "FETCH", "IXSCAN");
+    assertThat(QueryPlans.isCollectionScan(explain)).isFalse();
+  }
+
+  @Test
+  void given_collection_scan_in_or_branch_when_checking_then_return_true() {
+    final Document explain = new Document("queryPlanner", new Document("winningPlan",
+        new Document("stage", "SUBPLAN").append("inputStage", new Document("stage", "OR")
+            .append("inputStages", List.of(new Document("stage", "IXSCAN"),
+                new Document("stage", "COLLSCAN"))))));
+
+    assertThat(QueryPlans.isCollectionScan(explain)).isTrue();
+  }
+
+  @Test
+  void given_wildcard_index_scan_when_reading_fields_then_return_field_without_path() {
+    final Document explain = new Document("queryPlanner", new Document("winningPlan",
+        new Document("stage", "FETCH").append("inputStage", new Document("stage", "IXSCAN")
+            .append("keyPattern", new Document("$_path", 1).append("metadata.tag", 1)))));
+
+    assertThat(QueryPlans.scannedIndexFields(explain)).containsExactly("metadata.tag");
+  }
+}
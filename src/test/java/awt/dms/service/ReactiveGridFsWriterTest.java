@@ -0,0 +1,147 @@
+package awt.dms.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.ChunkProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.util.MimeType;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveGridFsWriterTest {
+
+  private static final ChunkProperties CHUNK_PROPERTIES = new ChunkProperties(
+      DataSize.ofKilobytes(255), DataSize.ofMegabytes(4), 128,
+      List.of(MimeType.valueOf("video/*")), DataSize.ofMegabytes(8), 4, DataSize.ofMegabytes(4));
+
+  @Mock
+  private ReactiveMongoOperations reactiveMongoOperationsMock;
+
+  @Mock
+  private MongoCollection<Document> chunksMock;
+
+  @Mock
+  private GridFsWriter gridFsWriterMock;
+
+  @Captor
+  private ArgumentCaptor<Document> documentCaptor;
+
+  private final GridFSFile storedFile = new GridFSFile(new BsonObjectId(), "filename", 10,
+      GridFsWriter.DEFAULT_CHUNK_SIZE, new Date(), new Document());
+
+  private ReactiveGridFsWriter reactiveGridFsWriter;
+
+  @BeforeEach
+  void setUp() {
+    when(this.reactiveMongoOperationsMock.getCollection(GridFsCollections.CHUNKS))
+        .thenReturn(Mono.just(this.chunksMock));
+    this.reactiveGridFsWriter = new ReactiveGridFsWriter(this.reactiveMongoOperationsMock,
+        this.gridFsWriterMock, CHUNK_PROPERTIES);
+  }
+
+  @Test
+  void given_buffers_larger_than_chunk_when_writing_then_insert_chunks_and_commit() {
+    final byte[] content = new byte[GridFsWriter.DEFAULT_CHUNK_SIZE + 10];
+    when(this.chunksMock.insertOne(any(Document.class))).thenReturn(Mono.empty());
+    when(this.gridFsWriterMock.commit(any(ObjectId.class), eq("filename"), eq("text/plain"),
+        any(Document.class), isNull(), anyString(), eq((long) content.length),
+        eq((long) content.length), eq(GridFsWriter.DEFAULT_CHUNK_SIZE), any()))
+        .thenReturn(this.storedFile);
+
+    final GridFSFile file = this.reactiveGridFsWriter.write(
+            Flux.just(buffer(new byte[100]), buffer(new byte[content.length - 100])), -1,
+            content.length, "filename", "text/plain", new Document(), null, stored -> {
+            })
+        .block();
+
+    assertThat(file).isSameAs(this.storedFile);
+    verify(this.chunksMock, times(2)).insertOne(this.documentCaptor.capture());
+    final List<Document> chunks = this.documentCaptor.getAllValues();
+    assertThat(chunks).extracting(chunk -> chunk.getInteger("n")).containsExactly(0, 1);
+    assertThat(chunks).extracting(chunk -> chunk.get("data", Binary.class).length())
+        .containsExactly(GridFsWriter.DEFAULT_CHUNK_SIZE, 10);
+  }
+
+  @Test
+  void given_declared_length_when_writing_then_size_chunks_by_it() {
+    final byte[] content = new byte[1000];
+    when(this.chunksMock.insertOne(any(Document.class))).thenReturn(Mono.empty());
+    when(this.gridFsWriterMock.commit(any(ObjectId.class), anyString(), anyString(),
+        any(Document.class), isNull(), anyString(), anyLong(), anyLong(),
+        eq(content.length), any())).thenReturn(this.storedFile);
+
+    assertThat(this.reactiveGridFsWriter.write(Flux.just(buffer(content)), content.length,
+            content.length, "filename", "text/plain", new Document(), null, stored -> {
+            })
+        .block()).isSameAs(this.storedFile);
+    verify(this.chunksMock).insertOne(any(Document.class));
+  }
+
+  @Test
+  void given_content_when_writing_then_commit_sha256() {
+    when(this.chunksMock.insertOne(any(Document.class))).thenReturn(Mono.empty());
+    when(this.gridFsWriterMock.commit(any(ObjectId.class), anyString(), anyString(),
+        any(Document.class), isNull(),
+        eq("9c6609fc5111405ea3f5bb3d1f6b5a5efd19a0cec53d85893fd96d265439cd5b"), anyLong(),
+        anyLong(), anyInt(), any())).thenReturn(this.storedFile);
+
+    assertThat(this.reactiveGridFsWriter.write(
+            Flux.just(buffer("Some ".getBytes(UTF_8)), buffer("content".getBytes(UTF_8))), -1,
+            100, "filename", "text/plain", new Document(), null, stored -> {
+            })
+        .block()).isSameAs(this.storedFile);
+  }
+
+  @Test
+  void given_content_over_max_size_when_writing_then_fail_and_delete_chunks() {
+    when(this.chunksMock.deleteMany(any(Bson.class))).thenReturn(Mono.empty());
+    final Consumer<GridFSFile> inTransaction = stored -> {
+    };
+
+    assertThatThrownBy(() -> this.reactiveGridFsWriter.write(
+            Flux.just(buffer(new byte[10]), buffer(new byte[10])), -1, 15, "filename",
+            "text/plain", new Document(), null, inTransaction)
+        .block())
+        .isInstanceOf(UploadTooLargeException.class);
+    verify(this.chunksMock).deleteMany(any(Bson.class));
+    verify(this.gridFsWriterMock, never()).commit(any(), any(), any(), any(), any(), any(),
+        anyLong(), anyLong(), anyInt(), any());
+  }
+
+  private static DataBuffer buffer(final byte[] bytes) {
+    return DefaultDataBufferFactory.sharedInstance.wrap(bytes);
+  }
+}
@@ -0,0 +1,164 @@
+package awt.dms.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.PartitionProperties;
+import awt.dms.config.PartitionProperties.Strategy;
+import awt.dms.config.RenditionProperties;
+import awt.dms.service.RenditionService.Rendition;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.imageio.ImageIO;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.MimeType;
+import org.springframework.util.unit.DataSize;
+
+@ExtendWith(MockitoExtension.class)
+class RenditionServiceTest {
+
+  private static final ObjectId OBJECT_ID = new ObjectId();
+  private static final GridFSFile TEXT_FILE = new GridFSFile(new BsonObjectId(OBJECT_ID),
+      "notes.txt", 11, 255 * 1024, new Date(), new Document("_contentType", "text/plain"));
+
+  private static final PartitionProperties PARTITION_PROPERTIES = new PartitionProperties(
+      Strategy.EXPLICIT, List.of(), Map.of(), Duration.ofSeconds(10), 1000, 100,
+      Duration.ofHours(1));
+
+  @Mock
+  private GridFsTemplate gridFsTemplateMock;
+
+  @Mock
+  private MongoOperations mongoOperationsMock;
+
+  @Mock
+  private DmsService dmsServiceMock;
+
+  @Mock
+  private GridFsWriter gridFsWriterMock;
+
+  @Mock
+  private BlobStore blobStoreMock;
+
+  @Captor
+  private ArgumentCaptor<Document> metadataCaptor;
+
+  private RenditionService renditionService;
+
+  @BeforeEach
+  void setUp() {
+    when(this.blobStoreMock.tier()).thenReturn(GridFsBlobStore.TIER);
+    this.renditionService = new RenditionService(
+        new DocumentPartitions(this.gridFsTemplateMock, null, this.mongoOperationsMock,
+            PARTITION_PROPERTIES), this.mongoOperationsMock, this.dmsServiceMock,
+        this.gridFsWriterMock, new BlobStores(List.of(this.blobStoreMock)),
+        TransactionOperations.withoutTransaction(),
+        new RenditionProperties(true, 256, 500, DataSize.ofMegabytes(32),
+            List.of(MimeType.valueOf("text/*"))),
+        new SimpleMeterRegistry());
+  }
+
+  @Test
+  void given_missing_document_when_getting_rendition_then_generate_nothing() throws IOException {
+    when(this.dmsServiceMock.findFile(OBJECT_ID)).thenReturn(Optional.empty());
+
+    assertThat(this.renditionService.get(OBJECT_ID, RenditionKind.EXCERPT)).isEmpty();
+    verifyNoInteractions(this.gridFsTemplateMock, this.gridFsWriterMock);
+  }
+
+  @Test
+  void given_stored_rendition_when_getting_it_then_read_without_generating() throws IOException {
+    final GridFSFile rendition = new GridFSFile(new BsonObjectId(new ObjectId()),
+        "notes.txt.excerpt.txt", 5, 5, new Date(), new Document("_sha256", "def"));
+    when(this.dmsServiceMock.findFile(OBJECT_ID)).thenReturn(Optional.of(TEXT_FILE));
+    when(this.gridFsTemplateMock.findOne(any(Query.class))).thenReturn(rendition);
+    when(this.blobStoreMock.open(rendition)).thenReturn(
+        new ByteArrayInputStream("Hello".getBytes(UTF_8)));
+
+    final Optional<Rendition> result = this.renditionService.get(OBJECT_ID,
+        RenditionKind.EXCERPT);
+
+    assertThat(result).get().extracting(Rendition::contentHash).isEqualTo("def");
+    assertThat(result.get().content()).asString(UTF_8).isEqualTo("Hello");
+    verify(this.gridFsWriterMock, never()).write(any(), anyLong(), any(), any(), any(), any(),
+        any());
+  }
+
+  @Test
+  void given_uploaded_text_when_generating_all_then_store_excerpt_linked_to_original()
+      throws IOException {
+    final GridFSFile excerpt = new GridFSFile(new BsonObjectId(new ObjectId()),
+        "notes.txt.excerpt.txt", 11, 11, new Date(), new Document());
+    when(this.dmsServiceMock.findFile(OBJECT_ID)).thenReturn(Optional.of(TEXT_FILE));
+    when(this.blobStoreMock.open(TEXT_FILE)).thenReturn(
+        new ByteArrayInputStream("Hello\n\nworld".getBytes(UTF_8)));
+    when(this.gridFsWriterMock.write(any(), eq(11L), eq("notes.txt.excerpt.txt"),
+        eq(RenditionKind.EXCERPT.contentType()), this.metadataCaptor.capture(), isNull(), any()))
+        .thenReturn(excerpt);
+    when(this.mongoOperationsMock.exists(any(Query.class), eq(GridFsCollections.FILES)))
+        .thenReturn(true);
+
+    this.renditionService.generateAll(OBJECT_ID);
+
+    assertThat(this.metadataCaptor.getValue())
+        .containsEntry(DocumentMetadata.RENDITION_OF_KEY, OBJECT_ID)
+        .containsEntry(DocumentMetadata.RENDITION_KEY, "excerpt");
+  }
+
+  @Test
+  void given_image_when_rendering_thumbnail_then_fit_longer_side() throws IOException {
+    final ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(1200, 600, BufferedImage.TYPE_INT_RGB), "png", png);
+
+    final byte[] thumbnail = RenditionService.thumbnail(
+        new ByteArrayInputStream(png.toByteArray()), 256);
+
+    final BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+    assertThat(image.getWidth()).isEqualTo(256);
+    assertThat(image.getHeight()).isEqualTo(128);
+  }
+
+  @Test
+  void given_no_image_when_rendering_thumbnail_then_return_null() throws IOException {
+    assertThat(RenditionService.thumbnail(
+        new ByteArrayInputStream("text".getBytes(UTF_8)), 256)).isNull();
+  }
+
+  @Test
+  void given_long_text_when_taking_excerpt_then_cut_at_word_with_ellipsis() throws IOException {
+    final byte[] excerpt = RenditionService.excerpt(
+        new ByteArrayInputStream("Lorem  ipsum\n dolor sit amet".getBytes(UTF_8)), UTF_8, 15);
+
+    assertThat(excerpt).asString(UTF_8).isEqualTo("Lorem ipsum…");
+  }
+}
@@ -0,0 +1,105 @@
+package awt.dms.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import awt.dms.config.QuotaProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.util.unit.DataSize;
+
+@ExtendWith(MockitoExtension.class)
+class StorageUsageTest {
+
+  private static final QuotaProperties QUOTA_PROPERTIES = new QuotaProperties(true,
+      DataSize.ofBytes(100), 10);
+
+  @Mock
+  private MongoOperations mongoOperationsMock;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private StorageUsage storageUsage;
+
+  @BeforeEach
+  void setUp() {
+    this.storageUsage = new StorageUsage(this.mongoOperationsMock, QUOTA_PROPERTIES,
+        this.meterRegistry);
+  }
+
+  @Test
+  void given_declared_length_beyond_quota_when_checking_then_reject_before_upload() {
+    when(this.mongoOperationsMock.findById("someone", Document.class, StorageUsage.USAGE))
+        .thenReturn(usage(90, 1));
+
+    assertThatExceptionOfType(QuotaExceededException.class).isThrownBy(() ->
+        this.storageUsage.checkQuota(Map.of("user", "someone"), 20));
+    assertThat(this.meterRegistry.counter("dms.quotas.rejected").count()).isEqualTo(1);
+  }
+
+  @Test
+  void given_no_user_when_checking_then_allow_without_reading_usage() {
+    this.storageUsage.checkQuota(Map.of(), 1000);
+
+    verifyNoInteractions(this.mongoOperationsMock);
+  }
+
+  @Test
+  void given_stored_file_beyond_quota_when_recording_then_reject_in_transaction() {
+    final GridFSFile file = new GridFSFile(new BsonObjectId(new ObjectId()), "file.txt", 30,
+        GridFsWriter.DEFAULT_CHUNK_SIZE, new Date(), new Document("user", "someone"));
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(UpdateDefinition.class),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(StorageUsage.USAGE)))
+        .thenReturn(usage(110, 2));
+
+    assertThatExceptionOfType(QuotaExceededException.class).isThrownBy(() ->
+        this.storageUsage.recordUpload(file));
+  }
+
+  @Test
+  void given_deleted_files_when_subtracting_then_decrement_once_per_user() {
+    when(this.mongoOperationsMock.findAndModify(any(Query.class), any(UpdateDefinition.class),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(StorageUsage.USAGE)))
+        .thenReturn(usage(0, 0));
+
+    this.storageUsage.subtract(List.of(file("someone", 10), file("someone", 20),
+        file(null, 40)));
+
+    verify(this.mongoOperationsMock).findAndModify(
+        argThat(query -> "someone".equals(query.getQueryObject().get("_id"))),
+        argThat(update -> update.getUpdateObject().get("$inc", Document.class)
+            .equals(new Document("bytes", -30L).append("files", -2L))),
+        any(FindAndModifyOptions.class), eq(Document.class), eq(StorageUsage.USAGE));
+  }
+
+  private static Document usage(final long bytes, final long files) {
+    return new Document("_id", "someone").append("bytes", bytes).append("files", files);
+  }
+
+  private static Document file(final String user, final long length) {
+    return new Document("_id", new ObjectId()).append("length", length)
+        .append("metadata", user != null ? new Document("user", user) : new Document());
+  }
+}
@@ -0,0 +1,61 @@
+package awt.dms.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import awt.dms.service.TransferMetrics.Direction;
+import awt.dms.service.TransferMetrics.Transfer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+class TransferMetricsTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final TransferMetrics transferMetrics = new TransferMetrics(this.meterRegistry);
+
+  @Test
+  void given_running_transfer_when_loading_then_count_it_as_active() throws IOException {
+    try (Transfer transfer = this.transferMetrics.start(Direction.UPLOAD, "text/plain")) {
+      final InputStream in = transfer.count(new ByteArrayInputStream(new byte[10]));
+      in.readAllBytes();
+
+      assertThat(this.transferMetrics.load(Direction.UPLOAD).active()).isEqualTo(1);
+      assertThat(this.transferMetrics.load(Direction.UPLOAD).activeBytes()).isEqualTo(10);
+      assertThat(this.transferMetrics.load(Direction.DOWNLOAD).active()).isZero();
+    }
+  }
+
+  @Test
+  void given_closed_transfer_when_loading_then_record_bytes_per_content_type() throws IOException {
+    try (Transfer transfer = this.transferMetrics.start(Direction.DOWNLOAD,
+        "Text/Plain; charset=UTF-8")) {
+      transfer.count(new ByteArrayOutputStream()).write(new byte[5]);
+      transfer.add(3);
+    }
+
+    assertThat(this.transferMetrics.load(Direction.DOWNLOAD).active()).isZero();
+    assertThat(this.transferMetrics.load(Direction.DOWNLOAD).completed()).isEqualTo(1);
+    assertThat(this.meterRegistry.get("dms.transfer.bytes")
+        .tag("direction", "download")
+        .tag(TransferMetrics.CONTENT_TYPE_TAG, "text/plain")
+        .summary().totalAmount()).isEqualTo(8);
+  }
+
+  @Test
+  void given_buffers_when_counting_then_add_their_bytes() {
+    try (Transfer transfer = this.transferMetrics.start(Direction.DOWNLOAD, null)) {
+      transfer.count(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(new byte[4]),
+              DefaultDataBufferFactory.sharedInstance.wrap(new byte[6])))
+          .blockLast();
+
+      assertThat(this.transferMetrics.load(Direction.DOWNLOAD).activeBytes()).isEqualTo(10);
+    }
+  }
+}
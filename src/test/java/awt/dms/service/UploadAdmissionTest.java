@@ -0,0 +1,69 @@
+package awt.dms.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import awt.dms.config.AdmissionProperties;
+import awt.dms.service.UploadAdmission.Permit;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+class UploadAdmissionTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  void given_user_slots_taken_when_admitting_then_shed_after_max_wait() {
+    final UploadAdmission uploadAdmission = admission(DataSize.ofBytes(0));
+    uploadAdmission.admit("someone", -1);
+
+    assertThatExceptionOfType(UploadRejectedException.class)
+        .isThrownBy(() -> uploadAdmission.admit("someone", -1))
+        .satisfies(e -> assertThat(e.retryAfter()).isEqualTo(Duration.ofSeconds(1)));
+    assertThat(this.meterRegistry.counter("dms.admission.rejected", "reason", "user.concurrency")
+        .count()).isEqualTo(1);
+    assertThat(uploadAdmission.admit("someone else", -1)).isNotNull();
+  }
+
+  @Test
+  void given_permit_closed_when_admitting_then_reuse_slot() {
+    final UploadAdmission uploadAdmission = admission(DataSize.ofBytes(0));
+    final Permit permit = uploadAdmission.admit("someone", -1);
+    permit.close();
+    permit.close();
+
+    uploadAdmission.admit("someone", -1);
+
+    assertThat(uploadAdmission.state().active()).isEqualTo(1);
+  }
+
+  @Test
+  void given_byte_budget_spent_when_admitting_then_shed_until_refilled() {
+    final UploadAdmission uploadAdmission = admission(DataSize.ofBytes(10));
+    uploadAdmission.admit("someone", 100).close();
+
+    assertThatExceptionOfType(UploadRejectedException.class)
+        .isThrownBy(() -> uploadAdmission.admit("someone else", 1))
+        .satisfies(e -> assertThat(e.retryAfter()).isEqualTo(Duration.ofSeconds(9)));
+  }
+
+  @Test
+  void given_byte_rate_when_admitting_without_length_then_require_it() {
+    final UploadAdmission uploadAdmission = admission(DataSize.ofBytes(10));
+
+    assertThatExceptionOfType(LengthRequiredException.class)
+        .isThrownBy(() -> uploadAdmission.admit("someone", -1));
+    assertThat(this.meterRegistry.counter("dms.admission.rejected", "reason", "length")
+        .count()).isEqualTo(1);
+    assertThat(uploadAdmission.state().active()).isZero();
+  }
+
+  private UploadAdmission admission(final DataSize bytesPerSecond) {
+    return new UploadAdmission(new AdmissionProperties(true, 2, 1, 1, Duration.ZERO,
+        bytesPerSecond, DataSize.ofBytes(0), DataSize.ofBytes(10), false,
+        Duration.ofMillis(200), 1), this.meterRegistry);
+  }
+}